@@ -0,0 +1,146 @@
+package org.thoughtcrime.securesms.contacts.sync
+
+import android.net.Uri
+import androidx.core.content.contentValuesOf
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.contacts.SystemContactsRepository.ContactDetails
+import org.signal.contacts.SystemContactsRepository.ContactIterator
+import org.signal.contacts.SystemContactsRepository.ContactPhoneDetails
+import org.thoughtcrime.securesms.database.RecipientTable
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
+import org.thoughtcrime.securesms.keyvalue.SignalStore
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.SignalDatabaseRule
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+@Suppress("ClassName")
+@RunWith(AndroidJUnit4::class)
+class ContactDiscoveryTest_systemContacts {
+
+  @get:Rule
+  val databaseRule = SignalDatabaseRule()
+
+  private lateinit var alice: Contact
+  private lateinit var bob: Contact
+
+  @Before
+  fun setUp() {
+    SignalDatabase.systemContactHashes.clearAll()
+    SignalStore.misc().lastFullSystemContactSyncTime = 0
+
+    alice = Contact.create("Alice")
+    bob = Contact.create("Bob")
+  }
+
+  @Test
+  fun givenNoHashes_whenISync_thenIExpectEveryContactToBeWrittenAndHashed() {
+    sync(alice.details(), bob.details())
+
+    assertEquals("Alice", alice.systemDisplayName())
+    assertEquals("Bob", bob.systemDisplayName())
+    assertEquals(setOf(alice.contactUri, bob.contactUri), SignalDatabase.systemContactHashes.getAll().keys)
+  }
+
+  @Test
+  fun givenAnUnchangedContact_whenISync_thenIExpectItToBeSkipped() {
+    sync(alice.details(), bob.details())
+    alice.setSystemDisplayName("Tampered")
+
+    sync(alice.details(), bob.details())
+
+    assertEquals("Tampered", alice.systemDisplayName())
+  }
+
+  @Test
+  fun givenAChangedContact_whenISync_thenIExpectOnlyItToBeUpdated() {
+    sync(alice.details(), bob.details())
+    val previousHash = SignalDatabase.systemContactHashes.getAll()[alice.contactUri]
+    bob.setSystemDisplayName("Tampered")
+
+    sync(alice.details(name = "Alicia"), bob.details())
+
+    assertEquals("Alicia", alice.systemDisplayName())
+    assertEquals("Tampered", bob.systemDisplayName())
+    assertNotEquals(previousHash, SignalDatabase.systemContactHashes.getAll()[alice.contactUri])
+  }
+
+  @Test
+  fun givenARemovedContact_whenISync_thenIExpectItsInfoToBeCleared() {
+    sync(alice.details(), bob.details())
+
+    sync(alice.details())
+
+    assertEquals("Alice", alice.systemDisplayName())
+    assertNull(bob.systemDisplayName())
+    assertNull(SignalDatabase.recipients.getRecord(bob.id).systemContactUri)
+    assertEquals(setOf(alice.contactUri), SignalDatabase.systemContactHashes.getAll().keys)
+  }
+
+  @Test
+  fun givenAnOldFullSync_whenISync_thenIExpectEveryContactToBeWritten() {
+    sync(alice.details())
+    alice.setSystemDisplayName("Tampered")
+    SignalStore.misc().lastFullSystemContactSyncTime = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(8)
+
+    sync(alice.details())
+
+    assertEquals("Alice", alice.systemDisplayName())
+  }
+
+  private fun sync(vararg contacts: ContactDetails) {
+    ContactDiscovery.syncRecipientsWithSystemContacts(
+      context = ApplicationDependencies.getApplication(),
+      rewrites = emptyMap(),
+      contactsProvider = { ListContactIterator(contacts.toList()) },
+      clearInfoForMissingContacts = true
+    )
+  }
+
+  private class Contact(val id: RecipientId, val name: String, val e164: String, val contactUri: String) {
+
+    fun details(name: String = this.name): ContactDetails {
+      return ContactDetails(
+        givenName = name,
+        familyName = null,
+        numbers = listOf(
+          ContactPhoneDetails(
+            contactUri = Uri.parse(contactUri),
+            displayName = name,
+            photoUri = null,
+            number = e164,
+            type = 2,
+            label = null
+          )
+        )
+      )
+    }
+
+    fun systemDisplayName(): String? {
+      return SignalDatabase.recipients.getRecord(id).systemDisplayName
+    }
+
+    fun setSystemDisplayName(name: String) {
+      SignalDatabase.rawDatabase.update(RecipientTable.TABLE_NAME, contentValuesOf(RecipientTable.SYSTEM_JOINED_NAME to name), "${RecipientTable.ID} = ?", arrayOf(id.serialize()))
+    }
+
+    companion object {
+      fun create(name: String): Contact {
+        val e164 = "+1555" + Random.nextInt(1_000_000, 9_999_999)
+        val id = SignalDatabase.recipients.getOrInsertFromE164(e164)
+
+        return Contact(id, name, e164, "content://com.android.contacts/contacts/lookup/$name${Random.nextLong()}")
+      }
+    }
+  }
+
+  private class ListContactIterator(contacts: List<ContactDetails>) : ContactIterator, Iterator<ContactDetails> by contacts.iterator()
+}
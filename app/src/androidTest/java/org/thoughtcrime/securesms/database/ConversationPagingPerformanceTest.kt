@@ -0,0 +1,103 @@
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.MessageTable.ConversationAnchor
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+
+/**
+ * Compares how long it takes to load a page of a large conversation with an offset against loading it relative to the message before it,
+ * at increasing depths into the conversation.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+@RunWith(AndroidJUnit4::class)
+class ConversationPagingPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(ConversationPagingPerformanceTest::class.java)
+
+    private const val MESSAGE_COUNT = 110_000
+    private const val PAGE_SIZE = 25
+    private const val ITERATIONS = 20
+
+    private val OFFSETS = listOf(0, 10_000, 100_000)
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = 1)
+
+  @Test
+  fun pageLoadLatency() {
+    val recipient = Recipient.resolved(harness.others[0])
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+
+    insertMessages(threadId, recipient)
+
+    for (offset in OFFSETS) {
+      val anchor: ConversationAnchor? = if (offset > 0) getAnchor(threadId, offset - 1) else null
+
+      val offsetNanos = timeIterations {
+        SignalDatabase.messages.getConversation(threadId, offset.toLong(), PAGE_SIZE.toLong()).use { it.moveToLast() }
+      }
+
+      val keysetNanos = if (anchor != null) {
+        timeIterations {
+          SignalDatabase.messages.getConversationAfter(threadId, anchor, 0, PAGE_SIZE.toLong()).use { it.moveToLast() }
+        }
+      } else {
+        offsetNanos
+      }
+
+      Log.i(TAG, "[offset $offset] offset: ${offsetNanos / ITERATIONS / 1000} us/page, keyset: ${keysetNanos / ITERATIONS / 1000} us/page")
+    }
+  }
+
+  private fun insertMessages(threadId: Long, recipient: Recipient) {
+    val startTime = System.currentTimeMillis()
+
+    SignalDatabase.rawDatabase.execSQL(
+      """
+        INSERT INTO ${MessageTable.TABLE_NAME} (
+          ${MessageTable.DATE_SENT},
+          ${MessageTable.DATE_RECEIVED},
+          ${MessageTable.THREAD_ID},
+          ${MessageTable.FROM_RECIPIENT_ID},
+          ${MessageTable.TO_RECIPIENT_ID},
+          ${MessageTable.TYPE},
+          ${MessageTable.BODY}
+        )
+        WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < ?)
+        SELECT n, n, ?, ?, ?, ?, 'message ' || n FROM seq
+      """,
+      arrayOf(
+        MESSAGE_COUNT,
+        threadId,
+        recipient.id.toLong(),
+        harness.self.id.toLong(),
+        MessageTypes.BASE_INBOX_TYPE or MessageTypes.SECURE_MESSAGE_BIT or MessageTypes.PUSH_MESSAGE_BIT
+      )
+    )
+
+    Log.i(TAG, "Inserted $MESSAGE_COUNT messages in ${System.currentTimeMillis() - startTime} ms")
+  }
+
+  private fun getAnchor(threadId: Long, position: Int): ConversationAnchor {
+    return MessageTable.mmsReaderFor(SignalDatabase.messages.getConversation(threadId, position.toLong(), 1)).use { reader ->
+      val record = reader.getNext()!!
+      ConversationAnchor(record.dateReceived, record.id)
+    }
+  }
+
+  private inline fun timeIterations(block: () -> Unit): Long {
+    block()
+
+    val startTime = System.nanoTime()
+    repeat(ITERATIONS) { block() }
+    return System.nanoTime() - startTime
+  }
+}
@@ -0,0 +1,110 @@
+package org.thoughtcrime.securesms.database
+
+import android.os.SystemClock
+import com.google.protobuf.ByteString
+import org.signal.core.util.tracing.TraceProtos
+import org.signal.core.util.tracing.TraceProtos.TracePacket
+import org.signal.core.util.tracing.TraceProtos.TrackDescriptor
+import org.signal.core.util.tracing.TraceProtos.TrackEvent
+import org.signal.core.util.tracing.Tracer
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * How [Tracer] recorded events before it moved to a preallocated buffer, with a [TracePacket] built for every event as it happened. Only
+ * kept around so [SQLiteDatabaseTracingPerformanceTest] has something to compare against.
+ */
+class LegacyTracer(private val maxBufferSize: Int = 3_500) {
+
+  companion object {
+    private const val TRUSTED_SEQUENCE_ID = 1
+    private val SYNCHRONIZATION_MARKER = Tracer.toByteArray(UUID.fromString("82477a76-b28d-42ba-81dc-33326d57a079"))
+    private val SYNCHRONIZATION_INTERVAL = TimeUnit.SECONDS.toNanos(3)
+  }
+
+  private val threadPackets: MutableMap<Long, TracePacket> = ConcurrentHashMap()
+  private val eventPackets: ConcurrentLinkedQueue<TracePacket> = ConcurrentLinkedQueue()
+  private val eventCount = AtomicInteger(0)
+
+  private var lastSyncTime = 0L
+
+  fun start(methodName: String, trackId: Long, key: String, value: String?) {
+    start(methodName, trackId, mapOf(key to value))
+  }
+
+  fun start(methodName: String, values: Map<String, String?>?) {
+    start(methodName, Thread.currentThread().id, values)
+  }
+
+  fun start(methodName: String, trackId: Long, values: Map<String, String?>?) {
+    val time = SystemClock.elapsedRealtimeNanos()
+
+    if (time - lastSyncTime > SYNCHRONIZATION_INTERVAL) {
+      addPacket(forSynchronization(time))
+      lastSyncTime = time
+    }
+
+    if (!threadPackets.containsKey(trackId)) {
+      threadPackets[trackId] = forTrack(trackId)
+    }
+
+    addPacket(forMethodStart(methodName, time, trackId, values))
+  }
+
+  fun end(methodName: String, trackId: Long = Thread.currentThread().id) {
+    addPacket(forMethodEnd(methodName, SystemClock.elapsedRealtimeNanos(), trackId))
+  }
+
+  private fun addPacket(packet: TracePacket) {
+    eventPackets.add(packet)
+
+    var size = eventCount.incrementAndGet()
+    while (size > maxBufferSize) {
+      eventPackets.poll()
+      size = eventCount.decrementAndGet()
+    }
+  }
+
+  private fun forTrack(id: Long): TracePacket {
+    return TracePacket.newBuilder()
+      .setTrustedPacketSequenceId(TRUSTED_SEQUENCE_ID)
+      .setTrackDescriptor(TrackDescriptor.newBuilder().setUuid(id).setName(Thread.currentThread().name))
+      .build()
+  }
+
+  private fun forMethodStart(name: String, time: Long, trackId: Long, values: Map<String, String?>?): TracePacket {
+    val event = TrackEvent.newBuilder()
+      .setTrackUuid(trackId)
+      .setName(name)
+      .setType(TrackEvent.Type.TYPE_SLICE_BEGIN)
+
+    values?.forEach { (key, value) ->
+      event.addDebugAnnotations(TraceProtos.DebugAnnotation.newBuilder().setName(key).setStringValue(value ?: ""))
+    }
+
+    return TracePacket.newBuilder()
+      .setTrustedPacketSequenceId(TRUSTED_SEQUENCE_ID)
+      .setTimestamp(time)
+      .setTrackEvent(event)
+      .build()
+  }
+
+  private fun forMethodEnd(name: String, time: Long, trackId: Long): TracePacket {
+    return TracePacket.newBuilder()
+      .setTrustedPacketSequenceId(TRUSTED_SEQUENCE_ID)
+      .setTimestamp(time)
+      .setTrackEvent(TrackEvent.newBuilder().setTrackUuid(trackId).setName(name).setType(TrackEvent.Type.TYPE_SLICE_END))
+      .build()
+  }
+
+  private fun forSynchronization(time: Long): TracePacket {
+    return TracePacket.newBuilder()
+      .setTrustedPacketSequenceId(TRUSTED_SEQUENCE_ID)
+      .setTimestamp(time)
+      .setSynchronizationMarker(ByteString.copyFrom(SYNCHRONIZATION_MARKER))
+      .build()
+  }
+}
@@ -338,6 +338,48 @@ class MmsTableTest_stories {
     assertFalse(result)
   }
 
+  @Test
+  fun givenGroupStoriesWithAndWithoutAReactionFromSelf_whenIGetGroupStoriesWithSelfReplyOrReaction_thenIExpectOnlyTheReactedStory() {
+    // GIVEN
+    val reactedStoryId = MmsHelper.insert(
+      recipient = myStory,
+      sentTimeMillis = 200,
+      storyType = StoryType.STORY_WITH_REPLIES
+    )
+
+    val otherStoryId = MmsHelper.insert(
+      recipient = myStory,
+      sentTimeMillis = 201,
+      storyType = StoryType.STORY_WITH_REPLIES
+    )
+
+    MmsHelper.insert(
+      recipient = myStory,
+      sentTimeMillis = 202,
+      storyType = StoryType.NONE,
+      parentStoryId = ParentStoryId.GroupReply(reactedStoryId),
+      isStoryReaction = true
+    )
+
+    MmsHelper.insert(
+      IncomingMediaMessage(
+        from = myStory.id,
+        sentTimeMillis = 203,
+        serverTimeMillis = 203,
+        receivedTimeMillis = 204,
+        parentStoryId = ParentStoryId.GroupReply(otherStoryId)
+      ),
+      SignalDatabase.threads.getOrCreateThreadIdFor(myStory, ThreadTable.DistributionTypes.DEFAULT)
+    )
+
+    // WHEN
+    val result = mms.getGroupStoriesWithSelfReplyOrReaction(listOf(reactedStoryId, otherStoryId))
+
+    // THEN
+    assertEquals(setOf(reactedStoryId), result)
+    assertEquals(result.contains(otherStoryId), mms.hasGroupReplyOrReactionInStory(otherStoryId))
+  }
+
   @Test
   fun givenNotViewedOnboardingAndOnlyStoryIsOnboardingAndAdded2DaysAgo_whenIGetOldestStoryTimestamp_thenIExpectNull() {
     // GIVEN
@@ -0,0 +1,59 @@
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.GroupTestingUtils
+import org.thoughtcrime.securesms.testing.GroupTestingUtils.asMember
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.util.UUID
+
+/**
+ * Measures how quickly we can process read receipts when every member of a large group reads a burst of messages we sent to it.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+@RunWith(AndroidJUnit4::class)
+class ReceiptPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(ReceiptPerformanceTest::class.java)
+
+    private const val MEMBER_COUNT = 1000
+    private const val BURST_SIZE = 20
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = 0)
+
+  @Test
+  fun groupReadReceipts() {
+    val members: List<RecipientId> = (1..MEMBER_COUNT).map { SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())) }
+    val group = GroupTestingUtils.insertGroup(0, harness.self.asMember(), *members.map { it.asMember() }.toTypedArray())
+    val groupRecipient = Recipient.resolved(group.recipientId)
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(groupRecipient)
+
+    val startTimestamp = System.currentTimeMillis()
+    val targetTimestamps: List<Long> = (0 until BURST_SIZE).map { startTimestamp + it }
+
+    for (timestamp in targetTimestamps) {
+      MmsHelper.insert(recipient = groupRecipient, sentTimeMillis = timestamp, threadId = threadId)
+    }
+
+    val startTime = System.nanoTime()
+
+    for ((i, member) in members.withIndex()) {
+      SignalDatabase.messages.incrementReadReceiptCounts(targetTimestamps, member, startTimestamp + BURST_SIZE + i)
+    }
+
+    val elapsedNanos = System.nanoTime() - startTime
+    val receiptsPerSecond = MEMBER_COUNT * 1_000_000_000L / elapsedNanos
+
+    Log.i(TAG, "[$MEMBER_COUNT members, $BURST_SIZE messages] ${elapsedNanos / 1_000_000} ms, $receiptsPerSecond receipts/sec, ${receiptsPerSecond * BURST_SIZE} message receipts/sec")
+  }
+}
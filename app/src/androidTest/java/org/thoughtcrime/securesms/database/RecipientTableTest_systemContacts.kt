@@ -0,0 +1,83 @@
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.thoughtcrime.securesms.profiles.ProfileName
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.SignalDatabaseRule
+import kotlin.random.Random
+
+@Suppress("ClassName")
+@RunWith(AndroidJUnit4::class)
+class RecipientTableTest_systemContacts {
+
+  @get:Rule
+  val databaseRule = SignalDatabaseRule()
+
+  @Test
+  fun givenSomeKnownNumbers_whenIGetByE164s_thenIExpectOnlyTheKnownOnes() {
+    val known: Map<String, RecipientId> = List(3) { randomE164() }.associateWith { SignalDatabase.recipients.getOrInsertFromE164(it) }
+    val unknown: String = randomE164()
+
+    val results = SignalDatabase.recipients.getByE164s(known.keys + unknown)
+
+    assertEquals(known, results)
+  }
+
+  @Test
+  fun givenMoreNumbersThanFitInOneQuery_whenIGetByE164s_thenIExpectAllOfThem() {
+    val known: Map<String, RecipientId> = List(1_200) { randomE164() }.associateWith { SignalDatabase.recipients.getOrInsertFromE164(it) }
+
+    val results = SignalDatabase.recipients.getByE164s(known.keys)
+
+    assertEquals(known, results)
+  }
+
+  @Test
+  fun givenContactUris_whenIFinishABulkUpdateWithoutThem_thenIExpectOnlyThoseContactsCleared() {
+    val alice = SignalDatabase.recipients.getOrInsertFromE164(randomE164())
+    val bob = SignalDatabase.recipients.getOrInsertFromE164(randomE164())
+    val aliceUri = "content://contacts/alice${Random.nextLong()}"
+    val bobUri = "content://contacts/bob${Random.nextLong()}"
+
+    SignalDatabase.recipients.beginBulkSystemContactUpdate(false).apply {
+      setSystemContactInfo(alice, ProfileName.asGiven("Alice"), "Alice", null, null, 2, aliceUri)
+      setSystemContactInfo(bob, ProfileName.asGiven("Bob"), "Bob", null, null, 2, bobUri)
+      finish()
+    }
+
+    val updated = SignalDatabase.recipients.beginBulkSystemContactUpdate(listOf(bobUri)).finish()
+
+    assertEquals(setOf(bob), updated)
+    assertEquals("Alice", SignalDatabase.recipients.getRecord(alice).systemDisplayName)
+    assertEquals(aliceUri, SignalDatabase.recipients.getRecord(alice).systemContactUri)
+    assertNull(SignalDatabase.recipients.getRecord(bob).systemDisplayName)
+    assertNull(SignalDatabase.recipients.getRecord(bob).systemContactUri)
+  }
+
+  @Test
+  fun givenContactUris_whenIUpdateThemThroughTheHandle_thenIExpectThemKept() {
+    val alice = SignalDatabase.recipients.getOrInsertFromE164(randomE164())
+    val aliceUri = "content://contacts/alice${Random.nextLong()}"
+
+    SignalDatabase.recipients.beginBulkSystemContactUpdate(false).apply {
+      setSystemContactInfo(alice, ProfileName.asGiven("Alice"), "Alice", null, null, 2, aliceUri)
+      finish()
+    }
+
+    val updated = SignalDatabase.recipients.beginBulkSystemContactUpdate(listOf(aliceUri)).apply {
+      setSystemContactInfo(alice, ProfileName.asGiven("Alicia"), "Alicia", null, null, 2, aliceUri)
+    }.finish()
+
+    assertEquals(setOf(alice), updated)
+    assertEquals("Alicia", SignalDatabase.recipients.getRecord(alice).systemDisplayName)
+  }
+
+  private fun randomE164(): String {
+    return "+1555" + Random.nextInt(1_000_000, 9_999_999)
+  }
+}
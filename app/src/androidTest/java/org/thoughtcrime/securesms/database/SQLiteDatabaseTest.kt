@@ -1,12 +1,15 @@
 package org.thoughtcrime.securesms.database
 
 import androidx.test.ext.junit.runners.AndroidJUnit4
+import junit.framework.Assert.assertEquals
 import junit.framework.Assert.assertFalse
 import junit.framework.Assert.assertTrue
+import junit.framework.Assert.fail
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.signal.core.util.concurrent.SignalExecutors
+import org.signal.core.util.getTableRowCount
 import java.util.concurrent.CountDownLatch
 import java.util.concurrent.atomic.AtomicBoolean
 
@@ -21,6 +24,9 @@ class SQLiteDatabaseTest {
   @Before
   fun setup() {
     db = SignalDatabase.instance!!.signalWritableDatabase
+
+    db.execSQL("CREATE TEMP TABLE IF NOT EXISTS $BEFORE_COMMIT_TABLE (value TEXT)")
+    db.execSQL("DELETE FROM $BEFORE_COMMIT_TABLE")
   }
 
   @Test
@@ -221,4 +227,143 @@ class SQLiteDatabaseTest {
     assertTrue(hasRun1.get())
     assertTrue(hasRun2.get())
   }
+
+  @Test
+  fun runBeforeTransactionCommit_isNotEnqueuedIfNotInTransaction() {
+    val hasRun = AtomicBoolean(false)
+
+    assertFalse(db.runBeforeTransactionCommit("key") { hasRun.set(true) })
+    assertFalse(hasRun.get())
+  }
+
+  @Test
+  fun runBeforeTransactionCommit_runsWithinTransactionRightBeforeCommit_ignoreDuplicates() {
+    val hasRun1 = AtomicBoolean(false)
+    val hasRun2 = AtomicBoolean(false)
+    val ranInTransaction = AtomicBoolean(false)
+
+    db.beginTransaction()
+
+    assertTrue(
+      db.runBeforeTransactionCommit("key") {
+        ranInTransaction.set(db.inTransaction())
+        db.execSQL("INSERT INTO $BEFORE_COMMIT_TABLE VALUES ('a')")
+        hasRun1.set(true)
+      }
+    )
+    assertTrue(db.runBeforeTransactionCommit("key") { hasRun2.set(true) })
+    assertTrue(db.hasPendingBeforeCommitTask("key"))
+
+    db.setTransactionSuccessful()
+    assertFalse(hasRun1.get())
+
+    db.endTransaction()
+
+    assertTrue(hasRun1.get())
+    assertFalse(hasRun2.get())
+    assertTrue(ranInTransaction.get())
+    assertFalse(db.hasPendingBeforeCommitTask("key"))
+    assertEquals(1, db.getTableRowCount(BEFORE_COMMIT_TABLE))
+  }
+
+  @Test
+  fun runBeforeTransactionCommit_doesNotRunAfterFailedTransaction() {
+    val hasRun = AtomicBoolean(false)
+
+    db.beginTransaction()
+    db.runBeforeTransactionCommit("key") { hasRun.set(true) }
+    db.endTransaction()
+
+    assertFalse(hasRun.get())
+    assertFalse(db.hasPendingBeforeCommitTask("key"))
+
+    db.beginTransaction()
+    db.setTransactionSuccessful()
+    db.endTransaction()
+
+    assertFalse(hasRun.get())
+  }
+
+  @Test
+  fun runBeforeTransactionCommit_onlyRunsWhenTheOutermostTransactionCommits() {
+    val hasRun = AtomicBoolean(false)
+
+    db.beginTransaction()
+    db.runBeforeTransactionCommit("key") { hasRun.set(true) }
+
+    db.beginTransaction()
+    assertTrue(db.hasPendingBeforeCommitTask("key"))
+    db.setTransactionSuccessful()
+    db.endTransaction()
+
+    assertFalse(hasRun.get())
+    assertTrue(db.hasPendingBeforeCommitTask("key"))
+
+    db.setTransactionSuccessful()
+    db.endTransaction()
+
+    assertTrue(hasRun.get())
+  }
+
+  @Test
+  fun runBeforeTransactionCommit_tasksEnqueuedWhileTasksRunAlsoRunBeforeCommit() {
+    val hasRerun = AtomicBoolean(false)
+    val otherHasRun = AtomicBoolean(false)
+
+    db.beginTransaction()
+
+    db.runBeforeTransactionCommit("key") {
+      assertFalse(db.hasPendingBeforeCommitTask("key"))
+      db.execSQL("INSERT INTO $BEFORE_COMMIT_TABLE VALUES ('a')")
+
+      assertTrue(
+        db.runBeforeTransactionCommit("key") {
+          db.execSQL("INSERT INTO $BEFORE_COMMIT_TABLE VALUES ('b')")
+          hasRerun.set(true)
+        }
+      )
+      assertTrue(db.runBeforeTransactionCommit("key") { fail("Should have been deduped!") })
+      assertTrue(db.hasPendingBeforeCommitTask("key"))
+
+      db.runBeforeTransactionCommit("other") {
+        db.execSQL("INSERT INTO $BEFORE_COMMIT_TABLE VALUES ('c')")
+        otherHasRun.set(true)
+      }
+    }
+
+    db.setTransactionSuccessful()
+    db.endTransaction()
+
+    assertTrue(hasRerun.get())
+    assertTrue(otherHasRun.get())
+    assertEquals(3, db.getTableRowCount(BEFORE_COMMIT_TABLE))
+    assertFalse(db.hasPendingBeforeCommitTask("key"))
+  }
+
+  @Test
+  fun runBeforeTransactionCommit_throwingTaskRollsBackTransaction() {
+    val postSuccessfulHasRun = AtomicBoolean(false)
+
+    db.beginTransaction()
+    db.execSQL("INSERT INTO $BEFORE_COMMIT_TABLE VALUES ('a')")
+    db.runPostSuccessfulTransaction { postSuccessfulHasRun.set(true) }
+    db.runBeforeTransactionCommit("key") { throw IllegalStateException() }
+    db.setTransactionSuccessful()
+
+    try {
+      db.endTransaction()
+      fail("Expected the task's exception")
+    } catch (e: IllegalStateException) {
+      // Expected
+    }
+
+    assertFalse(db.inTransaction())
+    assertFalse(postSuccessfulHasRun.get())
+    assertEquals(0, db.getTableRowCount(BEFORE_COMMIT_TABLE))
+    assertFalse(db.hasPendingBeforeCommitTask("key"))
+  }
+
+  companion object {
+    private const val BEFORE_COMMIT_TABLE = "before_commit_test"
+  }
 }
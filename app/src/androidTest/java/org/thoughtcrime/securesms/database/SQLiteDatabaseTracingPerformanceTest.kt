@@ -0,0 +1,131 @@
+package org.thoughtcrime.securesms.database
+
+import android.os.Debug
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.signal.core.util.tracing.Tracer
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+
+/**
+ * Measures how many bytes are allocated per message insert with database tracing enabled and disabled, and how many bytes the tracing of a
+ * single insert allocates with the old [LegacyTracer] recording path compared to the current [Tracer].
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+@RunWith(AndroidJUnit4::class)
+class SQLiteDatabaseTracingPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(SQLiteDatabaseTracingPerformanceTest::class.java)
+
+    private const val WARMUP_INSERTS = 200
+    private const val MEASURED_INSERTS = 2_000
+    private const val MEASURED_TRACES = 20_000
+
+    private const val NAME_LOCK = "LOCK"
+    private const val NAME_INSERT = "insert()"
+    private const val KEY_THREAD = "thread"
+    private const val KEY_TABLE = "table"
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = 1)
+
+  @After
+  fun tearDown() {
+    Tracer.getInstance().setEnabled(true)
+  }
+
+  @Test
+  fun insertAllocations() {
+    val recipient = Recipient.resolved(harness.others[0])
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+
+    repeat(WARMUP_INSERTS) { MmsHelper.insert(recipient = recipient, threadId = threadId) }
+
+    Tracer.getInstance().setEnabled(true)
+    val enabled = measureBytesPerInsert(recipient, threadId)
+
+    Tracer.getInstance().setEnabled(false)
+    val disabled = measureBytesPerInsert(recipient, threadId)
+
+    Log.i(TAG, "Tracing enabled: $enabled bytes/insert, tracing disabled: $disabled bytes/insert")
+  }
+
+  /**
+   * Replays what [SQLiteDatabase] traces for an insert (the lock track plus the statement itself) without touching the database, so the
+   * tracing is the only thing being measured.
+   */
+  @Test
+  fun traceAllocations() {
+    val tracer = Tracer.getInstance()
+    val legacyTracer = LegacyTracer()
+
+    repeat(WARMUP_INSERTS) {
+      traceInsertLegacy(legacyTracer)
+      traceInsert(tracer)
+    }
+
+    val legacy = measureBytesPerTrace { traceInsertLegacy(legacyTracer) }
+
+    tracer.setEnabled(true)
+    val enabled = measureBytesPerTrace { traceInsert(tracer) }
+
+    tracer.setEnabled(false)
+    val disabled = measureBytesPerTrace { traceInsert(tracer) }
+
+    Log.i(TAG, "Old tracing: $legacy bytes/insert, tracing enabled: $enabled bytes/insert, tracing disabled: $disabled bytes/insert")
+  }
+
+  /** What SQLiteDatabase#traceSql did for an insert before it used the allocation-free path. */
+  private fun traceInsertLegacy(tracer: LegacyTracer) {
+    tracer.start(NAME_LOCK, Tracer.TrackId.DB_LOCK, KEY_THREAD, Thread.currentThread().name)
+
+    val params: MutableMap<String, String?> = HashMap()
+    params[KEY_TABLE] = MessageTable.TABLE_NAME
+
+    tracer.start(NAME_INSERT, params)
+    tracer.end(NAME_INSERT)
+    tracer.end(NAME_LOCK, Tracer.TrackId.DB_LOCK)
+  }
+
+  /** What SQLiteDatabase#traceSql does for an insert now. */
+  private fun traceInsert(tracer: Tracer) {
+    if (tracer.isEnabled) {
+      tracer.start(NAME_LOCK, Tracer.TrackId.DB_LOCK, KEY_THREAD, Thread.currentThread().name)
+      tracer.start(NAME_INSERT, KEY_TABLE, MessageTable.TABLE_NAME, null, null)
+    }
+
+    tracer.end(NAME_INSERT)
+    tracer.end(NAME_LOCK, Tracer.TrackId.DB_LOCK)
+  }
+
+  private fun measureBytesPerTrace(trace: () -> Unit): Long {
+    System.gc()
+
+    val start = allocatedBytes()
+    repeat(MEASURED_TRACES) { trace() }
+    val end = allocatedBytes()
+
+    return (end - start) / MEASURED_TRACES
+  }
+
+  private fun measureBytesPerInsert(recipient: Recipient, threadId: Long): Long {
+    System.gc()
+
+    val start = allocatedBytes()
+    repeat(MEASURED_INSERTS) { MmsHelper.insert(recipient = recipient, threadId = threadId) }
+    val end = allocatedBytes()
+
+    return (end - start) / MEASURED_INSERTS
+  }
+
+  private fun allocatedBytes(): Long {
+    return Debug.getRuntimeStat("art.gc.bytes-allocated").toLong()
+  }
+}
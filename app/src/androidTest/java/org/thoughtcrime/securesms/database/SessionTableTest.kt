@@ -0,0 +1,285 @@
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.readToSingleInt
+import org.signal.core.util.select
+import org.signal.libsignal.protocol.SessionBuilder
+import org.signal.libsignal.protocol.SignalProtocolAddress
+import org.signal.libsignal.protocol.ecc.Curve
+import org.signal.libsignal.protocol.state.PreKeyBundle
+import org.signal.libsignal.protocol.state.SessionRecord
+import org.signal.libsignal.protocol.state.impl.InMemorySignalProtocolStore
+import org.thoughtcrime.securesms.crypto.IdentityKeyUtil
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.util.UUID
+
+/**
+ * Tests for how [SessionTable] holds writes made within a transaction until right before it commits.
+ */
+@RunWith(AndroidJUnit4::class)
+class SessionTableTest {
+
+  private lateinit var db: SQLiteDatabase
+  private lateinit var sessions: SessionTable
+
+  private val self = ACI.from(UUID.randomUUID())
+  private val addressName = ACI.from(UUID.randomUUID()).toString()
+
+  @Before
+  fun setUp() {
+    db = SignalDatabase.instance!!.signalWritableDatabase
+    sessions = SignalDatabase.sessions
+
+    SignalDatabase.rawDatabase.execSQL("CREATE TEMP TABLE IF NOT EXISTS $WRITES_TABLE (address TEXT)")
+    SignalDatabase.rawDatabase.execSQL("CREATE TEMP TRIGGER IF NOT EXISTS ${WRITES_TABLE}_insert AFTER INSERT ON main.${SessionTable.TABLE_NAME} BEGIN INSERT INTO $WRITES_TABLE VALUES (new.${SessionTable.ADDRESS}); END")
+    SignalDatabase.rawDatabase.execSQL("CREATE TEMP TRIGGER IF NOT EXISTS ${WRITES_TABLE}_update AFTER UPDATE ON main.${SessionTable.TABLE_NAME} BEGIN INSERT INTO $WRITES_TABLE VALUES (new.${SessionTable.ADDRESS}); END")
+  }
+
+  @After
+  fun tearDown() {
+    SignalDatabase.rawDatabase.execSQL("DROP TRIGGER IF EXISTS ${WRITES_TABLE}_insert")
+    SignalDatabase.rawDatabase.execSQL("DROP TRIGGER IF EXISTS ${WRITES_TABLE}_update")
+    SignalDatabase.rawDatabase.execSQL("DROP TABLE IF EXISTS $WRITES_TABLE")
+  }
+
+  @Test
+  fun givenAStoreInATransaction_whenIReadInThatTransaction_thenIExpectToSeeIt() {
+    val record = newSessionRecord()
+
+    db.beginTransaction()
+    try {
+      sessions.store(self, address(1), record)
+
+      assertEquals(0, rowCount())
+      assertRecordEquals(record, sessions.load(self, address(1)))
+      assertRecordEquals(record, sessions.load(self, listOf(address(1)))[0])
+
+      val rows = sessions.getAllFor(self, addressName)
+      assertEquals(1, rows.size)
+      assertRecordEquals(record, rows[0].record)
+
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+
+    assertEquals(1, rowCount())
+  }
+
+  @Test
+  fun givenManyStoresInATransaction_whenICommit_thenIExpectOneWrite() {
+    val records = List(5) { newSessionRecord() }
+
+    db.beginTransaction()
+    try {
+      records.forEach { sessions.store(self, address(1), it) }
+      assertEquals(0, writeCount())
+
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+
+    assertEquals(1, writeCount())
+    assertRecordEquals(records.last(), sessions.load(self, address(1)))
+    assertArrayEquals(records.last().serialize(), rawRecord(1))
+  }
+
+  @Test
+  fun givenAStoreInATransaction_whenIRollBack_thenIExpectItToBeDiscarded() {
+    val committed = newSessionRecord()
+    sessions.store(self, address(1), committed)
+    sessions.load(self, address(1))
+
+    db.beginTransaction()
+    try {
+      sessions.store(self, address(1), newSessionRecord())
+      sessions.store(self, address(2), newSessionRecord())
+    } finally {
+      db.endTransaction()
+    }
+
+    assertRecordEquals(committed, sessions.load(self, address(1)))
+    assertNull(sessions.load(self, address(2)))
+    assertArrayEquals(committed.serialize(), rawRecord(1))
+    assertEquals(1, rowCount())
+  }
+
+  @Test
+  fun givenAFlushedStoreInATransaction_whenIRollBack_thenIExpectTheCacheToBeUnchanged() {
+    val committed = newSessionRecord()
+    sessions.store(self, address(1), committed)
+    sessions.load(self, address(1))
+
+    db.beginTransaction()
+    try {
+      sessions.store(self, address(1), newSessionRecord())
+      sessions.getAllFor(self, addressName)
+    } finally {
+      db.endTransaction()
+    }
+
+    assertRecordEquals(committed, sessions.load(self, address(1)))
+    assertArrayEquals(committed.serialize(), rawRecord(1))
+
+    val updated = newSessionRecord()
+    db.beginTransaction()
+    try {
+      sessions.store(self, address(1), updated)
+      sessions.getAllFor(self, addressName)
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+
+    assertRecordEquals(updated, sessions.load(self, address(1)))
+  }
+
+  @Test
+  fun givenNestedTransactions_whenIStoreInEach_thenIExpectAllWritesToBeHeldUntilTheOuterCommit() {
+    val outer = newSessionRecord()
+    val inner = newSessionRecord()
+
+    db.beginTransaction()
+    try {
+      sessions.store(self, address(1), outer)
+
+      db.beginTransaction()
+      try {
+        sessions.store(self, address(2), inner)
+        db.setTransactionSuccessful()
+      } finally {
+        db.endTransaction()
+      }
+
+      assertEquals(0, writeCount())
+      assertRecordEquals(outer, sessions.load(self, address(1)))
+      assertRecordEquals(inner, sessions.load(self, address(2)))
+
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+
+    assertEquals(2, writeCount())
+    assertArrayEquals(outer.serialize(), rawRecord(1))
+    assertArrayEquals(inner.serialize(), rawRecord(2))
+  }
+
+  @Test
+  fun givenAStoreFromATaskThatRunsAfterTheFlush_whenICommit_thenIExpectItToBeWritten() {
+    val first = newSessionRecord()
+    val second = newSessionRecord()
+
+    db.beginTransaction()
+    try {
+      sessions.store(self, address(1), first)
+      db.runBeforeTransactionCommit("test") { sessions.store(self, address(2), second) }
+
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+
+    assertArrayEquals(first.serialize(), rawRecord(1))
+    assertArrayEquals(second.serialize(), rawRecord(2))
+    assertRecordEquals(second, sessions.load(self, address(2)))
+  }
+
+  @Test
+  fun givenSessionsForManyDevices_whenIDeleteAllForInATransaction_thenIExpectThemAllToBeGone() {
+    sessions.store(self, address(1), newSessionRecord())
+    sessions.store(self, address(2), newSessionRecord())
+    sessions.load(self, address(1))
+    val restored = newSessionRecord()
+
+    db.beginTransaction()
+    try {
+      sessions.store(self, address(3), newSessionRecord())
+      sessions.deleteAllFor(self, addressName)
+
+      assertNull(sessions.load(self, address(1)))
+      assertNull(sessions.load(self, address(3)))
+      assertTrue(sessions.getAllFor(self, addressName).isEmpty())
+      assertFalse(sessions.hasSessionFor(self, addressName))
+
+      sessions.store(self, address(2), restored)
+      assertRecordEquals(restored, sessions.load(self, address(2)))
+
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+
+    assertNull(sessions.load(self, address(1)))
+    assertNull(sessions.load(self, address(3)))
+    assertRecordEquals(restored, sessions.load(self, address(2)))
+    assertEquals(1, rowCount())
+  }
+
+  private fun address(deviceId: Int): SignalProtocolAddress {
+    return SignalProtocolAddress(addressName, deviceId)
+  }
+
+  private fun rowCount(): Int {
+    return SignalDatabase.rawDatabase
+      .select("COUNT(*)")
+      .from(SessionTable.TABLE_NAME)
+      .where("${SessionTable.ACCOUNT_ID} = ? AND ${SessionTable.ADDRESS} = ?", self, addressName)
+      .run()
+      .readToSingleInt()
+  }
+
+  private fun rawRecord(deviceId: Int): ByteArray? {
+    return SignalDatabase.rawDatabase
+      .select(SessionTable.RECORD)
+      .from(SessionTable.TABLE_NAME)
+      .where("${SessionTable.ACCOUNT_ID} = ? AND ${SessionTable.ADDRESS} = ? AND ${SessionTable.DEVICE} = ?", self, addressName, deviceId)
+      .run()
+      .use { cursor -> if (cursor.moveToFirst()) cursor.getBlob(0) else null }
+  }
+
+  private fun writeCount(): Int {
+    return SignalDatabase.rawDatabase
+      .select("COUNT(*)")
+      .from(WRITES_TABLE)
+      .where("address = ?", addressName)
+      .run()
+      .readToSingleInt()
+  }
+
+  private fun assertRecordEquals(expected: SessionRecord, actual: SessionRecord?) {
+    assertArrayEquals(expected.serialize(), actual?.serialize())
+  }
+
+  /**
+   * Every call returns a different record, by starting a session with a new remote identity.
+   */
+  private fun newSessionRecord(): SessionRecord {
+    val remoteIdentity = IdentityKeyUtil.generateIdentityKeyPair()
+    val preKey = Curve.generateKeyPair()
+    val signedPreKey = Curve.generateKeyPair()
+    val signature = Curve.calculateSignature(remoteIdentity.privateKey, signedPreKey.publicKey.serialize())
+
+    val store = InMemorySignalProtocolStore(IdentityKeyUtil.generateIdentityKeyPair(), 1)
+    val remoteAddress = SignalProtocolAddress("remote", 1)
+
+    SessionBuilder(store, remoteAddress).process(PreKeyBundle(2, 1, 1, preKey.publicKey, 2, signedPreKey.publicKey, signature, remoteIdentity.publicKey))
+
+    return store.loadSession(remoteAddress)
+  }
+
+  companion object {
+    /** A temp table that the triggers set up in [setUp] log every insert and update of the session table to. */
+    private const val WRITES_TABLE = "session_table_test_writes"
+  }
+}
@@ -0,0 +1,63 @@
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.thoughtcrime.securesms.testing.SignalDatabaseRule
+
+@RunWith(AndroidJUnit4::class)
+class SystemContactHashTableTest {
+
+  @get:Rule
+  val databaseRule = SignalDatabaseRule()
+
+  @Before
+  fun setUp() {
+    SignalDatabase.systemContactHashes.clearAll()
+  }
+
+  @Test
+  fun givenNoHashes_whenIGetAll_thenIExpectAnEmptyMap() {
+    assertEquals(emptyMap<String, Long>(), SignalDatabase.systemContactHashes.getAll())
+  }
+
+  @Test
+  fun givenHashes_whenIReplaceAll_thenIExpectOnlyTheNewHashes() {
+    SignalDatabase.systemContactHashes.replaceAll(mapOf("a" to 1L, "b" to 2L))
+
+    SignalDatabase.systemContactHashes.replaceAll(mapOf("b" to 3L, "c" to 4L))
+
+    assertEquals(mapOf("b" to 3L, "c" to 4L), SignalDatabase.systemContactHashes.getAll())
+  }
+
+  @Test
+  fun givenHashes_whenIUpdate_thenIExpectChangesAppliedAndRemovalsForgotten() {
+    SignalDatabase.systemContactHashes.replaceAll(mapOf("a" to 1L, "b" to 2L, "c" to 3L))
+
+    SignalDatabase.systemContactHashes.update(mapOf("a" to 10L, "d" to 4L), listOf("b"))
+
+    assertEquals(mapOf("a" to 10L, "c" to 3L, "d" to 4L), SignalDatabase.systemContactHashes.getAll())
+  }
+
+  @Test
+  fun givenManyHashes_whenIUpdate_thenIExpectEveryChunkApplied() {
+    val hashes: Map<String, Long> = (0 until 2_500).associate { "contact$it" to it.toLong() }
+    SignalDatabase.systemContactHashes.replaceAll(hashes)
+
+    SignalDatabase.systemContactHashes.update(hashes.mapValues { it.value + 1 }, emptyList())
+
+    assertEquals(hashes.mapValues { it.value + 1 }, SignalDatabase.systemContactHashes.getAll())
+  }
+
+  @Test
+  fun givenHashes_whenIClearAll_thenIExpectNone() {
+    SignalDatabase.systemContactHashes.replaceAll(mapOf("a" to 1L))
+
+    SignalDatabase.systemContactHashes.clearAll()
+
+    assertEquals(emptyMap<String, Long>(), SignalDatabase.systemContactHashes.getAll())
+  }
+}
@@ -0,0 +1,89 @@
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+
+/**
+ * Compares counting the visible messages of a large thread with COUNT(*) against reading the maintained count, and measures what
+ * maintaining the count costs per inserted message.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+@RunWith(AndroidJUnit4::class)
+class ThreadCountPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(ThreadCountPerformanceTest::class.java)
+
+    private const val MESSAGE_COUNT = 200_000
+    private const val ITERATIONS = 100
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = 1)
+
+  @Test
+  fun messageCountLatency() {
+    val recipient = Recipient.resolved(harness.others[0])
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+
+    val insertNanos = insertMessages(threadId, recipient)
+
+    // Equivalent to the COUNT(*) the conversation used to run, since every message is received before the end of time
+    val countNanos = timeIterations {
+      SignalDatabase.messages.getMessageCountForThread(threadId, Long.MAX_VALUE)
+    }
+
+    val maintainedNanos = timeIterations {
+      SignalDatabase.messages.getMessageCountForThread(threadId)
+    }
+
+    val checkStartTime = System.nanoTime()
+    SignalDatabase.threads.checkMaintainedCounts(repair = false)
+    val checkNanos = System.nanoTime() - checkStartTime
+
+    Log.i(TAG, "[$MESSAGE_COUNT messages] insert: ${insertNanos / MESSAGE_COUNT} ns/message, COUNT(*): ${countNanos / ITERATIONS / 1000} us, maintained: ${maintainedNanos / ITERATIONS / 1000} us, check: ${checkNanos / 1_000_000} ms")
+  }
+
+  private fun insertMessages(threadId: Long, recipient: Recipient): Long {
+    val startTime = System.nanoTime()
+
+    SignalDatabase.rawDatabase.execSQL(
+      """
+        INSERT INTO ${MessageTable.TABLE_NAME} (
+          ${MessageTable.DATE_SENT},
+          ${MessageTable.DATE_RECEIVED},
+          ${MessageTable.THREAD_ID},
+          ${MessageTable.FROM_RECIPIENT_ID},
+          ${MessageTable.TO_RECIPIENT_ID},
+          ${MessageTable.TYPE},
+          ${MessageTable.BODY}
+        )
+        WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < ?)
+        SELECT n, n, ?, ?, ?, ?, 'message ' || n FROM seq
+      """,
+      arrayOf(
+        MESSAGE_COUNT,
+        threadId,
+        recipient.id.toLong(),
+        harness.self.id.toLong(),
+        MessageTypes.BASE_INBOX_TYPE or MessageTypes.SECURE_MESSAGE_BIT or MessageTypes.PUSH_MESSAGE_BIT
+      )
+    )
+
+    return System.nanoTime() - startTime
+  }
+
+  private inline fun timeIterations(block: () -> Unit): Long {
+    block()
+
+    val startTime = System.nanoTime()
+    repeat(ITERATIONS) { block() }
+    return System.nanoTime() - startTime
+  }
+}
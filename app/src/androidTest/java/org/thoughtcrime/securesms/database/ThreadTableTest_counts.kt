@@ -0,0 +1,116 @@
+/*
+ * Copyright 2023 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.thoughtcrime.securesms.conversationlist.model.ConversationFilter
+import org.thoughtcrime.securesms.mms.OutgoingMessage
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalDatabaseRule
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.util.UUID
+
+@Suppress("ClassName")
+class ThreadTableTest_counts {
+
+  @Rule
+  @JvmField
+  val databaseRule = SignalDatabaseRule()
+
+  private lateinit var recipient: Recipient
+
+  @Before
+  fun setUp() {
+    recipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+  }
+
+  @Test
+  fun givenInsertedAndDeletedMessages_whenIGetMessageCount_thenIExpectOnlyRemainingMessages() {
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+    val first = MmsHelper.insert(recipient = recipient, threadId = threadId)
+    MmsHelper.insert(recipient = recipient, threadId = threadId)
+    MmsHelper.insert(recipient = recipient, threadId = threadId)
+
+    assertEquals(3, SignalDatabase.messages.getMessageCountForThread(threadId))
+
+    SignalDatabase.messages.deleteMessage(first)
+
+    assertEquals(2, SignalDatabase.messages.getMessageCountForThread(threadId))
+    assertConsistent()
+  }
+
+  @Test
+  fun givenScheduledMessage_whenItIsSent_thenIExpectItToBeCounted() {
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+    MmsHelper.insert(recipient = recipient, threadId = threadId)
+    val scheduled = MmsHelper.insert(
+      message = OutgoingMessage(recipient = recipient, body = "later", timestamp = System.currentTimeMillis(), isSecure = true).sendAt(Long.MAX_VALUE),
+      threadId = threadId
+    )
+
+    assertEquals(1, SignalDatabase.messages.getMessageCountForThread(threadId))
+
+    SignalDatabase.messages.clearScheduledStatus(threadId, scheduled, 0)
+
+    assertEquals(2, SignalDatabase.messages.getMessageCountForThread(threadId))
+    assertConsistent()
+  }
+
+  @Test
+  fun givenDeletedConversation_whenIGetCounts_thenIExpectThemToBeCleared() {
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+    MmsHelper.insert(recipient = recipient, threadId = threadId)
+    SignalDatabase.threads.update(threadId, false)
+
+    assertEquals(1, SignalDatabase.threads.getUnarchivedConversationListCount(ConversationFilter.OFF))
+
+    SignalDatabase.threads.deleteConversation(threadId)
+
+    assertEquals(0, SignalDatabase.messages.getMessageCountForThread(threadId))
+    assertEquals(0, SignalDatabase.threads.getUnarchivedConversationListCount(ConversationFilter.OFF))
+    assertConsistent()
+  }
+
+  @Test
+  fun givenArchivedAndPinnedThreads_whenIGetListCounts_thenIExpectMaintainedCountsToMatch() {
+    val other = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+
+    val archivedThreadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+    MmsHelper.insert(recipient = recipient, threadId = archivedThreadId)
+    SignalDatabase.threads.update(archivedThreadId, false)
+    SignalDatabase.threads.archiveConversation(archivedThreadId)
+
+    val pinnedThreadId = SignalDatabase.threads.getOrCreateThreadIdFor(other)
+    SignalDatabase.threads.pinConversations(listOf(pinnedThreadId))
+
+    assertEquals(1, SignalDatabase.threads.getArchivedConversationListCount(ConversationFilter.OFF))
+    assertEquals(1, SignalDatabase.threads.getPinnedConversationListCount(ConversationFilter.OFF))
+    assertEquals(1, SignalDatabase.threads.getUnarchivedConversationListCount(ConversationFilter.OFF))
+    assertConsistent()
+  }
+
+  @Test
+  fun givenCorruptedCounts_whenICheckWithRepair_thenIExpectThemFixed() {
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+    MmsHelper.insert(recipient = recipient, threadId = threadId)
+    SignalDatabase.threads.update(threadId, false)
+
+    SignalDatabase.rawDatabase.execSQL("UPDATE ${ThreadTable.TABLE_NAME} SET ${ThreadTable.VISIBLE_MESSAGE_COUNT} = 10")
+    SignalDatabase.rawDatabase.execSQL("DELETE FROM ${ThreadTable.LIST_COUNT_TABLE_NAME}")
+
+    assertEquals(4, SignalDatabase.threads.checkMaintainedCounts(repair = true))
+    assertConsistent()
+    assertEquals(1, SignalDatabase.messages.getMessageCountForThread(threadId))
+    assertEquals(1, SignalDatabase.threads.getUnarchivedConversationListCount(ConversationFilter.OFF))
+  }
+
+  private fun assertConsistent() {
+    assertEquals(0, SignalDatabase.threads.checkMaintainedCounts(repair = false))
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.signal.core.util.withinTransaction
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalDatabaseRule
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.util.UUID
+
+@Suppress("ClassName")
+class ThreadTableTest_updateAtEndOfTransaction {
+
+  @Rule
+  @JvmField
+  val databaseRule = SignalDatabaseRule()
+
+  private lateinit var recipient: Recipient
+  private var threadId: Long = -1
+
+  @Before
+  fun setUp() {
+    recipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+    threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+    MmsHelper.insert(recipient = recipient, threadId = threadId, body = "latest")
+    SignalDatabase.threads.update(threadId, false)
+    setStaleSnippet()
+  }
+
+  @Test
+  fun givenATransaction_whenIUpdateAtEndOfTransaction_thenIExpectTheUpdateAfterCommit() {
+    database.withinTransaction {
+      SignalDatabase.threads.updateAtEndOfTransaction(threadId, false)
+      SignalDatabase.threads.updateAtEndOfTransaction(threadId, false)
+
+      assertEquals("stale", getSnippet())
+    }
+
+    assertEquals("latest", getSnippet())
+  }
+
+  @Test
+  fun givenNoTransaction_whenIUpdateAtEndOfTransaction_thenIExpectTheUpdateImmediately() {
+    SignalDatabase.threads.updateAtEndOfTransaction(threadId, false)
+
+    assertEquals("latest", getSnippet())
+  }
+
+  @Test
+  fun givenAFailedTransaction_whenIUpdateAtEndOfTransactionInTheNextOne_thenIExpectOnlyTheNextOneToUpdate() {
+    database.beginTransaction()
+    try {
+      SignalDatabase.threads.updateAtEndOfTransaction(threadId, false)
+    } finally {
+      database.endTransaction()
+    }
+
+    assertEquals("stale", getSnippet())
+
+    database.withinTransaction {
+      SignalDatabase.threads.updateAtEndOfTransaction(threadId, false)
+    }
+
+    assertEquals("latest", getSnippet())
+  }
+
+  private val database: SQLiteDatabase
+    get() = SignalDatabase.instance!!.signalWritableDatabase
+
+  private fun setStaleSnippet() {
+    SignalDatabase.rawDatabase.execSQL("UPDATE ${ThreadTable.TABLE_NAME} SET ${ThreadTable.SNIPPET} = 'stale' WHERE ${ThreadTable.ID} = $threadId")
+  }
+
+  private fun getSnippet(): String? {
+    return SignalDatabase.threads.getThreadRecord(threadId)!!.body
+  }
+}
@@ -0,0 +1,82 @@
+package org.thoughtcrime.securesms.jobs
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.storage.ContactRecordProcessor
+import org.thoughtcrime.securesms.storage.StorageSyncHelper
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import org.whispersystems.signalservice.api.storage.SignalStorageRecord
+import org.whispersystems.signalservice.api.storage.StorageId
+import java.util.UUID
+
+/**
+ * Measures the local side of a storage sync with a large manifest. Rather than talking to the storage service, the "remote" records are the
+ * ones we materialize from the local store, held in memory, which gives the worst case for matching since every record has a local match.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+@RunWith(AndroidJUnit4::class)
+class StorageSyncPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(StorageSyncPerformanceTest::class.java)
+
+    private const val RECORD_COUNT = 5_000
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = 0)
+
+  @Test
+  fun syncLargeManifest() {
+    val storageIds: List<StorageId> = insertContacts()
+    val self = Recipient.self().fresh()
+
+    var startTime = System.currentTimeMillis()
+    storageIds.forEach { SignalDatabase.recipients.getByStorageId(it.raw) }
+    Log.i(TAG, "[$RECORD_COUNT records] Individual lookups: ${System.currentTimeMillis() - startTime} ms")
+
+    startTime = System.currentTimeMillis()
+    val remoteRecords: List<SignalStorageRecord> = StorageSyncJob.buildLocalStorageRecords(ApplicationDependencies.getApplication(), self, storageIds)
+    Log.i(TAG, "[$RECORD_COUNT records] Bulk materialization: ${System.currentTimeMillis() - startTime} ms")
+
+    startTime = System.currentTimeMillis()
+    SignalDatabase.rawDatabase.beginTransaction()
+    try {
+      ContactRecordProcessor().process(remoteRecords.map { it.contact.get() }, StorageSyncHelper.KEY_GENERATOR)
+      SignalDatabase.rawDatabase.setTransactionSuccessful()
+    } finally {
+      SignalDatabase.rawDatabase.endTransaction()
+    }
+    Log.i(TAG, "[$RECORD_COUNT records] Remote apply: ${System.currentTimeMillis() - startTime} ms")
+  }
+
+  private fun insertContacts(): List<StorageId> {
+    val startTime = System.currentTimeMillis()
+    val storageIds: MutableList<StorageId> = ArrayList(RECORD_COUNT)
+
+    SignalDatabase.rawDatabase.beginTransaction()
+    try {
+      repeat(RECORD_COUNT) {
+        val recipientId = SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID()))
+        val storageKey = StorageSyncHelper.generateKey()
+
+        SignalDatabase.recipients.updateStorageId(recipientId, storageKey)
+        storageIds += StorageId.forContact(storageKey)
+      }
+      SignalDatabase.rawDatabase.setTransactionSuccessful()
+    } finally {
+      SignalDatabase.rawDatabase.endTransaction()
+    }
+
+    Log.i(TAG, "Inserted $RECORD_COUNT contacts in ${System.currentTimeMillis() - startTime} ms")
+    return storageIds
+  }
+}
@@ -0,0 +1,255 @@
+package org.thoughtcrime.securesms.messages
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import io.mockk.every
+import io.mockk.mockkStatic
+import io.mockk.unmockkStatic
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.signal.libsignal.protocol.SignalProtocolAddress
+import org.signal.libsignal.protocol.ecc.Curve
+import org.signal.libsignal.protocol.ecc.ECKeyPair
+import org.signal.libsignal.zkgroup.profiles.ProfileKey
+import org.thoughtcrime.securesms.crypto.ReentrantSessionLock
+import org.thoughtcrime.securesms.crypto.UnidentifiedAccessUtil
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.keyvalue.SignalStore
+import org.thoughtcrime.securesms.messages.protocol.BufferedProtocolStore
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.AliceClient
+import org.thoughtcrime.securesms.testing.BobClient
+import org.thoughtcrime.securesms.testing.FakeClientHelpers
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import org.whispersystems.signalservice.api.crypto.SignalServiceCipherResult
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
+import org.whispersystems.signalservice.internal.push.SignalServiceProtos.Envelope
+import org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage
+import java.io.IOException
+import android.util.Log as AndroidLog
+
+/**
+ * Tests for [EnvelopeDecryptionPipeline], with real sessions between Alice (the test user) and several [BobClient]s.
+ *
+ * Most tests use an unbounded shard count, which puts every sender in its own shard, so that which envelopes get sharded together doesn't
+ * depend on the senders' randomly generated service ids.
+ */
+@RunWith(AndroidJUnit4::class)
+class EnvelopeDecryptionPipelineTest {
+
+  companion object {
+    private val TAG = Log.tag(EnvelopeDecryptionPipelineTest::class.java)
+
+    private const val UNBOUNDED_SHARDS = Int.MAX_VALUE
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = 4)
+
+  private val trustRoot: ECKeyPair = Curve.generateKeyPair()
+
+  private lateinit var bobClients: List<BobClient>
+  private var now = System.currentTimeMillis()
+
+  @Before
+  fun setUp() {
+    mockkStatic(UnidentifiedAccessUtil::class)
+    every { UnidentifiedAccessUtil.getCertificateValidator() } returns FakeClientHelpers.noOpCertificateValidator
+
+    val aliceClient = AliceClient(
+      serviceId = harness.self.requireServiceId(),
+      e164 = harness.self.requireE164(),
+      trustRoot = trustRoot
+    )
+
+    bobClients = harness.others.mapIndexed { i, id ->
+      val bob = Recipient.resolved(id)
+      val bobClient = BobClient(
+        serviceId = bob.requireServiceId(),
+        e164 = bob.requireE164(),
+        identityKeyPair = harness.othersKeys[i],
+        trustRoot = trustRoot,
+        profileKey = ProfileKey(bob.profileKey)
+      )
+
+      establishSession(aliceClient, bobClient, bob)
+      bobClient
+    }
+  }
+
+  @After
+  fun tearDown() {
+    unmockkStatic(UnidentifiedAccessUtil::class)
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun givenTheSessionLockIsNotHeld_whenIDecryptAhead_thenIExpectAnError() {
+    EnvelopeDecryptionPipeline.decryptAhead(BufferedProtocolStore.create(), interleavedBatch(messagesPerSender = 2))
+  }
+
+  @Test
+  fun givenASingleSender_whenIDecryptAhead_thenIExpectNothingToBeDecrypted() {
+    val bufferedStore = BufferedProtocolStore.create()
+    val batch = batchFrom(bobClients[0], count = 5)
+
+    val results = withSessionLock { EnvelopeDecryptionPipeline.decryptAhead(bufferedStore, batch, UNBOUNDED_SHARDS, EnvelopeDecryptionPipeline::decryptShard) }
+
+    assertTrue(results.isEmpty())
+    assertEquals(batch.size, decryptInOrder(bufferedStore, batch).size)
+  }
+
+  @Test
+  fun givenOnlyOneShard_whenIDecryptAhead_thenIExpectNothingToBeDecrypted() {
+    val bufferedStore = BufferedProtocolStore.create()
+    val batch = interleavedBatch(messagesPerSender = 2)
+
+    val results = withSessionLock { EnvelopeDecryptionPipeline.decryptAhead(bufferedStore, batch, 1, EnvelopeDecryptionPipeline::decryptShard) }
+
+    assertTrue(results.isEmpty())
+    assertEquals(batch.size, decryptInOrder(bufferedStore, batch).size)
+  }
+
+  @Test
+  fun givenOnlySealedSenderEnvelopes_whenIDecryptAhead_thenIExpectNothingToBeDecrypted() {
+    val batch = bobClients.flatMap { bobClient -> List(2) { bobClient.encrypt(nextTimestamp()) } }.map { it.toResponse() }
+
+    val results = withSessionLock { EnvelopeDecryptionPipeline.decryptAhead(BufferedProtocolStore.create(), batch, UNBOUNDED_SHARDS, EnvelopeDecryptionPipeline::decryptShard) }
+
+    assertTrue(results.isEmpty())
+  }
+
+  @Test
+  fun givenManySenders_whenIDecryptAhead_thenIExpectTheSameResultsAsDecryptingInOrder() {
+    val bufferedStore = BufferedProtocolStore.create()
+    val batch = interleavedBatch(messagesPerSender = 5)
+
+    val results = withSessionLock { EnvelopeDecryptionPipeline.decryptAhead(bufferedStore, batch, UNBOUNDED_SHARDS, EnvelopeDecryptionPipeline::decryptShard) }
+
+    assertEquals(batch.indices.toSet(), results.keys)
+    assertEquals(decryptInOrder(BufferedProtocolStore.create(), batch), results)
+  }
+
+  @Test
+  fun givenManySenders_whenIDecryptAhead_thenIExpectTheShardStatesToBeMergedIntoTheBufferedStore() {
+    val bufferedStore = BufferedProtocolStore.create()
+    val batch = interleavedBatch(messagesPerSender = 3)
+
+    withSessionLock { EnvelopeDecryptionPipeline.decryptAhead(bufferedStore, batch, UNBOUNDED_SHARDS, EnvelopeDecryptionPipeline::decryptShard) }
+
+    for (bobClient in bobClients) {
+      val address = SignalProtocolAddress(bobClient.serviceId.toString(), 1)
+      val onDisk = SignalDatabase.sessions.load(SignalStore.account().requireAci(), address)!!
+      assertFalse(onDisk.serialize().contentEquals(bufferedStore.getAciStore().loadSession(address).serialize()))
+    }
+
+    // Having already been decrypted with the merged state, the envelopes are now duplicates, while what comes next from each sender is fine
+    assertTrue(decryptInOrder(bufferedStore, batch).isEmpty())
+    assertEquals(bobClients.size, decryptInOrder(bufferedStore, interleavedBatch(messagesPerSender = 1)).size)
+
+    // None of it made it to disk
+    assertEquals(batch.size, decryptInOrder(BufferedProtocolStore.create(), batch).size)
+  }
+
+  @Test
+  fun givenAShardThatFails_whenIDecryptAhead_thenIExpectItsEnvelopesToBeLeftForInOrderDecryption() {
+    val bufferedStore = BufferedProtocolStore.create()
+    val batch = interleavedBatch(messagesPerSender = 3)
+    val failingSender = bobClients[0].serviceId.toString()
+
+    val results = withSessionLock {
+      EnvelopeDecryptionPipeline.decryptAhead(bufferedStore, batch, UNBOUNDED_SHARDS) { shardBatch, indices ->
+        if (shardBatch[indices.first()].envelope.sourceServiceId == failingSender) {
+          throw IOException("Shard failure!")
+        }
+        EnvelopeDecryptionPipeline.decryptShard(shardBatch, indices)
+      }
+    }
+
+    val failedIndices = batch.indices.filter { batch[it].envelope.sourceServiceId == failingSender }.toSet()
+    assertEquals(batch.indices.toSet() - failedIndices, results.keys)
+
+    val inOrder = decryptInOrder(bufferedStore, batch)
+    assertEquals(failedIndices, inOrder.keys)
+  }
+
+  @Test
+  fun givenACorruptEnvelope_whenIDecryptAhead_thenIExpectOnlyThatEnvelopeToBeLeftForInOrderDecryption() {
+    val bufferedStore = BufferedProtocolStore.create()
+    val batch = interleavedBatch(messagesPerSender = 2).toMutableList()
+    val corrupt = batch[0].envelope
+    batch[0] = corrupt.toBuilder().setContent(corrupt.content.substring(0, corrupt.content.size() - 1)).build().toResponse()
+
+    val results = withSessionLock { EnvelopeDecryptionPipeline.decryptAhead(bufferedStore, batch, UNBOUNDED_SHARDS, EnvelopeDecryptionPipeline::decryptShard) }
+
+    assertNull(results[0])
+    assertEquals(batch.indices.toSet() - 0, results.keys)
+  }
+
+  @Ignore("Performance test with no assertions")
+  @Test
+  fun decryptAheadVersusInOrderPerformance() {
+    val batch = interleavedBatch(messagesPerSender = 100)
+
+    val inOrderStart = System.currentTimeMillis()
+    val inOrder = decryptInOrder(BufferedProtocolStore.create(), batch)
+    val inOrderDuration = System.currentTimeMillis() - inOrderStart
+
+    val aheadStart = System.currentTimeMillis()
+    val ahead = withSessionLock { EnvelopeDecryptionPipeline.decryptAhead(BufferedProtocolStore.create(), batch) }
+    val aheadDuration = System.currentTimeMillis() - aheadStart
+
+    AndroidLog.w(TAG, "In order: decrypted ${inOrder.size} of ${batch.size} envelopes in $inOrderDuration ms")
+    AndroidLog.w(TAG, "Ahead: decrypted ${ahead.size} of ${batch.size} envelopes in $aheadDuration ms")
+  }
+
+  private fun establishSession(aliceClient: AliceClient, bobClient: BobClient, bob: Recipient) {
+    aliceClient.process(bobClient.encrypt(nextTimestamp()), System.currentTimeMillis())
+
+    val aliceNow = nextTimestamp()
+    bobClient.decrypt(aliceClient.encrypt(aliceNow, bob), aliceNow)
+  }
+
+  /**
+   * Messages from every sender, interleaved like they would be if they arrived at around the same time.
+   */
+  private fun interleavedBatch(messagesPerSender: Int): List<EnvelopeResponse> {
+    return (0 until messagesPerSender).flatMap { bobClients.map { bobClient -> bobClient.encryptUnsealed(nextTimestamp()).toResponse() } }
+  }
+
+  private fun batchFrom(bobClient: BobClient, count: Int): List<EnvelopeResponse> {
+    return List(count) { bobClient.encryptUnsealed(nextTimestamp()).toResponse() }
+  }
+
+  /**
+   * Decrypts [batch] one envelope at a time on the calling thread, like the envelopes that weren't decrypted ahead of time are.
+   *
+   * @return The successful results, keyed by index.
+   */
+  private fun decryptInOrder(bufferedStore: BufferedProtocolStore, batch: List<EnvelopeResponse>): Map<Int, SignalServiceCipherResult> {
+    return withSessionLock {
+      batch.indices
+        .mapNotNull { i -> MessageDecryptor.decryptCiphertextOnly(bufferedStore, batch[i].envelope, batch[i].serverDeliveredTimestamp, ReentrantSessionLock.INSTANCE)?.let { i to it } }
+        .toMap()
+    }
+  }
+
+  private fun <T> withSessionLock(block: () -> T): T {
+    return ReentrantSessionLock.INSTANCE.acquire().use { block() }
+  }
+
+  private fun nextTimestamp(): Long {
+    return now++
+  }
+
+  private fun Envelope.toResponse(): EnvelopeResponse {
+    return EnvelopeResponse(this, serverTimestamp, WebSocketRequestMessage.getDefaultInstance())
+  }
+}
@@ -0,0 +1,147 @@
+package org.thoughtcrime.securesms.messages
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import io.mockk.every
+import io.mockk.mockkStatic
+import io.mockk.spyk
+import io.mockk.unmockkStatic
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.libsignal.protocol.ecc.Curve
+import org.signal.libsignal.protocol.ecc.ECKeyPair
+import org.signal.libsignal.zkgroup.profiles.ProfileKey
+import org.thoughtcrime.securesms.crypto.UnidentifiedAccessUtil
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
+import org.thoughtcrime.securesms.messages.protocol.BufferedProtocolStore
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.AliceClient
+import org.thoughtcrime.securesms.testing.BobClient
+import org.thoughtcrime.securesms.testing.FakeClientHelpers
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import org.thoughtcrime.securesms.util.FeatureFlags
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
+import org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage
+
+/**
+ * Tests for how [IncomingMessageObserver.processBatch] commits a batch and when it acks it.
+ */
+@RunWith(AndroidJUnit4::class)
+class IncomingMessageObserverTest {
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = 1)
+
+  private val trustRoot: ECKeyPair = Curve.generateKeyPair()
+
+  private lateinit var bob: Recipient
+  private lateinit var bobClient: BobClient
+  private var now = System.currentTimeMillis()
+
+  @Before
+  fun setUp() {
+    mockkStatic(UnidentifiedAccessUtil::class)
+    every { UnidentifiedAccessUtil.getCertificateValidator() } returns FakeClientHelpers.noOpCertificateValidator
+
+    mockkStatic(FeatureFlags::class)
+    every { FeatureFlags.batchedMessageProcessing() } returns true
+    every { FeatureFlags.parallelMessageDecryption() } returns false
+
+    val aliceClient = AliceClient(
+      serviceId = harness.self.requireServiceId(),
+      e164 = harness.self.requireE164(),
+      trustRoot = trustRoot
+    )
+
+    bob = Recipient.resolved(harness.others[0])
+    bobClient = BobClient(
+      serviceId = bob.requireServiceId(),
+      e164 = bob.requireE164(),
+      identityKeyPair = harness.othersKeys[0],
+      trustRoot = trustRoot,
+      profileKey = ProfileKey(bob.profileKey)
+    )
+
+    aliceClient.process(bobClient.encrypt(nextTimestamp()), System.currentTimeMillis())
+
+    val aliceNow = nextTimestamp()
+    bobClient.decrypt(aliceClient.encrypt(aliceNow, bob), aliceNow)
+  }
+
+  @After
+  fun tearDown() {
+    unmockkStatic(UnidentifiedAccessUtil::class)
+    unmockkStatic(FeatureFlags::class)
+  }
+
+  @Test
+  fun givenABatch_whenIProcessIt_thenIExpectItToBeAckedOnceAfterTheWholeBatchIsCommitted() {
+    val messagesBefore = messageCount()
+    val batch = batch(count = 5)
+    val acks: MutableList<List<EnvelopeResponse>> = mutableListOf()
+
+    ApplicationDependencies.getIncomingMessageObserver().processBatch(BufferedProtocolStore.create(), batch) { acked ->
+      assertFalse(SignalDatabase.inTransaction)
+      assertEquals(messagesBefore + batch.size, messageCount())
+      acks += acked
+    }
+
+    assertEquals(listOf(batch), acks)
+  }
+
+  @Test
+  fun givenABatchThatFailsBeforeCommitting_whenIProcessIt_thenIExpectNothingToBeCommittedOrAcked() {
+    val messagesBefore = messageCount()
+    val batch = batch(count = 5)
+    val bufferedStore = spyk(BufferedProtocolStore.create())
+    every { bufferedStore.flushToDisk() } throws IllegalStateException("Flush failure!")
+
+    try {
+      ApplicationDependencies.getIncomingMessageObserver().processBatch(bufferedStore, batch) { fail("Nothing should be acked!") }
+      fail("Expected the batch to fail!")
+    } catch (e: IllegalStateException) {
+      assertEquals("Flush failure!", e.message)
+    }
+
+    assertEquals(messagesBefore, messageCount())
+  }
+
+  @Test
+  fun givenBatchingIsDisabled_whenIProcessABatch_thenIExpectEachEnvelopeToBeAckedAfterItIsCommitted() {
+    every { FeatureFlags.batchedMessageProcessing() } returns false
+
+    val messagesBefore = messageCount()
+    val batch = batch(count = 3)
+    val acks: MutableList<List<EnvelopeResponse>> = mutableListOf()
+
+    ApplicationDependencies.getIncomingMessageObserver().processBatch(BufferedProtocolStore.create(), batch) { acked ->
+      assertFalse(SignalDatabase.inTransaction)
+      acks += acked
+      assertEquals(messagesBefore + acks.size, messageCount())
+    }
+
+    assertEquals(batch.map { listOf(it) }, acks)
+  }
+
+  private fun batch(count: Int): List<EnvelopeResponse> {
+    return List(count) {
+      val envelope = bobClient.encrypt(nextTimestamp())
+      EnvelopeResponse(envelope, envelope.serverTimestamp, WebSocketRequestMessage.getDefaultInstance())
+    }
+  }
+
+  private fun messageCount(): Int {
+    val threadId = SignalDatabase.threads.getThreadIdFor(bob.id) ?: return 0
+    return SignalDatabase.messages.getMessageCountForThread(threadId)
+  }
+
+  private fun nextTimestamp(): Long {
+    return now++
+  }
+}
@@ -0,0 +1,90 @@
+package org.thoughtcrime.securesms.notifications.v2
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.MessageTable
+import org.thoughtcrime.securesms.database.MessageTypes
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+
+/**
+ * Measures how long it takes to build the notification state when there are many unread messages spread across many threads, which is
+ * what happens on every incoming message while the user is away, both from scratch and when only what changed since the last build is loaded.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+@RunWith(AndroidJUnit4::class)
+class NotificationStatePerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(NotificationStatePerformanceTest::class.java)
+
+    private const val THREAD_COUNT = 50
+    private const val MESSAGES_PER_THREAD = 10
+    private const val ITERATIONS = 20
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = THREAD_COUNT)
+
+  @Test
+  fun constructNotificationState() {
+    for (other in harness.others) {
+      insertUnreadMessages(Recipient.resolved(other))
+    }
+
+    NotificationStateProvider.invalidate()
+    val state = NotificationStateProvider.constructNotificationState(emptyMap(), null)
+
+    var fullNanos = 0L
+    repeat(ITERATIONS) {
+      NotificationStateProvider.invalidate()
+
+      val startTime = System.nanoTime()
+      NotificationStateProvider.constructNotificationState(emptyMap(), null)
+      fullNanos += System.nanoTime() - startTime
+    }
+
+    var incrementalNanos = 0L
+    harness.others.take(ITERATIONS).forEach { other ->
+      SignalDatabase.messages.setEntireThreadRead(SignalDatabase.threads.getThreadIdFor(other)!!)
+
+      val startTime = System.nanoTime()
+      NotificationStateProvider.constructNotificationState(emptyMap(), null)
+      incrementalNanos += System.nanoTime() - startTime
+    }
+
+    Log.i(TAG, "[${THREAD_COUNT * MESSAGES_PER_THREAD} unread, ${state.conversations.size} conversations] full: ${fullNanos / ITERATIONS / 1000} us/build, after a thread is read: ${incrementalNanos / ITERATIONS / 1000} us/build")
+  }
+
+  private fun insertUnreadMessages(recipient: Recipient) {
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+
+    SignalDatabase.rawDatabase.execSQL(
+      """
+        INSERT INTO ${MessageTable.TABLE_NAME} (
+          ${MessageTable.DATE_SENT},
+          ${MessageTable.DATE_RECEIVED},
+          ${MessageTable.THREAD_ID},
+          ${MessageTable.FROM_RECIPIENT_ID},
+          ${MessageTable.TO_RECIPIENT_ID},
+          ${MessageTable.TYPE},
+          ${MessageTable.BODY}
+        )
+        WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < ?)
+        SELECT n, n, ?, ?, ?, ?, 'message ' || n FROM seq
+      """,
+      arrayOf(
+        MESSAGES_PER_THREAD,
+        threadId,
+        recipient.id.toLong(),
+        harness.self.id.toLong(),
+        MessageTypes.BASE_INBOX_TYPE or MessageTypes.SECURE_MESSAGE_BIT or MessageTypes.PUSH_MESSAGE_BIT
+      )
+    )
+  }
+}
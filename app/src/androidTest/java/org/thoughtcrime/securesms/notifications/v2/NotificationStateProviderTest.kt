@@ -0,0 +1,271 @@
+package org.thoughtcrime.securesms.notifications.v2
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.CursorUtil
+import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment
+import org.thoughtcrime.securesms.attachments.PointerAttachment
+import org.thoughtcrime.securesms.database.MessageTable
+import org.thoughtcrime.securesms.database.MmsHelper
+import org.thoughtcrime.securesms.database.NoSuchMessageException
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.database.model.DistributionListId
+import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord
+import org.thoughtcrime.securesms.database.model.MessageId
+import org.thoughtcrime.securesms.database.model.MessageRecord
+import org.thoughtcrime.securesms.database.model.MmsMessageRecord
+import org.thoughtcrime.securesms.database.model.ParentStoryId
+import org.thoughtcrime.securesms.database.model.ReactionRecord
+import org.thoughtcrime.securesms.database.model.StoryType
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
+import org.thoughtcrime.securesms.mms.IncomingMediaMessage
+import org.thoughtcrime.securesms.notifications.v2.NotificationStateProvider.NotificationMessage
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentPointer
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentRemoteId
+import java.util.Optional
+
+/**
+ * Checks that building the notification state with bulk lookups gives the same result as looking everything up one message at a time, and
+ * that builds that only load what changed since the last one give the same result as a full query.
+ */
+@RunWith(AndroidJUnit4::class)
+class NotificationStateProviderTest {
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = 3)
+
+  private lateinit var myStory: Recipient
+  private var timestamp = 1000L
+
+  @Before
+  fun setUp() {
+    myStory = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromDistributionListId(DistributionListId.MY_STORY))
+    NotificationStateProvider.invalidate()
+  }
+
+  @Test
+  fun givenUnreadMessagesRepliesAndReactions_whenIGetNotificationMessages_thenIExpectTheSameResultAsPerMessageLookups() {
+    // GIVEN
+    val (alice, bob, carol) = harness.others
+
+    repeat(3) { insertIncoming(alice) }
+    insertIncoming(bob, attachmentCount = 2)
+
+    val outgoingId = MmsHelper.insert(recipient = Recipient.resolved(carol), sentTimeMillis = nextTimestamp())
+    SignalDatabase.reactions.addReaction(MessageId(outgoingId), ReactionRecord("👍", carol, nextTimestamp(), nextTimestamp()))
+    SignalDatabase.reactions.addReaction(MessageId(outgoingId), ReactionRecord("❤️", bob, nextTimestamp(), nextTimestamp()))
+
+    val ourStory = MmsHelper.insert(recipient = myStory, sentTimeMillis = nextTimestamp(), storyType = StoryType.STORY_WITH_REPLIES)
+    insertIncoming(alice, threadRecipient = myStory, parentStoryId = ParentStoryId.GroupReply(ourStory))
+
+    val repliedStory = insertIncoming(bob, threadRecipient = myStory, storyType = StoryType.STORY_WITH_REPLIES)
+    MmsHelper.insert(recipient = myStory, sentTimeMillis = nextTimestamp(), parentStoryId = ParentStoryId.GroupReply(repliedStory), isStoryReaction = true)
+    insertIncoming(carol, threadRecipient = myStory, parentStoryId = ParentStoryId.GroupReply(repliedStory))
+
+    val otherStory = insertIncoming(carol, threadRecipient = myStory, storyType = StoryType.STORY_WITH_REPLIES)
+    insertIncoming(alice, threadRecipient = myStory, parentStoryId = ParentStoryId.GroupReply(otherStory))
+
+    // WHEN
+    val batched = NotificationStateProvider.getNotificationMessages(emptyMap())
+    val perMessage = getNotificationMessagesPerMessage()
+
+    // THEN
+    assertEquals(perMessage.map { it.toSnapshot() }, batched.map { it.toSnapshot() })
+
+    assertTrue(batched.any { it.isParentStorySentBySelf })
+    assertTrue(batched.any { it.hasSelfRepliedToStory })
+    assertTrue(batched.any { it.thread.groupStoryId == otherStory && !it.hasSelfRepliedToStory })
+    assertTrue(batched.any { it.reactions.size == 2 })
+    assertTrue(batched.any { it.toSnapshot().attachmentIds.size == 2 })
+
+    assertEquals(
+      NotificationStateProvider.constructNotificationState(perMessage, emptyMap(), null).toSnapshot(),
+      NotificationStateProvider.constructNotificationState(batched, emptyMap(), null).toSnapshot()
+    )
+  }
+
+  @Test
+  fun givenAKeptBuild_whenMessagesAreInsertedReadAndReactedTo_thenIExpectTheSameResultAsAFullQuery() {
+    // GIVEN
+    val (alice, bob, carol) = harness.others
+
+    repeat(2) { insertIncoming(alice) }
+    insertIncoming(bob)
+    val outgoingId = MmsHelper.insert(recipient = Recipient.resolved(carol), sentTimeMillis = nextTimestamp())
+
+    val ourStory = MmsHelper.insert(recipient = myStory, sentTimeMillis = nextTimestamp(), storyType = StoryType.STORY_WITH_REPLIES)
+    insertIncoming(alice, threadRecipient = myStory, parentStoryId = ParentStoryId.GroupReply(ourStory))
+
+    val otherStory = insertIncoming(carol, threadRecipient = myStory, storyType = StoryType.STORY_WITH_REPLIES)
+    insertIncoming(bob, threadRecipient = myStory, parentStoryId = ParentStoryId.GroupReply(otherStory))
+
+    NotificationStateProvider.getNotificationMessages(emptyMap())
+
+    // WHEN
+    insertIncoming(alice, attachmentCount = 1)
+    insertIncoming(carol)
+    SignalDatabase.messages.setEntireThreadRead(SignalDatabase.threads.getThreadIdFor(bob)!!)
+    SignalDatabase.reactions.addReaction(MessageId(outgoingId), ReactionRecord("👍", carol, nextTimestamp(), nextTimestamp()))
+    MmsHelper.insert(recipient = myStory, sentTimeMillis = nextTimestamp(), parentStoryId = ParentStoryId.GroupReply(otherStory))
+
+    val incremental = NotificationStateProvider.getNotificationMessages(emptyMap())
+
+    NotificationStateProvider.invalidate()
+    val full = NotificationStateProvider.getNotificationMessages(emptyMap())
+
+    // THEN
+    assertEquals(full.map { it.toSnapshot() }, incremental.map { it.toSnapshot() })
+
+    assertTrue(incremental.none { it.threadRecipient.id == bob && it.thread.groupStoryId == null })
+    assertTrue(incremental.any { it.messageRecord.id == outgoingId && it.reactions.size == 1 })
+    assertTrue(incremental.any { it.thread.groupStoryId == otherStory && it.hasSelfRepliedToStory })
+  }
+
+  @Test
+  fun givenAKeptBuild_whenMessagesAreDeletedOrNotified_thenIExpectThemToBeDropped() {
+    // GIVEN
+    val (alice, bob) = harness.others
+
+    val deleted = insertIncoming(alice)
+    val notified = insertIncoming(bob)
+    val kept = insertIncoming(bob)
+
+    assertEquals(listOf(deleted, notified, kept), NotificationStateProvider.getNotificationMessages(emptyMap()).map { it.messageRecord.id })
+
+    // WHEN
+    SignalDatabase.messages.deleteMessage(deleted)
+    SignalDatabase.messages.markAsNotified(notified)
+
+    // THEN
+    assertEquals(listOf(kept), NotificationStateProvider.getNotificationMessages(emptyMap()).map { it.messageRecord.id })
+  }
+
+  private fun insertIncoming(
+    from: RecipientId,
+    threadRecipient: Recipient = Recipient.resolved(from),
+    attachmentCount: Int = 0,
+    storyType: StoryType = StoryType.NONE,
+    parentStoryId: ParentStoryId? = null
+  ): Long {
+    val timestamp = nextTimestamp()
+    val message = IncomingMediaMessage(
+      from = from,
+      body = "body $timestamp",
+      storyType = storyType,
+      parentStoryId = parentStoryId,
+      sentTimeMillis = timestamp,
+      serverTimeMillis = timestamp,
+      receivedTimeMillis = timestamp,
+      attachments = PointerAttachment.forPointers(Optional.of((0 until attachmentCount).map { attachment() }))
+    )
+
+    return SignalDatabase.messages.insertSecureDecryptedMessageInbox(message, SignalDatabase.threads.getOrCreateThreadIdFor(threadRecipient)).get().messageId
+  }
+
+  private fun nextTimestamp(): Long {
+    return timestamp++
+  }
+
+  /**
+   * How the notification messages were built before the lookups were batched, with every query made for one message at a time.
+   */
+  private fun getNotificationMessagesPerMessage(): List<NotificationMessage> {
+    val messages: MutableList<NotificationMessage> = mutableListOf()
+
+    SignalDatabase.messages.getMessagesForNotificationState(emptyList()).use { unreadMessages ->
+      MessageTable.mmsReaderFor(unreadMessages).use { reader ->
+        var record: MessageRecord? = reader.getNext()
+        while (record != null) {
+          val threadRecipient: Recipient? = SignalDatabase.threads.getRecipientForThreadId(record.threadId)
+          if (threadRecipient != null) {
+            val hasUnreadReactions = CursorUtil.requireInt(unreadMessages, MessageTable.REACTIONS_UNREAD) == 1
+            val conversationId = ConversationId.fromMessageRecord(record)
+
+            val parentRecord = conversationId.groupStoryId?.let {
+              try {
+                SignalDatabase.messages.getMessageRecord(it)
+              } catch (e: NoSuchMessageException) {
+                null
+              }
+            }
+
+            if (record is MediaMmsMessageRecord) {
+              val attachments = SignalDatabase.attachments.getAttachmentsForMessage(record.id)
+              if (attachments.isNotEmpty()) {
+                record = record.withAttachments(ApplicationDependencies.getApplication(), attachments)
+              }
+            }
+
+            messages += NotificationMessage(
+              messageRecord = record,
+              reactions = if (hasUnreadReactions) SignalDatabase.reactions.getReactions(MessageId(record.id)) else emptyList(),
+              threadRecipient = threadRecipient,
+              thread = conversationId,
+              stickyThread = false,
+              isUnreadMessage = CursorUtil.requireInt(unreadMessages, MessageTable.READ) == 0,
+              hasUnreadReactions = hasUnreadReactions,
+              lastReactionRead = CursorUtil.requireLong(unreadMessages, MessageTable.REACTIONS_LAST_SEEN),
+              isParentStorySentBySelf = parentRecord?.isOutgoing ?: false,
+              hasSelfRepliedToStory = conversationId.groupStoryId?.let { SignalDatabase.messages.hasGroupReplyOrReactionInStory(it) } ?: false
+            )
+          }
+
+          record = reader.getNext()
+        }
+      }
+    }
+
+    return messages
+  }
+
+  /**
+   * [MessageRecord] equality only looks at the id, so the attachments are compared separately.
+   */
+  private fun NotificationMessage.toSnapshot(): Snapshot {
+    return Snapshot(
+      message = this,
+      attachmentIds = (messageRecord as? MmsMessageRecord)?.slideDeck?.asAttachments()?.map { (it as DatabaseAttachment).attachmentId } ?: emptyList()
+    )
+  }
+
+  private fun NotificationState.toSnapshot(): List<Any> {
+    return listOf(
+      conversations.map { conversation -> conversation.thread to conversation.notificationItems.map { Triple(it::class, it.id, it.isMms) } },
+      muteFilteredMessages,
+      profileFilteredMessages
+    )
+  }
+
+  private fun attachment(): SignalServiceAttachmentPointer {
+    return SignalServiceAttachmentPointer(
+      0,
+      SignalServiceAttachmentRemoteId.from(""),
+      "image/webp",
+      null,
+      Optional.empty(),
+      Optional.empty(),
+      1024,
+      1024,
+      Optional.empty(),
+      Optional.empty(),
+      Optional.of("/not-there.jpg"),
+      false,
+      false,
+      false,
+      Optional.empty(),
+      Optional.empty(),
+      System.currentTimeMillis()
+    )
+  }
+
+  private data class Snapshot(val message: NotificationMessage, val attachmentIds: List<AttachmentId>)
+}
@@ -75,6 +75,22 @@ class BobClient(val serviceId: ServiceId, val e164: String, val identityKeyPair:
       .toEnvelope(envelopeContent.content.get().dataMessage.timestamp, getAliceServiceId())
   }
 
+  /**
+   * Like [encrypt], but without sealed sender, so the envelope is a plain ciphertext with Bob as the visible source. Requires an
+   * established session, otherwise the envelope would be a prekey message.
+   */
+  fun encryptUnsealed(now: Long): SignalServiceProtos.Envelope {
+    val envelopeContent = FakeClientHelpers.encryptedTextMessage(now)
+
+    val cipher = SignalServiceCipher(serviceAddress, 1, aciStore, sessionLock, null)
+
+    return cipher.encrypt(getAliceProtocolAddress(), Optional.empty(), envelopeContent)
+      .toEnvelope(now, getAliceServiceId())
+      .toBuilder()
+      .setSourceServiceId(serviceId.toString())
+      .build()
+  }
+
   fun decrypt(envelope: SignalServiceProtos.Envelope, serverDeliveredTimestamp: Long) {
     val cipher = SignalServiceCipher(serviceAddress, 1, aciStore, sessionLock, UnidentifiedAccessUtil.getCertificateValidator())
     cipher.decrypt(envelope, serverDeliveredTimestamp)
@@ -41,7 +41,8 @@ import org.signal.ringrtc.CallManager;
 import org.thoughtcrime.securesms.avatar.AvatarPickerStorage;
 import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
 import org.thoughtcrime.securesms.crypto.DatabaseSecretProvider;
-import org.thoughtcrime.securesms.database.LogDatabase;
+import org.thoughtcrime.securesms.database.DatabaseMonitor;
+import org.thoughtcrime.securesms.database.QueryProfiler;
 import org.thoughtcrime.securesms.database.SignalDatabase;
 import org.thoughtcrime.securesms.database.SqlCipherLibraryLoader;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
@@ -70,6 +71,7 @@ import org.thoughtcrime.securesms.jobs.SubscriptionKeepAliveJob;
 import org.thoughtcrime.securesms.keyvalue.KeepMessagesDuration;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.logging.CustomSignalProtocolLogger;
+import org.thoughtcrime.securesms.logging.LogStore;
 import org.thoughtcrime.securesms.logging.PersistentLogger;
 import org.thoughtcrime.securesms.messageprocessingalarm.MessageProcessReceiver;
 import org.thoughtcrime.securesms.migrations.ApplicationMigrations;
@@ -111,6 +113,7 @@ import io.reactivex.rxjava3.exceptions.OnErrorNotImplementedException;
 import io.reactivex.rxjava3.exceptions.UndeliverableException;
 import io.reactivex.rxjava3.plugins.RxJavaPlugins;
 import io.reactivex.rxjava3.schedulers.Schedulers;
+import kotlin.Unit;
 import rxdogtag2.RxDogTag;
 
 /**
@@ -143,6 +146,10 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
 
     if (FeatureFlags.internalUser()) {
       Tracer.getInstance().setMaxBufferSize(35_000);
+      DatabaseMonitor.INSTANCE.initializeProfiler(new QueryProfiler(500, 1000, TimeUnit.MILLISECONDS.toNanos(100), (shape, duration) -> {
+        SignalLocalMetrics.SlowDatabaseStatement.onSlowStatement(shape, duration);
+        return Unit.INSTANCE;
+      }));
     }
 
     super.onCreate();
@@ -176,6 +183,7 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
                             })
                             .addBlocking("blob-provider", this::initializeBlobProvider)
                             .addBlocking("feature-flags", FeatureFlags::init)
+                            .addBlocking("tracing", () -> Tracer.getInstance().setEnabled(FeatureFlags.tracing()))
                             .addBlocking("ring-rtc", this::initializeRingRtc)
                             .addBlocking("glide", () -> SignalGlideModule.setRegisterGlideComponents(new SignalGlideComponents()))
                             .addNonBlocking(() -> GlideApp.get(this))
@@ -305,7 +313,7 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
 
     SignalExecutors.UNBOUNDED.execute(() -> {
       Log.blockUntilAllWritesFinished();
-      LogDatabase.getInstance(this).trimToSize();
+      LogStore.getInstance(this).trimToSize();
     });
   }
 
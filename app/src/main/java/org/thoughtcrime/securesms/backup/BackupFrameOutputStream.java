@@ -23,6 +23,7 @@ import org.thoughtcrime.securesms.backup.proto.SqlStatement;
 import org.thoughtcrime.securesms.backup.proto.Sticker;
 import org.thoughtcrime.securesms.util.Util;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -35,6 +36,7 @@ import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -42,14 +44,24 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
 
   private static final String TAG = Log.tag(BackupFrameOutputStream.class);
 
-  private final OutputStream outputStream;
-  private final Cipher       cipher;
-  private final Mac          mac;
+  /**
+   * Frames are small and written one at a time, so we buffer generously to avoid a write syscall (or three) per frame.
+   */
+  private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+  private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+  private final OutputStream  outputStream;
+  private final Cipher        cipher;
+  private final Mac           mac;
+  private final SecretKeySpec cipherKey;
 
-  private final byte[] cipherKey;
   private final byte[] iv;
   private       int    counter;
 
+  private final byte[] macBuffer;
+  private       byte[] streamBuffer;
+  private       byte[] streamCipherBuffer;
+
   private int frames;
 
   BackupFrameOutputStream(@NonNull OutputStream output, @NonNull String passphrase) throws IOException {
@@ -59,17 +71,19 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
       byte[]   derived = HKDF.deriveSecrets(key, "Backup Export".getBytes(), 64);
       byte[][] split   = ByteUtil.split(derived, 32, 32);
 
-      this.cipherKey = split[0];
+      this.cipherKey = new SecretKeySpec(split[0], "AES");
       byte[] macKey = split[1];
 
       this.cipher       = Cipher.getInstance("AES/CTR/NoPadding");
       this.mac          = Mac.getInstance("HmacSHA256");
-      this.outputStream = output;
+      this.outputStream = new BufferedOutputStream(output, OUTPUT_BUFFER_SIZE);
       this.iv           = Util.getSecretBytes(16);
       this.counter      = Conversions.byteArrayToInt(iv);
 
       mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
 
+      this.macBuffer = new byte[mac.getMacLength()];
+
       byte[] header = new BackupFrame.Builder().header_(new Header.Builder()
                                                             .iv(new okio.ByteString(iv))
                                                             .salt(new okio.ByteString(salt))
@@ -160,6 +174,7 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
 
   void writeEnd() throws IOException {
     write(outputStream, new BackupFrame.Builder().end(true).build());
+    outputStream.flush();
   }
 
   /**
@@ -168,34 +183,40 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
   private long writeStream(@NonNull InputStream inputStream) throws IOException {
     try {
       Conversions.intToByteArray(iv, 0, counter++);
-      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+      cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(iv));
       mac.update(iv);
 
-      byte[] buffer = new byte[8192];
-      long   total  = 0;
+      if (streamBuffer == null) {
+        streamBuffer       = new byte[STREAM_BUFFER_SIZE];
+        streamCipherBuffer = new byte[cipher.getOutputSize(STREAM_BUFFER_SIZE)];
+      }
+
+      byte[] buffer           = streamBuffer;
+      byte[] ciphertextBuffer = streamCipherBuffer;
+      long   total            = 0;
 
       int read;
 
       while ((read = inputStream.read(buffer)) != -1) {
-        byte[] ciphertext = cipher.update(buffer, 0, read);
+        int ciphertextLength = cipher.update(buffer, 0, read, ciphertextBuffer, 0);
 
-        if (ciphertext != null) {
-          outputStream.write(ciphertext);
-          mac.update(ciphertext);
+        if (ciphertextLength > 0) {
+          outputStream.write(ciphertextBuffer, 0, ciphertextLength);
+          mac.update(ciphertextBuffer, 0, ciphertextLength);
         }
 
         total += read;
       }
 
-      byte[] remainder = cipher.doFinal();
-      outputStream.write(remainder);
-      mac.update(remainder);
+      int remainderLength = cipher.doFinal(ciphertextBuffer, 0);
+      outputStream.write(ciphertextBuffer, 0, remainderLength);
+      mac.update(ciphertextBuffer, 0, remainderLength);
 
-      byte[] attachmentDigest = mac.doFinal();
-      outputStream.write(attachmentDigest, 0, 10);
+      mac.doFinal(macBuffer, 0);
+      outputStream.write(macBuffer, 0, 10);
 
       return total;
-    } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
       throw new AssertionError(e);
     }
   }
@@ -203,7 +224,7 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
   private void write(@NonNull OutputStream out, @NonNull BackupFrame frame) throws IOException {
     try {
       Conversions.intToByteArray(iv, 0, counter++);
-      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+      cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(iv));
 
       byte[] encodedFrame = frame.encode();
 
@@ -218,18 +239,20 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
         length = encryptedLength;
       }
 
-      byte[] frameCiphertext = cipher.doFinal(frame.encode());
-      if (frameCiphertext.length != encodedFrame.length) {
+      // The encoded frame is ours, so we encrypt it in place rather than allocating another array for the ciphertext
+      int ciphertextLength = cipher.doFinal(encodedFrame, 0, encodedFrame.length, encodedFrame, 0);
+      if (ciphertextLength != encodedFrame.length) {
         throw new IOException("Stream cipher assumption has been violated!");
       }
 
-      byte[] frameMac = mac.doFinal(frameCiphertext);
+      mac.update(encodedFrame, 0, ciphertextLength);
+      mac.doFinal(macBuffer, 0);
 
       out.write(length);
-      out.write(frameCiphertext);
-      out.write(frameMac, 0, 10);
+      out.write(encodedFrame, 0, ciphertextLength);
+      out.write(macBuffer, 0, 10);
       frames++;
-    } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
       throw new AssertionError(e);
     }
   }
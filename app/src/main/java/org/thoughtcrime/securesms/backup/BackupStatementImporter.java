@@ -0,0 +1,108 @@
+package org.thoughtcrime.securesms.backup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+import net.zetetic.database.sqlcipher.SQLiteStatement;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.backup.proto.SqlStatement;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Replays the {@link SqlStatement}s of a backup into a database.
+ *
+ * A backup contains one identical INSERT per row of each table, so instead of running each one through {@link SQLiteDatabase#execSQL(String, Object[])}
+ * (which compiles the statement every time) we compile each distinct statement once and rebind it for every row.
+ *
+ * To speed up the inserts further, non-unique indexes are only created once all of the rows have been loaded. Everything happens within
+ * the caller's transaction, so a failed import leaves nothing behind.
+ */
+class BackupStatementImporter implements Closeable {
+
+  private static final String TAG = Log.tag(BackupStatementImporter.class);
+
+  private final SQLiteDatabase db;
+
+  /** There's one distinct insert per table, so this stays small. */
+  private final Map<String, SQLiteStatement> compiledStatements = new HashMap<>();
+  private final List<String>                 deferredIndexes    = new ArrayList<>();
+
+  /**
+   * @param db Must be in a transaction.
+   */
+  BackupStatementImporter(@NonNull SQLiteDatabase db) {
+    this.db = db;
+  }
+
+  void execute(@NonNull String sql, @NonNull List<SqlStatement.SqlParameter> parameters) {
+    if (parameters.isEmpty()) {
+      if (isDeferrableIndex(sql)) {
+        deferredIndexes.add(sql);
+      } else {
+        db.execSQL(sql);
+      }
+      return;
+    }
+
+    SQLiteStatement statement = compiledStatements.get(sql);
+    if (statement == null) {
+      statement = db.compileStatement(sql);
+      compiledStatements.put(sql, statement);
+    }
+
+    statement.clearBindings();
+
+    for (int i = 0; i < parameters.size(); i++) {
+      SqlStatement.SqlParameter parameter = parameters.get(i);
+      int                       index     = i + 1;
+
+      if      (parameter.stringParamter != null)   statement.bindString(index, parameter.stringParamter);
+      else if (parameter.doubleParameter != null)  statement.bindDouble(index, parameter.doubleParameter);
+      else if (parameter.integerParameter != null) statement.bindLong(index, parameter.integerParameter);
+      else if (parameter.blobParameter != null)    statement.bindBlob(index, parameter.blobParameter.toByteArray());
+      else                                         statement.bindNull(index);
+    }
+
+    statement.execute();
+  }
+
+  /**
+   * Creates any indexes that were deferred. Must be called once all rows have been imported.
+   */
+  void finish() {
+    close();
+
+    long startTime = System.currentTimeMillis();
+
+    for (String index : deferredIndexes) {
+      db.execSQL(index);
+    }
+
+    Log.i(TAG, "Created " + deferredIndexes.size() + " deferred indexes in " + (System.currentTimeMillis() - startTime) + " ms");
+    deferredIndexes.clear();
+  }
+
+  @Override
+  public void close() {
+    for (SQLiteStatement statement : compiledStatements.values()) {
+      statement.close();
+    }
+    compiledStatements.clear();
+  }
+
+  /**
+   * Unique indexes enforce constraints that the inserts may rely on (e.g. for conflict resolution), so only plain indexes can be deferred.
+   */
+  @VisibleForTesting
+  static boolean isDeferrableIndex(@NonNull String sql) {
+    return sql.trim().toUpperCase(Locale.US).startsWith("CREATE INDEX");
+  }
+}
@@ -43,6 +43,7 @@ import org.thoughtcrime.securesms.database.SenderKeySharedTable;
 import org.thoughtcrime.securesms.database.SessionTable;
 import org.thoughtcrime.securesms.database.SignedPreKeyTable;
 import org.thoughtcrime.securesms.database.StickerTable;
+import org.thoughtcrime.securesms.database.SystemContactHashTable;
 import org.thoughtcrime.securesms.database.model.AvatarPickerDatabase;
 import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
@@ -78,6 +79,8 @@ public class FullBackupExporter extends FullBackupBase {
   private static final long IDENTITY_KEY_BACKUP_RECORD_COUNT = 2L;
   private static final long FINAL_MESSAGE_COUNT              = 1L;
 
+  private static final SqlStatement.SqlParameter NULL_PARAMETER = new SqlStatement.SqlParameter.Builder().nullparameter(true).build();
+
   /**
    * Tables in list will still have their *schema* exported (so the tables will be created),
    * but we will not export the actual contents.
@@ -91,7 +94,8 @@ public class FullBackupExporter extends FullBackupBase {
       SenderKeyTable.TABLE_NAME,
       SenderKeySharedTable.TABLE_NAME,
       PendingRetryReceiptTable.TABLE_NAME,
-      AvatarPickerDatabase.TABLE_NAME
+      AvatarPickerDatabase.TABLE_NAME,
+      SystemContactHashTable.TABLE_NAME
   );
 
   public static BackupEvent export(@NonNull Context context,
@@ -151,7 +155,8 @@ public class FullBackupExporter extends FullBackupBase {
       List<String> tables = exportSchema(input, outputStream);
       count += tables.size() * TABLE_RECORD_COUNT_MULTIPLIER;
 
-      final long estimatedCount = calculateCount(context, input, tables);
+      final long             estimatedCount = calculateCount(context, input, tables);
+      final ProgressReporter progress       = new ProgressReporter(estimatedCount);
       estimatedCountOutside = estimatedCount;
 
       Stopwatch stopwatch = new Stopwatch("Backup");
@@ -159,39 +164,39 @@ public class FullBackupExporter extends FullBackupBase {
       for (String table : tables) {
         throwIfCanceled(cancellationSignal);
         if (table.equals(MessageTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, FullBackupExporter::isNonExpiringMmsMessage, null, count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, FullBackupExporter::isNonExpiringMmsMessage, null, count, progress, cancellationSignal);
         } else if (table.equals(ReactionTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, new MessageId(CursorUtil.requireLong(cursor, ReactionTable.MESSAGE_ID))), null, count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, new MessageId(CursorUtil.requireLong(cursor, ReactionTable.MESSAGE_ID))), null, count, progress, cancellationSignal);
         } else if (table.equals(MentionTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMmsMessage(input, CursorUtil.requireLong(cursor, MentionTable.MESSAGE_ID)), null, count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMmsMessage(input, CursorUtil.requireLong(cursor, MentionTable.MESSAGE_ID)), null, count, progress, cancellationSignal);
         } else if (table.equals(GroupReceiptTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMmsMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptTable.MMS_ID))), null, count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMmsMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptTable.MMS_ID))), null, count, progress, cancellationSignal);
         } else if (table.equals(AttachmentTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMmsMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentTable.MMS_ID))), (cursor, innerCount) -> exportAttachment(attachmentSecret, cursor, outputStream, innerCount, estimatedCount), count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMmsMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentTable.MMS_ID))), (cursor, innerCount) -> exportAttachment(attachmentSecret, cursor, outputStream, innerCount, progress), count, progress, cancellationSignal);
         } else if (table.equals(StickerTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> true, (cursor, innerCount) -> exportSticker(attachmentSecret, cursor, outputStream, innerCount, estimatedCount), count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, cursor -> true, (cursor, innerCount) -> exportSticker(attachmentSecret, cursor, outputStream, innerCount, progress), count, progress, cancellationSignal);
         } else if (!TABLE_CONTENT_BLOCKLIST.contains(table)) {
-          count = exportTable(table, input, outputStream, null, null, count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, null, null, count, progress, cancellationSignal);
         }
         stopwatch.split("table::" + table);
       }
 
       for (SharedPreference preference : TextSecurePreferences.getPreferencesToSaveToBackup(context)) {
         throwIfCanceled(cancellationSignal);
-        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
+        progress.onProgress(++count);
         outputStream.write(preference);
       }
 
       stopwatch.split("prefs");
 
-      count = exportKeyValues(outputStream, SignalStore.getKeysToIncludeInBackup(), count, estimatedCount, cancellationSignal);
+      count = exportKeyValues(outputStream, SignalStore.getKeysToIncludeInBackup(), count, progress, cancellationSignal);
 
       stopwatch.split("key_values");
 
       for (AvatarHelper.Avatar avatar : AvatarHelper.getAvatars(context)) {
         throwIfCanceled(cancellationSignal);
         if (avatar != null) {
-          EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
+          progress.onProgress(++count);
           try (InputStream inputStream = avatar.getInputStream()) {
             outputStream.write(avatar.getFilename(), inputStream, avatar.getLength());
           }
@@ -380,68 +385,97 @@ public class FullBackupExporter extends FullBackupBase {
                                  @Nullable Predicate<Cursor> predicate,
                                  @Nullable PostProcessor postProcess,
                                  int count,
-                                 long estimatedCount,
+                                 @NonNull ProgressReporter progress,
                                  @NonNull BackupCancellationSignal cancellationSignal)
       throws IOException
   {
     Log.d(TAG, "Exporting table: " + table);
 
-    String template = "INSERT INTO " + table + " VALUES ";
-
     try (Cursor cursor = input.rawQuery("SELECT * FROM " + table, null)) {
-      while (cursor != null && cursor.moveToNext()) {
-        throwIfCanceled(cancellationSignal);
+      if (cursor != null) {
+        count = exportRows(table, cursor, outputStream, predicate, postProcess, count, progress, cancellationSignal);
+      }
+    }
 
-        if (predicate == null || predicate.test(cursor)) {
-          StringBuilder        statement        = new StringBuilder(template);
-          SqlStatement.Builder statementBuilder = new SqlStatement.Builder();
-
-          statementBuilder.parameters = new ArrayList<>();
-
-          statement.append('(');
-
-          for (int i = 0; i < cursor.getColumnCount(); i++) {
-            statement.append('?');
-
-            if (cursor.getType(i) == Cursor.FIELD_TYPE_STRING) {
-              statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().stringParamter(cursor.getString(i)).build());
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_FLOAT) {
-              statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().doubleParameter(cursor.getDouble(i)).build());
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_INTEGER) {
-              statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().integerParameter(cursor.getLong(i)).build());
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_BLOB) {
-              statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().blobParameter(new ByteString(cursor.getBlob(i))).build());
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_NULL) {
-              statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().nullparameter(true).build());
-            } else {
-              throw new AssertionError("unknown type?" + cursor.getType(i));
-            }
-
-            if (i < cursor.getColumnCount() - 1) {
-              statement.append(',');
-            }
-          }
+    return count;
+  }
 
-          statement.append(')');
+  /**
+   * Writes an insert statement for every row in the cursor. Every row of a table has the same columns, so the statement text is built once
+   * per table, and the parameter list is reused between rows (building the proto makes its own copy).
+   */
+  @VisibleForTesting
+  static int exportRows(@NonNull String table,
+                        @NonNull Cursor cursor,
+                        @NonNull BackupFrameOutputStream outputStream,
+                        @Nullable Predicate<Cursor> predicate,
+                        @Nullable PostProcessor postProcess,
+                        int count,
+                        @NonNull ProgressReporter progress,
+                        @NonNull BackupCancellationSignal cancellationSignal)
+      throws IOException
+  {
+    int                             columnCount      = cursor.getColumnCount();
+    List<SqlStatement.SqlParameter> parameters       = new ArrayList<>(columnCount);
+    SqlStatement.Builder            statementBuilder = new SqlStatement.Builder().statement(buildInsertTemplate(table, columnCount));
 
-          EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
-          outputStream.write(statementBuilder.statement(statement.toString()).build());
+    statementBuilder.parameters = parameters;
 
-          if (postProcess != null) {
-            count = postProcess.postProcess(cursor, count);
+    while (cursor.moveToNext()) {
+      throwIfCanceled(cancellationSignal);
+
+      if (predicate == null || predicate.test(cursor)) {
+        parameters.clear();
+
+        for (int i = 0; i < columnCount; i++) {
+          int type = cursor.getType(i);
+
+          if (type == Cursor.FIELD_TYPE_STRING) {
+            parameters.add(new SqlStatement.SqlParameter.Builder().stringParamter(cursor.getString(i)).build());
+          } else if (type == Cursor.FIELD_TYPE_FLOAT) {
+            parameters.add(new SqlStatement.SqlParameter.Builder().doubleParameter(cursor.getDouble(i)).build());
+          } else if (type == Cursor.FIELD_TYPE_INTEGER) {
+            parameters.add(new SqlStatement.SqlParameter.Builder().integerParameter(cursor.getLong(i)).build());
+          } else if (type == Cursor.FIELD_TYPE_BLOB) {
+            parameters.add(new SqlStatement.SqlParameter.Builder().blobParameter(new ByteString(cursor.getBlob(i))).build());
+          } else if (type == Cursor.FIELD_TYPE_NULL) {
+            parameters.add(NULL_PARAMETER);
+          } else {
+            throw new AssertionError("unknown type?" + type);
           }
         }
+
+        progress.onProgress(++count);
+        outputStream.write(statementBuilder.build());
+
+        if (postProcess != null) {
+          count = postProcess.postProcess(cursor, count);
+        }
       }
     }
 
     return count;
   }
 
+  private static @NonNull String buildInsertTemplate(@NonNull String table, int columnCount) {
+    StringBuilder statement = new StringBuilder("INSERT INTO ").append(table).append(" VALUES (");
+
+    for (int i = 0; i < columnCount; i++) {
+      statement.append('?');
+
+      if (i < columnCount - 1) {
+        statement.append(',');
+      }
+    }
+
+    return statement.append(')').toString();
+  }
+
   private static int exportAttachment(@NonNull AttachmentSecret attachmentSecret,
                                       @NonNull Cursor cursor,
                                       @NonNull BackupFrameOutputStream outputStream,
                                       int count,
-                                      long estimatedCount)
+                                      @NonNull ProgressReporter progress)
       throws IOException
   {
     long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentTable.ROW_ID));
@@ -461,7 +495,7 @@ public class FullBackupExporter extends FullBackupBase {
       }
     }
 
-    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
+    progress.onProgress(++count);
     if (!TextUtils.isEmpty(data) && size > 0) {
       try (InputStream inputStream = openAttachmentStream(attachmentSecret, random, data)) {
         outputStream.write(new AttachmentId(rowId, uniqueId), inputStream, size);
@@ -477,7 +511,7 @@ public class FullBackupExporter extends FullBackupBase {
                                    @NonNull Cursor cursor,
                                    @NonNull BackupFrameOutputStream outputStream,
                                    int count,
-                                   long estimatedCount)
+                                   @NonNull ProgressReporter progress)
       throws IOException
   {
     long rowId = cursor.getLong(cursor.getColumnIndexOrThrow(StickerTable._ID));
@@ -487,7 +521,7 @@ public class FullBackupExporter extends FullBackupBase {
     byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(StickerTable.FILE_RANDOM));
 
     if (!TextUtils.isEmpty(data) && size > 0) {
-      EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
+      progress.onProgress(++count);
       try (InputStream inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0)) {
         outputStream.writeSticker(rowId, inputStream, size);
       } catch (FileNotFoundException e) {
@@ -530,7 +564,7 @@ public class FullBackupExporter extends FullBackupBase {
   private static int exportKeyValues(@NonNull BackupFrameOutputStream outputStream,
                                      @NonNull List<String> keysToIncludeInBackup,
                                      int count,
-                                     long estimatedCount,
+                                     @NonNull ProgressReporter progress,
                                      BackupCancellationSignal cancellationSignal) throws IOException
   {
     KeyValueDataSet dataSet = KeyValueDatabase.getInstance(ApplicationDependencies.getApplication())
@@ -572,7 +606,7 @@ public class FullBackupExporter extends FullBackupBase {
         throw new AssertionError("Unknown type: " + type);
       }
 
-      EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
+      progress.onProgress(++count);
       outputStream.write(builder.build());
     }
 
@@ -614,6 +648,31 @@ public class FullBackupExporter extends FullBackupBase {
     boolean isCanceled();
   }
 
+  /**
+   * Posts {@link BackupEvent.Type#PROGRESS} events at most once every {@link #INTERVAL_MS}. Posting one for every frame meant hundreds of
+   * thousands of events for a large backup, which was a meaningful chunk of the total export time.
+   */
+  static final class ProgressReporter {
+
+    private static final long INTERVAL_MS = 100;
+
+    private final long estimatedCount;
+    private       long lastPostTime;
+
+    ProgressReporter(long estimatedCount) {
+      this.estimatedCount = estimatedCount;
+    }
+
+    void onProgress(long count) {
+      long now = System.currentTimeMillis();
+
+      if (now - lastPostTime >= INTERVAL_MS) {
+        lastPostTime = now;
+        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count, estimatedCount));
+      }
+    }
+  }
+
   public static final class BackupCanceledException extends IOException {}
 
   public static final class InvalidBackupStreamException extends IOException {}
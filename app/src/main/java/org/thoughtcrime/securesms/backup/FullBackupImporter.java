@@ -34,6 +34,7 @@ import org.thoughtcrime.securesms.database.StickerTable;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.keyvalue.KeyValueDataSet;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
+import org.thoughtcrime.securesms.notifications.v2.NotificationStateProvider;
 import org.thoughtcrime.securesms.profiles.AvatarHelper;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.BackupUtil;
@@ -83,7 +84,7 @@ public class FullBackupImporter extends FullBackupBase {
     db.setForeignKeyConstraintsEnabled(false);
     db.beginTransaction();
     keyValueDatabase.beginTransaction();
-    try {
+    try (BackupStatementImporter statementImporter = new BackupStatementImporter(db)) {
       BackupRecordInputStream inputStream = new BackupRecordInputStream(is, passphrase);
 
       dropAllTables(db);
@@ -95,7 +96,7 @@ public class FullBackupImporter extends FullBackupBase {
         count++;
 
         if      (frame.version != null)    processVersion(db, frame.version);
-        else if (frame.statement != null)  processStatement(db, frame.statement);
+        else if (frame.statement != null)  processStatement(statementImporter, frame.statement);
         else if (frame.preference != null) processPreference(context, frame.preference);
         else if (frame.attachment != null) processAttachment(context, attachmentSecret, db, frame.attachment, inputStream);
         else if (frame.sticker != null)    processSticker(context, attachmentSecret, db, frame.sticker, inputStream);
@@ -104,6 +105,8 @@ public class FullBackupImporter extends FullBackupBase {
         else                            count--;
       }
 
+      statementImporter.finish();
+
       db.setTransactionSuccessful();
       keyValueDatabase.setTransactionSuccessful();
     } finally {
@@ -123,6 +126,8 @@ public class FullBackupImporter extends FullBackupBase {
       db.setForeignKeyConstraintsEnabled(true);
     }
 
+    NotificationStateProvider.INSTANCE.invalidate();
+
     EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, count, 0));
   }
 
@@ -142,7 +147,7 @@ public class FullBackupImporter extends FullBackupBase {
     db.setVersion(version.version);
   }
 
-  private static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement) {
+  private static void processStatement(@NonNull BackupStatementImporter statementImporter, SqlStatement statement) {
     if (statement.statement == null) {
       Log.w(TAG, "Null statement!");
       return;
@@ -157,18 +162,7 @@ public class FullBackupImporter extends FullBackupBase {
       return;
     }
 
-    List<Object> parameters = new LinkedList<>();
-
-    for (SqlStatement.SqlParameter parameter : statement.parameters) {
-      if      (parameter.stringParamter != null)   parameters.add(parameter.stringParamter);
-      else if (parameter.doubleParameter != null)  parameters.add(parameter.doubleParameter);
-      else if (parameter.integerParameter != null) parameters.add(parameter.integerParameter);
-      else if (parameter.blobParameter != null)    parameters.add(parameter.blobParameter.toByteArray());
-      else if (parameter.nullparameter != null)    parameters.add(null);
-    }
-
-    if (parameters.size() > 0) db.execSQL(statement.statement, parameters.toArray());
-    else                       db.execSQL(statement.statement);
+    statementImporter.execute(statement.statement, statement.parameters);
   }
 
   private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream)
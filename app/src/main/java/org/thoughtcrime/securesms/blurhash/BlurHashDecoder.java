@@ -21,9 +21,9 @@
 package org.thoughtcrime.securesms.blurhash;
 
 import android.graphics.Bitmap;
-import android.graphics.Color;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.linearTosRGB;
 import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.sRGBToLinear;
@@ -87,7 +87,32 @@ class BlurHashDecoder {
   }
 
   private static Bitmap composeBitmap(int width, int height, int numCompX, int numCompY, double[][] colors) {
-    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    // Immutable, since decoded placeholders are shared (see BlurHashResourceDecoder)
+    return Bitmap.createBitmap(composePixels(width, height, numCompX, numCompY, colors), width, height, Bitmap.Config.ARGB_8888);
+  }
+
+  /**
+   * The basis for each pixel is a product of a cosine that only depends on the column and one that only depends on the row, so rather than
+   * computing both for every pixel and component, we compute each one once up front.
+   */
+  @VisibleForTesting
+  static int[] composePixels(int width, int height, int numCompX, int numCompY, double[][] colors) {
+    double[] cosX = new double[numCompX * width];
+    for (int i = 0; i < numCompX; i++) {
+      for (int x = 0; x < width; x++) {
+        cosX[i * width + x] = Math.cos(Math.PI * x * i / width);
+      }
+    }
+
+    double[] cosY = new double[numCompY * height];
+    for (int j = 0; j < numCompY; j++) {
+      for (int y = 0; y < height; y++) {
+        cosY[j * height + y] = Math.cos(Math.PI * y * j / height);
+      }
+    }
+
+    int[] pixels = new int[width * height];
+
     for (int y = 0; y < height; y++) {
       for (int x = 0; x < width; x++) {
 
@@ -96,18 +121,21 @@ class BlurHashDecoder {
         double b = 0f;
 
         for (int j = 0; j < numCompY; j++) {
+          double cosAtY = cosY[j * height + y];
+
           for (int i = 0; i < numCompX; i++) {
-            double basis = (Math.cos(Math.PI * x * i / width) * Math.cos(Math.PI * y * j / height));
+            double basis = cosX[i * width + x] * cosAtY;
             double[] color = colors[j * numCompX + i];
             r += color[0] * basis;
             g += color[1] * basis;
             b += color[2] * basis;
           }
         }
-        bitmap.setPixel(x, y, Color.rgb((int) linearTosRGB(r), (int) linearTosRGB(g), (int) linearTosRGB(b)));
+
+        pixels[y * width + x] = 0xff000000 | ((int) linearTosRGB(r) << 16) | ((int) linearTosRGB(g) << 8) | (int) linearTosRGB(b);
       }
     }
 
-    return bitmap;
+    return pixels;
   }
 }
@@ -26,6 +26,7 @@ import android.graphics.BitmapFactory;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import java.io.InputStream;
 
@@ -65,7 +66,8 @@ public final class BlurHashEncoder {
     return encode(pixels, width, height, componentX, componentY);
   }
 
-  private static String encode(int[] pixels, int width, int height, int componentX, int componentY) {
+  @VisibleForTesting
+  static String encode(int[] pixels, int width, int height, int componentX, int componentY) {
 
     if (componentX < 1 || componentX > 9 || componentY < 1 || componentY > 9) {
       throw new IllegalArgumentException("Blur hash must have between 1 and 9 components");
@@ -74,12 +76,36 @@ public final class BlurHashEncoder {
       throw new IllegalArgumentException("Width and height must match the pixels array");
     }
 
+    double[] linearR = new double[pixels.length];
+    double[] linearG = new double[pixels.length];
+    double[] linearB = new double[pixels.length];
+    for (int p = 0; p < pixels.length; p++) {
+      int pixel = pixels[p];
+      linearR[p] = sRGBToLinear((pixel >> 16) & 0xff);
+      linearG[p] = sRGBToLinear((pixel >> 8)  & 0xff);
+      linearB[p] = sRGBToLinear( pixel        & 0xff);
+    }
+
+    double[] cosX = new double[componentX * width];
+    for (int i = 0; i < componentX; i++) {
+      for (int x = 0; x < width; x++) {
+        cosX[i * width + x] = Math.cos((Math.PI * i * x) / width);
+      }
+    }
+
+    double[] cosY = new double[componentY * height];
+    for (int j = 0; j < componentY; j++) {
+      for (int y = 0; y < height; y++) {
+        cosY[j * height + y] = Math.cos((Math.PI * j * y) / height);
+      }
+    }
+
     double[][] factors = new double[componentX * componentY][3];
     for (int j = 0; j < componentY; j++) {
       for (int i = 0; i < componentX; i++) {
         double normalisation = i == 0 && j == 0 ? 1 : 2;
-        applyBasisFunction(pixels, width, height,
-            normalisation, i, j,
+        applyBasisFunction(linearR, linearG, linearB, width, height,
+            normalisation, cosX, i, cosY, j,
             factors, j * componentX + i);
       }
     }
@@ -109,20 +135,24 @@ public final class BlurHashEncoder {
     return new String(hash);
   }
 
-  private static void applyBasisFunction(int[] pixels, int width, int height,
-                                         double normalisation, int i, int j,
+  /**
+   * Works from the pixels already converted to linear color and from precomputed cosines, since otherwise both would be recomputed for every
+   * component.
+   */
+  private static void applyBasisFunction(double[] linearR, double[] linearG, double[] linearB, int width, int height,
+                                         double normalisation, double[] cosX, int i, double[] cosY, int j,
                                          double[][] factors, int index)
   {
     double r = 0, g = 0, b = 0;
     for (int x = 0; x < width; x++) {
+      double cosAtX = normalisation * cosX[i * width + x];
+
       for (int y = 0; y < height; y++) {
-        double basis = normalisation
-                     * Math.cos((Math.PI * i * x) / width)
-                     * Math.cos((Math.PI * j * y) / height);
-        int pixel = pixels[y * width + x];
-        r += basis * sRGBToLinear((pixel >> 16) & 0xff);
-        g += basis * sRGBToLinear((pixel >> 8)  & 0xff);
-        b += basis * sRGBToLinear( pixel        & 0xff);
+        double basis = cosAtX * cosY[j * height + y];
+        int    p     = y * width + x;
+        r += basis * linearR[p];
+        g += basis * linearG[p];
+        b += basis * linearB[p];
       }
     }
     double scale = 1.0 / (width * height);
@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.blurhash;
 
 import android.graphics.Bitmap;
+import android.util.LruCache;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -16,6 +17,12 @@ public class BlurHashResourceDecoder implements ResourceDecoder<BlurHash, Bitmap
 
   private static final int MAX_DIMEN = 20;
 
+  /**
+   * Placeholders are tiny (at most {@link #MAX_DIMEN} pixels square), but the same ones are decoded over and over as a conversation is
+   * scrolled, so we keep the most recent ones around.
+   */
+  private static final LruCache<String, Bitmap> DECODED = new LruCache<>(100);
+
   @Override
   public boolean handles(@NonNull BlurHash source, @NonNull Options options) throws IOException {
     return true;
@@ -34,6 +41,19 @@ public class BlurHashResourceDecoder implements ResourceDecoder<BlurHash, Bitmap
       finalWidth  = (int) (finalHeight * width / (float) height);
     }
 
-    return new SimpleResource<>(BlurHashDecoder.decode(source.getHash(), finalWidth, finalHeight));
+    String key    = source.getHash() + ":" + finalWidth + "x" + finalHeight;
+    Bitmap bitmap = DECODED.get(key);
+
+    if (bitmap == null) {
+      bitmap = BlurHashDecoder.decode(source.getHash(), finalWidth, finalHeight);
+
+      if (bitmap == null) {
+        return null;
+      }
+
+      DECODED.put(key, bitmap);
+    }
+
+    return new SimpleResource<>(bitmap);
   }
 }
\ No newline at end of file
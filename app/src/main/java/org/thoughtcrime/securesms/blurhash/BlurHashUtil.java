@@ -22,7 +22,24 @@ package org.thoughtcrime.securesms.blurhash;
 
 final class BlurHashUtil {
 
+  /** Every channel value maps to one of 256 linear values, so they're computed once rather than with a pow() per pixel. */
+  private static final double[] SRGB_TO_LINEAR = new double[256];
+
+  static {
+    for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+      SRGB_TO_LINEAR[i] = computeSRGBToLinear(i);
+    }
+  }
+
   static double sRGBToLinear(long value) {
+    if (value >= 0 && value < SRGB_TO_LINEAR.length) {
+      return SRGB_TO_LINEAR[(int) value];
+    } else {
+      return computeSRGBToLinear(value);
+    }
+  }
+
+  private static double computeSRGBToLinear(long value) {
     double v = value / 255.0;
     if (v <= 0.04045) {
       return v / 12.92;
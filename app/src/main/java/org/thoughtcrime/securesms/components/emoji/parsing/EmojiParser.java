@@ -26,8 +26,9 @@ import androidx.annotation.Nullable;
 
 import org.thoughtcrime.securesms.emoji.JumboEmoji;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -41,25 +42,29 @@ public class EmojiParser {
     this.emojiTree = emojiTree;
   }
 
+  /**
+   * Text without any emoji, which is most of it, is scanned without allocating anything.
+   */
   public @NonNull CandidateList findCandidates(@Nullable CharSequence text) {
-    List<Candidate> results = new LinkedList<>();
-
     if (text == null) {
-      return new CandidateList(results, false);
+      return CandidateList.EMPTY;
     }
 
-    boolean allEmojis = text.length() > 0;
+    List<Candidate> results   = null;
+    boolean         allEmojis = text.length() > 0;
 
     for (int i = 0; i < text.length(); i++) {
-      int emojiEnd = getEmojiEndPos(text, i);
+      int emojiEnd = emojiTree.findEmojiEnd(text, i);
 
       if (emojiEnd != -1) {
         EmojiDrawInfo drawInfo = emojiTree.getEmoji(text, i, emojiEnd);
 
-        if (emojiEnd + 2 <= text.length()) {
-          if (Fitzpatrick.fitzpatrickFromUnicode(text, emojiEnd) != null) {
-            emojiEnd += 2;
-          }
+        if (Fitzpatrick.isModifierAt(text, emojiEnd)) {
+          emojiEnd += 2;
+        }
+
+        if (results == null) {
+          results = new ArrayList<>();
         }
 
         results.add(new Candidate(i, emojiEnd, drawInfo));
@@ -70,25 +75,11 @@ public class EmojiParser {
       }
     }
 
-    allEmojis &= !results.isEmpty();
-
-    return new CandidateList(results, allEmojis);
-  }
-
-  private int getEmojiEndPos(CharSequence text, int startPos) {
-    int best = -1;
-
-    for (int j = startPos + 1; j <= text.length(); j++) {
-      EmojiTree.Matches status = emojiTree.isEmoji(text, startPos, j);
-
-      if (status.exactMatch()) {
-        best = j;
-      } else if (status.impossibleMatch()) {
-        return best;
-      }
+    if (results == null) {
+      return CandidateList.EMPTY;
     }
 
-    return best;
+    return new CandidateList(results, allEmojis);
   }
 
   public static class Candidate {
@@ -117,6 +108,8 @@ public class EmojiParser {
   }
 
   public static class CandidateList implements Iterable<Candidate> {
+    private static final CandidateList EMPTY = new CandidateList(Collections.emptyList(), false);
+
     public final List<EmojiParser.Candidate> list;
     public final boolean                     allEmojis;
 
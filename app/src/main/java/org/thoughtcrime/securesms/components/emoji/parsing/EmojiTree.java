@@ -20,119 +20,234 @@
 
 package org.thoughtcrime.securesms.components.emoji.parsing;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Based in part on code from emoji-java
+ *
+ * An immutable trie of every emoji we can draw, built once with a {@link Builder}. Nodes are numbered breadth-first, so the children of
+ * a node are a contiguous run of node ids, sorted by the character that leads to them, and finding a child is a binary search over a
+ * primitive array. Nothing is allocated while looking up an emoji.
  */
-public class EmojiTree {
-
-  private final EmojiTreeNode root = new EmojiTreeNode();
+public final class EmojiTree {
 
   private static final char TERMINATOR = '\ufe0f';
 
-  public void add(String emojiEncoding, EmojiDrawInfo emoji) {
-    EmojiTreeNode tree = root;
+  private static final int ROOT = 0;
+
+  /** The character on the edge leading into each node. Unused for the root. */
+  private final char[] labels;
+
+  /** The children of node n are the nodes in [firstChild[n], firstChild[n + 1]). */
+  private final int[] firstChild;
+
+  /** The emoji that ends at each node, if any. */
+  private final EmojiDrawInfo[] emoji;
+
+  /** One bit per char, set for chars that can start an emoji, so that the common case of a char that can't is a single lookup. */
+  private final long[] startChars;
+
+  private EmojiTree(@NonNull char[] labels, @NonNull int[] firstChild, @NonNull EmojiDrawInfo[] emoji, @NonNull long[] startChars) {
+    this.labels     = labels;
+    this.firstChild = firstChild;
+    this.emoji      = emoji;
+    this.startChars = startChars;
+  }
+
+  public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPosition) {
+    int node = ROOT;
 
-    for (char c: emojiEncoding.toCharArray()) {
-      if (!tree.hasChild(c)) {
-        tree.addChild(c);
+    for (int i = startPosition; i < endPosition; i++) {
+      node = getChild(node, unicode.charAt(i));
+
+      if (node == -1) {
+        return null;
       }
+    }
 
-      tree = tree.getChild(c);
+    if (emoji[node] != null) {
+      return emoji[node];
     }
 
-    tree.setEmoji(emoji);
+    if (unicode.charAt(endPosition - 1) != TERMINATOR) {
+      int terminated = getChild(node, TERMINATOR);
+
+      if (terminated != -1) {
+        return emoji[terminated];
+      }
+    }
+
+    return null;
   }
 
-  public Matches isEmoji(CharSequence sequence, int startPosition, int endPosition) {
-    if (sequence == null) {
-      return Matches.POSSIBLY;
+  /**
+   * Finds the longest emoji in {@code text} that starts at {@code startPosition}. An emoji that ends with a {@link #TERMINATOR} also matches without it.
+   *
+   * @return The end of the emoji (exclusive), or -1 if no emoji starts there.
+   */
+  int findEmojiEnd(@NonNull CharSequence text, int startPosition) {
+    if (!canStartEmoji(text.charAt(startPosition))) {
+      return -1;
     }
 
-    EmojiTreeNode tree = root;
+    int best = -1;
+    int node = ROOT;
 
-    for (int i=startPosition; i<endPosition; i++) {
-      char character = sequence.charAt(i);
+    for (int i = startPosition; i < text.length(); i++) {
+      char character = text.charAt(i);
 
-      if (!tree.hasChild(character)) {
-        return Matches.IMPOSSIBLE;
+      node = getChild(node, character);
+
+      if (node == -1) {
+        break;
       }
 
-      tree = tree.getChild(character);
+      if (emoji[node] != null || (character != TERMINATOR && isTerminatedEmoji(node))) {
+        best = i + 1;
+      }
     }
 
-    if (tree.isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else if (sequence.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR) && tree.getChild(TERMINATOR).isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else {
-      return Matches.POSSIBLY;
-    }
+    return best;
   }
 
-  public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
-    EmojiTreeNode tree = root;
+  boolean canStartEmoji(char character) {
+    return (startChars[character >>> 6] & (1L << character)) != 0;
+  }
 
-    for (int i=startPosition; i<endPostiion; i++) {
-      char character = unicode.charAt(i);
+  private boolean isTerminatedEmoji(int node) {
+    int terminated = getChild(node, TERMINATOR);
+    return terminated != -1 && emoji[terminated] != null;
+  }
 
-      if (!tree.hasChild(character)) {
-        return null;
-      }
+  private int getChild(int node, char character) {
+    int low  = firstChild[node];
+    int high = firstChild[node + 1] - 1;
+
+    while (low <= high) {
+      int  mid   = (low + high) >>> 1;
+      char label = labels[mid];
 
-      tree = tree.getChild(character);
+      if (label < character) {
+        low = mid + 1;
+      } else if (label > character) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
     }
 
-    if      (tree.getEmoji() != null)                                                  return tree.getEmoji();
-    else if (unicode.charAt(endPostiion-1) != TERMINATOR && tree.hasChild(TERMINATOR)) return tree.getChild(TERMINATOR).getEmoji();
-    else    return null;
+    return -1;
   }
 
+  /**
+   * Collects emoji into a mutable tree, which is then flattened into an {@link EmojiTree}.
+   */
+  public static final class Builder {
 
-  private static class EmojiTreeNode {
+    private final BuilderNode root = new BuilderNode();
 
-    private Map<Character, EmojiTreeNode> children = new HashMap<>();
-    private EmojiDrawInfo emoji;
+    public void add(String emojiEncoding, EmojiDrawInfo emoji) {
+      BuilderNode tree = root;
 
-    public void setEmoji(EmojiDrawInfo emoji) {
-      this.emoji = emoji;
-    }
+      for (char c : emojiEncoding.toCharArray()) {
+        BuilderNode child = tree.children.get(c);
 
-    public @Nullable EmojiDrawInfo getEmoji() {
-      return emoji;
-    }
+        if (child == null) {
+          child = new BuilderNode();
+          tree.children.put(c, child);
+        }
 
-    boolean hasChild(char child) {
-      return children.containsKey(child);
-    }
+        tree = child;
+      }
 
-    void addChild(char child) {
-      children.put(child, new EmojiTreeNode());
+      tree.emoji = emoji;
     }
 
-    EmojiTreeNode getChild(char child) {
-      return children.get(child);
-    }
+    /**
+     * The same as {@link EmojiTree#getEmoji(CharSequence, int, int)}, for what's been added so far.
+     */
+    public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPosition) {
+      BuilderNode tree = root;
 
-    boolean isEndOfEmoji() {
-      return emoji != null;
-    }
-  }
+      for (int i = startPosition; i < endPosition; i++) {
+        tree = tree.children.get(unicode.charAt(i));
+
+        if (tree == null) {
+          return null;
+        }
+      }
 
-  public enum Matches {
-    EXACTLY, POSSIBLY, IMPOSSIBLE;
+      if (tree.emoji != null) {
+        return tree.emoji;
+      }
+
+      BuilderNode terminated = tree.children.get(TERMINATOR);
+
+      if (unicode.charAt(endPosition - 1) != TERMINATOR && terminated != null) {
+        return terminated.emoji;
+      }
 
-    public boolean exactMatch() {
-      return this == EXACTLY;
+      return null;
     }
 
-    public boolean impossibleMatch() {
-      return this == IMPOSSIBLE;
+    public @NonNull EmojiTree build() {
+      List<BuilderNode> nodes  = new ArrayList<>();
+      List<Character>   labels = new ArrayList<>();
+
+      nodes.add(root);
+      labels.add('\0');
+
+      int[] firstChildren = new int[0];
+
+      // Breadth-first, so that each node's children are numbered one after another
+      for (int i = 0; i < nodes.size(); i++) {
+        BuilderNode node       = nodes.get(i);
+        Character[] childChars = node.children.keySet().toArray(new Character[0]);
+
+        Arrays.sort(childChars);
+
+        if (firstChildren.length <= i + 1) {
+          firstChildren = Arrays.copyOf(firstChildren, Math.max(16, firstChildren.length * 2));
+        }
+
+        firstChildren[i] = nodes.size();
+
+        for (Character c : childChars) {
+          nodes.add(node.children.get(c));
+          labels.add(c);
+        }
+      }
+
+      int             nodeCount  = nodes.size();
+      char[]          labelArray = new char[nodeCount];
+      int[]           firstChild = Arrays.copyOf(firstChildren, nodeCount + 1);
+      EmojiDrawInfo[] emoji      = new EmojiDrawInfo[nodeCount];
+      long[]          startChars = new long[(Character.MAX_VALUE + 1) / 64];
+
+      firstChild[nodeCount] = nodeCount;
+
+      for (int i = 0; i < nodeCount; i++) {
+        labelArray[i] = labels.get(i);
+        emoji[i]      = nodes.get(i).emoji;
+      }
+
+      for (char c : root.children.keySet()) {
+        startChars[c >>> 6] |= 1L << c;
+      }
+
+      return new EmojiTree(labelArray, firstChild, emoji, startChars);
     }
   }
 
+  private static final class BuilderNode {
+    private final Map<Character, BuilderNode> children = new HashMap<>();
+    private       EmojiDrawInfo               emoji;
+  }
 }
@@ -53,6 +53,21 @@ public enum Fitzpatrick {
     return null;
   }
 
+  /**
+   * @return True if a Fitzpatrick modifier starts at {@code index}. The same as checking {@link #fitzpatrickFromUnicode(CharSequence, int)}
+   *         for null, but without allocating.
+   */
+  static boolean isModifierAt(CharSequence unicode, int index) {
+    if (index + 2 > unicode.length()) {
+      return false;
+    }
+
+    char high = unicode.charAt(index);
+    char low  = unicode.charAt(index + 1);
+
+    return high == '\uD83C' && low >= '\uDFFB' && low <= '\uDFFF';
+  }
+
   public static Fitzpatrick fitzpatrickFromType(String type) {
     try {
       return Fitzpatrick.valueOf(type.toUpperCase());
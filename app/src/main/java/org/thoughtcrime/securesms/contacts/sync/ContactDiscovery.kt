@@ -3,15 +3,17 @@ package org.thoughtcrime.securesms.contacts.sync
 import android.Manifest
 import android.content.Context
 import android.text.TextUtils
+import androidx.annotation.VisibleForTesting
 import androidx.annotation.WorkerThread
 import org.signal.contacts.SystemContactsRepository
+import org.signal.contacts.SystemContactsRepository.ContactDetails
 import org.signal.contacts.SystemContactsRepository.ContactIterator
-import org.signal.contacts.SystemContactsRepository.ContactPhoneDetails
 import org.signal.core.util.Stopwatch
 import org.signal.core.util.StringUtil
 import org.signal.core.util.logging.Log
 import org.thoughtcrime.securesms.database.RecipientTable
 import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.database.SystemContactHashTable
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
 import org.thoughtcrime.securesms.jobs.SyncSystemContactLinksJob
 import org.thoughtcrime.securesms.keyvalue.SignalStore
@@ -32,6 +34,7 @@ import org.whispersystems.signalservice.api.push.SignalServiceAddress
 import org.whispersystems.signalservice.api.util.UuidUtil
 import java.io.IOException
 import java.util.Calendar
+import java.util.concurrent.TimeUnit
 
 /**
  * Methods for discovering which users are registered and marking them as such in the database.
@@ -42,6 +45,8 @@ object ContactDiscovery {
 
   private const val FULL_SYSTEM_CONTACT_SYNC_THRESHOLD = 3
 
+  private val FULL_SYSTEM_CONTACT_INFO_SYNC_INTERVAL = TimeUnit.DAYS.toMillis(7)
+
   @JvmStatic
   @Throws(IOException::class)
   @WorkerThread
@@ -213,50 +218,61 @@ object ContactDiscovery {
 
   /**
    * Synchronizes info from the system contacts (name, avatar, etc)
+   *
+   * When syncing every contact, we only process the ones that changed (or were removed) since the last sync, based on a hash of each
+   * contact that we remember in [SystemContactHashTable]. Every [FULL_SYSTEM_CONTACT_INFO_SYNC_INTERVAL], or if we have no hashes, we process
+   * all of them instead, which also catches anything else that may have touched the system info in the recipient table.
    */
-  private fun syncRecipientsWithSystemContacts(
+  @VisibleForTesting
+  internal fun syncRecipientsWithSystemContacts(
     context: Context,
     rewrites: Map<String, String>,
     contactsProvider: () -> ContactIterator = { SystemContactsRepository.getAllSystemContacts(context, phoneNumberFormatter(context)) },
     clearInfoForMissingContacts: Boolean
   ) {
     val localNumber: String = SignalStore.account().e164 ?: ""
-    val handle = SignalDatabase.recipients.beginBulkSystemContactUpdate(clearInfoForMissingContacts)
+    val contacts: MutableList<SystemContact> = mutableListOf()
+    var readAllContacts = true
+
     try {
       contactsProvider().use { iterator ->
         while (iterator.hasNext()) {
-          val details = iterator.next()
-          val phoneDetailsWithoutSelf: List<ContactPhoneDetails> = details.numbers
-            .filter { it.number != localNumber }
-            .filterNot { UuidUtil.isUuid(it.number) }
-
-          for (phoneDetails in phoneDetailsWithoutSelf) {
-            val realNumber: String = Util.getFirstNonEmpty(rewrites[phoneDetails.number], phoneDetails.number)
-
-            val profileName: ProfileName = if (!StringUtil.isEmpty(details.givenName)) {
-              ProfileName.fromParts(details.givenName, details.familyName)
-            } else if (!StringUtil.isEmpty(phoneDetails.displayName)) {
-              ProfileName.asGiven(phoneDetails.displayName)
-            } else {
-              ProfileName.EMPTY
-            }
-
-            handle.setSystemContactInfo(
-              Recipient.externalContact(realNumber).id,
-              profileName,
-              phoneDetails.displayName,
-              phoneDetails.photoUri,
-              phoneDetails.label,
-              phoneDetails.type,
-              phoneDetails.contactUri.toString()
-            )
+          val contact = SystemContact.from(iterator.next(), localNumber, rewrites)
+          if (contact.numbers.isNotEmpty()) {
+            contacts += contact
           }
         }
       }
     } catch (e: IllegalStateException) {
       Log.w(TAG, "Hit an issue with the cursor while reading!", e)
-    } finally {
-      handle.finish()
+      readAllContacts = false
+    }
+
+    val previousHashes: Map<String, Long> = if (clearInfoForMissingContacts && readAllContacts) SignalDatabase.systemContactHashes.getAll() else emptyMap()
+    val timeSinceFullSync: Long = System.currentTimeMillis() - SignalStore.misc().lastFullSystemContactSyncTime
+
+    if (previousHashes.isNotEmpty() && timeSinceFullSync in 0 until FULL_SYSTEM_CONTACT_INFO_SYNC_INTERVAL) {
+      syncChangedSystemContacts(contacts, previousHashes)
+    } else {
+      syncAllSystemContacts(contacts, clearInfoForMissingContacts, readAllContacts)
+    }
+  }
+
+  private fun syncAllSystemContacts(contacts: List<SystemContact>, clearInfoForMissingContacts: Boolean, readAllContacts: Boolean) {
+    val handle = SignalDatabase.recipients.beginBulkSystemContactUpdate(clearInfoForMissingContacts)
+
+    applySystemContacts(handle, contacts) {
+      if (clearInfoForMissingContacts) {
+        if (readAllContacts) {
+          SignalDatabase.systemContactHashes.replaceAll(contacts.toHashes())
+        } else {
+          SignalDatabase.systemContactHashes.clearAll()
+        }
+      }
+    }
+
+    if (clearInfoForMissingContacts && readAllContacts) {
+      SignalStore.misc().lastFullSystemContactSyncTime = System.currentTimeMillis()
     }
 
     if (NotificationChannels.supported()) {
@@ -271,6 +287,76 @@ object ContactDiscovery {
     }
   }
 
+  private fun syncChangedSystemContacts(contacts: List<SystemContact>, previousHashes: Map<String, Long>) {
+    val changedContacts: List<SystemContact> = contacts.filter { contact -> contact.contactUris.any { previousHashes[it] != contact.hash } }
+    val removedContactUris: Set<String> = previousHashes.keys - contacts.flatMapTo(HashSet()) { it.contactUris }
+
+    Log.i(TAG, "[syncChangedSystemContacts] ${contacts.size} contacts, ${changedContacts.size} changed, ${removedContactUris.size} removed.")
+
+    if (changedContacts.isEmpty() && removedContactUris.isEmpty()) {
+      return
+    }
+
+    val handle = SignalDatabase.recipients.beginBulkSystemContactUpdate(changedContacts.flatMap { it.contactUris } + removedContactUris)
+
+    val updated: Set<RecipientId> = applySystemContacts(handle, changedContacts) {
+      SignalDatabase.systemContactHashes.update(changedContacts.toHashes(), removedContactUris)
+    }
+
+    if (NotificationChannels.supported()) {
+      Recipient.resolvedList(updated)
+        .filter { it.notificationChannel != null }
+        .forEach { NotificationChannels.getInstance().updateContactChannelName(it) }
+    }
+  }
+
+  /**
+   * Writes the info for each of the [contacts] through the [handle], then runs [beforeFinish] in the same transaction.
+   *
+   * @return The recipients whose system info changed.
+   */
+  private fun applySystemContacts(handle: RecipientTable.BulkOperationsHandle, contacts: List<SystemContact>, beforeFinish: () -> Unit): Set<RecipientId> {
+    var updated: Set<RecipientId> = emptySet()
+
+    try {
+      val recipientIdsByE164: Map<String, RecipientId> = SignalDatabase.recipients.getByE164s(contacts.flatMapTo(HashSet()) { contact -> contact.numbers.map { it.realNumber } })
+
+      for (contact in contacts) {
+        for (number in contact.numbers) {
+          handle.setSystemContactInfo(
+            recipientIdsByE164[number.realNumber] ?: Recipient.externalContact(number.realNumber).id,
+            number.profileName,
+            number.displayName,
+            number.photoUri,
+            number.label,
+            number.type,
+            number.contactUri
+          )
+        }
+      }
+
+      beforeFinish()
+    } catch (e: IllegalStateException) {
+      Log.w(TAG, "Hit an issue while writing system contact info!", e)
+    } finally {
+      updated = handle.finish()
+    }
+
+    return updated
+  }
+
+  private fun List<SystemContact>.toHashes(): Map<String, Long> {
+    val hashes: MutableMap<String, Long> = HashMap(size)
+
+    for (contact in this) {
+      for (contactUri in contact.contactUris) {
+        hashes[contactUri] = contact.hash
+      }
+    }
+
+    return hashes
+  }
+
   /**
    * Whether or not a session exists with the provided recipient.
    */
@@ -287,6 +373,74 @@ object ContactDiscovery {
       ApplicationDependencies.getProtocolStore().pni().containsSession(protocolAddress)
   }
 
+  /**
+   * A system contact, reduced to what we store on its recipients.
+   */
+  @VisibleForTesting
+  internal class SystemContact(val numbers: List<SystemContactNumber>) {
+
+    val contactUris: Set<String> = numbers.mapTo(HashSet()) { it.contactUri }
+
+    /** A 64-bit FNV-1a hash of everything we'd write for this contact. */
+    val hash: Long by lazy {
+      var hash = FNV_OFFSET_BASIS
+
+      for (number in numbers) {
+        for (field in arrayOf(number.realNumber, number.profileName.givenName, number.profileName.familyName, number.displayName, number.photoUri, number.label, number.type.toString(), number.contactUri)) {
+          for (char in field ?: "") {
+            hash = (hash xor char.code.toLong()) * FNV_PRIME
+          }
+          hash = (hash xor 0x1F) * FNV_PRIME
+        }
+      }
+
+      hash
+    }
+
+    companion object {
+      private const val FNV_OFFSET_BASIS = -0x340d631b7bdddcdbL
+      private const val FNV_PRIME = 0x100000001b3L
+
+      fun from(details: ContactDetails, localNumber: String, rewrites: Map<String, String>): SystemContact {
+        val numbers: List<SystemContactNumber> = details.numbers
+          .filter { it.number != localNumber }
+          .filterNot { UuidUtil.isUuid(it.number) }
+          .map { phoneDetails ->
+            val profileName: ProfileName = if (!StringUtil.isEmpty(details.givenName)) {
+              ProfileName.fromParts(details.givenName, details.familyName)
+            } else if (!StringUtil.isEmpty(phoneDetails.displayName)) {
+              ProfileName.asGiven(phoneDetails.displayName)
+            } else {
+              ProfileName.EMPTY
+            }
+
+            SystemContactNumber(
+              realNumber = Util.getFirstNonEmpty(rewrites[phoneDetails.number], phoneDetails.number),
+              profileName = profileName,
+              displayName = phoneDetails.displayName,
+              photoUri = phoneDetails.photoUri,
+              label = phoneDetails.label,
+              type = phoneDetails.type,
+              contactUri = phoneDetails.contactUri.toString()
+            )
+          }
+
+        return SystemContact(numbers)
+      }
+    }
+  }
+
+  @VisibleForTesting
+  internal data class SystemContactNumber(
+    val realNumber: String,
+    val profileName: ProfileName,
+    val displayName: String?,
+    val photoUri: String?,
+    val label: String?,
+    val type: Int,
+    val contactUri: String
+  )
+
   class RefreshResult(
     val registeredIds: Set<RecipientId>,
     val rewrites: Map<String, String>
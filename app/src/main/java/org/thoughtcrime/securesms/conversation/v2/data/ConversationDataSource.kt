@@ -6,14 +6,19 @@
 package org.thoughtcrime.securesms.conversation.v2.data
 
 import android.content.Context
+import android.database.Cursor
 import org.signal.core.util.Stopwatch
+import org.signal.core.util.ThreadUtil
+import org.signal.core.util.concurrent.SignalExecutors
 import org.signal.core.util.logging.Log
 import org.signal.core.util.toInt
+import org.signal.paging.KeysetAnchors
 import org.signal.paging.PagedDataSource
 import org.thoughtcrime.securesms.conversation.ConversationData
 import org.thoughtcrime.securesms.conversation.ConversationMessage
 import org.thoughtcrime.securesms.conversation.ConversationMessage.ConversationMessageFactory
 import org.thoughtcrime.securesms.database.MessageTable
+import org.thoughtcrime.securesms.database.MessageTable.ConversationAnchor
 import org.thoughtcrime.securesms.database.SignalDatabase
 import org.thoughtcrime.securesms.database.model.InMemoryMessageRecord.NoGroupsInCommon
 import org.thoughtcrime.securesms.database.model.InMemoryMessageRecord.RemovedContactHidden
@@ -25,8 +30,13 @@ import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
 import org.thoughtcrime.securesms.messagerequests.MessageRequestRepository
 import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.util.SignalLocalMetrics
 import org.thoughtcrime.securesms.util.adapter.mapping.MappingModel
 import org.whispersystems.signalservice.api.push.ServiceId
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
 
 private typealias ConversationElement = MappingModel<*>
 
@@ -61,6 +71,9 @@ class ConversationDataSource(
   companion object {
     private val TAG = Log.tag(ConversationDataSource::class.java)
     private const val THREAD_HEADER_COUNT = 1
+
+    /** Shared by all conversations, sized so the fetches for a page (minus the one run on the loading thread) can all run at once. */
+    private val FETCH_EXECUTOR: ExecutorService = SignalExecutors.newCachedBoundedExecutor("signal-conversation-fetch", ThreadUtil.PRIORITY_IMPORTANT_BACKGROUND_THREAD, 1, 5, 30)
   }
 
   init {
@@ -71,7 +84,12 @@ class ConversationDataSource(
     SignalDatabase.threads.getRecipientForThreadId(threadId)!!
   }
 
+  /** The last message of every page we've loaded, so later pages can be loaded relative to them rather than with an offset. */
+  private val anchors = KeysetAnchors<ConversationAnchor>()
+
   override fun size(): Int {
+    anchors.clear()
+
     val startTime = System.currentTimeMillis()
     val size: Int = getSizeInternal() +
       THREAD_HEADER_COUNT +
@@ -98,6 +116,7 @@ class ConversationDataSource(
 
   override fun load(start: Int, length: Int, totalSize: Int, cancellationSignal: PagedDataSource.CancellationSignal): List<ConversationElement> {
     val stopwatch = Stopwatch("load($start, $length), thread $threadId")
+    val anchorGeneration = anchors.getGeneration()
     var records: MutableList<MessageRecord> = ArrayList(length)
     val mentionHelper = MentionHelper()
     val quotedHelper = QuotedHelper()
@@ -107,7 +126,9 @@ class ConversationDataSource(
     val callHelper = CallHelper()
     val referencedIds = hashSetOf<ServiceId>()
 
-    MessageTable.mmsReaderFor(SignalDatabase.messages.getConversation(threadId, start.toLong(), length.toLong()))
+    val page = queryPage(start, length, totalSize)
+
+    MessageTable.mmsReaderFor(page.cursor)
       .use { reader ->
         reader.forEach { record ->
           if (cancellationSignal.isCanceled) {
@@ -129,6 +150,14 @@ class ConversationDataSource(
         }
       }
 
+    if (page.reversed) {
+      records.reverse()
+    }
+
+    if (!page.reversed || records.size == length) {
+      records.lastOrNull()?.let { anchors.put(anchorGeneration, start + records.size - 1, totalSize, ConversationAnchor(it.dateReceived, it.id)) }
+    }
+
     if (messageRequestData.includeWarningUpdateMessage() && (start + length >= totalSize)) {
       records.add(NoGroupsInCommon(threadId, messageRequestData.isGroup))
     }
@@ -143,33 +172,25 @@ class ConversationDataSource(
 
     stopwatch.split("messages")
 
-    mentionHelper.fetchMentions(context)
-    stopwatch.split("mentions")
-
-    quotedHelper.fetchQuotedState()
-    stopwatch.split("is-quoted")
-
-    reactionHelper.fetchReactions()
-    stopwatch.split("reactions")
+    val fetchDurations: Map<String, Long> = fetchConcurrently(
+      "mentions" to { mentionHelper.fetchMentions(context) },
+      "is-quoted" to { quotedHelper.fetchQuotedState() },
+      "reactions" to { reactionHelper.fetchReactions() },
+      "attachments" to { attachmentHelper.fetchAttachments() },
+      "payments" to { paymentHelper.fetchPayments() },
+      "calls" to { callHelper.fetchCalls() }
+    )
+    stopwatch.split("fetches")
 
     records = reactionHelper.buildUpdatedModels(records)
     stopwatch.split("reaction-models")
 
-    attachmentHelper.fetchAttachments()
-    stopwatch.split("attachments")
-
     records = attachmentHelper.buildUpdatedModels(context, records)
     stopwatch.split("attachment-models")
 
-    paymentHelper.fetchPayments()
-    stopwatch.split("payments")
-
     records = paymentHelper.buildUpdatedModels(records)
     stopwatch.split("payment-models")
 
-    callHelper.fetchCalls()
-    stopwatch.split("calls")
-
     records = callHelper.buildUpdatedModels(records)
     stopwatch.split("call-models")
 
@@ -200,9 +221,67 @@ class ConversationDataSource(
     stopwatch.split("header")
     stopwatch.stop(TAG)
 
+    Log.d(TAG, "[load($start, $length), thread $threadId] fetches: " + fetchDurations.entries.joinToString("  ") { (label, duration) -> "$label: $duration" })
+    SignalLocalMetrics.ConversationPageLoad.onPageLoaded(threadRecipient.isGroup, stopwatch.splitDurations, fetchDurations)
+
     return if (threadHeaders.isNotEmpty()) messages + threadHeaders else messages
   }
 
+  /**
+   * The helpers' fetches are independent reads keyed by the ids of the messages we've already loaded, so rather than running them one after
+   * another, we run them at the same time on separate connections from the database's read pool. The first runs on the calling thread.
+   *
+   * @return How long each fetch took, in milliseconds.
+   */
+  private fun fetchConcurrently(vararg fetches: Pair<String, () -> Unit>): Map<String, Long> {
+    val futures: List<Pair<String, Future<Long>>> = fetches
+      .drop(1)
+      .map { (label, fetch) -> label to FETCH_EXECUTOR.submit(Callable { timeFetch(fetch) }) }
+
+    val durations: MutableMap<String, Long> = LinkedHashMap()
+    durations[fetches[0].first] = timeFetch(fetches[0].second)
+
+    for ((label, future) in futures) {
+      durations[label] = try {
+        future.get()
+      } catch (e: ExecutionException) {
+        throw e.cause ?: e
+      }
+    }
+
+    return durations
+  }
+
+  private inline fun timeFetch(fetch: () -> Unit): Long {
+    val startTime = System.currentTimeMillis()
+    fetch()
+    return System.currentTimeMillis() - startTime
+  }
+
+  /**
+   * Picks whichever of the nearest known anchors before and after the requested range leaves the fewest messages to skip. Without any,
+   * this is a plain offset query, same as it has always been.
+   */
+  private fun queryPage(start: Int, length: Int, totalSize: Int): Page {
+    val before: KeysetAnchors.Anchor<ConversationAnchor>? = anchors.findBefore(start, totalSize)
+    val after: KeysetAnchors.Anchor<ConversationAnchor>? = anchors.findAfter(start + length - 1, totalSize)
+
+    val skipAfterBefore: Int = if (before != null) start - before.position - 1 else start
+    val skipBeforeAfter: Int = if (after != null) after.position - (start + length) else Int.MAX_VALUE
+
+    return when {
+      after != null && skipBeforeAfter < skipAfterBefore -> {
+        Page(SignalDatabase.messages.getConversationBefore(threadId, after.key, skipBeforeAfter.toLong(), length.toLong()), reversed = true)
+      }
+      before != null -> {
+        Page(SignalDatabase.messages.getConversationAfter(threadId, before.key, skipAfterBefore.toLong(), length.toLong()), reversed = false)
+      }
+      else -> {
+        Page(SignalDatabase.messages.getConversation(threadId, start.toLong(), length.toLong()), reversed = false)
+      }
+    }
+  }
+
   override fun load(key: ConversationElementKey): ConversationElement? {
     if (key is ThreadHeaderKey) {
       return loadThreadHeader()
@@ -286,6 +365,11 @@ class ConversationDataSource(
     return ThreadHeader(messageRequestRepository.getRecipientInfo(threadRecipient.id, threadId))
   }
 
+  /**
+   * @param reversed True if the cursor returns messages in reverse conversation order.
+   */
+  private class Page(val cursor: Cursor, val reversed: Boolean)
+
   private fun ConversationMessage.toMappingModel(): MappingModel<*> {
     return if (messageRecord.isUpdate) {
       ConversationUpdate(this)
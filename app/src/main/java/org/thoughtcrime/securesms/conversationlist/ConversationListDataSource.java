@@ -10,6 +10,7 @@ import androidx.annotation.VisibleForTesting;
 
 import org.signal.core.util.Stopwatch;
 import org.signal.core.util.logging.Log;
+import org.signal.paging.KeysetAnchors;
 import org.signal.paging.PagedDataSource;
 import org.thoughtcrime.securesms.conversationlist.model.Conversation;
 import org.thoughtcrime.securesms.conversationlist.model.ConversationFilter;
@@ -41,6 +42,14 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
   protected final ConversationFilter conversationFilter;
   protected final boolean            showConversationFooterTip;
 
+  /**
+   * The last thread of every page we've loaded, so that later pages can be loaded relative to them rather than with an offset. The list
+   * doesn't support individual inserts, so positions only change when we're invalidated, at which point we start over.
+   */
+  private final KeysetAnchors<ThreadTable.ConversationListAnchor> anchors = new KeysetAnchors<>();
+
+  private volatile int anchorListSize;
+
   protected ConversationListDataSource(@NonNull ConversationFilter conversationFilter, boolean showConversationFooterTip) {
     this.threadTable               = SignalDatabase.threads();
     this.conversationFilter        = conversationFilter;
@@ -54,6 +63,8 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
 
   @Override
   public int size() {
+    anchors.clear();
+
     long startTime = System.currentTimeMillis();
     int  count     = getTotalCount();
 
@@ -62,7 +73,9 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
     }
 
     Log.d(TAG, "[size(), " + getClass().getSimpleName() + ", " + conversationFilter + "] " + (System.currentTimeMillis() - startTime) + " ms");
-    return Math.max(1, count);
+
+    anchorListSize = Math.max(1, count);
+    return anchorListSize;
   }
 
   @Override
@@ -70,9 +83,10 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
     SignalTrace.beginSection("ConversationListDataSource#load");
     Stopwatch stopwatch = new Stopwatch("load(" + start + ", " + length + "), " + getClass().getSimpleName() + ", " + conversationFilter);
 
-    List<Conversation> conversations = new ArrayList<>(length);
-    List<Recipient>    recipients    = new LinkedList<>();
-    Set<RecipientId>   needsResolve  = new HashSet<>();
+    List<Conversation> conversations    = new ArrayList<>(length);
+    List<Recipient>    recipients       = new LinkedList<>();
+    Set<RecipientId>   needsResolve     = new HashSet<>();
+    int                anchorGeneration = anchors.getGeneration();
 
     try (ConversationReader reader = new ConversationReader(getCursor(start, length))) {
       ThreadRecord record;
@@ -92,6 +106,8 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
 
     stopwatch.split("cursor");
 
+    recordAnchor(anchorGeneration, start, conversations);
+
     ApplicationDependencies.getRecipientCache().addToCache(recipients);
     stopwatch.split("cache-recipients");
 
@@ -124,6 +140,32 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
     return conversation.getThreadRecord().getThreadId();
   }
 
+  private void recordAnchor(int anchorGeneration, int start, @NonNull List<Conversation> conversations) {
+    for (int i = conversations.size() - 1; i >= 0; i--) {
+      Conversation conversation = conversations.get(i);
+
+      if (conversation.getType() == Conversation.Type.THREAD && canAnchor(conversation.getThreadRecord())) {
+        ThreadRecord record = conversation.getThreadRecord();
+        anchors.put(anchorGeneration, start + i, anchorListSize, new ThreadTable.ConversationListAnchor(record.getDate(), record.getThreadId()));
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return The nearest thread before {@code position} that the next page can be loaded relative to, if any.
+   */
+  protected @Nullable KeysetAnchors.Anchor<ThreadTable.ConversationListAnchor> findAnchorBefore(long position) {
+    return anchors.findBefore((int) position, anchorListSize);
+  }
+
+  /**
+   * @return True if the record is part of the keyset-paged section of the list, and can therefore be used as an anchor.
+   */
+  protected boolean canAnchor(@NonNull ThreadRecord record) {
+    return true;
+  }
+
   protected abstract int getTotalCount();
   protected abstract Cursor getCursor(long offset, long limit);
 
@@ -144,7 +186,7 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
     @Override
     protected Cursor getCursor(long offset, long limit) {
       List<Cursor> cursors = new ArrayList<>(2);
-      Cursor       cursor  = threadTable.getArchivedConversationList(conversationFilter, offset, limit);
+      Cursor       cursor  = queryArchived(offset, limit);
 
       cursors.add(cursor);
       if (offset + limit >= totalCount && totalCount > 0 && conversationFilter != ConversationFilter.OFF) {
@@ -155,6 +197,16 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
 
       return new MergeCursor(cursors.toArray(new Cursor[]{}));
     }
+
+    private Cursor queryArchived(long offset, long limit) {
+      KeysetAnchors.Anchor<ThreadTable.ConversationListAnchor> anchor = offset > 0 ? findAnchorBefore(offset) : null;
+
+      if (anchor != null) {
+        return threadTable.getArchivedConversationListAfter(conversationFilter, anchor.getKey(), offset - anchor.getPosition() - 1, limit);
+      } else {
+        return threadTable.getArchivedConversationList(conversationFilter, offset, limit);
+      }
+    }
   }
 
   @VisibleForTesting
@@ -217,7 +269,7 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
       }
 
       long   unpinnedOffset = Math.max(0, offset - pinnedCount - getHeaderOffset());
-      Cursor unpinnedCursor = threadTable.getUnarchivedConversationList(conversationFilter, false, unpinnedOffset, limit);
+      Cursor unpinnedCursor = queryUnpinned(offset, unpinnedOffset, limit);
       cursors.add(unpinnedCursor);
 
       boolean shouldInsertConversationFilterFooter = offset + originalLimit >= totalCount && hasConversationFilterFooter();
@@ -237,6 +289,24 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
       return new MergeCursor(cursors.toArray(new Cursor[]{}));
     }
 
+    /**
+     * Only unpinned threads are anchored, so an anchor before {@code offset} means that everything between the two is unpinned as well.
+     */
+    private Cursor queryUnpinned(long offset, long unpinnedOffset, long limit) {
+      KeysetAnchors.Anchor<ThreadTable.ConversationListAnchor> anchor = unpinnedOffset > 0 ? findAnchorBefore(offset) : null;
+
+      if (anchor != null) {
+        return threadTable.getUnpinnedConversationListAfter(conversationFilter, anchor.getKey(), offset - anchor.getPosition() - 1, limit);
+      } else {
+        return threadTable.getUnarchivedConversationList(conversationFilter, false, unpinnedOffset, limit);
+      }
+    }
+
+    @Override
+    protected boolean canAnchor(@NonNull ThreadRecord record) {
+      return !record.isPinned();
+    }
+
     @VisibleForTesting
     int getHeaderOffset() {
       return (hasPinnedHeader() ? 1 : 0) + (hasUnpinnedHeader() ? 1 : 0);
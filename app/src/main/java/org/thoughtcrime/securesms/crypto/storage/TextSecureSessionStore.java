@@ -21,6 +21,11 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+/**
+ * Sessions are cached by {@link SessionTable}, and a write made inside of a transaction only reaches that cache once the transaction commits.
+ * Every operation here holds {@link ReentrantSessionLock}, so as long as writers hold it for the duration of their transaction, no one can read
+ * a session between that commit and the cache catching up.
+ */
 public class TextSecureSessionStore implements SignalServiceSessionStore {
 
   private static final String TAG = Log.tag(TextSecureSessionStore.class);
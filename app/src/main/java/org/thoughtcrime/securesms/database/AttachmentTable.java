@@ -301,21 +301,22 @@ public class AttachmentTable extends DatabaseTable {
     }
 
     SQLiteDatabase database = databaseHelper.getSignalReadableDatabase();
-    SqlUtil.Query  query    = SqlUtil.buildSingleCollectionQuery(MMS_ID, mmsIds);
 
     Map<Long, List<DatabaseAttachment>> output = new HashMap<>();
 
-    try (Cursor cursor = database.query(TABLE_NAME, PROJECTION, query.getWhere(), query.getWhereArgs(), null, null, UNIQUE_ID + " ASC, " + ROW_ID + " ASC")) {
-      while (cursor.moveToNext()) {
-        DatabaseAttachment       attachment  = getAttachment(cursor);
-        List<DatabaseAttachment> attachments = output.get(attachment.getMmsId());
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQuery(MMS_ID, mmsIds)) {
+      try (Cursor cursor = database.query(TABLE_NAME, PROJECTION, query.getWhere(), query.getWhereArgs(), null, null, UNIQUE_ID + " ASC, " + ROW_ID + " ASC")) {
+        while (cursor.moveToNext()) {
+          DatabaseAttachment       attachment  = getAttachment(cursor);
+          List<DatabaseAttachment> attachments = output.get(attachment.getMmsId());
 
-        if (attachments == null) {
-          attachments = new LinkedList<>();
-          output.put(attachment.getMmsId(), attachments);
-        }
+          if (attachments == null) {
+            attachments = new LinkedList<>();
+            output.put(attachment.getMmsId(), attachments);
+          }
 
-        attachments.add(attachment);
+          attachments.add(attachment);
+        }
       }
     }
 
@@ -31,6 +31,7 @@ import org.thoughtcrime.securesms.database.model.GroupCallUpdateDetailsUtil
 import org.thoughtcrime.securesms.database.model.MessageId
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
 import org.thoughtcrime.securesms.jobs.CallSyncEventJob
+import org.thoughtcrime.securesms.notifications.v2.NotificationStateProvider
 import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.recipients.RecipientId
 import org.thoughtcrime.securesms.service.webrtc.links.CallLinkRoomId
@@ -816,6 +817,8 @@ class CallTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTabl
         .where("${MessageTable.ID} IN ($messageIdsOnOrBeforeTimestamp)")
         .run()
 
+      NotificationStateProvider.invalidate()
+
       updateCallEventDeletionTimestamps(skipSync = true)
     }
   }
@@ -859,6 +862,7 @@ class CallTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTabl
           )
           .run()
 
+        NotificationStateProvider.invalidate()
         ids.toSet()
       }
 
@@ -5,10 +5,21 @@ import android.content.ContentValues
 object DatabaseMonitor {
   private var queryMonitor: QueryMonitor? = null
 
+  @Volatile
+  private var queryProfiler: QueryProfiler? = null
+
   fun initialize(queryMonitor: QueryMonitor?) {
     DatabaseMonitor.queryMonitor = queryMonitor
   }
 
+  fun initializeProfiler(queryProfiler: QueryProfiler?) {
+    DatabaseMonitor.queryProfiler = queryProfiler
+  }
+
+  @JvmStatic
+  val profiler: QueryProfiler?
+    get() = queryProfiler
+
   @JvmStatic
   fun onSql(sql: String, args: Array<Any>?) {
     queryMonitor?.onSql(sql, args)
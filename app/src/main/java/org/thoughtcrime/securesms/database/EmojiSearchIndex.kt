@@ -0,0 +1,186 @@
+package org.thoughtcrime.securesms.database
+
+import java.util.PriorityQueue
+
+/**
+ * An in-memory index of emoji search labels, so that searching on every keystroke doesn't need to scan the table.
+ *
+ * Labels are indexed by every three-character sequence (trigram) in them. A query of at least three characters only has to check the labels
+ * that contain its rarest trigram, and shorter queries check every label. Matching is a case-insensitive substring match.
+ *
+ * @param entries Every label, ordered by rank. Ties in score are broken by this order.
+ */
+class EmojiSearchIndex(entries: List<Entry>) {
+
+  companion object {
+    private const val UNRANKED = 2f
+    private const val PREFIX_WEIGHT = 1.75f
+    private const val SUFFIX_WEIGHT = 0.75f
+    private const val NOT_EXACT_MATCH_PENALTY = 2f
+
+    private fun trigram(text: String, start: Int): Long {
+      return (text[start].code.toLong() shl 32) or (text[start + 1].code.toLong() shl 16) or text[start + 2].code.toLong()
+    }
+  }
+
+  private val labels: Array<String> = Array(entries.size) { entries[it].label.lowercase() }
+  private val emoji: Array<String> = Array(entries.size) { entries[it].emoji }
+  private val scaledRanks: FloatArray
+  private val trigrams: Map<Long, IntArray>
+
+  init {
+    val maxRank = entries.maxOfOrNull { if (it.rank == Int.MAX_VALUE) 0 else it.rank } ?: 0
+    val scaleFactor = UNRANKED / maxRank
+
+    scaledRanks = FloatArray(entries.size) { i ->
+      val rank = entries[i].rank
+      if (rank == Int.MAX_VALUE) UNRANKED else rank * scaleFactor
+    }
+
+    trigrams = buildTrigrams()
+  }
+
+  /**
+   * @return Up to [limit] distinct emoji whose labels contain [query], most relevant first.
+   */
+  fun query(query: String, limit: Int): List<String> {
+    val term = query.trim().lowercase()
+
+    if (term.isEmpty() || limit <= 0) {
+      return emptyList()
+    }
+
+    val bestByEmoji: MutableMap<String, Match> = HashMap()
+
+    forEachCandidate(term) { id ->
+      val label = labels[id]
+      val start = label.indexOf(term)
+
+      if (start >= 0) {
+        val match = Match(id, score(term, id, start))
+        val best = bestByEmoji[emoji[id]]
+
+        if (best == null || match < best) {
+          bestByEmoji[emoji[id]] = match
+        }
+      }
+    }
+
+    return topMatches(bestByEmoji.values, limit).map { emoji[it.id] }
+  }
+
+  /**
+   * Ranks how "similar" a match is to the search term. A lower score means more similar, with an exact match only being ranked by popularity.
+   *
+   * Letters that come before the term are weighted more heavily than those that come after, so that labels starting with the term are
+   * preferred.
+   */
+  private fun score(term: String, id: Int, start: Int): Float {
+    val label = labels[id]
+
+    if (label.length == term.length) {
+      return scaledRanks[id]
+    }
+
+    val prefixCount = start
+    val suffixCount = label.length - (start + term.length)
+
+    return NOT_EXACT_MATCH_PENALTY + (prefixCount * PREFIX_WEIGHT) + (suffixCount * SUFFIX_WEIGHT) + scaledRanks[id]
+  }
+
+  private inline fun forEachCandidate(term: String, action: (Int) -> Unit) {
+    if (term.length < 3) {
+      for (id in labels.indices) {
+        action(id)
+      }
+      return
+    }
+
+    var rarest: IntArray? = null
+
+    for (i in 0..term.length - 3) {
+      val ids = trigrams[trigram(term, i)] ?: return
+
+      if (rarest == null || ids.size < rarest.size) {
+        rarest = ids
+      }
+    }
+
+    for (id in rarest!!) {
+      action(id)
+    }
+  }
+
+  /**
+   * Selects the best [limit] matches with a bounded heap, rather than sorting all of them.
+   */
+  private fun topMatches(matches: Collection<Match>, limit: Int): List<Match> {
+    if (matches.size <= limit) {
+      return matches.sorted()
+    }
+
+    val worstFirst = PriorityQueue<Match>(limit, Comparator.reverseOrder())
+
+    for (match in matches) {
+      if (worstFirst.size < limit) {
+        worstFirst.add(match)
+      } else if (match < worstFirst.peek()!!) {
+        worstFirst.poll()
+        worstFirst.add(match)
+      }
+    }
+
+    return worstFirst.sorted()
+  }
+
+  private fun buildTrigrams(): Map<Long, IntArray> {
+    val counts: MutableMap<Long, IntArray> = HashMap()
+
+    for (label in labels) {
+      for (i in 0..label.length - 3) {
+        counts.getOrPut(trigram(label, i)) { IntArray(1) }[0]++
+      }
+    }
+
+    val ids: MutableMap<Long, IntArray> = HashMap(counts.size)
+    val filled: MutableMap<Long, IntArray> = HashMap(counts.size)
+
+    for ((key, count) in counts) {
+      ids[key] = IntArray(count[0])
+      filled[key] = IntArray(1)
+    }
+
+    for (id in labels.indices) {
+      val label = labels[id]
+
+      for (i in 0..label.length - 3) {
+        val key = trigram(label, i)
+        val list = ids[key]!!
+        val position = filled[key]!!
+
+        // A label can contain the same trigram more than once, but only needs to be listed once
+        if (position[0] == 0 || list[position[0] - 1] != id) {
+          list[position[0]++] = id
+        }
+      }
+    }
+
+    for ((key, position) in filled) {
+      val list = ids[key]!!
+      if (position[0] < list.size) {
+        ids[key] = list.copyOf(position[0])
+      }
+    }
+
+    return ids
+  }
+
+  private class Match(val id: Int, val score: Float) : Comparable<Match> {
+    override fun compareTo(other: Match): Int {
+      val byScore = score.compareTo(other.score)
+      return if (byScore != 0) byScore else id.compareTo(other.id)
+    }
+  }
+
+  data class Entry(val label: String, val emoji: String, val rank: Int)
+}
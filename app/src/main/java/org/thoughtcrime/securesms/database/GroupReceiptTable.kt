@@ -75,6 +75,25 @@ class GroupReceiptTable(context: Context?, databaseHelper: SignalDatabase?) : Da
       .run()
   }
 
+  /**
+   * Same as [update], but for many messages at once.
+   */
+  fun update(recipientId: RecipientId, mmsIds: Collection<Long>, status: Int, timestamp: Long) {
+    val recipientQuery = SqlUtil.buildQuery("$RECIPIENT_ID = ? AND $STATUS < ?", recipientId.serialize(), status)
+
+    for (idQuery in SqlUtil.buildCollectionQuery(MMS_ID, mmsIds)) {
+      val query = recipientQuery and idQuery
+      writableDatabase
+        .update(TABLE_NAME)
+        .values(
+          STATUS to status,
+          TIMESTAMP to timestamp
+        )
+        .where(query.where, query.whereArgs)
+        .run()
+    }
+  }
+
   fun setUnidentified(results: Collection<Pair<RecipientId, Boolean>>, mmsId: Long) {
     writableDatabase.withinTransaction { db ->
       for (result in results) {
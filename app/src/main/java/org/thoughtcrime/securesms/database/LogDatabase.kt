@@ -15,6 +15,7 @@ import org.signal.core.util.logging.Log
 import org.thoughtcrime.securesms.crypto.DatabaseSecret
 import org.thoughtcrime.securesms.crypto.DatabaseSecretProvider
 import org.thoughtcrime.securesms.database.model.LogEntry
+import org.thoughtcrime.securesms.logging.LogStore
 import org.thoughtcrime.securesms.util.ByteUnit
 import java.io.Closeable
 import java.util.concurrent.TimeUnit
@@ -43,7 +44,8 @@ class LogDatabase private constructor(
     SqlCipherDatabaseHook(),
     true
   ),
-  SignalDatabaseOpenHelper {
+  SignalDatabaseOpenHelper,
+  LogStore {
 
   companion object {
     private val TAG = Log.tag(LogDatabase::class.java)
@@ -93,6 +95,19 @@ class LogDatabase private constructor(
       }
       return instance!!
     }
+
+    /**
+     * Deletes the database if it exists and hasn't been opened in this process, for when logs are being kept in a different [LogStore].
+     */
+    @JvmStatic
+    fun deleteIfUnused(application: Application) {
+      synchronized(LogDatabase::class.java) {
+        if (instance == null && application.getDatabasePath(DATABASE_NAME).exists()) {
+          Log.i(TAG, "Deleting unused log database.")
+          application.deleteDatabase(DATABASE_NAME)
+        }
+      }
+    }
   }
 
   override fun onCreate(db: SQLiteDatabase) {
@@ -120,7 +135,7 @@ class LogDatabase private constructor(
     return writableDatabase
   }
 
-  fun insert(logs: List<LogEntry>, currentTime: Long) {
+  override fun insert(logs: List<LogEntry>, currentTime: Long) {
     val db = writableDatabase
 
     db.beginTransaction()
@@ -141,11 +156,11 @@ class LogDatabase private constructor(
     }
   }
 
-  fun getAllBeforeTime(time: Long): Reader {
+  override fun getAllBeforeTime(time: Long): Reader {
     return CursorReader(readableDatabase.query(TABLE_NAME, arrayOf(BODY), "$CREATED_AT < ?", SqlUtil.buildArgs(time), null, null, null))
   }
 
-  fun getRangeBeforeTime(start: Int, length: Int, time: Long): List<String> {
+  override fun getRangeBeforeTime(start: Int, length: Int, time: Long): List<String> {
     val lines = mutableListOf<String>()
 
     readableDatabase.query(TABLE_NAME, arrayOf(BODY), "$CREATED_AT < ?", SqlUtil.buildArgs(time), null, null, null, "$start,$length").use { cursor ->
@@ -157,7 +172,7 @@ class LogDatabase private constructor(
     return lines
   }
 
-  fun trimToSize() {
+  override fun trimToSize() {
     val currentTime = System.currentTimeMillis()
     val stopwatch = Stopwatch("trim")
 
@@ -209,7 +224,7 @@ class LogDatabase private constructor(
     stopwatch.stop(TAG)
   }
 
-  fun getLogCountBeforeTime(time: Long): Int {
+  override fun getLogCountBeforeTime(time: Long): Int {
     readableDatabase.query(TABLE_NAME, arrayOf("COUNT(*)"), "$CREATED_AT < ?", SqlUtil.buildArgs(time), null, null, null).use { cursor ->
       return if (cursor.moveToFirst()) {
         cursor.getInt(0)
@@ -219,7 +234,7 @@ class LogDatabase private constructor(
     }
   }
 
-  fun clearKeepLonger() {
+  override fun clearKeepLonger() {
     writableDatabase.delete(TABLE_NAME)
       .where("$KEEP_LONGER = ?", 1)
       .run()
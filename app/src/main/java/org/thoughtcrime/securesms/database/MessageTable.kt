@@ -124,6 +124,7 @@ import org.thoughtcrime.securesms.mms.OutgoingMessage
 import org.thoughtcrime.securesms.mms.QuoteModel
 import org.thoughtcrime.securesms.mms.SlideDeck
 import org.thoughtcrime.securesms.notifications.v2.DefaultMessageNotifier.StickyThread
+import org.thoughtcrime.securesms.notifications.v2.NotificationStateProvider
 import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.recipients.RecipientId
 import org.thoughtcrime.securesms.revealable.ViewOnceExpirationInfo
@@ -147,6 +148,7 @@ import java.io.IOException
 import java.util.LinkedList
 import java.util.Optional
 import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
 import java.util.function.Function
 import kotlin.math.max
 import kotlin.math.min
@@ -280,7 +282,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       "CREATE INDEX IF NOT EXISTS message_reactions_unread_index ON $TABLE_NAME ($REACTIONS_UNREAD);",
       "CREATE INDEX IF NOT EXISTS message_story_type_index ON $TABLE_NAME ($STORY_TYPE);",
       "CREATE INDEX IF NOT EXISTS message_parent_story_id_index ON $TABLE_NAME ($PARENT_STORY_ID);",
-      "CREATE INDEX IF NOT EXISTS $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID ON $TABLE_NAME ($THREAD_ID, $DATE_RECEIVED, $STORY_TYPE, $PARENT_STORY_ID, $SCHEDULED_DATE, $LATEST_REVISION_ID);",
+      "CREATE INDEX IF NOT EXISTS $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID ON $TABLE_NAME ($THREAD_ID, $DATE_RECEIVED, $ID, $STORY_TYPE, $PARENT_STORY_ID, $SCHEDULED_DATE, $LATEST_REVISION_ID);",
       "CREATE INDEX IF NOT EXISTS message_quote_id_quote_author_scheduled_date_latest_revision_id_index ON $TABLE_NAME ($QUOTE_ID, $QUOTE_AUTHOR, $SCHEDULED_DATE, $LATEST_REVISION_ID);",
       "CREATE INDEX IF NOT EXISTS message_exported_index ON $TABLE_NAME ($EXPORTED);",
       "CREATE INDEX IF NOT EXISTS message_id_type_payment_transactions_index ON $TABLE_NAME ($ID,$TYPE) WHERE $TYPE & ${MessageTypes.SPECIAL_TYPE_PAYMENTS_NOTIFICATION} != 0;",
@@ -382,6 +384,9 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       """.toSingleLine()
 
     private const val IS_STORY_CLAUSE = "$STORY_TYPE > 0 AND $REMOTE_DELETED = 0"
+
+    /** The most target timestamps we'll update in a single receipt statement. */
+    private const val RECEIPT_BATCH_SIZE = 64
     private const val RAW_ID_WHERE = "$TABLE_NAME.$ID = ?"
 
     private val SNIPPET_QUERY =
@@ -553,6 +558,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   }
 
   private val earlyDeliveryReceiptCache = EarlyDeliveryReceiptCache()
+  private val receiptUpdateQueries: MutableMap<ReceiptUpdateQueryKey, String> = ConcurrentHashMap()
 
   private fun getOldestGroupUpdateSender(threadId: Long, minimumDateReceived: Long): RecipientId? {
     val type = MessageTypes.SECURE_MESSAGE_BIT or MessageTypes.PUSH_MESSAGE_BIT or MessageTypes.GROUP_UPDATE_BIT or MessageTypes.BASE_INBOX_TYPE
@@ -649,6 +655,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
       val threadId = getThreadIdForMessage(id)
       threads.updateSnippetTypeSilently(threadId)
+      NotificationStateProvider.onMessageChanged(id)
     }
 
     ApplicationDependencies.getDatabaseObserver().notifyMessageUpdateObservers(MessageId(id))
@@ -795,6 +802,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     )
 
     val messageId = writableDatabase.insert(TABLE_NAME, null, values)
+    NotificationStateProvider.onMessageChanged(messageId)
 
     if (unread) {
       threads.incrementUnread(threadId, 1, 0)
@@ -820,6 +828,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .where("$ID = ?", messageId)
       .run()
 
+    NotificationStateProvider.onMessageChanged(messageId)
+
     val threadId = getThreadIdForMessage(messageId)
 
     if (unread) {
@@ -867,6 +877,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       )
 
       val messageId = MessageId(db.insert(TABLE_NAME, null, values))
+      NotificationStateProvider.onMessageChanged(messageId.id)
       threads.incrementUnread(threadId, 1, 0)
       threads.update(threadId, true)
 
@@ -900,6 +911,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     val updated = writableDatabase.update(TABLE_NAME, contentValues, query.where, query.whereArgs) > 0
 
     if (updated) {
+      NotificationStateProvider.onMessageChanged(messageId)
       notifyConversationListeners(message.threadId)
     }
   }
@@ -933,6 +945,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       val updated = db.update(TABLE_NAME, contentValues, query.where, query.whereArgs) > 0
 
       if (updated) {
+        NotificationStateProvider.onMessageChanged(messageId)
         notifyConversationListeners(message.threadId)
       }
     }
@@ -974,6 +987,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         val updated = db.update(TABLE_NAME, contentValues, query.where, query.whereArgs) > 0
 
         if (updated) {
+          NotificationStateProvider.onMessageChanged(record.id)
           notifyConversationListeners(threadId)
         }
 
@@ -1048,6 +1062,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     if (tryToCollapseJoinRequestEvents) {
       val result = collapseJoinRequestEventsIfPossible(threadId, message as IncomingGroupUpdateMessage)
       if (result.isPresent) {
+        NotificationStateProvider.onMessageChanged(result.get().messageId)
         return result
       }
     }
@@ -1080,6 +1095,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       if (id < 0) {
         Log.w(TAG, "Failed to insert text message (${message.sentTimestampMillis}, ${message.authorId}, ThreadId::$threadId)! Likely a duplicate.")
       } else {
+        NotificationStateProvider.onMessageChanged(id)
+
         if (unread && editedMessage == null) {
           threads.incrementUnread(threadId, 1, 0)
         }
@@ -1120,6 +1137,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         .run()
 
       reactions.moveReactionsToNewMessage(newMessageId = messageId, previousId = targetMessage.id)
+      NotificationStateProvider.onMessageChanged(targetMessage.id)
 
       notifyConversationListeners(targetMessage.threadId)
     }
@@ -1143,6 +1161,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         .run()
 
       reactions.moveReactionsToNewMessage(newMessageId = messageId, previousId = targetMessage.id)
+      NotificationStateProvider.onMessageChanged(targetMessage.id)
 
       notifyConversationListeners(targetMessage.threadId)
     }
@@ -1624,6 +1643,24 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return hasSelfReplyInStory(-parentStoryId)
   }
 
+  /**
+   * Bulk version of [hasGroupReplyOrReactionInStory].
+   *
+   * @return The subset of [parentStoryIds] that we've replied to or reacted to.
+   */
+  fun getGroupStoriesWithSelfReplyOrReaction(parentStoryIds: Collection<Long>): Set<Long> {
+    return SqlUtil.buildCollectionQuery(PARENT_STORY_ID, parentStoryIds, prefix = "($outgoingTypeClause) AND ").flatMap { query ->
+      readableDatabase
+        .select("DISTINCT $PARENT_STORY_ID")
+        .from(TABLE_NAME)
+        .where(query.where, query.whereArgs)
+        .run()
+        .readToSet { cursor ->
+          cursor.requireLong(PARENT_STORY_ID)
+        }
+    }.toSet()
+  }
+
   fun getOldestStorySendTimestamp(hasSeenReleaseChannelStories: Boolean): Long? {
     val releaseChannelThreadId = getReleaseChannelThreadId(hasSeenReleaseChannelStories)
 
@@ -1639,10 +1676,14 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
   @VisibleForTesting
   fun deleteGroupStoryReplies(parentStoryId: Long) {
-    writableDatabase
+    val deletes = writableDatabase
       .delete(TABLE_NAME)
       .where("$PARENT_STORY_ID = ?", parentStoryId)
       .run()
+
+    if (deletes > 0) {
+      NotificationStateProvider.invalidate()
+    }
   }
 
   fun deleteStoriesOlderThan(timestamp: Long, hasSeenReleaseChannelStories: Boolean): Int {
@@ -1678,6 +1719,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
       db.execSQL(deleteStoryRepliesQuery, sharedArgs)
       db.execSQL(disassociateQuoteQuery, sharedArgs)
+      NotificationStateProvider.invalidate()
 
       db.select(FROM_RECIPIENT_ID)
         .from(TABLE_NAME)
@@ -1748,11 +1790,16 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .readToSingleInt()
   }
 
+  /**
+   * The number of messages shown in the conversation, i.e. excluding stories, story replies, scheduled messages and old revisions of edits.
+   * This is maintained on the thread by [ThreadTable.CREATE_COUNT_TRIGGERS], so unlike [getMessageCountForThread] with a time, it's cheap
+   * regardless of the size of the thread.
+   */
   fun getMessageCountForThread(threadId: Long): Int {
     return readableDatabase
-      .select("COUNT(*)")
-      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID")
-      .where("$THREAD_ID = ? AND $STORY_TYPE = ? AND $PARENT_STORY_ID <= ? AND $SCHEDULED_DATE = ? AND $LATEST_REVISION_ID IS NULL", threadId, 0, 0, -1)
+      .select(ThreadTable.VISIBLE_MESSAGE_COUNT)
+      .from(ThreadTable.TABLE_NAME)
+      .where("${ThreadTable.ID} = ?", threadId)
       .run()
       .readToSingleInt()
   }
@@ -2063,6 +2110,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         .where("$ID = ?", messageId)
         .run()
 
+      NotificationStateProvider.onMessageChanged(messageId)
+
       deletedAttachments = attachments.deleteAttachmentsForMessage(messageId)
       mentions.deleteMentionsForMessage(messageId)
       messageLog.deleteAllRelatedToMessage(messageId)
@@ -2157,7 +2206,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         }
       }
 
-      threads.update(threadId, false)
+      threads.updateAtEndOfTransaction(threadId, false)
     }
 
     notifyConversationListeners(threadId)
@@ -2172,6 +2221,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       )
       .where("$ID = ?", id)
       .run()
+
+    NotificationStateProvider.onMessageChanged(id)
   }
 
   fun markAsNotNotified(id: Long) {
@@ -2180,6 +2231,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .values(NOTIFIED to 0)
       .where("$ID = ?", id)
       .run()
+
+    NotificationStateProvider.onMessageChanged(id)
   }
 
   fun setMessagesReadSince(threadId: Long, sinceTimestamp: Long): List<MarkedMessageInfo> {
@@ -2270,7 +2323,9 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
   private fun setMessagesRead(where: String, arguments: Array<String>?): List<MarkedMessageInfo> {
     val releaseChannelId = SignalStore.releaseChannelValues().releaseChannelRecipientId
-    return writableDatabase.rawQuery(
+    val readMessageIds: MutableList<Long> = mutableListOf()
+
+    val markedMessages = writableDatabase.rawQuery(
       """
           UPDATE $TABLE_NAME INDEXED BY $INDEX_THREAD_DATE
           SET $READ = 1, $REACTIONS_UNREAD = 0, $REACTIONS_LAST_SEEN = ${System.currentTimeMillis()}
@@ -2289,6 +2344,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       val expirationInfo = ExpirationInfo(messageId, expiresIn, expireStarted, true)
       val storyType = fromCode(CursorUtil.requireInt(cursor, STORY_TYPE))
 
+      readMessageIds += messageId
+
       if (recipientId != releaseChannelId) {
         MarkedMessageInfo(threadId, syncMessageId, MessageId(messageId), expirationInfo, storyType)
       } else {
@@ -2296,6 +2353,10 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       }
     }
       .filterNotNull()
+
+    NotificationStateProvider.onMessagesChanged(readMessageIds)
+
+    return markedMessages
   }
 
   fun getOldestUnreadMentionDetails(threadId: Long): Pair<RecipientId, Long>? {
@@ -2760,6 +2821,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       )
       .run(SQLiteDatabase.CONFLICT_IGNORE)
 
+    NotificationStateProvider.onMessageChanged(messageId)
+
     return Pair(messageId, threadId)
   }
 
@@ -2784,6 +2847,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       )
       .run()
 
+    NotificationStateProvider.onMessageChanged(messageId)
     threads.incrementUnread(threadId, 1, 0)
     threads.update(threadId, true)
 
@@ -2794,7 +2858,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   }
 
   fun insertBadDecryptMessage(recipientId: RecipientId, senderDevice: Int, sentTimestamp: Long, receivedTimestamp: Long, threadId: Long) {
-    writableDatabase
+    val messageId = writableDatabase
       .insertInto(TABLE_NAME)
       .values(
         FROM_RECIPIENT_ID to recipientId.serialize(),
@@ -2809,6 +2873,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       )
       .run()
 
+    NotificationStateProvider.onMessageChanged(messageId)
     threads.incrementUnread(threadId, 1, 0)
     threads.update(threadId, true)
 
@@ -3113,6 +3178,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         .where("$ID_WHERE OR $LATEST_REVISION_ID = ?", message.messageToEdit, message.messageToEdit)
         .run()
 
+      NotificationStateProvider.onMessageChanged(message.messageToEdit)
+
       val textAttachments = (editedMessage as? MediaMmsMessageRecord)?.slideDeck?.asAttachments()?.filter { it.contentType == MediaUtil.LONG_TEXT }?.mapNotNull { (it as? DatabaseAttachment)?.attachmentId?.rowId } ?: emptyList()
       val linkPreviewAttachments = (editedMessage as? MediaMmsMessageRecord)?.linkPreviews?.mapNotNull { it.attachmentId?.rowId } ?: emptyList()
       val excludeIds = HashSet<Long>()
@@ -3189,6 +3256,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
       threads.markAsActiveEarly(threadId)
       SignalDatabase.mentions.insert(threadId, messageId, mentions)
+      NotificationStateProvider.onMessageChanged(messageId)
 
       val insertedAttachments = SignalDatabase.attachments.insertAttachmentsForMessage(messageId, allAttachments, quoteAttachments)
       val serializedContacts = getSerializedSharedContacts(insertedAttachments, sharedContacts)
@@ -3231,7 +3299,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
     if (updateThread) {
       threads.setLastScrolled(contentValuesThreadId, 0)
-      threads.update(threadId, unarchive)
+      threads.updateAtEndOfTransaction(threadId, unarchive)
     }
 
     return kotlin.Pair(messageId, insertedAttachments)
@@ -3278,6 +3346,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       }.flatten().toSet()
     }
 
+    NotificationStateProvider.invalidate()
+
     threadIds.forEach {
       threads.updateReadState(it)
       threads.update(
@@ -3318,6 +3388,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .where("$ID = ?", messageId)
       .run()
 
+    NotificationStateProvider.onMessageDeleted(messageId)
     calls.updateCallEventDeletionTimestamps()
     threads.setLastScrolled(threadId, 0)
     val threadDeleted = threads.update(threadId, false)
@@ -3517,6 +3588,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         .where("$EXPORTED = ?", MessageExportStatus.EXPORTED)
         .run()
 
+      NotificationStateProvider.invalidate()
+
       for (threadId in threadsToUpdate) {
         threads.update(threadId, false)
       }
@@ -3549,10 +3622,16 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   }
 
   fun deleteMessagesInThreadBeforeDate(threadId: Long, date: Long): Int {
-    return writableDatabase
+    val deletes = writableDatabase
       .delete(TABLE_NAME)
       .where("$THREAD_ID = ? AND $DATE_RECEIVED < $date", threadId)
       .run()
+
+    if (deletes > 0) {
+      NotificationStateProvider.invalidate()
+    }
+
+    return deletes
   }
 
   fun deleteAbandonedMessages(): Int {
@@ -3563,6 +3642,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
     if (deletes > 0) {
       Log.i(TAG, "Deleted $deletes abandoned messages")
+      NotificationStateProvider.invalidate()
       calls.updateCallEventDeletionTimestamps()
     }
 
@@ -3593,6 +3673,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     groupReceipts.deleteAllRows()
     mentions.deleteAllMentions()
     writableDatabase.delete(TABLE_NAME).run()
+    NotificationStateProvider.invalidate()
     calls.updateCallEventDeletionTimestamps()
 
     OptimizeMessageSearchIndexJob.enqueue()
@@ -3808,6 +3889,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       )
       .where(where, threadId, 1)
       .run()
+
+    NotificationStateProvider.invalidate()
   }
 
   fun setAllReactionsSeen() {
@@ -3819,6 +3902,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       )
       .where("$REACTIONS_UNREAD != ?", 0)
       .run()
+
+    NotificationStateProvider.invalidate()
   }
 
   fun setNotifiedTimestamp(timestamp: Long, ids: List<Long>) {
@@ -4303,15 +4388,9 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     val unhandled: MutableSet<Long> = HashSet()
 
     writableDatabase.withinTransaction {
-      for (targetTimestamp in targetTimestamps) {
-        val updates = incrementReceiptCountInternal(targetTimestamp, receiptAuthor, receiptSentTimestamp, ReceiptType.VIEWED, MessageQualifier.STORY)
-
-        if (updates.isNotEmpty()) {
-          messageUpdates += updates
-        } else {
-          unhandled += targetTimestamp
-        }
-      }
+      val result = incrementReceiptCountsInternal(targetTimestamps, receiptAuthor, receiptSentTimestamp, ReceiptType.VIEWED, MessageQualifier.STORY)
+      messageUpdates += result.updates
+      unhandled += result.missingTargetTimestamps
     }
 
     for (update in messageUpdates) {
@@ -4335,10 +4414,10 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     var messageUpdates: Set<MessageReceiptUpdate> = HashSet()
 
     writableDatabase.withinTransaction {
-      messageUpdates = incrementReceiptCountInternal(targetTimestamp, receiptAuthor, receiptSentTimestamp, receiptType, messageQualifier)
+      messageUpdates = incrementReceiptCountsInternal(listOf(targetTimestamp), receiptAuthor, receiptSentTimestamp, receiptType, messageQualifier).updates
 
       for (messageUpdate in messageUpdates) {
-        threads.update(messageUpdate.threadId, false)
+        threads.updateAtEndOfTransaction(messageUpdate.threadId, false)
       }
     }
 
@@ -4359,18 +4438,13 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     val missingTargetTimestamps: MutableSet<Long> = HashSet()
 
     writableDatabase.withinTransaction {
-      for (targetTimestamp in targetTimestamps) {
-        val updates: Set<MessageReceiptUpdate> = incrementReceiptCountInternal(targetTimestamp, receiptAuthor, receiptSentTimestamp, receiptType, messageQualifier)
-        if (updates.isNotEmpty()) {
-          messageUpdates += updates
-        } else {
-          missingTargetTimestamps += targetTimestamp
-        }
-      }
+      val result = incrementReceiptCountsInternal(targetTimestamps, receiptAuthor, receiptSentTimestamp, receiptType, messageQualifier)
+      messageUpdates += result.updates
+      missingTargetTimestamps += result.missingTargetTimestamps
 
       for (update in messageUpdates) {
         if (update.shouldUpdateSnippet) {
-          threads.updateSilently(update.threadId, false)
+          threads.updateAtEndOfTransaction(update.threadId, unarchive = false, notifyListeners = false)
         }
       }
     }
@@ -4391,28 +4465,105 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return missingTargetTimestamps
   }
 
-  private fun incrementReceiptCountInternal(targetTimestamp: Long, receiptAuthor: RecipientId, receiptSentTimestamp: Long, receiptType: ReceiptType, messageQualifier: MessageQualifier): Set<MessageReceiptUpdate> {
+  /**
+   * Increments the receipt count of every message sent at one of the [targetTimestamps] by [receiptAuthor] (or to a group they may be in),
+   * along with the matching group receipts.
+   *
+   * Timestamps are updated in batches of up to [RECEIPT_BATCH_SIZE], with one statement per batch.
+   */
+  private fun incrementReceiptCountsInternal(targetTimestamps: Collection<Long>, receiptAuthor: RecipientId, receiptSentTimestamp: Long, receiptType: ReceiptType, messageQualifier: MessageQualifier): ReceiptUpdateResult {
     val messageUpdates: MutableSet<MessageReceiptUpdate> = HashSet()
+    val foundTargetTimestamps: MutableSet<Long> = HashSet()
+    val storyTargetTimestamps: MutableSet<Long> = HashSet()
+    val updatedMessageIds: MutableList<Long> = ArrayList()
+
+    val selfId: Long = Recipient.self().id.toLong()
+    val authorId: Long = receiptAuthor.toLong()
+
+    for (batch in targetTimestamps.distinct().chunked(RECEIPT_BATCH_SIZE)) {
+      val placeholderCount: Int = receiptPlaceholderCount(batch.size)
+      val args: Array<Any?> = arrayOfNulls(placeholderCount + 3)
+
+      args[0] = receiptSentTimestamp
+      for (i in 0 until placeholderCount) {
+        // Repeating a timestamp in the IN clause doesn't change the result, so we pad with the last one to keep the statement shape stable
+        args[i + 1] = batch[min(i, batch.size - 1)]
+      }
+      args[placeholderCount + 1] = selfId
+      args[placeholderCount + 2] = authorId
+
+      writableDatabase.rawQuery(getReceiptUpdateQuery(receiptType, messageQualifier, placeholderCount), args).forEach { cursor ->
+        val messageId = cursor.requireLong(ID)
+        val threadId = cursor.requireLong(THREAD_ID)
+        val storyType = StoryType.fromCode(cursor.requireInt(STORY_TYPE))
+        val dateSent = cursor.requireLong(DATE_SENT)
+        val receiptCount = cursor.requireInt(receiptType.columnName)
+
+        updatedMessageIds += messageId
+        messageUpdates += MessageReceiptUpdate(threadId, MessageId(messageId), receiptType != ReceiptType.VIEWED && receiptCount == 1)
+        foundTargetTimestamps += dateSent
+
+        if (storyType != StoryType.NONE) {
+          storyTargetTimestamps += dateSent
+        }
+      }
+    }
+
+    val missingTargetTimestamps: Set<Long> = targetTimestamps.filterNot { foundTargetTimestamps.contains(it) }.toSet()
+
+    if (receiptType == ReceiptType.DELIVERY) {
+      for (targetTimestamp in missingTargetTimestamps) {
+        earlyDeliveryReceiptCache.increment(targetTimestamp, receiptAuthor, receiptSentTimestamp)
+      }
+    }
+
+    for (targetTimestamp in storyTargetTimestamps) {
+      for (messageId in storySends.getStoryMessagesFor(receiptAuthor, targetTimestamp)) {
+        updatedMessageIds += messageId.id
+        messageUpdates += MessageReceiptUpdate(-1, messageId, false)
+      }
+    }
+
+    groupReceipts.update(receiptAuthor, updatedMessageIds, receiptType.groupStatus, receiptSentTimestamp)
 
-    val qualifierWhere: String = when (messageQualifier) {
-      MessageQualifier.NORMAL -> " AND NOT ($IS_STORY_CLAUSE)"
-      MessageQualifier.STORY -> " AND $IS_STORY_CLAUSE"
-      MessageQualifier.ALL -> ""
+    return ReceiptUpdateResult(messageUpdates, missingTargetTimestamps)
+  }
+
+  /**
+   * Rounds up to a power of two, so that there are only a handful of distinct receipt statements for SQLite to cache.
+   */
+  private fun receiptPlaceholderCount(timestampCount: Int): Int {
+    var count = 1
+    while (count < timestampCount) {
+      count *= 2
     }
+    return min(count, RECEIPT_BATCH_SIZE)
+  }
+
+  /**
+   * Receipt updates are run for every receipt we receive. Everything that varies between receipts is bound as an argument, so that each
+   * combination of receipt type, qualifier and batch size maps to a single SQL string, which SQLite only has to compile once per connection.
+   */
+  private fun getReceiptUpdateQuery(receiptType: ReceiptType, messageQualifier: MessageQualifier, placeholderCount: Int): String {
+    return receiptUpdateQueries.getOrPut(ReceiptUpdateQueryKey(receiptType, messageQualifier, placeholderCount)) {
+      val qualifierWhere: String = when (messageQualifier) {
+        MessageQualifier.NORMAL -> " AND NOT ($IS_STORY_CLAUSE)"
+        MessageQualifier.STORY -> " AND $IS_STORY_CLAUSE"
+        MessageQualifier.ALL -> ""
+      }
+
+      val placeholders: String = (0 until placeholderCount).joinToString(", ") { "?" }
 
-    var found = false
-    var hasStory = false
-    writableDatabase.rawQuery(
       """
         UPDATE $TABLE_NAME
         SET
           ${receiptType.columnName} = ${receiptType.columnName} + 1,
           $RECEIPT_TIMESTAMP = CASE 
-            WHEN ${receiptType.columnName} = 0 THEN MAX($RECEIPT_TIMESTAMP, $receiptSentTimestamp) 
+            WHEN ${receiptType.columnName} = 0 THEN MAX($RECEIPT_TIMESTAMP, ?) 
             ELSE $RECEIPT_TIMESTAMP 
           END 
         WHERE
-          $DATE_SENT = $targetTimestamp AND
+          $DATE_SENT IN ($placeholders) AND
           $FROM_RECIPIENT_ID = ? AND
           (
             $TO_RECIPIENT_ID = ? OR 
@@ -4425,34 +4576,9 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
             )
           )
           $qualifierWhere
-        RETURNING $ID, $THREAD_ID, $STORY_TYPE, ${receiptType.columnName}
-      """,
-      buildArgs(Recipient.self().id, receiptAuthor)
-    ).forEach { cursor ->
-      val messageId = cursor.requireLong(ID)
-      val threadId = cursor.requireLong(THREAD_ID)
-      val storyType = StoryType.fromCode(cursor.requireInt(STORY_TYPE))
-      val receiptCount = cursor.requireInt(receiptType.columnName)
-
-      groupReceipts.update(receiptAuthor, messageId, receiptType.groupStatus, receiptSentTimestamp)
-      messageUpdates += MessageReceiptUpdate(threadId, MessageId(messageId), receiptType != ReceiptType.VIEWED && receiptCount == 1)
-
-      found = true
-      hasStory = storyType != StoryType.NONE
-    }
-
-    if (!found && receiptType == ReceiptType.DELIVERY) {
-      earlyDeliveryReceiptCache.increment(targetTimestamp, receiptAuthor, receiptSentTimestamp)
-    }
-
-    if (hasStory) {
-      for (messageId in storySends.getStoryMessagesFor(receiptAuthor, targetTimestamp)) {
-        groupReceipts.update(receiptAuthor, messageId.id, receiptType.groupStatus, receiptSentTimestamp)
-        messageUpdates += MessageReceiptUpdate(-1, messageId, false)
-      }
+        RETURNING $ID, $THREAD_ID, $STORY_TYPE, $DATE_SENT, ${receiptType.columnName}
+      """
     }
-
-    return messageUpdates
   }
 
   /**
@@ -4548,6 +4674,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
           .where("$ID = ?", latestRevisionId ?: id)
           .run()
 
+        NotificationStateProvider.onMessageChanged(latestRevisionId ?: id)
+
         threads += threadId
 
         val latest: Long? = threadToLatestRead[threadId]
@@ -4589,6 +4717,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   /**
    * A cursor containing all of the messages in a given thread, in the proper order, respecting offset/limit.
    * This does *not* have attachments in it.
+   *
+   * Messages with the same received date are ordered by ID, so that the order is stable and matches [getConversationAfter].
    */
   fun getConversation(threadId: Long, offset: Long, limit: Long): Cursor {
     val limitStr: String = if (limit > 0 || offset > 0) "$offset, $limit" else ""
@@ -4597,11 +4727,61 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .select(*MMS_PROJECTION)
       .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID")
       .where("$THREAD_ID = ? AND $STORY_TYPE = ? AND $PARENT_STORY_ID <= ? AND $SCHEDULED_DATE = ? AND $LATEST_REVISION_ID IS NULL", threadId, 0, 0, -1)
-      .orderBy("$DATE_RECEIVED DESC")
+      .orderBy("$DATE_RECEIVED DESC, $ID DESC")
       .limit(limitStr)
       .run()
   }
 
+  /**
+   * Like [getConversation], but starts right after (i.e. older than) the message identified by [anchor] rather than at an offset, so the
+   * database can seek straight to it instead of walking past every newer message in the thread.
+   *
+   * @param skip The number of messages after [anchor] to skip before returning results. Usually zero.
+   */
+  fun getConversationAfter(threadId: Long, anchor: ConversationAnchor, skip: Long, limit: Long): Cursor {
+    return readableDatabase
+      .select(*MMS_PROJECTION)
+      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID")
+      .where(
+        "$THREAD_ID = ? AND $STORY_TYPE = ? AND $PARENT_STORY_ID <= ? AND $SCHEDULED_DATE = ? AND $LATEST_REVISION_ID IS NULL AND $DATE_RECEIVED <= ? AND ($DATE_RECEIVED < ? OR $ID < ?)",
+        threadId,
+        0,
+        0,
+        -1,
+        anchor.dateReceived,
+        anchor.dateReceived,
+        anchor.id
+      )
+      .orderBy("$DATE_RECEIVED DESC, $ID DESC")
+      .limit("$skip, $limit")
+      .run()
+  }
+
+  /**
+   * The opposite of [getConversationAfter]: returns the messages right before (i.e. newer than) the message identified by [anchor], in
+   * *reverse* conversation order, starting with the one closest to [anchor].
+   *
+   * @param skip The number of messages before [anchor] to skip before returning results. Usually zero.
+   */
+  fun getConversationBefore(threadId: Long, anchor: ConversationAnchor, skip: Long, limit: Long): Cursor {
+    return readableDatabase
+      .select(*MMS_PROJECTION)
+      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID")
+      .where(
+        "$THREAD_ID = ? AND $STORY_TYPE = ? AND $PARENT_STORY_ID <= ? AND $SCHEDULED_DATE = ? AND $LATEST_REVISION_ID IS NULL AND $DATE_RECEIVED >= ? AND ($DATE_RECEIVED > ? OR $ID > ?)",
+        threadId,
+        0,
+        0,
+        -1,
+        anchor.dateReceived,
+        anchor.dateReceived,
+        anchor.id
+      )
+      .orderBy("$DATE_RECEIVED ASC, $ID ASC")
+      .limit("$skip, $limit")
+      .run()
+  }
+
   /**
    * Returns messages ordered for display in a reverse list (newest first).
    */
@@ -4675,6 +4855,20 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .run()
   }
 
+  /**
+   * Like [getMessagesForNotificationState] without sticky threads, but limited to the given messages.
+   */
+  fun getMessagesForNotificationStateByIds(messageIds: Collection<Long>): Cursor {
+    val query = buildSingleCollectionQuery(ID, messageIds, prefix = "$NOTIFIED = 0 AND $STORY_TYPE = 0 AND $LATEST_REVISION_ID IS NULL AND ($READ = 0 OR $REACTIONS_UNREAD = 1) AND ")
+
+    return readableDatabase
+      .select(*MMS_PROJECTION)
+      .from(TABLE_NAME)
+      .where(query.where, query.whereArgs)
+      .orderBy("$DATE_RECEIVED ASC")
+      .run()
+  }
+
   fun updatePendingSelfData(placeholder: RecipientId, self: RecipientId) {
     val fromUpdates = writableDatabase
       .update(TABLE_NAME)
@@ -4711,6 +4905,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .values(TO_RECIPIENT_ID to toId.serialize())
       .where("$TO_RECIPIENT_ID = ?", fromId)
       .run()
+
+    NotificationStateProvider.invalidate()
   }
 
   override fun remapThread(fromId: Long, toId: Long) {
@@ -4719,6 +4915,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .values(THREAD_ID to toId)
       .where("$THREAD_ID = ?", fromId)
       .run()
+
+    NotificationStateProvider.invalidate()
   }
 
   /**
@@ -4751,6 +4949,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
           .where("$ID = ?", messageId)
           .run()
       }
+
+      NotificationStateProvider.onMessageChanged(messageId)
     } catch (e: NoSuchMessageException) {
       Log.w(TAG, "Failed to find message $messageId")
     }
@@ -4935,6 +5135,17 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     val subscriptionId: Int
   )
 
+  private class ReceiptUpdateResult(
+    val updates: Set<MessageReceiptUpdate>,
+    val missingTargetTimestamps: Set<Long>
+  )
+
+  private data class ReceiptUpdateQueryKey(
+    val receiptType: ReceiptType,
+    val messageQualifier: MessageQualifier,
+    val placeholderCount: Int
+  )
+
   data class MessageReceiptUpdate(
     val threadId: Long,
     val messageId: MessageId,
@@ -4947,6 +5158,14 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     val dateReceived: Long
   )
 
+  /**
+   * Identifies a message's position in [getConversation] for keyset paging.
+   */
+  data class ConversationAnchor(
+    val dateReceived: Long,
+    val id: Long
+  )
+
   private data class QuoteDescriptor(
     private val timestamp: Long,
     private val author: RecipientId
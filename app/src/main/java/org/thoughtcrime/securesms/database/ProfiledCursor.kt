@@ -0,0 +1,59 @@
+package org.thoughtcrime.securesms.database
+
+import android.database.Cursor
+import android.database.CursorWrapper
+
+/**
+ * Reports how long it takes to fill the cursor window of a query to the [QueryProfiler]. The window is filled lazily the first time the
+ * cursor is counted or moved, which is often where most of the time for a query is actually spent.
+ */
+internal class ProfiledCursor(
+  cursor: Cursor,
+  private val profiler: QueryProfiler,
+  private val shape: String
+) : CursorWrapper(cursor) {
+
+  private var filled = false
+
+  override fun getCount(): Int {
+    fill()
+    return super.getCount()
+  }
+
+  override fun moveToPosition(position: Int): Boolean {
+    fill()
+    return super.moveToPosition(position)
+  }
+
+  override fun moveToFirst(): Boolean {
+    fill()
+    return super.moveToFirst()
+  }
+
+  override fun moveToLast(): Boolean {
+    fill()
+    return super.moveToLast()
+  }
+
+  override fun moveToNext(): Boolean {
+    fill()
+    return super.moveToNext()
+  }
+
+  override fun move(offset: Int): Boolean {
+    fill()
+    return super.move(offset)
+  }
+
+  private fun fill() {
+    if (filled) {
+      return
+    }
+
+    filled = true
+
+    val start = System.nanoTime()
+    val rows = super.getCount()
+    profiler.onCursorFilled(shape, System.nanoTime() - start, rows)
+  }
+}
@@ -0,0 +1,270 @@
+package org.thoughtcrime.securesms.database
+
+import org.thoughtcrime.securesms.util.LRUCache
+import java.util.concurrent.TimeUnit
+
+/**
+ * Records timings for every statement run through [SQLiteDatabase], grouped by the "shape" of the statement (i.e. the SQL with all literals
+ * and bound values stripped out), so that we can find slow queries on real, user-sized databases.
+ *
+ * For each shape we track the count, latency percentiles, rows returned/affected, time spent holding the write lock, and time spent filling
+ * cursor windows. We also keep a ring buffer of the most recent statements.
+ *
+ * Install with [DatabaseMonitor.initializeProfiler]. Nothing here is persisted, except that statements slower than [slowThresholdNanos]
+ * are reported to [onSlowStatement].
+ */
+class QueryProfiler(
+  private val maxShapes: Int = 500,
+  recentBufferSize: Int = 1000,
+  private val slowThresholdNanos: Long = TimeUnit.MILLISECONDS.toNanos(100),
+  private val onSlowStatement: ((shape: String, durationNanos: Long) -> Unit)? = null
+) {
+
+  companion object {
+    const val SHAPE_TRANSACTION = "TRANSACTION"
+
+    private const val LATENCY_SAMPLES = 256
+    private const val MAX_SHAPE_LENGTH = 500
+
+    private val IN_LIST = Regex("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)")
+
+    /**
+     * Strips literals out of the provided SQL and collapses whitespace, so that statements that only differ by their values share a shape.
+     */
+    @JvmStatic
+    fun normalize(sql: String): String {
+      val out = StringBuilder(sql.length)
+      var i = 0
+      var lastWasSpace = true
+
+      while (i < sql.length) {
+        val c = sql[i]
+
+        when {
+          c.isWhitespace() -> {
+            if (!lastWasSpace) {
+              out.append(' ')
+              lastWasSpace = true
+            }
+            i++
+            continue
+          }
+          c == '\'' -> {
+            i++
+            while (i < sql.length) {
+              if (sql[i] == '\'') {
+                if (i + 1 < sql.length && sql[i + 1] == '\'') {
+                  i += 2
+                  continue
+                }
+                break
+              }
+              i++
+            }
+            out.append('?')
+            i++
+          }
+          c.isDigit() && (out.isEmpty() || !out.last().isIdentifierPart()) -> {
+            while (i < sql.length && (sql[i].isLetterOrDigit() || sql[i] == '.')) {
+              i++
+            }
+            out.append('?')
+          }
+          else -> {
+            out.append(c)
+            i++
+          }
+        }
+
+        lastWasSpace = false
+      }
+
+      val shape = IN_LIST.replace(out.trimEnd(), "(?, ...)")
+
+      return if (shape.length > MAX_SHAPE_LENGTH) shape.substring(0, MAX_SHAPE_LENGTH) else shape
+    }
+
+    private fun Char.isIdentifierPart(): Boolean {
+      return isLetterOrDigit() || this == '_'
+    }
+  }
+
+  private val statsByShape: MutableMap<String, ShapeStats> = LRUCache(maxShapes)
+  private val shapeCache: MutableMap<String, String> = LRUCache(256)
+  private val recent: Array<RecentStatement?> = arrayOfNulls(recentBufferSize.coerceAtLeast(1))
+  private var recentCount: Long = 0
+
+  /**
+   * @param methodName The name of the [SQLiteDatabase] method that was called, e.g. "query(9)" or "update()".
+   * @param table The table the statement operated on, if the statement wasn't raw SQL.
+   * @param sql Either the raw SQL or the selection, depending on whether or not [table] is present.
+   * @param rows The number of rows affected by the statement, or -1 if unknown (e.g. for queries, where the cursor hasn't been filled yet).
+   * @param lockNanos The amount of time the statement held the write lock.
+   * @return The shape of the statement, which can be used to report the cursor fill time later.
+   */
+  fun onStatementCompleted(methodName: String, table: String?, sql: String?, durationNanos: Long, rows: Int, lockNanos: Long): String {
+    val shape = shapeOf(methodName, table, sql)
+
+    synchronized(this) {
+      statsByShape.getOrPut(shape) { ShapeStats() }.addExecution(durationNanos, rows, lockNanos)
+
+      recent[(recentCount % recent.size).toInt()] = RecentStatement(System.currentTimeMillis(), shape, durationNanos, rows, lockNanos)
+      recentCount++
+    }
+
+    if (durationNanos >= slowThresholdNanos) {
+      onSlowStatement?.invoke(shape, durationNanos)
+    }
+
+    return shape
+  }
+
+  fun onCursorFilled(shape: String, fillNanos: Long, rows: Int) {
+    synchronized(this) {
+      statsByShape[shape]?.addCursorFill(fillNanos, rows)
+    }
+  }
+
+  fun onTransactionCompleted(durationNanos: Long) {
+    onStatementCompleted(SHAPE_TRANSACTION, null, null, durationNanos, -1, durationNanos)
+  }
+
+  /**
+   * @return Aggregated stats for every statement shape we've seen, slowest (by total time) first.
+   */
+  fun getStatementStats(): List<StatementStats> {
+    return synchronized(this) {
+      statsByShape.map { (shape, stats) -> stats.snapshot(shape) }
+    }.sortedByDescending { it.totalNanos }
+  }
+
+  /**
+   * @return The most recent statements, newest first.
+   */
+  fun getRecentStatements(): List<RecentStatement> {
+    synchronized(this) {
+      val count = minOf(recentCount, recent.size.toLong()).toInt()
+
+      return (1..count).mapNotNull { offset -> recent[((recentCount - offset) % recent.size).toInt()] }
+    }
+  }
+
+  fun clear() {
+    synchronized(this) {
+      statsByShape.clear()
+      recent.fill(null)
+      recentCount = 0
+    }
+  }
+
+  private fun shapeOf(methodName: String, table: String?, sql: String?): String {
+    if (table == null) {
+      return if (sql != null) normalizeCached(sql) else methodName
+    }
+
+    val verb = when {
+      methodName.startsWith("query") -> "SELECT FROM"
+      methodName.startsWith("insert") -> "INSERT INTO"
+      methodName.startsWith("replace") -> "REPLACE INTO"
+      methodName.startsWith("update") -> "UPDATE"
+      methodName.startsWith("delete") -> "DELETE FROM"
+      else -> methodName
+    }
+
+    return if (sql != null) "$verb $table WHERE ${normalizeCached(sql)}" else "$verb $table"
+  }
+
+  private fun normalizeCached(sql: String): String {
+    synchronized(shapeCache) {
+      shapeCache[sql]?.let { return it }
+    }
+
+    val shape = normalize(sql)
+
+    synchronized(shapeCache) {
+      shapeCache[sql] = shape
+    }
+
+    return shape
+  }
+
+  private class ShapeStats {
+    private val latencies = LongArray(LATENCY_SAMPLES)
+
+    private var count: Long = 0
+    private var totalNanos: Long = 0
+    private var maxNanos: Long = 0
+    private var rows: Long = 0
+    private var lockNanos: Long = 0
+    private var cursorFills: Long = 0
+    private var cursorFillNanos: Long = 0
+
+    fun addExecution(durationNanos: Long, rows: Int, lockNanos: Long) {
+      latencies[(count % LATENCY_SAMPLES).toInt()] = durationNanos
+      count++
+      totalNanos += durationNanos
+      maxNanos = maxOf(maxNanos, durationNanos)
+      this.lockNanos += lockNanos
+
+      if (rows > 0) {
+        this.rows += rows
+      }
+    }
+
+    fun addCursorFill(fillNanos: Long, rows: Int) {
+      cursorFills++
+      cursorFillNanos += fillNanos
+
+      if (rows > 0) {
+        this.rows += rows
+      }
+    }
+
+    fun snapshot(shape: String): StatementStats {
+      val samples = latencies.copyOf(minOf(count, LATENCY_SAMPLES.toLong()).toInt()).apply { sort() }
+
+      return StatementStats(
+        shape = shape,
+        count = count,
+        totalNanos = totalNanos,
+        maxNanos = maxNanos,
+        p50Nanos = samples.percentile(50),
+        p95Nanos = samples.percentile(95),
+        p99Nanos = samples.percentile(99),
+        rows = rows,
+        lockNanos = lockNanos,
+        cursorFillNanos = cursorFillNanos,
+        cursorFills = cursorFills
+      )
+    }
+
+    private fun LongArray.percentile(percent: Int): Long {
+      return if (isEmpty()) 0 else this[((size - 1) * percent) / 100]
+    }
+  }
+
+  /**
+   * Percentiles are computed over the most recent executions of the statement, while the other values are totals over its lifetime.
+   */
+  data class StatementStats(
+    val shape: String,
+    val count: Long,
+    val totalNanos: Long,
+    val maxNanos: Long,
+    val p50Nanos: Long,
+    val p95Nanos: Long,
+    val p99Nanos: Long,
+    val rows: Long,
+    val lockNanos: Long,
+    val cursorFillNanos: Long,
+    val cursorFills: Long
+  )
+
+  data class RecentStatement(
+    val timestamp: Long,
+    val shape: String,
+    val durationNanos: Long,
+    val rows: Int,
+    val lockNanos: Long
+  )
+}
@@ -394,6 +394,30 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     return getByColumn(E164, e164)
   }
 
+  /**
+   * Bulk version of [getByE164].
+   *
+   * @return A map of e164 to the recipient with that number. Numbers without a recipient are absent from the map.
+   */
+  fun getByE164s(e164s: Collection<String>): Map<String, RecipientId> {
+    val results: MutableMap<String, RecipientId> = HashMap(e164s.size)
+
+    for (query in SqlUtil.buildCollectionQuery(E164, e164s)) {
+      readableDatabase
+        .select(ID, E164)
+        .from(TABLE_NAME)
+        .where(query.where, *query.whereArgs)
+        .run()
+        .use { cursor ->
+          while (cursor.moveToNext()) {
+            results[cursor.requireNonNullString(E164)] = RecipientId.from(cursor.requireLong(ID))
+          }
+        }
+    }
+
+    return results
+  }
+
   fun getByGroupId(groupId: GroupId): Optional<RecipientId> {
     return getByColumn(GROUP_ID, groupId.toString())
   }
@@ -724,6 +748,25 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     }
   }
 
+  /**
+   * Bulk version of [getByStorageId].
+   *
+   * @return A map of each provided [StorageId] to its local record. IDs without a local record are absent from the map.
+   */
+  fun getByStorageIds(storageIds: Collection<StorageId>): Map<StorageId, RecipientRecord> {
+    val idsByEncoded: Map<String, StorageId> = storageIds.associateBy { Base64.encodeBytes(it.raw) }
+    val results: MutableMap<StorageId, RecipientRecord> = HashMap(storageIds.size)
+
+    for (query in SqlUtil.buildCollectionQuery("$TABLE_NAME.$STORAGE_SERVICE_ID", idsByEncoded.keys)) {
+      for (record in getRecordForSync(query.where, query.whereArgs)) {
+        val storageId: StorageId = record.storageId?.let { idsByEncoded[Base64.encodeBytes(it)] } ?: continue
+        results[storageId] = record
+      }
+    }
+
+    return results
+  }
+
   fun markNeedsSyncWithoutRefresh(recipientIds: Collection<RecipientId>) {
     val db = writableDatabase
     db.beginTransaction()
@@ -1209,6 +1252,24 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     return BulkOperationsHandle(writableDatabase)
   }
 
+  /**
+   * Like [beginBulkSystemContactUpdate], but only the recipients linked to one of [contactUris] will have their system info cleared if they
+   * aren't updated through the handle. Used when syncing only the system contacts that changed (or were removed) since the last sync.
+   */
+  fun beginBulkSystemContactUpdate(contactUris: Collection<String>): BulkOperationsHandle {
+    writableDatabase.beginTransaction()
+
+    for (query in SqlUtil.buildCollectionQuery(SYSTEM_CONTACT_URI, contactUris)) {
+      writableDatabase
+        .update(TABLE_NAME)
+        .values(SYSTEM_INFO_PENDING to 1)
+        .where(query.where, *query.whereArgs)
+        .run()
+    }
+
+    return BulkOperationsHandle(writableDatabase)
+  }
+
   fun onUpdatedChatColors(chatColors: ChatColors) {
     val where = "$CUSTOM_CHAT_COLORS_ID = ?"
     val args = SqlUtil.buildArgs(chatColors.id.longValue)
@@ -4341,12 +4402,16 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       update(id, otherValues)
     }
 
-    fun finish() {
+    /**
+     * @return The recipients whose system info was changed or cleared.
+     */
+    fun finish(): Set<RecipientId> {
       markAllRelevantEntriesDirty()
-      clearSystemDataForPendingInfo()
+      val cleared: Set<RecipientId> = clearSystemDataForPendingInfo()
       database.setTransactionSuccessful()
       database.endTransaction()
       pendingRecipients.forEach { id -> ApplicationDependencies.getDatabaseObserver().notifyRecipientChanged(id) }
+      return pendingRecipients + cleared
     }
 
     private fun markAllRelevantEntriesDirty() {
@@ -4363,7 +4428,14 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       pendingRecipients.forEach { id -> rotateStorageId(id) }
     }
 
-    private fun clearSystemDataForPendingInfo() {
+    private fun clearSystemDataForPendingInfo(): Set<RecipientId> {
+      val cleared: Set<RecipientId> = database
+        .select(ID)
+        .from(TABLE_NAME)
+        .where("$SYSTEM_INFO_PENDING = ?", 1)
+        .run()
+        .readToSet { RecipientId.from(it.requireLong(ID)) }
+
       database.update(TABLE_NAME)
         .values(
           SYSTEM_INFO_PENDING to 0,
@@ -4376,6 +4448,8 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
         )
         .where("$SYSTEM_INFO_PENDING = ?", 1)
         .run()
+
+      return cleared
     }
   }
 
@@ -17,12 +17,11 @@ import net.zetetic.database.sqlcipher.SQLiteTransactionListener;
 import org.signal.core.util.tracing.Tracer;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -50,10 +49,14 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
 
   private static final ThreadLocal<Set<Runnable>> PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS;
   private static final ThreadLocal<Set<Runnable>> POST_SUCCESSFUL_TRANSACTION_TASKS;
+  private static final ThreadLocal<Set<Runnable>> BEFORE_COMMIT_TASKS;
+  private static final ThreadLocal<Long>          TRANSACTION_START_TIME;
 
   static {
     PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS = new ThreadLocal<>();
     POST_SUCCESSFUL_TRANSACTION_TASKS         = new ThreadLocal<>();
+    BEFORE_COMMIT_TASKS                       = new ThreadLocal<>();
+    TRANSACTION_START_TIME                    = new ThreadLocal<>();
 
     PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS.set(new LinkedHashSet<>());
   }
@@ -64,7 +67,9 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
   }
 
   private void traceLockStart() {
-    tracer.start(NAME_LOCK, Tracer.TrackId.DB_LOCK, KEY_THREAD, Thread.currentThread().getName());
+    if (tracer.isEnabled()) {
+      tracer.start(NAME_LOCK, Tracer.TrackId.DB_LOCK, KEY_THREAD, Thread.currentThread().getName());
+    }
   }
 
   private void traceLockEnd() {
@@ -82,10 +87,18 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
       traceLockStart();
     }
 
+    QueryProfiler profiler  = DatabaseMonitor.getProfiler();
+    long          startTime = profiler != null ? System.nanoTime() : 0;
+
     tracer.start(methodName, KEY_QUERY, query);
     returnable.run();
     tracer.end(methodName);
 
+    if (profiler != null) {
+      long duration = System.nanoTime() - startTime;
+      profiler.onStatementCompleted(methodName, null, query, duration, -1, locked ? duration : 0);
+    }
+
     if (locked) {
       traceLockEnd();
     }
@@ -100,18 +113,22 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
       traceLockStart();
     }
 
-    Map<String, String> params = new HashMap<>();
-    if (query != null) {
-      params.put(KEY_QUERY, query);
-    }
-    if (table != null) {
-      params.put(KEY_TABLE, table);
+    if (tracer.isEnabled()) {
+      tracer.start(methodName,
+                   query != null ? KEY_QUERY : null, query,
+                   table != null ? KEY_TABLE : null, table);
     }
 
-    tracer.start(methodName, params);
+    QueryProfiler profiler  = DatabaseMonitor.getProfiler();
+    long          startTime = profiler != null ? System.nanoTime() : 0;
+
     E result = returnable.run();
     tracer.end(methodName);
 
+    if (profiler != null) {
+      result = profile(profiler, methodName, table, query, locked, System.nanoTime() - startTime, result);
+    }
+
     if (locked) {
       traceLockEnd();
     }
@@ -119,6 +136,26 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     return result;
   }
 
+  @SuppressWarnings("unchecked")
+  private static <E> E profile(QueryProfiler profiler, String methodName, String table, String query, boolean locked, long duration, E result) {
+    int rows;
+    if (result instanceof Integer) {
+      rows = (Integer) result;
+    } else if (result instanceof Long) {
+      rows = (Long) result != -1 ? 1 : 0;
+    } else {
+      rows = -1;
+    }
+
+    String shape = profiler.onStatementCompleted(methodName, table, query, duration, rows, locked ? duration : 0);
+
+    if (result instanceof Cursor) {
+      return (E) new ProfiledCursor((Cursor) result, profiler, shape);
+    } else {
+      return result;
+    }
+  }
+
   public net.zetetic.database.sqlcipher.SQLiteDatabase getSqlCipherDatabase() {
     return wrapped;
   }
@@ -148,6 +185,57 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     }
   }
 
+  /**
+   * @return True if a task with the provided dedupe key has been enqueued with {@link #runPostSuccessfulTransaction(String, Runnable)} for the
+   *         active transaction. Useful for keeping state that should live exactly as long as that task, since tasks are discarded with
+   *         failed transactions.
+   */
+  public boolean hasPendingPostSuccessfulTransactionTask(@NonNull String dedupeKey) {
+    return wrapped.inTransaction() && getPendingPostSuccessfulTransactionTasks().contains(new DedupedRunnable(dedupeKey, () -> {}));
+  }
+
+  /**
+   * Enqueues a task to be run as the last step of the active transaction, right before it's committed, so that any writes it makes are part
+   * of that transaction. If the task throws, the transaction is rolled back. If the transaction fails, the task is discarded.
+   * Dedupe keys work the same as they do for {@link #runPostSuccessfulTransaction(String, Runnable)}.
+   *
+   * Only transactions started with {@link #beginTransaction()} can run these tasks.
+   *
+   * @return True if the task was enqueued, or false if there is no such transaction open, in which case the caller should do the work itself.
+   */
+  public boolean runBeforeTransactionCommit(@NonNull String dedupeKey, @NonNull Runnable task) {
+    Set<Runnable> tasks = BEFORE_COMMIT_TASKS.get();
+
+    if (tasks != null) {
+      tasks.add(new DedupedRunnable(dedupeKey, task));
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * @return True if a task with the provided dedupe key has been enqueued with {@link #runBeforeTransactionCommit(String, Runnable)} for the
+   *         active transaction and hasn't started running yet. Once it has, enqueueing it again will run it again.
+   */
+  public boolean hasPendingBeforeCommitTask(@NonNull String dedupeKey) {
+    Set<Runnable> tasks = BEFORE_COMMIT_TASKS.get();
+    return tasks != null && tasks.contains(new DedupedRunnable(dedupeKey, () -> {}));
+  }
+
+  private static void runBeforeCommitTasks() {
+    Set<Runnable> tasks = BEFORE_COMMIT_TASKS.get();
+
+    while (tasks != null && !tasks.isEmpty()) {
+      Iterator<Runnable> iterator = tasks.iterator();
+      Runnable           task     = iterator.next();
+
+      // Removed before it runs, so that anything it (or a later task) enqueues under the same key isn't deduped away
+      iterator.remove();
+      task.run();
+    }
+  }
+
   private @NonNull Set<Runnable> getPendingPostSuccessfulTransactionTasks() {
     Set<Runnable> tasks = PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS.get();
 
@@ -290,10 +378,21 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
       trace("beginTransaction()", () -> {
         wrapped.beginTransactionWithListener(new SQLiteTransactionListener() {
           @Override
-          public void onBegin() { }
+          public void onBegin() {
+            BEFORE_COMMIT_TASKS.set(new LinkedHashSet<>());
+          }
 
           @Override
           public void onCommit() {
+            try {
+              runBeforeCommitTasks();
+            } catch (RuntimeException e) {
+              getPendingPostSuccessfulTransactionTasks().clear();
+              throw e;
+            } finally {
+              BEFORE_COMMIT_TASKS.remove();
+            }
+
             Set<Runnable> pendingTasks = getPendingPostSuccessfulTransactionTasks();
             Set<Runnable> tasks        = getPostSuccessfulTransactionTasks();
             tasks.clear();
@@ -303,10 +402,15 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
 
           @Override
           public void onRollback() {
+            BEFORE_COMMIT_TASKS.remove();
             getPendingPostSuccessfulTransactionTasks().clear();
           }
         });
       });
+
+      if (DatabaseMonitor.getProfiler() != null) {
+        TRANSACTION_START_TIME.set(System.nanoTime());
+      }
     }
   }
 
@@ -314,6 +418,17 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     trace("endTransaction()", wrapped::endTransaction);
     traceLockEnd();
     if (!wrapped.inTransaction()) {
+      Long          transactionStartTime = TRANSACTION_START_TIME.get();
+      QueryProfiler profiler             = DatabaseMonitor.getProfiler();
+
+      if (transactionStartTime != null) {
+        TRANSACTION_START_TIME.remove();
+
+        if (profiler != null) {
+          profiler.onTransactionCompleted(System.nanoTime() - transactionStartTime);
+        }
+      }
+
       Set<Runnable> tasks = getPostSuccessfulTransactionTasks();
       for (Runnable r : new HashSet<>(tasks)) {
         r.run();
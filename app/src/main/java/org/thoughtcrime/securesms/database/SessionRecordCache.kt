@@ -0,0 +1,96 @@
+package org.thoughtcrime.securesms.database
+
+import org.signal.libsignal.protocol.SignalProtocolAddress
+import org.whispersystems.signalservice.api.push.ServiceId
+
+/**
+ * A size-bounded, least-recently-used cache of serialized session records, as they were last committed to [SessionTable].
+ *
+ * Records are kept serialized rather than as [org.signal.libsignal.protocol.state.SessionRecord]s, since those are mutable and callers are free to
+ * change one without storing it.
+ *
+ * Every change bumps a version number. Callers that fill the cache from a read should grab [version] before reading and pass it to [fill],
+ * so that a read that raced with a write can't put an older record back.
+ */
+class SessionRecordCache(private val maxSizeBytes: Long) {
+
+  private val records: LinkedHashMap<Key, ByteArray> = LinkedHashMap(16, 0.75f, true)
+  private var sizeBytes: Long = 0
+
+  @get:Synchronized
+  var version: Long = 0
+    private set
+
+  @Synchronized
+  fun get(key: Key): ByteArray? {
+    return records[key]
+  }
+
+  /**
+   * Caches a record that was just read, unless the cache has changed since [version].
+   */
+  @Synchronized
+  fun fill(key: Key, serialized: ByteArray, version: Long) {
+    if (version == this.version) {
+      insert(key, serialized)
+    }
+  }
+
+  /**
+   * Caches a record that was just committed.
+   */
+  @Synchronized
+  fun put(key: Key, serialized: ByteArray) {
+    version++
+    insert(key, serialized)
+  }
+
+  @Synchronized
+  fun remove(key: Key) {
+    version++
+    records.remove(key)?.let { sizeBytes -= it.size }
+  }
+
+  @Synchronized
+  fun removeAll(serviceId: ServiceId, addressName: String) {
+    version++
+
+    val iterator = records.entries.iterator()
+    while (iterator.hasNext()) {
+      val entry = iterator.next()
+      if (entry.key.serviceId == serviceId && entry.key.address.name == addressName) {
+        sizeBytes -= entry.value.size
+        iterator.remove()
+      }
+    }
+  }
+
+  @Synchronized
+  fun clear() {
+    version++
+    records.clear()
+    sizeBytes = 0
+  }
+
+  @get:Synchronized
+  val size: Int
+    get() = records.size
+
+  private fun insert(key: Key, serialized: ByteArray) {
+    if (serialized.size > maxSizeBytes) {
+      records.remove(key)?.let { sizeBytes -= it.size }
+      return
+    }
+
+    records.put(key, serialized)?.let { sizeBytes -= it.size }
+    sizeBytes += serialized.size
+
+    val iterator = records.values.iterator()
+    while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+      sizeBytes -= iterator.next().size
+      iterator.remove()
+    }
+  }
+
+  data class Key(val serviceId: ServiceId, val address: SignalProtocolAddress)
+}
@@ -35,34 +35,54 @@ class SessionTable(context: Context, databaseHelper: SignalDatabase) : DatabaseT
         UNIQUE($ACCOUNT_ID, $ADDRESS, $DEVICE)
       )
     """
+
+    private const val CACHE_SIZE_BYTES = 2L * 1024 * 1024
+    private const val FLUSH_TASK_KEY = "SessionTable.flush"
+    private const val PUBLISH_TASK_KEY = "SessionTable.publish"
+  }
+
+  private val cache = SessionRecordCache(CACHE_SIZE_BYTES)
+
+  /** Stores and deletes made during this thread's transaction that haven't been written to the table yet. A null record is a delete. */
+  private val pendingWrites = object : ThreadLocal<MutableMap<SessionRecordCache.Key, ByteArray?>>() {
+    override fun initialValue(): MutableMap<SessionRecordCache.Key, ByteArray?> = LinkedHashMap()
   }
 
+  /** Writes made during this thread's transaction that will be put in the cache once it commits. A null record is a delete. */
+  private val uncommittedWrites = object : ThreadLocal<MutableMap<SessionRecordCache.Key, ByteArray?>>() {
+    override fun initialValue(): MutableMap<SessionRecordCache.Key, ByteArray?> = LinkedHashMap()
+  }
+
+  /**
+   * Within a transaction, writes are held in memory and only written out right before it commits, so a session that's stored many times in one
+   * transaction is only written once. Everything in this class reads through those held writes, but raw queries against the table will not.
+   */
   fun store(serviceId: ServiceId, address: SignalProtocolAddress, record: SessionRecord) {
     require(address.name[0] != '+') { "Cannot insert an e164 into this table!" }
 
-    writableDatabase.compileStatement("INSERT INTO $TABLE_NAME ($ACCOUNT_ID, $ADDRESS, $DEVICE, $RECORD) VALUES (?, ?, ?, ?) ON CONFLICT ($ACCOUNT_ID, $ADDRESS, $DEVICE) DO UPDATE SET $RECORD = excluded.$RECORD").use { statement ->
-      statement.apply {
-        bindString(1, serviceId.toString())
-        bindString(2, address.name)
-        bindLong(3, address.deviceId.toLong())
-        bindBlob(4, record.serialize())
-        execute()
-      }
-    }
+    write(SessionRecordCache.Key(serviceId, address), record.serialize())
   }
 
   fun load(serviceId: ServiceId, address: SignalProtocolAddress): SessionRecord? {
+    val key = SessionRecordCache.Key(serviceId, address)
+
+    lookUp(key)?.let { return it.serialized?.toSessionRecord() }
+
+    val cacheVersion = cache.version
     val projection = arrayOf(RECORD)
     val selection = "$ACCOUNT_ID = ? AND $ADDRESS = ? AND $DEVICE = ?"
     val args = SqlUtil.buildArgs(serviceId, address.name, address.deviceId)
 
     readableDatabase.query(TABLE_NAME, projection, selection, args, null, null, null).use { cursor ->
       if (cursor.moveToFirst()) {
-        try {
-          return SessionRecord(cursor.requireNonNullBlob(RECORD))
-        } catch (e: IOException) {
-          Log.w(TAG, e)
+        val serialized = cursor.requireNonNullBlob(RECORD)
+        val record = serialized.toSessionRecord()
+
+        if (record != null) {
+          fillCache(key, serialized, cacheVersion)
         }
+
+        return record
       }
     }
 
@@ -76,20 +96,32 @@ class SessionTable(context: Context, databaseHelper: SignalDatabase) : DatabaseT
     val sessions: HashMap<SignalProtocolAddress, SessionRecord?> = LinkedHashMap(addresses.size)
 
     for (address in addresses) {
-      args.add(SqlUtil.buildArgs(serviceId, address.name, address.deviceId))
-      sessions[address] = null
+      val found: Lookup? = lookUp(SessionRecordCache.Key(serviceId, address))
+
+      if (found != null) {
+        sessions[address] = found.serialized?.toSessionRecord()
+      } else {
+        args.add(SqlUtil.buildArgs(serviceId, address.name, address.deviceId))
+        sessions[address] = null
+      }
     }
 
+    if (args.isEmpty()) {
+      return sessions.values.toList()
+    }
+
+    val cacheVersion = cache.version
+
     for (combinedQuery in SqlUtil.buildCustomCollectionQuery(query, args)) {
       readableDatabase.query(TABLE_NAME, projection, combinedQuery.where, combinedQuery.whereArgs, null, null, null).use { cursor ->
         while (cursor.moveToNext()) {
-          val address = cursor.requireNonNullString(ADDRESS)
-          val device = cursor.requireInt(DEVICE)
-          try {
-            val record = SessionRecord(cursor.requireNonNullBlob(RECORD))
-            sessions[SignalProtocolAddress(address, device)] = record
-          } catch (e: IOException) {
-            Log.w(TAG, e)
+          val address = SignalProtocolAddress(cursor.requireNonNullString(ADDRESS), cursor.requireInt(DEVICE))
+          val serialized = cursor.requireNonNullBlob(RECORD)
+          val record = serialized.toSessionRecord()
+
+          if (record != null) {
+            sessions[address] = record
+            fillCache(SessionRecordCache.Key(serviceId, address), serialized, cacheVersion)
           }
         }
       }
@@ -99,6 +131,8 @@ class SessionTable(context: Context, databaseHelper: SignalDatabase) : DatabaseT
   }
 
   fun getAllFor(serviceId: ServiceId, addressName: String): List<SessionRow> {
+    flushPendingWrites()
+
     val results: MutableList<SessionRow> = mutableListOf()
 
     readableDatabase.query(TABLE_NAME, null, "$ACCOUNT_ID = ? AND $ADDRESS = ?", SqlUtil.buildArgs(serviceId, addressName), null, null, null).use { cursor ->
@@ -120,6 +154,8 @@ class SessionTable(context: Context, databaseHelper: SignalDatabase) : DatabaseT
   }
 
   fun getAllFor(serviceId: ServiceId, addressNames: List<String?>): List<SessionRow> {
+    flushPendingWrites()
+
     val query: SqlUtil.Query = SqlUtil.buildSingleCollectionQuery(ADDRESS, addressNames)
     val results: MutableList<SessionRow> = LinkedList()
 
@@ -145,6 +181,8 @@ class SessionTable(context: Context, databaseHelper: SignalDatabase) : DatabaseT
   }
 
   fun getAll(serviceId: ServiceId): List<SessionRow> {
+    flushPendingWrites()
+
     val results: MutableList<SessionRow> = mutableListOf()
 
     readableDatabase.query(TABLE_NAME, null, "$ACCOUNT_ID = ?", SqlUtil.buildArgs(serviceId), null, null, null).use { cursor ->
@@ -166,6 +204,8 @@ class SessionTable(context: Context, databaseHelper: SignalDatabase) : DatabaseT
   }
 
   fun getSubDevices(serviceId: ServiceId, addressName: String): List<Int> {
+    flushPendingWrites()
+
     val projection = arrayOf(DEVICE)
     val selection = "$ACCOUNT_ID = ? AND $ADDRESS = ? AND $DEVICE != ?"
     val args = SqlUtil.buildArgs(serviceId, addressName, SignalServiceAddress.DEFAULT_DEVICE_ID)
@@ -181,14 +221,26 @@ class SessionTable(context: Context, databaseHelper: SignalDatabase) : DatabaseT
   }
 
   fun delete(serviceId: ServiceId, address: SignalProtocolAddress) {
-    writableDatabase.delete(TABLE_NAME, "$ACCOUNT_ID = ? AND $ADDRESS = ? AND $DEVICE = ?", SqlUtil.buildArgs(serviceId, address.name, address.deviceId))
+    write(SessionRecordCache.Key(serviceId, address), null)
   }
 
   fun deleteAllFor(serviceId: ServiceId, addressName: String) {
-    writableDatabase.delete(TABLE_NAME, "$ACCOUNT_ID = ? AND $ADDRESS = ?", SqlUtil.buildArgs(serviceId, addressName))
+    if (deferWrites()) {
+      // Deleted one at a time, so that reads later in this transaction see each of them as gone
+      flushPendingWrites()
+
+      for (deviceId in getDevices(serviceId, addressName)) {
+        write(SessionRecordCache.Key(serviceId, SignalProtocolAddress(addressName, deviceId)), null)
+      }
+    } else {
+      writableDatabase.delete(TABLE_NAME, "$ACCOUNT_ID = ? AND $ADDRESS = ?", SqlUtil.buildArgs(serviceId, addressName))
+      cache.removeAll(serviceId, addressName)
+    }
   }
 
   fun hasSessionFor(serviceId: ServiceId, addressName: String): Boolean {
+    flushPendingWrites()
+
     val query = "$ACCOUNT_ID = ? AND $ADDRESS = ?"
     val args = SqlUtil.buildArgs(serviceId, addressName)
     readableDatabase.query(TABLE_NAME, arrayOf("1"), query, args, null, null, null, "1").use { cursor ->
@@ -200,6 +252,8 @@ class SessionTable(context: Context, databaseHelper: SignalDatabase) : DatabaseT
    * @return True if a session exists with this address for _any_ of your identities.
    */
   fun hasAnySessionFor(addressName: String): Boolean {
+    flushPendingWrites()
+
     readableDatabase
       .select("1")
       .from(TABLE_NAME)
@@ -210,5 +264,171 @@ class SessionTable(context: Context, databaseHelper: SignalDatabase) : DatabaseT
       }
   }
 
+  /**
+   * Drops everything that's been cached, for when the table has been changed out from under us, like when restoring a backup.
+   */
+  fun clearCache() {
+    cache.clear()
+  }
+
+  private fun getDevices(serviceId: ServiceId, addressName: String): List<Int> {
+    val results: MutableList<Int> = mutableListOf()
+
+    readableDatabase.query(TABLE_NAME, arrayOf(DEVICE), "$ACCOUNT_ID = ? AND $ADDRESS = ?", SqlUtil.buildArgs(serviceId, addressName), null, null, null).use { cursor ->
+      while (cursor.moveToNext()) {
+        results.add(cursor.requireInt(DEVICE))
+      }
+    }
+    return results
+  }
+
+  /**
+   * Finds what's currently stored for [key] without querying the table, looking first at what's been written during this thread's transaction
+   * and then at the cache.
+   *
+   * @return Null if the table needs to be queried, or otherwise what was found, which itself is null if the session was deleted.
+   */
+  private fun lookUp(key: SessionRecordCache.Key): Lookup? {
+    if (writableDatabase.inTransaction()) {
+      val pending = pendingWritesForTransaction()
+      if (pending != null && key in pending) {
+        return Lookup(pending[key])
+      }
+
+      val uncommitted = uncommittedWritesForTransaction()
+      if (uncommitted != null && key in uncommitted) {
+        return Lookup(uncommitted[key])
+      }
+    }
+
+    return cache.get(key)?.let { Lookup(it) }
+  }
+
+  /**
+   * Only what's been read outside of a transaction is cached, since anything read inside of one might not be committed.
+   */
+  private fun fillCache(key: SessionRecordCache.Key, serialized: ByteArray, cacheVersion: Long) {
+    if (!writableDatabase.inTransaction()) {
+      cache.fill(key, serialized, cacheVersion)
+    }
+  }
+
+  /**
+   * Writes a session, or deletes it if [serialized] is null. Outside of a transaction this happens immediately, otherwise see [store].
+   */
+  private fun write(key: SessionRecordCache.Key, serialized: ByteArray?) {
+    if (deferWrites()) {
+      pendingWrites.get()!![key] = serialized
+      return
+    }
+
+    writeToTable(key, serialized)
+
+    if (writableDatabase.inTransaction()) {
+      // A transaction we can't hook into, so we don't know when it commits
+      cache.remove(key)
+    } else if (serialized != null) {
+      cache.put(key, serialized)
+    } else {
+      cache.remove(key)
+    }
+  }
+
+  /**
+   * @return True if writes should be held until the end of this thread's transaction, which is only possible for transactions started with
+   *         [SQLiteDatabase.beginTransaction]. The flush task stops being pending as soon as it starts running, so a write that comes in during
+   *         or after a flush enqueues another one, which runs before the commit.
+   */
+  private fun deferWrites(): Boolean {
+    return pendingWritesForTransaction() != null || writableDatabase.runBeforeTransactionCommit(FLUSH_TASK_KEY) { flushPendingWrites() }
+  }
+
+  /**
+   * Writes out everything that's being held for this thread's transaction, keeping track of it so that the cache can be updated once the
+   * transaction commits. Until then, the affected records are dropped from the cache, so other threads read them from the table.
+   */
+  private fun flushPendingWrites() {
+    // Not pendingWritesForTransaction(), since this task is no longer pending while it runs
+    val pending = pendingWrites.get()!!
+    if (pending.isEmpty()) {
+      return
+    }
+
+    val writes: Map<SessionRecordCache.Key, ByteArray?> = LinkedHashMap(pending)
+    pending.clear()
+
+    val uncommitted = uncommittedWrites.get()!!
+    if (uncommittedWritesForTransaction() == null) {
+      uncommitted.clear()
+    }
+
+    for ((key, serialized) in writes) {
+      writeToTable(key, serialized)
+      cache.remove(key)
+      uncommitted[key] = serialized
+    }
+
+    writableDatabase.runPostSuccessfulTransaction(PUBLISH_TASK_KEY) {
+      for ((key, serialized) in uncommitted) {
+        if (serialized != null) {
+          cache.put(key, serialized)
+        } else {
+          cache.remove(key)
+        }
+      }
+      uncommitted.clear()
+    }
+  }
+
+  private fun writeToTable(key: SessionRecordCache.Key, serialized: ByteArray?) {
+    if (serialized != null) {
+      writableDatabase.compileStatement("INSERT INTO $TABLE_NAME ($ACCOUNT_ID, $ADDRESS, $DEVICE, $RECORD) VALUES (?, ?, ?, ?) ON CONFLICT ($ACCOUNT_ID, $ADDRESS, $DEVICE) DO UPDATE SET $RECORD = excluded.$RECORD").use { statement ->
+        statement.apply {
+          bindString(1, key.serviceId.toString())
+          bindString(2, key.address.name)
+          bindLong(3, key.address.deviceId.toLong())
+          bindBlob(4, serialized)
+          execute()
+        }
+      }
+    } else {
+      writableDatabase.delete(TABLE_NAME, "$ACCOUNT_ID = ? AND $ADDRESS = ? AND $DEVICE = ?", SqlUtil.buildArgs(key.serviceId, key.address.name, key.address.deviceId))
+    }
+  }
+
+  /**
+   * The held writes are only valid for as long as the task that flushes them is pending. Once it isn't, they're left over from a transaction
+   * that was rolled back.
+   */
+  private fun pendingWritesForTransaction(): MutableMap<SessionRecordCache.Key, ByteArray?>? {
+    val pending = pendingWrites.get()!!
+
+    return if (writableDatabase.hasPendingBeforeCommitTask(FLUSH_TASK_KEY)) {
+      pending
+    } else {
+      pending.clear()
+      null
+    }
+  }
+
+  private fun uncommittedWritesForTransaction(): MutableMap<SessionRecordCache.Key, ByteArray?>? {
+    return if (writableDatabase.hasPendingPostSuccessfulTransactionTask(PUBLISH_TASK_KEY)) {
+      uncommittedWrites.get()!!
+    } else {
+      null
+    }
+  }
+
+  private fun ByteArray.toSessionRecord(): SessionRecord? {
+    return try {
+      SessionRecord(this)
+    } catch (e: IOException) {
+      Log.w(TAG, e)
+      null
+    }
+  }
+
+  private class Lookup(val serialized: ByteArray?)
+
   class SessionRow(val address: String, val deviceId: Int, val record: SessionRecord)
 }
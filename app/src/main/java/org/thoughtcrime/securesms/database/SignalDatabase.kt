@@ -75,6 +75,7 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
   val callTable: CallTable = CallTable(context, this)
   val kyberPreKeyTable: KyberPreKeyTable = KyberPreKeyTable(context, this)
   val callLinkTable: CallLinkTable = CallLinkTable(context, this)
+  val systemContactHashTable: SystemContactHashTable = SystemContactHashTable(context, this)
 
   override fun onOpen(db: net.zetetic.database.sqlcipher.SQLiteDatabase) {
     db.setForeignKeyConstraintsEnabled(true)
@@ -84,6 +85,7 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
     db.execSQL(MessageTable.CREATE_TABLE)
     db.execSQL(AttachmentTable.CREATE_TABLE)
     db.execSQL(ThreadTable.CREATE_TABLE)
+    executeStatements(db, ThreadTable.CREATE_LIST_COUNT_TABLE)
     db.execSQL(IdentityTable.CREATE_TABLE)
     db.execSQL(DraftTable.CREATE_TABLE)
     db.execSQL(PushTable.CREATE_TABLE)
@@ -112,6 +114,7 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
     db.execSQL(CallLinkTable.CREATE_TABLE)
     db.execSQL(CallTable.CREATE_TABLE)
     db.execSQL(KyberPreKeyTable.CREATE_TABLE)
+    db.execSQL(SystemContactHashTable.CREATE_TABLE)
     executeStatements(db, SearchTable.CREATE_TABLE)
     executeStatements(db, RemappedRecordTables.CREATE_TABLE)
     executeStatements(db, MessageSendLogTables.CREATE_TABLE)
@@ -141,6 +144,7 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
 
     executeStatements(db, SearchTable.CREATE_TRIGGERS)
     executeStatements(db, MessageSendLogTables.CREATE_TRIGGERS)
+    executeStatements(db, ThreadTable.CREATE_COUNT_TRIGGERS)
 
     DistributionListTables.insertInitialDistributionListAtCreationTime(db)
 
@@ -290,6 +294,7 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
           instance!!.messageTable.trimEntriesForExpiredMessages()
           instance!!.reactionTable.deleteAbandonedReactions()
           instance!!.searchTable.fullyResetTables()
+          instance!!.threadTable.checkMaintainedCounts(repair = true)
           instance!!.rawWritableDatabase.execSQL("DROP TABLE IF EXISTS key_value")
           instance!!.rawWritableDatabase.execSQL("DROP TABLE IF EXISTS megaphone")
           instance!!.rawWritableDatabase.execSQL("DROP TABLE IF EXISTS job_spec")
@@ -301,6 +306,7 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
           database.setForeignKeyConstraintsEnabled(true)
         }
 
+        instance!!.sessionTable.clearCache()
         instance!!.rawWritableDatabase.close()
         triggerDatabaseAccess()
       }
@@ -523,6 +529,11 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
     val storySends: StorySendTable
       get() = instance!!.storySendTable
 
+    @get:JvmStatic
+    @get:JvmName("systemContactHashes")
+    val systemContactHashes: SystemContactHashTable
+      get() = instance!!.systemContactHashTable
+
     @get:JvmStatic
     @get:JvmName("unknownStorageIds")
     val unknownStorageIds: UnknownStorageIdTable
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2023 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import android.content.Context
+import androidx.core.content.contentValuesOf
+import org.signal.core.util.SqlUtil
+import org.signal.core.util.delete
+import org.signal.core.util.requireLong
+import org.signal.core.util.requireNonNullString
+import org.signal.core.util.select
+
+/**
+ * Remembers a hash of each system contact as of the last time we synced it into the recipient table, so that later syncs can skip the contacts
+ * that haven't changed. Keyed by the contact's URI, since that's what we store on each recipient in [RecipientTable.SYSTEM_CONTACT_URI].
+ *
+ * This is purely a cache: if it's empty, we just do a full sync.
+ */
+class SystemContactHashTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTable(context, databaseHelper) {
+  companion object {
+    const val TABLE_NAME = "system_contact_hash"
+
+    private const val ID = "_id"
+    private const val CONTACT_URI = "contact_uri"
+    private const val HASH = "hash"
+
+    const val CREATE_TABLE = """
+      CREATE TABLE $TABLE_NAME (
+        $ID INTEGER PRIMARY KEY,
+        $CONTACT_URI TEXT NOT NULL UNIQUE,
+        $HASH INTEGER NOT NULL
+      )
+    """
+  }
+
+  /**
+   * @return A map of contact URI to the hash of that contact as of the last sync.
+   */
+  fun getAll(): Map<String, Long> {
+    val hashes: MutableMap<String, Long> = HashMap()
+
+    readableDatabase
+      .select(CONTACT_URI, HASH)
+      .from(TABLE_NAME)
+      .run()
+      .use { cursor ->
+        while (cursor.moveToNext()) {
+          hashes[cursor.requireNonNullString(CONTACT_URI)] = cursor.requireLong(HASH)
+        }
+      }
+
+    return hashes
+  }
+
+  /**
+   * Sets the hashes of the provided contacts and forgets the hashes of [removedContactUris]. Should be called in the same transaction as the
+   * recipient updates they describe.
+   */
+  fun update(hashes: Map<String, Long>, removedContactUris: Collection<String>) {
+    val db = writableDatabase
+
+    SqlUtil.buildCollectionQuery(CONTACT_URI, hashes.keys + removedContactUris)
+      .forEach { db.delete(TABLE_NAME, it.where, it.whereArgs) }
+
+    insert(hashes)
+  }
+
+  /**
+   * Replaces every hash with the provided ones. Used after a full sync.
+   */
+  fun replaceAll(hashes: Map<String, Long>) {
+    clearAll()
+    insert(hashes)
+  }
+
+  fun clearAll() {
+    writableDatabase
+      .delete(TABLE_NAME)
+      .run()
+  }
+
+  private fun insert(hashes: Map<String, Long>) {
+    if (hashes.isEmpty()) {
+      return
+    }
+
+    val values = hashes.map { (contactUri, hash) -> contentValuesOf(CONTACT_URI to contactUri, HASH to hash) }
+
+    SqlUtil.buildBulkInsert(TABLE_NAME, arrayOf(CONTACT_URI, HASH), values)
+      .forEach { writableDatabase.execSQL(it.where, it.whereArgs) }
+  }
+}
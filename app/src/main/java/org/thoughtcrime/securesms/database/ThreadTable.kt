@@ -18,6 +18,8 @@ import org.signal.core.util.exists
 import org.signal.core.util.logging.Log
 import org.signal.core.util.or
 import org.signal.core.util.readToList
+import org.signal.core.util.readToSingleInt
+import org.signal.core.util.readToSingleObject
 import org.signal.core.util.requireBoolean
 import org.signal.core.util.requireInt
 import org.signal.core.util.requireLong
@@ -107,9 +109,23 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     const val PINNED = "pinned"
     const val UNREAD_SELF_MENTION_COUNT = "unread_self_mention_count"
     const val ACTIVE = "active"
+    const val VISIBLE_MESSAGE_COUNT = "visible_message_count"
+
+    const val LIST_COUNT_TABLE_NAME = "thread_list_count"
+    private const val LIST_COUNT_ID = "_id"
+    private const val LIST_COUNT_COUNT = "count"
+
+    private const val LIST_COUNT_UNARCHIVED = 1
+    private const val LIST_COUNT_PINNED = 2
+    private const val LIST_COUNT_ARCHIVED = 3
 
     const val MAX_CACHE_SIZE = 1000
 
+    private const val PENDING_THREAD_UPDATES_KEY = "ThreadTable.pendingThreadUpdates"
+
+    /** Threads whose update has been deferred by [updateAtEndOfTransaction], for the transaction open on the current thread. */
+    private val pendingThreadUpdates = ThreadLocal<MutableMap<Long, PendingThreadUpdate>>()
+
     @JvmField
     val CREATE_TABLE = """
       CREATE TABLE $TABLE_NAME (
@@ -136,10 +152,87 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
         $LAST_SCROLLED INTEGER DEFAULT 0, 
         $PINNED INTEGER DEFAULT 0, 
         $UNREAD_SELF_MENTION_COUNT INTEGER DEFAULT 0,
-        $ACTIVE INTEGER DEFAULT 0
+        $ACTIVE INTEGER DEFAULT 0,
+        $VISIBLE_MESSAGE_COUNT INTEGER DEFAULT 0
       )
     """
 
+    /**
+     * Holds the number of threads in each section of the conversation list, so that the list doesn't have to count them on every change.
+     * Kept up to date by [CREATE_COUNT_TRIGGERS].
+     */
+    @JvmField
+    val CREATE_LIST_COUNT_TABLE = arrayOf(
+      "CREATE TABLE $LIST_COUNT_TABLE_NAME ($LIST_COUNT_ID INTEGER PRIMARY KEY, $LIST_COUNT_COUNT INTEGER NOT NULL DEFAULT 0)",
+      "INSERT INTO $LIST_COUNT_TABLE_NAME ($LIST_COUNT_ID) VALUES ($LIST_COUNT_UNARCHIVED), ($LIST_COUNT_PINNED), ($LIST_COUNT_ARCHIVED)"
+    )
+
+    /**
+     * Maintains [VISIBLE_MESSAGE_COUNT] and the rows of [LIST_COUNT_TABLE_NAME] as part of every write, so that they're always consistent with
+     * the rows they count. Every path that adds, removes, schedules, edits or moves a message goes through one of these, so there's nothing for
+     * callers to remember.
+     */
+    @JvmField
+    val CREATE_COUNT_TRIGGERS = arrayOf(
+      """
+        CREATE TRIGGER message_count_ai AFTER INSERT ON ${MessageTable.TABLE_NAME} WHEN ${isVisibleMessage("NEW")} BEGIN
+          UPDATE $TABLE_NAME SET $VISIBLE_MESSAGE_COUNT = $VISIBLE_MESSAGE_COUNT + 1 WHERE $ID = NEW.${MessageTable.THREAD_ID};
+        END;
+      """,
+      """
+        CREATE TRIGGER message_count_ad AFTER DELETE ON ${MessageTable.TABLE_NAME} WHEN ${isVisibleMessage("OLD")} BEGIN
+          UPDATE $TABLE_NAME SET $VISIBLE_MESSAGE_COUNT = $VISIBLE_MESSAGE_COUNT - 1 WHERE $ID = OLD.${MessageTable.THREAD_ID};
+        END;
+      """,
+      """
+        CREATE TRIGGER message_count_au AFTER UPDATE OF ${MessageTable.THREAD_ID}, ${MessageTable.STORY_TYPE}, ${MessageTable.PARENT_STORY_ID}, ${MessageTable.SCHEDULED_DATE}, ${MessageTable.LATEST_REVISION_ID} ON ${MessageTable.TABLE_NAME} BEGIN
+          UPDATE $TABLE_NAME SET $VISIBLE_MESSAGE_COUNT = $VISIBLE_MESSAGE_COUNT - 1 WHERE $ID = OLD.${MessageTable.THREAD_ID} AND ${isVisibleMessage("OLD")};
+          UPDATE $TABLE_NAME SET $VISIBLE_MESSAGE_COUNT = $VISIBLE_MESSAGE_COUNT + 1 WHERE $ID = NEW.${MessageTable.THREAD_ID} AND ${isVisibleMessage("NEW")};
+        END;
+      """,
+      """
+        CREATE TRIGGER thread_list_count_ai AFTER INSERT ON $TABLE_NAME BEGIN
+          UPDATE $LIST_COUNT_TABLE_NAME SET $LIST_COUNT_COUNT = $LIST_COUNT_COUNT + ${listCountContribution("NEW")};
+        END;
+      """,
+      """
+        CREATE TRIGGER thread_list_count_ad AFTER DELETE ON $TABLE_NAME BEGIN
+          UPDATE $LIST_COUNT_TABLE_NAME SET $LIST_COUNT_COUNT = $LIST_COUNT_COUNT - ${listCountContribution("OLD")};
+        END;
+      """,
+      """
+        CREATE TRIGGER thread_list_count_au AFTER UPDATE OF $ACTIVE, $ARCHIVED, $MEANINGFUL_MESSAGES, $PINNED ON $TABLE_NAME BEGIN
+          UPDATE $LIST_COUNT_TABLE_NAME SET $LIST_COUNT_COUNT = $LIST_COUNT_COUNT - ${listCountContribution("OLD")} + ${listCountContribution("NEW")};
+        END;
+      """
+    )
+
+    /** Must match [MessageTable.getMessageCountForThread]'s notion of a message that shows up in the conversation. */
+    private fun isVisibleMessage(row: String): String {
+      return "($row.${MessageTable.STORY_TYPE} = 0 AND $row.${MessageTable.PARENT_STORY_ID} <= 0 AND $row.${MessageTable.SCHEDULED_DATE} = -1 AND $row.${MessageTable.LATEST_REVISION_ID} IS NULL)"
+    }
+
+    /** Whether the thread [row] counts towards the list count row being updated. Must match the WHERE clauses of the list count queries. */
+    private fun listCountContribution(row: String): String {
+      return "CASE $LIST_COUNT_ID " +
+        "WHEN $LIST_COUNT_UNARCHIVED THEN IFNULL(${unarchivedListQuery(row)}, 0) " +
+        "WHEN $LIST_COUNT_PINNED THEN IFNULL(${pinnedListQuery(row)}, 0) " +
+        "WHEN $LIST_COUNT_ARCHIVED THEN IFNULL(${archivedListQuery(row)}, 0) " +
+        "ELSE 0 END"
+    }
+
+    private fun unarchivedListQuery(row: String): String {
+      return "($row.$ACTIVE = 1 AND $row.$ARCHIVED = 0 AND ($row.$MEANINGFUL_MESSAGES != 0 OR $row.$PINNED != 0))"
+    }
+
+    private fun pinnedListQuery(row: String): String {
+      return "($row.$ACTIVE = 1 AND $row.$ARCHIVED = 0 AND $row.$PINNED != 0)"
+    }
+
+    private fun archivedListQuery(row: String): String {
+      return "($row.$ACTIVE = 1 AND $row.$ARCHIVED = 1 AND $row.$MEANINGFUL_MESSAGES != 0)"
+    }
+
     @JvmField
     val CREATE_INDEXS = arrayOf(
       "CREATE INDEX IF NOT EXISTS thread_recipient_id_index ON $TABLE_NAME ($RECIPIENT_ID, $ACTIVE);",
@@ -871,7 +964,38 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     return readableDatabase.rawQuery(query, null)
   }
 
+  /**
+   * Like [getUnarchivedConversationList] for unpinned threads, but starts right after the thread identified by [anchor] rather than at an
+   * offset, so the database doesn't have to walk (and join) every thread before it.
+   *
+   * @param skip The number of threads after [anchor] to skip before returning results. Usually zero.
+   */
+  fun getUnpinnedConversationListAfter(conversationFilter: ConversationFilter, anchor: ConversationListAnchor, skip: Long, limit: Long): Cursor {
+    val filterQuery = conversationFilter.toQuery()
+    val anchorQuery = anchor.toQuery()
+    val query = createQuery("$ARCHIVED = 0 AND $PINNED = 0 AND $MEANINGFUL_MESSAGES != 0 $filterQuery AND ${anchorQuery.where}", skip, limit, preferPinned = false)
+    return readableDatabase.rawQuery(query, anchorQuery.whereArgs)
+  }
+
+  /**
+   * Like [getArchivedConversationList], but starts right after the thread identified by [anchor]. See [getUnpinnedConversationListAfter].
+   */
+  fun getArchivedConversationListAfter(conversationFilter: ConversationFilter, anchor: ConversationListAnchor, skip: Long, limit: Long): Cursor {
+    val filterQuery = conversationFilter.toQuery()
+    val anchorQuery = anchor.toQuery()
+    val query = createQuery("$ARCHIVED = ? AND $MEANINGFUL_MESSAGES != 0 $filterQuery AND ${anchorQuery.where}", skip, limit, preferPinned = false)
+    return readableDatabase.rawQuery(query, arrayOf("1") + anchorQuery.whereArgs)
+  }
+
+  private fun ConversationListAnchor.toQuery(): SqlUtil.Query {
+    return SqlUtil.Query("($TABLE_NAME.$DATE < ? OR ($TABLE_NAME.$DATE = ? AND $TABLE_NAME.$ID < ?))", SqlUtil.buildArgs(date, date, threadId))
+  }
+
   fun getArchivedConversationListCount(conversationFilter: ConversationFilter): Int {
+    if (conversationFilter == ConversationFilter.OFF) {
+      return getMaintainedListCount(LIST_COUNT_ARCHIVED)
+    }
+
     val filterQuery = conversationFilter.toQuery()
     return readableDatabase
       .select("COUNT(*)")
@@ -888,6 +1012,10 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
   }
 
   fun getPinnedConversationListCount(conversationFilter: ConversationFilter): Int {
+    if (conversationFilter == ConversationFilter.OFF) {
+      return getMaintainedListCount(LIST_COUNT_PINNED)
+    }
+
     val filterQuery = conversationFilter.toQuery()
     return readableDatabase
       .select("COUNT(*)")
@@ -904,6 +1032,10 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
   }
 
   fun getUnarchivedConversationListCount(conversationFilter: ConversationFilter): Int {
+    if (conversationFilter == ConversationFilter.OFF) {
+      return getMaintainedListCount(LIST_COUNT_UNARCHIVED)
+    }
+
     val filterQuery = conversationFilter.toQuery()
     return readableDatabase
       .select("COUNT(*)")
@@ -919,6 +1051,79 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       }
   }
 
+  private fun getMaintainedListCount(listCountId: Int): Int {
+    return readableDatabase
+      .select(LIST_COUNT_COUNT)
+      .from(LIST_COUNT_TABLE_NAME)
+      .where("$LIST_COUNT_ID = ?", listCountId)
+      .run()
+      .readToSingleInt()
+  }
+
+  /**
+   * Compares the counts maintained by [CREATE_COUNT_TRIGGERS] against freshly-counted values, logging any that differ.
+   *
+   * The triggers keep these correct for any write made through SQLite, but anything that writes the counts themselves (like restoring a
+   * backup, which imports both the counts and the rows they count) can leave them off.
+   *
+   * @param repair If true, any mismatched counts are overwritten with the freshly-counted value.
+   * @return The number of mismatched counts found.
+   */
+  fun checkMaintainedCounts(repair: Boolean): Int {
+    val startTime = System.currentTimeMillis()
+    var mismatches = 0
+
+    val db = if (repair) writableDatabase else readableDatabase
+
+    db.withinTransaction {
+      val actualMessageCount = "SELECT COUNT(*) FROM ${MessageTable.TABLE_NAME} WHERE ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID} = $TABLE_NAME.$ID AND ${isVisibleMessage(MessageTable.TABLE_NAME)}"
+
+      val mismatchedThreads: List<Long> = db
+        .rawQuery("SELECT $ID, $VISIBLE_MESSAGE_COUNT, ($actualMessageCount) AS actual FROM $TABLE_NAME WHERE $VISIBLE_MESSAGE_COUNT IS NOT actual", null)
+        .readToList { cursor ->
+          Log.w(TAG, "[checkMaintainedCounts] Thread ${cursor.requireLong(ID)} has a message count of ${cursor.requireInt(VISIBLE_MESSAGE_COUNT)}, but should have ${cursor.requireInt("actual")}")
+          cursor.requireLong(ID)
+        }
+
+      mismatches += mismatchedThreads.size
+
+      if (repair) {
+        for (threadId in mismatchedThreads) {
+          db.execSQL("UPDATE $TABLE_NAME SET $VISIBLE_MESSAGE_COUNT = ($actualMessageCount) WHERE $ID = ?", arrayOf(threadId))
+        }
+      }
+
+      val actualListCounts = mapOf(
+        LIST_COUNT_UNARCHIVED to unarchivedListQuery(TABLE_NAME),
+        LIST_COUNT_PINNED to pinnedListQuery(TABLE_NAME),
+        LIST_COUNT_ARCHIVED to archivedListQuery(TABLE_NAME)
+      ).mapValues { (_, where) ->
+        db.select("COUNT(*)").from(TABLE_NAME).where(where).run().readToSingleInt()
+      }
+
+      for ((listCountId, actual) in actualListCounts) {
+        val maintained: Int? = db
+          .select(LIST_COUNT_COUNT)
+          .from(LIST_COUNT_TABLE_NAME)
+          .where("$LIST_COUNT_ID = ?", listCountId)
+          .run()
+          .readToSingleObject { it.requireInt(LIST_COUNT_COUNT) }
+
+        if (maintained != actual) {
+          Log.w(TAG, "[checkMaintainedCounts] List count $listCountId is $maintained, but should be $actual")
+          mismatches++
+
+          if (repair) {
+            db.replace(LIST_COUNT_TABLE_NAME, null, contentValuesOf(LIST_COUNT_ID to listCountId, LIST_COUNT_COUNT to actual))
+          }
+        }
+      }
+    }
+
+    Log.i(TAG, "[checkMaintainedCounts] Found $mismatches mismatched count(s) in ${System.currentTimeMillis() - startTime} ms. Repair: $repair")
+    return mismatches
+  }
+
   /**
    * @return Pinned recipients, in order from top to bottom.
    */
@@ -1231,6 +1436,28 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       }
   }
 
+  /**
+   * @return A map of thread ID to the recipient of that thread, for every thread in [threadIds] that exists.
+   */
+  fun getRecipientIdsByThreadId(threadIds: Collection<Long>): Map<Long, RecipientId> {
+    val results: MutableMap<Long, RecipientId> = HashMap(threadIds.size)
+
+    for (query in SqlUtil.buildCollectionQuery(ID, threadIds)) {
+      readableDatabase
+        .select(ID, RECIPIENT_ID)
+        .from(TABLE_NAME)
+        .where(query.where, *query.whereArgs)
+        .run()
+        .use { cursor ->
+          while (cursor.moveToNext()) {
+            results[cursor.requireLong(ID)] = RecipientId.from(cursor.requireLong(RECIPIENT_ID))
+          }
+        }
+    }
+
+    return results
+  }
+
   fun hasThread(recipientId: RecipientId): Boolean {
     return getThreadIdIfExistsFor(recipientId) > -1
   }
@@ -1403,6 +1630,61 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     )
   }
 
+  /**
+   * Like [update], except that when called within a transaction, the update is deferred until that transaction is committed. Any other
+   * deferred updates of the same thread are merged into it, so a transaction that touches a thread many times (like inserting a batch of
+   * messages, or applying a batch of receipts) only has to recompute it once.
+   *
+   * Because the update happens after the transaction, the thread's snippet, date, etc. will be stale until then, so only use this where
+   * nothing in the transaction reads them.
+   */
+  @JvmOverloads
+  fun updateAtEndOfTransaction(threadId: Long, unarchive: Boolean, notifyListeners: Boolean = true) {
+    if (threadId == -1L) {
+      Log.d(TAG, "Skipping update for threadId -1")
+      return
+    }
+
+    val db = writableDatabase
+
+    if (!db.inTransaction()) {
+      update(threadId = threadId, unarchive = unarchive, allowDeletion = true, notifyListeners = notifyListeners)
+      return
+    }
+
+    var pending: MutableMap<Long, PendingThreadUpdate>? = pendingThreadUpdates.get()
+
+    // If our task isn't pending, then this is a new transaction, and anything left over is from one that failed
+    if (pending == null || !db.hasPendingPostSuccessfulTransactionTask(PENDING_THREAD_UPDATES_KEY)) {
+      val updates: MutableMap<Long, PendingThreadUpdate> = LinkedHashMap()
+      pendingThreadUpdates.set(updates)
+      db.runPostSuccessfulTransaction(PENDING_THREAD_UPDATES_KEY) { runPendingThreadUpdates(updates) }
+      pending = updates
+    }
+
+    val existing: PendingThreadUpdate? = pending[threadId]
+    pending[threadId] = PendingThreadUpdate(
+      unarchive = unarchive || existing?.unarchive == true,
+      notifyListeners = notifyListeners || existing?.notifyListeners == true
+    )
+  }
+
+  private fun runPendingThreadUpdates(updates: Map<Long, PendingThreadUpdate>) {
+    if (pendingThreadUpdates.get() === updates) {
+      pendingThreadUpdates.remove()
+    }
+
+    writableDatabase.withinTransaction {
+      for ((threadId, update) in updates) {
+        update(threadId = threadId, unarchive = update.unarchive, allowDeletion = true, notifyListeners = false)
+      }
+    }
+
+    if (updates.values.any { it.notifyListeners }) {
+      notifyConversationListListeners()
+    }
+  }
+
   private fun update(threadId: Long, unarchive: Boolean, allowDeletion: Boolean, notifyListeners: Boolean): Boolean {
     if (threadId == -1L) {
       Log.d(TAG, "Skipping update for threadId -1")
@@ -1757,9 +2039,9 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
 
   private fun createQuery(where: String, offset: Long, limit: Long, preferPinned: Boolean): String {
     val orderBy = if (preferPinned) {
-      "$TABLE_NAME.$PINNED DESC, $TABLE_NAME.$DATE DESC"
+      "$TABLE_NAME.$PINNED DESC, $TABLE_NAME.$DATE DESC, $TABLE_NAME.$ID DESC"
     } else {
-      "$TABLE_NAME.$DATE DESC"
+      "$TABLE_NAME.$DATE DESC, $TABLE_NAME.$ID DESC"
     }
 
     return createQuery(
@@ -2048,4 +2330,11 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
   )
 
   data class MergeResult(val threadId: Long, val previousThreadId: Long, val neededMerge: Boolean)
+
+  /**
+   * Identifies a thread's position in the (unpinned) conversation list for keyset paging.
+   */
+  data class ConversationListAnchor(val date: Long, val threadId: Long)
+
+  private data class PendingThreadUpdate(val unarchive: Boolean, val notifyListeners: Boolean)
 }
@@ -17,7 +17,9 @@ import org.whispersystems.signalservice.api.util.Preconditions;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A list of storage keys whose types we do not currently have syncing logic for. We need to
@@ -96,6 +98,35 @@ public class UnknownStorageIdTable extends DatabaseTable {
     }
   }
 
+  /**
+   * Bulk version of {@link #getById(byte[])}.
+   *
+   * @return A map of each provided {@link StorageId} to its unknown record. IDs we don't have are absent from the map.
+   */
+  public @NonNull Map<StorageId, SignalStorageRecord> getByIds(@NonNull Collection<StorageId> ids) {
+    Map<String, StorageId>              idsByEncoded = new HashMap<>(ids.size());
+    Map<StorageId, SignalStorageRecord> results      = new HashMap<>(ids.size());
+
+    for (StorageId id : ids) {
+      idsByEncoded.put(Base64.encodeBytes(id.getRaw()), id);
+    }
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQuery(STORAGE_ID, idsByEncoded.keySet())) {
+      try (Cursor cursor = databaseHelper.getSignalReadableDatabase().query(TABLE_NAME, null, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          StorageId id   = idsByEncoded.get(CursorUtil.requireString(cursor, STORAGE_ID));
+          int       type = CursorUtil.requireInt(cursor, TYPE);
+
+          if (id != null) {
+            results.put(id, SignalStorageRecord.forUnknown(StorageId.forType(id.getRaw(), type)));
+          }
+        }
+      }
+    }
+
+    return results;
+  }
+
   public void insert(@NonNull Collection<SignalStorageRecord> inserts) {
     SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
 
@@ -111,14 +142,17 @@ public class UnknownStorageIdTable extends DatabaseTable {
   }
 
   public void delete(@NonNull Collection<StorageId> deletes) {
-    SQLiteDatabase db          = databaseHelper.getSignalWritableDatabase();
-    String         deleteQuery = STORAGE_ID + " = ?";
+    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
 
     Preconditions.checkArgument(db.inTransaction(), "Must be in a transaction!");
 
+    List<String> encodedIds = new ArrayList<>(deletes.size());
     for (StorageId id : deletes) {
-      String[] args = SqlUtil.buildArgs(Base64.encodeBytes(id.getRaw()));
-      db.delete(TABLE_NAME, deleteQuery, args);
+      encodedIds.add(Base64.encodeBytes(id.getRaw()));
+    }
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQuery(STORAGE_ID, encodedIds)) {
+      db.delete(TABLE_NAME, query.getWhere(), query.getWhereArgs());
     }
   }
 
@@ -57,6 +57,9 @@ import org.thoughtcrime.securesms.database.helpers.migration.V198_AddMacDigestCo
 import org.thoughtcrime.securesms.database.helpers.migration.V199_AddThreadActiveColumn
 import org.thoughtcrime.securesms.database.helpers.migration.V200_ResetPniColumn
 import org.thoughtcrime.securesms.database.helpers.migration.V201_RecipientTableValidations
+import org.thoughtcrime.securesms.database.helpers.migration.V202_MaintainedThreadCounts
+import org.thoughtcrime.securesms.database.helpers.migration.V203_SystemContactHashes
+import org.thoughtcrime.securesms.database.helpers.migration.V204_ThreadDateIdIndex
 
 /**
  * Contains all of the database migrations for [SignalDatabase]. Broken into a separate file for cleanliness.
@@ -65,7 +68,7 @@ object SignalDatabaseMigrations {
 
   val TAG: String = Log.tag(SignalDatabaseMigrations.javaClass)
 
-  const val DATABASE_VERSION = 201
+  const val DATABASE_VERSION = 204
 
   @JvmStatic
   fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
@@ -280,6 +283,18 @@ object SignalDatabaseMigrations {
     if (oldVersion < 201) {
       V201_RecipientTableValidations.migrate(context, db, oldVersion, newVersion)
     }
+
+    if (oldVersion < 202) {
+      V202_MaintainedThreadCounts.migrate(context, db, oldVersion, newVersion)
+    }
+
+    if (oldVersion < 203) {
+      V203_SystemContactHashes.migrate(context, db, oldVersion, newVersion)
+    }
+
+    if (oldVersion < 204) {
+      V204_ThreadDateIdIndex.migrate(context, db, oldVersion, newVersion)
+    }
   }
 
   @JvmStatic
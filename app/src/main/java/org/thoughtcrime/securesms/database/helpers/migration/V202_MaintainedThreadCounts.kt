@@ -0,0 +1,88 @@
+/*
+ * Copyright 2023 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Adds a count of the visible messages in each thread, and a table holding the number of threads in each section of the conversation list,
+ * along with the triggers that keep them up to date. This lets us avoid a COUNT(*) over the whole thread (or thread list) every time the
+ * conversation (or conversation list) is invalidated.
+ */
+@Suppress("ClassName")
+object V202_MaintainedThreadCounts : SignalDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL("ALTER TABLE thread ADD COLUMN visible_message_count INTEGER DEFAULT 0")
+    db.execSQL("CREATE TABLE thread_list_count (_id INTEGER PRIMARY KEY, count INTEGER NOT NULL DEFAULT 0)")
+
+    db.execSQL(
+      """
+        UPDATE thread SET visible_message_count = (
+          SELECT COUNT(*) FROM message WHERE message.thread_id = thread._id AND (message.story_type = 0 AND message.parent_story_id <= 0 AND message.scheduled_date = -1 AND message.latest_revision_id IS NULL)
+        )
+      """
+    )
+
+    db.execSQL(
+      """
+        INSERT INTO thread_list_count (_id, count) VALUES
+          (1, (SELECT COUNT(*) FROM thread WHERE (thread.active = 1 AND thread.archived = 0 AND (thread.meaningful_messages != 0 OR thread.pinned != 0)))),
+          (2, (SELECT COUNT(*) FROM thread WHERE (thread.active = 1 AND thread.archived = 0 AND thread.pinned != 0))),
+          (3, (SELECT COUNT(*) FROM thread WHERE (thread.active = 1 AND thread.archived = 1 AND thread.meaningful_messages != 0)))
+      """
+    )
+
+    db.execSQL(
+      """
+        CREATE TRIGGER message_count_ai AFTER INSERT ON message WHEN (NEW.story_type = 0 AND NEW.parent_story_id <= 0 AND NEW.scheduled_date = -1 AND NEW.latest_revision_id IS NULL) BEGIN
+          UPDATE thread SET visible_message_count = visible_message_count + 1 WHERE _id = NEW.thread_id;
+        END;
+      """
+    )
+
+    db.execSQL(
+      """
+        CREATE TRIGGER message_count_ad AFTER DELETE ON message WHEN (OLD.story_type = 0 AND OLD.parent_story_id <= 0 AND OLD.scheduled_date = -1 AND OLD.latest_revision_id IS NULL) BEGIN
+          UPDATE thread SET visible_message_count = visible_message_count - 1 WHERE _id = OLD.thread_id;
+        END;
+      """
+    )
+
+    db.execSQL(
+      """
+        CREATE TRIGGER message_count_au AFTER UPDATE OF thread_id, story_type, parent_story_id, scheduled_date, latest_revision_id ON message BEGIN
+          UPDATE thread SET visible_message_count = visible_message_count - 1 WHERE _id = OLD.thread_id AND (OLD.story_type = 0 AND OLD.parent_story_id <= 0 AND OLD.scheduled_date = -1 AND OLD.latest_revision_id IS NULL);
+          UPDATE thread SET visible_message_count = visible_message_count + 1 WHERE _id = NEW.thread_id AND (NEW.story_type = 0 AND NEW.parent_story_id <= 0 AND NEW.scheduled_date = -1 AND NEW.latest_revision_id IS NULL);
+        END;
+      """
+    )
+
+    db.execSQL(
+      """
+        CREATE TRIGGER thread_list_count_ai AFTER INSERT ON thread BEGIN
+          UPDATE thread_list_count SET count = count + CASE _id WHEN 1 THEN IFNULL((NEW.active = 1 AND NEW.archived = 0 AND (NEW.meaningful_messages != 0 OR NEW.pinned != 0)), 0) WHEN 2 THEN IFNULL((NEW.active = 1 AND NEW.archived = 0 AND NEW.pinned != 0), 0) WHEN 3 THEN IFNULL((NEW.active = 1 AND NEW.archived = 1 AND NEW.meaningful_messages != 0), 0) ELSE 0 END;
+        END;
+      """
+    )
+
+    db.execSQL(
+      """
+        CREATE TRIGGER thread_list_count_ad AFTER DELETE ON thread BEGIN
+          UPDATE thread_list_count SET count = count - CASE _id WHEN 1 THEN IFNULL((OLD.active = 1 AND OLD.archived = 0 AND (OLD.meaningful_messages != 0 OR OLD.pinned != 0)), 0) WHEN 2 THEN IFNULL((OLD.active = 1 AND OLD.archived = 0 AND OLD.pinned != 0), 0) WHEN 3 THEN IFNULL((OLD.active = 1 AND OLD.archived = 1 AND OLD.meaningful_messages != 0), 0) ELSE 0 END;
+        END;
+      """
+    )
+
+    db.execSQL(
+      """
+        CREATE TRIGGER thread_list_count_au AFTER UPDATE OF active, archived, meaningful_messages, pinned ON thread BEGIN
+          UPDATE thread_list_count SET count = count - CASE _id WHEN 1 THEN IFNULL((OLD.active = 1 AND OLD.archived = 0 AND (OLD.meaningful_messages != 0 OR OLD.pinned != 0)), 0) WHEN 2 THEN IFNULL((OLD.active = 1 AND OLD.archived = 0 AND OLD.pinned != 0), 0) WHEN 3 THEN IFNULL((OLD.active = 1 AND OLD.archived = 1 AND OLD.meaningful_messages != 0), 0) ELSE 0 END + CASE _id WHEN 1 THEN IFNULL((NEW.active = 1 AND NEW.archived = 0 AND (NEW.meaningful_messages != 0 OR NEW.pinned != 0)), 0) WHEN 2 THEN IFNULL((NEW.active = 1 AND NEW.archived = 0 AND NEW.pinned != 0), 0) WHEN 3 THEN IFNULL((NEW.active = 1 AND NEW.archived = 1 AND NEW.meaningful_messages != 0), 0) ELSE 0 END;
+        END;
+      """
+    )
+  }
+}
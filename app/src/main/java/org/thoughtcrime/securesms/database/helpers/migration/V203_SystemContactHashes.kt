@@ -0,0 +1,28 @@
+/*
+ * Copyright 2023 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Adds a table remembering a hash of each system contact as of the last contact sync, so that later syncs only have to process the contacts
+ * that changed. It starts empty, which results in a full sync the first time around.
+ */
+@Suppress("ClassName")
+object V203_SystemContactHashes : SignalDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL(
+      """
+        CREATE TABLE system_contact_hash (
+          _id INTEGER PRIMARY KEY,
+          contact_uri TEXT NOT NULL UNIQUE,
+          hash INTEGER NOT NULL
+        )
+      """
+    )
+  }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright 2023 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Adds _id right after date_received in the index used for loading a conversation, so that ordering and paging by (date_received, _id)
+ * can be served by the index without a temp sort.
+ */
+@Suppress("ClassName")
+object V204_ThreadDateIdIndex : SignalDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL("DROP INDEX IF EXISTS message_thread_story_parent_story_scheduled_date_latest_revision_id_index")
+    db.execSQL("CREATE INDEX IF NOT EXISTS message_thread_story_parent_story_scheduled_date_latest_revision_id_index ON message (thread_id, date_received, _id, story_type, parent_story_id, scheduled_date, latest_revision_id)")
+  }
+}
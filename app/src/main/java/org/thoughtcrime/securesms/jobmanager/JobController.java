@@ -4,6 +4,7 @@ import android.app.Application;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import com.annimon.stream.Collectors;
@@ -20,17 +21,29 @@ import org.thoughtcrime.securesms.util.Debouncer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
 /**
  * Manages the queue of jobs. This is the only class that should write to {@link JobStorage} to
  * ensure consistency.
+ *
+ * Runners that can't find work park on their own signal rather than on this class's monitor. Jobs that
+ * can run right now are kept in a ready queue per runner predicate (see {@link ReadyQueues}), and each
+ * one is handed directly to at most one idle runner whose predicate accepts it, so a change wakes only
+ * the runners that have something to do, and each of them wakes up with the job it was woken for.
  */
 class JobController {
 
@@ -45,6 +58,10 @@ class JobController {
   private final Debouncer              debouncer;
   private final Callback               callback;
   private final Map<String, Job>       runningJobs;
+  private final List<IdleRunner>       idleRunners;
+  private final ReadyQueues            readyQueues;
+  private final Set<String>            dispatchedJobIds;
+  private final DispatchMetrics        dispatchMetrics;
 
   JobController(@NonNull Application application,
                 @NonNull JobStorage jobStorage,
@@ -64,16 +81,22 @@ class JobController {
     this.debouncer              = debouncer;
     this.callback               = callback;
     this.runningJobs            = new HashMap<>();
+    this.idleRunners            = new LinkedList<>();
+    this.readyQueues            = new ReadyQueues();
+    this.dispatchedJobIds       = new HashSet<>();
+    this.dispatchMetrics        = new DispatchMetrics();
   }
 
   @WorkerThread
   synchronized void init() {
     jobStorage.updateAllJobsToBePending();
-    notifyAll();
+    refreshReadyQueues();
+    dispatchToIdleRunners();
   }
 
   synchronized void wakeUp() {
-    notifyAll();
+    refreshReadyQueues();
+    dispatchToIdleRunners();
   }
 
   @WorkerThread
@@ -101,7 +124,8 @@ class JobController {
     triggerOnSubmit(chain);
 
     synchronized (this) {
-      notifyAll();
+      offerReadyJobs(Stream.of(chain.get(0)).map(Job::getId).toList());
+      dispatchToIdleRunners();
     }
   }
 
@@ -149,7 +173,8 @@ class JobController {
     triggerOnSubmit(chain);
 
     synchronized (this) {
-      notifyAll();
+      offerReadyJobs(Collections.singletonList(job.getId()));
+      dispatchToIdleRunners();
     }
   }
 
@@ -184,7 +209,8 @@ class JobController {
     }
 
     synchronized (this) {
-      notifyAll();
+      offerReadyJobs(Stream.of(canRun).map(Job::getId).toList());
+      dispatchToIdleRunners();
     }
   }
 
@@ -234,7 +260,8 @@ class JobController {
 
     jobStorage.updateJobs(updatedJobs);
 
-    notifyAll();
+    refreshReadyQueues();
+    dispatchToIdleRunners();
   }
 
   @WorkerThread
@@ -268,7 +295,7 @@ class JobController {
     Log.i(TAG, JobLogger.format(job, "Scheduling a retry in " + delay + " ms."));
     scheduler.schedule(delay, constraints);
 
-    notifyAll();
+    dispatchToIdleRunners();
   }
 
   synchronized void onJobFinished(@NonNull Job job) {
@@ -277,9 +304,12 @@ class JobController {
 
   @WorkerThread
   synchronized void onSuccess(@NonNull Job job, @Nullable byte[] outputData) {
+    List<String> dependentIds = Stream.of(jobStorage.getDependencySpecsThatDependOnJob(job.getId()))
+                                      .map(DependencySpec::getJobId)
+                                      .toList();
+
     if (outputData != null) {
-      List<JobSpec> updates = Stream.of(jobStorage.getDependencySpecsThatDependOnJob(job.getId()))
-                                    .map(DependencySpec::getJobId)
+      List<JobSpec> updates = Stream.of(dependentIds)
                                     .map(jobStorage::getJobSpec)
                                     .map(jobSpec -> mapToJobWithInputData(jobSpec, outputData))
                                     .toList();
@@ -289,7 +319,16 @@ class JobController {
 
     jobStorage.deleteJob(job.getId());
     jobTracker.onStateChange(job, JobTracker.JobState.SUCCESS);
-    notifyAll();
+
+    if (Job.Parameters.MIGRATION_QUEUE_KEY.equals(job.getParameters().getQueue())) {
+      refreshReadyQueues();
+    } else {
+      List<String> unblocked = new ArrayList<>(dependentIds);
+      addNextInQueue(job.getParameters().getQueue(), unblocked);
+      offerReadyJobs(unblocked);
+    }
+
+    dispatchToIdleRunners();
   }
 
   /**
@@ -314,6 +353,23 @@ class JobController {
     jobStorage.deleteJobs(Stream.of(all).map(Job::getId).toList());
     Stream.of(all).forEach(j -> jobTracker.onStateChange(j, JobTracker.JobState.FAILURE));
 
+    List<String> unblocked = new ArrayList<>();
+    boolean      migration = false;
+
+    for (Job failed : all) {
+      readyQueues.remove(failed.getId());
+      addNextInQueue(failed.getParameters().getQueue(), unblocked);
+      migration |= Job.Parameters.MIGRATION_QUEUE_KEY.equals(failed.getParameters().getQueue());
+    }
+
+    if (migration) {
+      refreshReadyQueues();
+    } else {
+      offerReadyJobs(unblocked);
+    }
+
+    dispatchToIdleRunners();
+
     return dependents;
   }
 
@@ -326,23 +382,52 @@ class JobController {
    * When the job returned from this method has been run, you must call {@link #onJobFinished(Job)}.
    */
   @WorkerThread
-  synchronized @NonNull Job pullNextEligibleJobForExecution(@NonNull JobPredicate predicate) {
+  @NonNull Job pullNextEligibleJobForExecution(@NonNull JobPredicate predicate) {
+    IdleRunner runner   = new IdleRunner(predicate);
+    boolean    signaled = false;
+
     try {
-      Job job;
+      while (true) {
+        synchronized (this) {
+          readyQueues.addQueueFor(predicate);
 
-      while ((job = getNextEligibleJobForExecution(predicate)) == null) {
-        if (runningJobs.isEmpty()) {
-          debouncer.publish(callback::onEmpty);
-        }
+          Job     job      = null;
+          JobSpec assigned = runner.takeAssignment();
 
-        wait();
-      }
+          if (assigned != null) {
+            dispatchedJobIds.remove(assigned.getId());
+            job = claimIfEligible(assigned.getId());
+          }
 
-      jobStorage.updateJobRunningState(job.getId(), true);
-      runningJobs.put(job.getId(), job);
-      jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
+          if (job == null) {
+            job = getNextEligibleJobForExecution(predicate);
+          }
 
-      return job;
+          if (job != null) {
+            jobStorage.updateJobRunningState(job.getId(), true);
+            runningJobs.put(job.getId(), job);
+            jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
+
+            return job;
+          }
+
+          if (signaled) {
+            dispatchMetrics.emptyWakeUps.incrementAndGet();
+          }
+
+          if (runningJobs.isEmpty()) {
+            debouncer.publish(callback::onEmpty);
+          }
+
+          idleRunners.add(runner);
+        }
+
+        long waitStart = System.nanoTime();
+        runner.await();
+        dispatchMetrics.onWakeUp(System.nanoTime() - waitStart);
+
+        signaled = true;
+      }
     } catch (InterruptedException e) {
       Log.e(TAG, "Interrupted.");
       throw new AssertionError(e);
@@ -381,9 +466,24 @@ class JobController {
       info.append("None\n");
     }
 
+    info.append("\n-- Dispatch\n");
+    info.append("Idle runners: ").append(idleRunners.size()).append('\n');
+    info.append("Ready jobs: ").append(readyQueues.size()).append('\n');
+    info.append(dispatchMetrics.toString()).append('\n');
+
     return info.toString();
   }
 
+  @VisibleForTesting
+  synchronized int getIdleRunnerCount() {
+    return idleRunners.size();
+  }
+
+  @VisibleForTesting
+  @NonNull DispatchMetrics getDispatchMetrics() {
+    return dispatchMetrics;
+  }
+
   synchronized boolean areQueuesEmpty(@NonNull Set<String> queueKeys) {
     return jobStorage.areQueuesEmpty(queueKeys);
   }
@@ -483,27 +583,156 @@ class JobController {
     }
   }
 
+  /**
+   * Takes jobs from the ready queue for the predicate until one of them can still run.
+   */
   @WorkerThread
   private @Nullable Job getNextEligibleJobForExecution(@NonNull JobPredicate predicate) {
-    List<JobSpec> jobSpecs = Stream.of(jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis()))
-                                   .filter(predicate::shouldRun)
-                                   .toList();
+    JobSpec candidate;
 
-    for (JobSpec jobSpec : jobSpecs) {
-      List<ConstraintSpec> constraintSpecs = jobStorage.getConstraintSpecs(jobSpec.getId());
-      List<Constraint>     constraints     = Stream.of(constraintSpecs)
-                                                   .map(ConstraintSpec::getFactoryKey)
-                                                   .map(constraintInstantiator::instantiate)
-                                                   .toList();
-
-      if (Stream.of(constraints).allMatch(Constraint::isMet)) {
-        return createJob(jobSpec, constraintSpecs);
+    while ((candidate = readyQueues.poll(predicate)) != null) {
+      Job job = claimIfEligible(candidate.getId());
+
+      if (job != null) {
+        return job;
       }
     }
 
     return null;
   }
 
+  /**
+   * The ready queues can be stale by the time a job is taken from them (e.g. a constraint is no longer
+   * met, or a migration job was submitted in the meantime), so this checks the job again before it runs.
+   * A job that can't run is simply dropped; it'll be offered again when whatever it's waiting on changes.
+   */
+  @WorkerThread
+  private @Nullable Job claimIfEligible(@NonNull String jobId) {
+    List<JobSpec> eligible = jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(Collections.singletonList(jobId), System.currentTimeMillis());
+
+    if (eligible.isEmpty()) {
+      return null;
+    }
+
+    List<ConstraintSpec> constraintSpecs = jobStorage.getConstraintSpecs(jobId);
+
+    if (!areConstraintsMet(constraintSpecs, new HashMap<>())) {
+      return null;
+    }
+
+    return createJob(eligible.get(0), constraintSpecs);
+  }
+
+  /**
+   * Rebuilds the ready queues from every job that could run right now. This checks the constraints of
+   * every one of them, so it's only for when anything could have changed: at startup, and when the
+   * {@link Scheduler} wakes us up because a constraint or a retry's backoff may have changed.
+   */
+  @WorkerThread
+  private void refreshReadyQueues() {
+    readyQueues.clear();
+    offerReadyJobSpecs(jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis()));
+  }
+
+  /**
+   * Adds whichever of the given jobs could run right now to the ready queues. Used when we know exactly
+   * which jobs a change could have unblocked, e.g. newly submitted jobs, or the dependents of a job that
+   * finished.
+   */
+  @WorkerThread
+  private void offerReadyJobs(@NonNull Collection<String> jobIds) {
+    if (jobIds.isEmpty()) {
+      return;
+    }
+
+    offerReadyJobSpecs(jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(jobIds, System.currentTimeMillis()));
+  }
+
+  private void offerReadyJobSpecs(@NonNull List<JobSpec> jobSpecs) {
+    Map<String, Boolean> constraintsMet = new HashMap<>();
+
+    for (JobSpec jobSpec : jobSpecs) {
+      if (!dispatchedJobIds.contains(jobSpec.getId()) && areConstraintsMet(jobStorage.getConstraintSpecs(jobSpec.getId()), constraintsMet)) {
+        readyQueues.add(jobSpec);
+      }
+    }
+  }
+
+  /**
+   * Only the first job in a queue can run, so when one leaves the queue, the next one may be unblocked.
+   */
+  private void addNextInQueue(@Nullable String queue, @NonNull List<String> jobIds) {
+    if (queue == null) {
+      return;
+    }
+
+    List<JobSpec> inQueue = jobStorage.getJobsInQueue(queue);
+
+    if (!inQueue.isEmpty()) {
+      jobIds.add(inQueue.get(0).getId());
+    }
+  }
+
+  /**
+   * Hands the next job from its ready queue to each idle runner, starting with runners that are reserved
+   * for a specific kind of job so that general-purpose runners stay free for everything else. Runners
+   * that are currently busy will take any remaining work from the ready queues when they next pull for
+   * a job.
+   *
+   * Must be called while holding the lock on this class.
+   */
+  @WorkerThread
+  private void dispatchToIdleRunners() {
+    if (idleRunners.isEmpty() || readyQueues.isEmpty()) {
+      return;
+    }
+
+    dispatchToIdleRunners(true);
+    dispatchToIdleRunners(false);
+  }
+
+  private void dispatchToIdleRunners(boolean reserved) {
+    Iterator<IdleRunner> iterator = idleRunners.iterator();
+
+    while (iterator.hasNext()) {
+      IdleRunner runner = iterator.next();
+
+      if ((runner.predicate != JobPredicate.NONE) != reserved) {
+        continue;
+      }
+
+      JobSpec jobSpec = readyQueues.poll(runner.predicate);
+
+      if (jobSpec != null) {
+        iterator.remove();
+        dispatchedJobIds.add(jobSpec.getId());
+        dispatchMetrics.signals.incrementAndGet();
+        runner.assign(jobSpec);
+      }
+    }
+  }
+
+  /**
+   * @param constraintsMet Whether each kind of constraint is met, filled in as they're checked, so that
+   *                       checking many jobs with the same constraints only checks each kind once.
+   */
+  private boolean areConstraintsMet(@NonNull List<ConstraintSpec> constraintSpecs, @NonNull Map<String, Boolean> constraintsMet) {
+    for (ConstraintSpec constraintSpec : constraintSpecs) {
+      Boolean met = constraintsMet.get(constraintSpec.getFactoryKey());
+
+      if (met == null) {
+        met = constraintInstantiator.instantiate(constraintSpec.getFactoryKey()).isMet();
+        constraintsMet.put(constraintSpec.getFactoryKey(), met);
+      }
+
+      if (!met) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
   private @NonNull Job createJob(@NonNull JobSpec jobSpec, @NonNull List<ConstraintSpec> constraintSpecs) {
     Job.Parameters parameters = buildJobParameters(jobSpec, constraintSpecs);
 
@@ -560,4 +789,158 @@ class JobController {
   interface Callback {
     void onEmpty();
   }
+
+  /**
+   * A runner that is parked waiting for work. It is only ever assigned a job once per time it is added
+   * to {@link #idleRunners}, and is removed from that list before being assigned one. The assignment is
+   * only read and cleared while holding the lock on {@link JobController}.
+   */
+  private static final class IdleRunner {
+    private final JobPredicate predicate;
+    private final Semaphore    signal;
+
+    private JobSpec assignment;
+
+    private IdleRunner(@NonNull JobPredicate predicate) {
+      this.predicate = predicate;
+      this.signal    = new Semaphore(0);
+    }
+
+    void await() throws InterruptedException {
+      signal.acquire();
+    }
+
+    void assign(@NonNull JobSpec jobSpec) {
+      assignment = jobSpec;
+      signal.release();
+    }
+
+    @Nullable JobSpec takeAssignment() {
+      JobSpec jobSpec = assignment;
+      assignment = null;
+      return jobSpec;
+    }
+  }
+
+  /**
+   * The jobs that could run right now (ready in {@link JobStorage}, past their next run time, and with
+   * their constraints met when they were added), with a queue in created order for each runner
+   * predicate. A job is in the queue of every predicate that accepts it until it's taken or removed.
+   *
+   * These only change when the controller changes them. Anything that makes a job runnable without
+   * going through the controller, like a constraint becoming met or a retry's backoff passing, ends in
+   * a {@link #wakeUp()}, which rebuilds them.
+   */
+  private static final class ReadyQueues {
+    private static final Comparator<JobSpec> CREATED_ORDER = (lhs, rhs) -> {
+      int byCreateTime = Long.compare(lhs.getCreateTime(), rhs.getCreateTime());
+      return byCreateTime != 0 ? byCreateTime : lhs.getId().compareTo(rhs.getId());
+    };
+
+    private final Map<JobPredicate, TreeSet<JobSpec>> queues    = new HashMap<>();
+    private final Map<String, JobSpec>                readyById = new HashMap<>();
+
+    void addQueueFor(@NonNull JobPredicate predicate) {
+      if (queues.containsKey(predicate)) {
+        return;
+      }
+
+      TreeSet<JobSpec> queue = new TreeSet<>(CREATED_ORDER);
+
+      for (JobSpec jobSpec : readyById.values()) {
+        if (predicate.shouldRun(jobSpec)) {
+          queue.add(jobSpec);
+        }
+      }
+
+      queues.put(predicate, queue);
+    }
+
+    void add(@NonNull JobSpec jobSpec) {
+      remove(jobSpec.getId());
+      readyById.put(jobSpec.getId(), jobSpec);
+
+      for (Map.Entry<JobPredicate, TreeSet<JobSpec>> entry : queues.entrySet()) {
+        if (entry.getKey().shouldRun(jobSpec)) {
+          entry.getValue().add(jobSpec);
+        }
+      }
+    }
+
+    void remove(@NonNull String jobId) {
+      JobSpec jobSpec = readyById.remove(jobId);
+
+      if (jobSpec != null) {
+        for (TreeSet<JobSpec> queue : queues.values()) {
+          queue.remove(jobSpec);
+        }
+      }
+    }
+
+    @Nullable JobSpec poll(@NonNull JobPredicate predicate) {
+      TreeSet<JobSpec> queue = queues.get(predicate);
+
+      if (queue == null || queue.isEmpty()) {
+        return null;
+      }
+
+      JobSpec jobSpec = queue.first();
+      remove(jobSpec.getId());
+
+      return jobSpec;
+    }
+
+    void clear() {
+      readyById.clear();
+
+      for (TreeSet<JobSpec> queue : queues.values()) {
+        queue.clear();
+      }
+    }
+
+    boolean isEmpty() {
+      return readyById.isEmpty();
+    }
+
+    int size() {
+      return readyById.size();
+    }
+  }
+
+  /**
+   * Counters describing how often runners are woken up and how long they sit idle.
+   */
+  static final class DispatchMetrics {
+    private final AtomicLong wakeUps       = new AtomicLong();
+    private final AtomicLong emptyWakeUps  = new AtomicLong();
+    private final AtomicLong signals       = new AtomicLong();
+    private final AtomicLong waitTimeNanos = new AtomicLong();
+
+    void onWakeUp(long waitNanos) {
+      wakeUps.incrementAndGet();
+      waitTimeNanos.addAndGet(waitNanos);
+    }
+
+    long getSignals() {
+      return signals.get();
+    }
+
+    long getWakeUps() {
+      return wakeUps.get();
+    }
+
+    long getEmptyWakeUps() {
+      return emptyWakeUps.get();
+    }
+
+    @Override
+    public @NonNull String toString() {
+      long totalWakeUps = wakeUps.get();
+      long totalWaitMs  = TimeUnit.NANOSECONDS.toMillis(waitTimeNanos.get());
+      long averageWait  = totalWakeUps > 0 ? totalWaitMs / totalWakeUps : 0;
+
+      return String.format(Locale.US, "Signals: %d | Wake-ups: %d | Empty wake-ups: %d | Total idle wait: %d ms | Average idle wait: %d ms",
+                           signals.get(), totalWakeUps, emptyWakeUps.get(), totalWaitMs, averageWait);
+    }
+  }
 }
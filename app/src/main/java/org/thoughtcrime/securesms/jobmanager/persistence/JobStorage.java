@@ -4,6 +4,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -24,6 +25,10 @@ public interface JobStorage {
   @WorkerThread
   @NonNull List<JobSpec> getPendingJobsWithNoDependenciesInCreatedOrder(long currentTime);
 
+  /** Same as {@link #getPendingJobsWithNoDependenciesInCreatedOrder(long)}, but only considering the given jobs. */
+  @WorkerThread
+  @NonNull List<JobSpec> getPendingJobsWithNoDependenciesInCreatedOrder(@NonNull Collection<String> jobIds, long currentTime);
+
   @WorkerThread
   @NonNull List<JobSpec> getJobsInQueue(@NonNull String queue);
 
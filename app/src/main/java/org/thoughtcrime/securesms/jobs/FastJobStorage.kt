@@ -7,16 +7,58 @@ import org.thoughtcrime.securesms.jobmanager.persistence.DependencySpec
 import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec
 import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec
 import org.thoughtcrime.securesms.jobmanager.persistence.JobStorage
-
+import java.util.TreeSet
+
+/**
+ * An in-memory mirror of the [JobDatabase] that is indexed so that the common scheduling questions asked by the
+ * job controller can be answered without walking every job.
+ *
+ * - Jobs are indexed by id, by queue (in created order), and by factory.
+ * - The first job of each queue (and every job without a queue) is tracked in a "ready set" ordered by
+ *   [JobSpec.nextRunAttemptTime] as long as it has no dependencies and isn't running.
+ */
 class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
-  private val jobs: MutableList<JobSpec> = mutableListOf()
+  /** Insertion order of each job, used to break ties between jobs with the same create time. */
+  private val insertionOrder: MutableMap<String, Long> = HashMap()
+  private var nextInsertionOrder: Long = 0
+
+  private val createdOrder: Comparator<JobSpec> = Comparator { lhs, rhs ->
+    val byCreateTime = lhs.createTime.compareTo(rhs.createTime)
+    if (byCreateTime != 0) {
+      byCreateTime
+    } else {
+      insertionOrder.getValue(lhs.id).compareTo(insertionOrder.getValue(rhs.id))
+    }
+  }
+
+  private val runAttemptOrder: Comparator<JobSpec> = Comparator { lhs, rhs ->
+    val byRunAttempt = lhs.nextRunAttemptTime.compareTo(rhs.nextRunAttemptTime)
+    if (byRunAttempt != 0) {
+      byRunAttempt
+    } else {
+      createdOrder.compare(lhs, rhs)
+    }
+  }
+
+  private val jobsById: MutableMap<String, JobSpec> = LinkedHashMap()
+  private val jobsByQueue: MutableMap<String, TreeSet<JobSpec>> = HashMap()
+  private val jobIdsByFactory: MutableMap<String, MutableSet<String>> = HashMap()
+
+  /** Jobs that could run as soon as their [JobSpec.nextRunAttemptTime] passes. At most one per queue. */
+  private val readyJobs: TreeSet<JobSpec> = TreeSet(runAttemptOrder)
+  private val readyJobsByQueue: MutableMap<String, JobSpec> = HashMap()
+  private val readyJobsWithoutQueue: MutableMap<String, JobSpec> = HashMap()
+
   private val constraintsByJobId: MutableMap<String, MutableList<ConstraintSpec>> = mutableMapOf()
   private val dependenciesByJobId: MutableMap<String, MutableList<DependencySpec>> = mutableMapOf()
+  private val dependentJobIdsByJobId: MutableMap<String, MutableSet<String>> = mutableMapOf()
 
   @Synchronized
   override fun init() {
-    jobs += jobDatabase.allJobSpecs
+    for (jobSpec in jobDatabase.allJobSpecs) {
+      indexJob(jobSpec)
+    }
 
     for (constraintSpec in jobDatabase.allConstraintSpecs) {
       val jobConstraints: MutableList<ConstraintSpec> = constraintsByJobId.getOrPut(constraintSpec.jobSpecId) { mutableListOf() }
@@ -24,8 +66,11 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     }
 
     for (dependencySpec in jobDatabase.allDependencySpecs.filterNot { it.hasCircularDependency() }) {
-      val jobDependencies: MutableList<DependencySpec> = dependenciesByJobId.getOrPut(dependencySpec.jobId) { mutableListOf() }
-      jobDependencies += dependencySpec
+      indexDependency(dependencySpec)
+    }
+
+    for (jobSpec in jobsById.values) {
+      refreshReadyState(jobSpec.queueKey, jobSpec.id)
     }
   }
 
@@ -38,20 +83,27 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     }
 
     for (fullSpec in fullSpecs) {
-      jobs += fullSpec.jobSpec
-      constraintsByJobId[fullSpec.jobSpec.id] = fullSpec.constraintSpecs
-      dependenciesByJobId[fullSpec.jobSpec.id] = fullSpec.dependencySpecs
+      indexJob(fullSpec.jobSpec)
+      constraintsByJobId[fullSpec.jobSpec.id] = fullSpec.constraintSpecs.toMutableList()
+
+      for (dependencySpec in fullSpec.dependencySpecs) {
+        indexDependency(dependencySpec)
+      }
+    }
+
+    for (fullSpec in fullSpecs) {
+      refreshReadyState(fullSpec.jobSpec.queueKey, fullSpec.jobSpec.id)
     }
   }
 
   @Synchronized
   override fun getJobSpec(id: String): JobSpec? {
-    return jobs.firstOrNull { it.id == id }
+    return jobsById[id]
   }
 
   @Synchronized
   override fun getAllJobSpecs(): List<JobSpec> {
-    return ArrayList(jobs)
+    return ArrayList(jobsById.values)
   }
 
   @Synchronized
@@ -63,63 +115,60 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     } else if (migrationJob != null) {
       emptyList()
     } else {
-      jobs
-        .groupBy { it.queueKey ?: it.id }
-        .map { byQueueKey: Map.Entry<String, List<JobSpec>> ->
-          byQueueKey.value.minByOrNull { it.createTime }
-        }
-        .filterNotNull()
-        .filter { job ->
-          dependenciesByJobId[job.id].isNullOrEmpty()
+      val eligible: MutableList<JobSpec> = mutableListOf()
+
+      for (job in readyJobs) {
+        if (job.nextRunAttemptTime > currentTime) {
+          break
         }
-        .filterNot { it.isRunning }
-        .filter { job -> job.nextRunAttemptTime <= currentTime }
-        .sortedBy { it.createTime }
+        eligible += job
+      }
+
+      eligible.sortWith(createdOrder)
+      eligible
     }
   }
 
   @Synchronized
-  override fun getJobsInQueue(queue: String): List<JobSpec> {
-    return jobs
-      .filter { it.queueKey == queue }
-      .sortedBy { it.createTime }
-  }
+  override fun getPendingJobsWithNoDependenciesInCreatedOrder(jobIds: Collection<String>, currentTime: Long): List<JobSpec> {
+    val migrationJob: JobSpec? = getMigrationJob()
 
-  private fun getMigrationJob(): JobSpec? {
-    return jobs
-      .filter { it.queueKey == Job.Parameters.MIGRATION_QUEUE_KEY }
-      .firstOrNull { firstInQueue(it) }
+    return if (migrationJob != null) {
+      if (!migrationJob.isRunning && migrationJob.nextRunAttemptTime <= currentTime && jobIds.contains(migrationJob.id)) {
+        listOf(migrationJob)
+      } else {
+        emptyList()
+      }
+    } else {
+      jobIds
+        .mapNotNull { jobsById[it] }
+        .filter { it.isReady() && it.nextRunAttemptTime <= currentTime }
+        .sortedWith(createdOrder)
+    }
   }
 
-  private fun firstInQueue(job: JobSpec): Boolean {
-    return if (job.queueKey == null) {
-      true
-    } else {
-      val firstInQueue: JobSpec? = jobs
-        .filter { it.queueKey == job.queueKey }
-        .minByOrNull { it.createTime }
+  @Synchronized
+  override fun getJobsInQueue(queue: String): List<JobSpec> {
+    return jobsByQueue[queue]?.toList() ?: emptyList()
+  }
 
-      job == firstInQueue
-    }
+  private fun getMigrationJob(): JobSpec? {
+    return jobsByQueue[Job.Parameters.MIGRATION_QUEUE_KEY]?.firstOrNull()
   }
 
   @Synchronized
   override fun getJobCountForFactory(factoryKey: String): Int {
-    return jobs
-      .filter { it.factoryKey == factoryKey }
-      .size
+    return jobIdsByFactory[factoryKey]?.size ?: 0
   }
 
   @Synchronized
   override fun getJobCountForFactoryAndQueue(factoryKey: String, queueKey: String): Int {
-    return jobs
-      .filter { it.factoryKey == factoryKey && it.queueKey == queueKey }
-      .size
+    return jobsByQueue[queueKey]?.count { it.factoryKey == factoryKey } ?: 0
   }
 
   @Synchronized
   override fun areQueuesEmpty(queueKeys: Set<String>): Boolean {
-    return jobs.none { it.queueKey != null && queueKeys.contains(it.queueKey) }
+    return queueKeys.none { jobsByQueue.containsKey(it) }
   }
 
   @Synchronized
@@ -129,13 +178,8 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       jobDatabase.updateJobRunningState(id, isRunning)
     }
 
-    val iter = jobs.listIterator()
-
-    while (iter.hasNext()) {
-      val current: JobSpec = iter.next()
-      if (current.id == id) {
-        iter.set(current.copy(isRunning = isRunning))
-      }
+    if (job != null) {
+      replaceJob(job.copy(isRunning = isRunning))
     }
   }
 
@@ -146,19 +190,15 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       jobDatabase.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime, serializedData)
     }
 
-    val iter = jobs.listIterator()
-    while (iter.hasNext()) {
-      val current = iter.next()
-      if (current.id == id) {
-        iter.set(
-          current.copy(
-            isRunning = isRunning,
-            runAttempt = runAttempt,
-            nextRunAttemptTime = nextRunAttemptTime,
-            serializedData = serializedData
-          )
+    if (job != null) {
+      replaceJob(
+        job.copy(
+          isRunning = isRunning,
+          runAttempt = runAttempt,
+          nextRunAttemptTime = nextRunAttemptTime,
+          serializedData = serializedData
         )
-      }
+      )
     }
   }
 
@@ -166,10 +206,10 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   override fun updateAllJobsToBePending() {
     jobDatabase.updateAllJobsToBePending()
 
-    val iter = jobs.listIterator()
-    while (iter.hasNext()) {
-      val current = iter.next()
-      iter.set(current.copy(isRunning = false))
+    for (job in jobsById.values.toList()) {
+      if (job.isRunning) {
+        replaceJob(job.copy(isRunning = false))
+      }
     }
   }
 
@@ -185,15 +225,9 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       jobDatabase.updateJobs(durable)
     }
 
-    val updatesById: Map<String, JobSpec> = jobSpecs.associateBy { it.id }
-
-    val iter = jobs.listIterator()
-    while (iter.hasNext()) {
-      val current = iter.next()
-      val update = updatesById[current.id]
-
-      if (update != null) {
-        iter.set(update)
+    for (update in jobSpecs) {
+      if (jobsById.containsKey(update.id)) {
+        replaceJob(update)
       }
     }
   }
@@ -214,21 +248,31 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       jobDatabase.deleteJobs(durableIds)
     }
 
-    val deleteIds: Set<String> = jobIds.toSet()
-    jobs.removeIf { deleteIds.contains(it.id) }
-
     for (jobId in jobIds) {
+      val job: JobSpec? = jobsById[jobId]
+
+      if (job != null) {
+        unindexJob(job)
+        refreshReadyState(job.queueKey, job.id)
+      }
+
       constraintsByJobId.remove(jobId)
-      dependenciesByJobId.remove(jobId)
 
-      for (dependencyList in dependenciesByJobId.values) {
-        val iter = dependencyList.iterator()
+      dependenciesByJobId.remove(jobId)?.forEach { dependency ->
+        dependentJobIdsByJobId[dependency.dependsOnJobId]?.remove(jobId)
+      }
+
+      val dependentJobIds: Set<String> = dependentJobIdsByJobId.remove(jobId) ?: emptySet()
+
+      for (dependentJobId in dependentJobIds) {
+        val dependencies: MutableList<DependencySpec> = dependenciesByJobId[dependentJobId] ?: continue
+        dependencies.removeIf { it.dependsOnJobId == jobId }
 
-        while (iter.hasNext()) {
-          if (iter.next().dependsOnJobId == jobId) {
-            iter.remove()
-          }
+        if (dependencies.isEmpty()) {
+          dependenciesByJobId.remove(dependentJobId)
         }
+
+        jobsById[dependentJobId]?.let { refreshReadyState(it.queueKey, it.id) }
       }
     }
   }
@@ -261,8 +305,10 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   }
 
   private fun getSingleLayerOfDependencySpecsThatDependOnJob(jobSpecId: String): List<DependencySpec> {
-    return dependenciesByJobId
-      .values
+    val dependentJobIds: Set<String> = dependentJobIdsByJobId[jobSpecId] ?: return emptyList()
+
+    return dependentJobIds
+      .mapNotNull { dependenciesByJobId[it] }
       .flatten()
       .filter { it.dependsOnJobId == jobSpecId }
   }
@@ -272,7 +318,121 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   }
 
   private fun getJobById(id: String): JobSpec? {
-    return jobs.firstOrNull { it.id == id }
+    return jobsById[id]
+  }
+
+  private fun indexJob(job: JobSpec) {
+    insertionOrder[job.id] = nextInsertionOrder++
+    jobsById[job.id] = job
+    jobIdsByFactory.getOrPut(job.factoryKey) { HashSet() } += job.id
+
+    if (job.queueKey != null) {
+      jobsByQueue.getOrPut(job.queueKey) { TreeSet(createdOrder) } += job
+    }
+  }
+
+  /**
+   * Removes the job from every index. The caller is responsible for calling [refreshReadyState] afterwards.
+   */
+  private fun unindexJob(job: JobSpec) {
+    clearReadyState(job.queueKey, job.id)
+
+    jobsById.remove(job.id)
+
+    jobIdsByFactory[job.factoryKey]?.let { ids ->
+      ids.remove(job.id)
+      if (ids.isEmpty()) {
+        jobIdsByFactory.remove(job.factoryKey)
+      }
+    }
+
+    if (job.queueKey != null) {
+      jobsByQueue[job.queueKey]?.let { queue ->
+        queue.remove(job)
+        if (queue.isEmpty()) {
+          jobsByQueue.remove(job.queueKey)
+        }
+      }
+    }
+
+    insertionOrder.remove(job.id)
+  }
+
+  /**
+   * Swaps out the stored version of a job for an updated one, keeping its original insertion order.
+   */
+  private fun replaceJob(updated: JobSpec) {
+    val current: JobSpec = jobsById[updated.id] ?: return
+    val order: Long = insertionOrder.getValue(current.id)
+
+    clearReadyState(updated.queueKey, updated.id)
+    unindexJob(current)
+
+    insertionOrder[updated.id] = order
+    jobsById[updated.id] = updated
+    jobIdsByFactory.getOrPut(updated.factoryKey) { HashSet() } += updated.id
+
+    if (updated.queueKey != null) {
+      jobsByQueue.getOrPut(updated.queueKey) { TreeSet(createdOrder) } += updated
+    }
+
+    if (current.queueKey != updated.queueKey) {
+      refreshReadyState(current.queueKey, current.id)
+    }
+    refreshReadyState(updated.queueKey, updated.id)
+  }
+
+  private fun indexDependency(dependencySpec: DependencySpec) {
+    dependenciesByJobId.getOrPut(dependencySpec.jobId) { mutableListOf() } += dependencySpec
+    dependentJobIdsByJobId.getOrPut(dependencySpec.dependsOnJobId) { HashSet() } += dependencySpec.jobId
+  }
+
+  /**
+   * Removes whatever job currently represents the given queue (or the given unqueued job) from the ready set.
+   */
+  private fun clearReadyState(queueKey: String?, jobId: String) {
+    val previous: JobSpec? = if (queueKey != null) {
+      readyJobsByQueue.remove(queueKey)
+    } else {
+      readyJobsWithoutQueue.remove(jobId)
+    }
+
+    if (previous != null) {
+      readyJobs.remove(previous)
+    }
+  }
+
+  private fun JobSpec.isReady(): Boolean {
+    return if (queueKey != null) {
+      readyJobsByQueue[queueKey]?.id == id
+    } else {
+      readyJobsWithoutQueue.containsKey(id)
+    }
+  }
+
+  /**
+   * Re-evaluates which job, if any, should be in the ready set for the given queue (or the given unqueued job).
+   */
+  private fun refreshReadyState(queueKey: String?, jobId: String) {
+    clearReadyState(queueKey, jobId)
+
+    val head: JobSpec? = if (queueKey != null) {
+      jobsByQueue[queueKey]?.firstOrNull()
+    } else {
+      jobsById[jobId]
+    }
+
+    if (head == null || head.isRunning || !dependenciesByJobId[head.id].isNullOrEmpty()) {
+      return
+    }
+
+    readyJobs += head
+
+    if (queueKey != null) {
+      readyJobsByQueue[queueKey] = head
+    } else {
+      readyJobsWithoutQueue[jobId] = head
+    }
   }
 
   /**
@@ -112,7 +112,17 @@ class PushProcessMessageJobV2 private constructor(
       return QUEUE_PREFIX + recipientId.toQueueKey()
     }
 
-    fun processOrDefer(messageProcessor: MessageContentProcessorV2, result: MessageDecryptor.Result.Success, localReceiveMetric: SignalLocalMetrics.MessageReceive): PushProcessMessageJobV2? {
+    /**
+     * @param deferredQueues When processing a batch of envelopes before any of the resulting jobs have been enqueued, the set of queues that
+     *                       already have a deferred job earlier in the batch. Any later envelope for one of these queues will also be deferred
+     *                       to preserve ordering, and this method will add to the set whenever it defers.
+     */
+    fun processOrDefer(
+      messageProcessor: MessageContentProcessorV2,
+      result: MessageDecryptor.Result.Success,
+      localReceiveMetric: SignalLocalMetrics.MessageReceive,
+      deferredQueues: MutableSet<String>? = null
+    ): PushProcessMessageJobV2? {
       val queueName: String
 
       val groupContext = GroupUtil.getGroupContextIfPresent(result.content)
@@ -136,7 +146,11 @@ class PushProcessMessageJobV2 private constructor(
         queueName = getQueueName(RecipientId.from(result.metadata.sourceServiceId))
       }
 
-      return if (requireNetwork || !isQueueEmpty(queueName = queueName, isGroup = groupId != null)) {
+      val deferredEarlierInBatch = deferredQueues?.contains(queueName) == true
+
+      return if (requireNetwork || deferredEarlierInBatch || !isQueueEmpty(queueName = queueName, isGroup = groupId != null)) {
+        deferredQueues?.add(queueName)
+
         val builder = Parameters.Builder()
           .setMaxAttempts(Parameters.UNLIMITED)
           .addConstraint(ChangeNumberConstraint.KEY)
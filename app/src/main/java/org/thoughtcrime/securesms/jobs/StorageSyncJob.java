@@ -4,6 +4,7 @@ import android.content.Context;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.annimon.stream.Stream;
 
@@ -62,6 +63,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -423,13 +425,37 @@ public class StorageSyncJob extends BaseJob {
                                  SignalDatabase.unknownStorageIds().getAllUnknownIds());
   }
 
-  private static @NonNull List<SignalStorageRecord> buildLocalStorageRecords(@NonNull Context context, @NonNull Recipient self, @NonNull Collection<StorageId> ids) {
+  /**
+   * Materializes the local records for the provided IDs. Records are looked up in bulk rather than one query per ID, since a sync can easily
+   * cover thousands of them.
+   */
+  @VisibleForTesting
+  static @NonNull List<SignalStorageRecord> buildLocalStorageRecords(@NonNull Context context, @NonNull Recipient self, @NonNull Collection<StorageId> ids) {
     if (ids.isEmpty()) {
       return Collections.emptyList();
     }
 
-    RecipientTable        recipientTable    = SignalDatabase.recipients();
-    UnknownStorageIdTable storageIdDatabase = SignalDatabase.unknownStorageIds();
+    List<StorageId> recipientIds = new ArrayList<>(ids.size());
+    List<StorageId> unknownIds   = new ArrayList<>();
+
+    for (StorageId id : ids) {
+      switch (id.getType()) {
+        case ManifestRecord.Identifier.Type.CONTACT_VALUE:
+        case ManifestRecord.Identifier.Type.GROUPV1_VALUE:
+        case ManifestRecord.Identifier.Type.GROUPV2_VALUE:
+        case ManifestRecord.Identifier.Type.STORY_DISTRIBUTION_LIST_VALUE:
+          recipientIds.add(id);
+          break;
+        case ManifestRecord.Identifier.Type.ACCOUNT_VALUE:
+          break;
+        default:
+          unknownIds.add(id);
+          break;
+      }
+    }
+
+    Map<StorageId, RecipientRecord>     recipientRecords = SignalDatabase.recipients().getByStorageIds(recipientIds);
+    Map<StorageId, SignalStorageRecord> unknownRecords   = SignalDatabase.unknownStorageIds().getByIds(unknownIds);
 
     List<SignalStorageRecord> records = new ArrayList<>(ids.size());
 
@@ -438,7 +464,7 @@ public class StorageSyncJob extends BaseJob {
         case ManifestRecord.Identifier.Type.CONTACT_VALUE:
         case ManifestRecord.Identifier.Type.GROUPV1_VALUE:
         case ManifestRecord.Identifier.Type.GROUPV2_VALUE:
-          RecipientRecord settings = recipientTable.getByStorageId(id.getRaw());
+          RecipientRecord settings = recipientRecords.get(id);
           if (settings != null) {
             if (settings.getRecipientType() == RecipientTable.RecipientType.GV2 && settings.getSyncExtras().getGroupMasterKey() == null) {
               throw new MissingGv2MasterKeyError();
@@ -456,7 +482,7 @@ public class StorageSyncJob extends BaseJob {
           records.add(StorageSyncHelper.buildAccountRecord(context, self));
           break;
         case ManifestRecord.Identifier.Type.STORY_DISTRIBUTION_LIST_VALUE:
-          RecipientRecord record = recipientTable.getByStorageId(id.getRaw());
+          RecipientRecord record = recipientRecords.get(id);
           if (record != null) {
             if (record.getDistributionListId() != null) {
               records.add(StorageSyncModels.localToRemoteRecord(record));
@@ -468,7 +494,7 @@ public class StorageSyncJob extends BaseJob {
           }
           break;
         default:
-          SignalStorageRecord unknown = storageIdDatabase.getById(id.getRaw());
+          SignalStorageRecord unknown = unknownRecords.get(id);
           if (unknown != null) {
             records.add(unknown);
           } else {
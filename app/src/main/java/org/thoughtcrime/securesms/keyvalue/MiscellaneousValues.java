@@ -39,6 +39,7 @@ public final class MiscellaneousValues extends SignalStoreValues {
   private static final String LAST_CONSISTENCY_CHECK_TIME    = "misc.last_consistency_check_time";
   private static final String SERVER_TIME_OFFSET             = "misc.server_time_offset";
   private static final String LAST_SERVER_TIME_OFFSET_UPDATE = "misc.last_server_time_offset_update";
+  private static final String LAST_FULL_CONTACT_SYNC_TIME    = "misc.last_full_contact_sync_time";
 
   MiscellaneousValues(@NonNull KeyValueStore store) {
     super(store);
@@ -331,4 +332,15 @@ public final class MiscellaneousValues extends SignalStoreValues {
   public long getLastKnownServerTimeOffsetUpdateTime() {
     return getLong(LAST_SERVER_TIME_OFFSET_UPDATE, 0);
   }
+
+  /**
+   * The last time we synced every system contact into the recipient table, as opposed to just the ones that changed.
+   */
+  public long getLastFullSystemContactSyncTime() {
+    return getLong(LAST_FULL_CONTACT_SYNC_TIME, 0);
+  }
+
+  public void setLastFullSystemContactSyncTime(long time) {
+    putLong(LAST_FULL_CONTACT_SYNC_TIME, time);
+  }
 }
@@ -0,0 +1,53 @@
+package org.thoughtcrime.securesms.logging
+
+import android.app.Application
+import org.thoughtcrime.securesms.database.LogDatabase
+import org.thoughtcrime.securesms.database.model.LogEntry
+import org.thoughtcrime.securesms.util.TextSecurePreferences
+
+/**
+ * Where [PersistentLogger] keeps logs, and where they're read back from when submitting a debug log.
+ *
+ * By default this is [LogDatabase]. Internal users can switch to [SegmentedLogStore], which takes effect the next time the app starts.
+ */
+interface LogStore {
+
+  fun insert(logs: List<LogEntry>, currentTime: Long)
+
+  fun getAllBeforeTime(time: Long): LogDatabase.Reader
+
+  fun getRangeBeforeTime(start: Int, length: Int, time: Long): List<String>
+
+  fun getLogCountBeforeTime(time: Long): Int
+
+  fun trimToSize()
+
+  fun clearKeepLonger()
+
+  companion object {
+    @Volatile
+    private var instance: LogStore? = null
+
+    /**
+     * The store is picked once per process, since the logger keeps writing to whichever one it started with. The one that isn't picked is
+     * deleted, so that switching doesn't leave old logs behind that would never be trimmed.
+     */
+    @JvmStatic
+    fun getInstance(application: Application): LogStore {
+      if (instance == null) {
+        synchronized(LogStore::class.java) {
+          if (instance == null) {
+            instance = if (TextSecurePreferences.isSegmentedLogStoreEnabled(application)) {
+              LogDatabase.deleteIfUnused(application)
+              SegmentedLogStore.getInstance(application)
+            } else {
+              SegmentedLogStore.deleteIfUnused(application)
+              LogDatabase.getInstance(application)
+            }
+          }
+        }
+      }
+      return instance!!
+    }
+  }
+}
@@ -5,7 +5,6 @@ import android.os.Looper
 import org.signal.core.util.logging.Log
 import org.signal.core.util.logging.Scrubber
 import org.thoughtcrime.securesms.BuildConfig
-import org.thoughtcrime.securesms.database.LogDatabase
 import org.thoughtcrime.securesms.database.model.LogEntry
 import org.thoughtcrime.securesms.logging.PersistentLogger.LogRequest
 import org.thoughtcrime.securesms.logging.PersistentLogger.WriteThread
@@ -16,14 +15,14 @@ import java.util.Date
 import java.util.Locale
 
 /**
- * A logger that will persist log entries in [LogDatabase].
+ * A logger that will persist log entries in a [LogStore].
  *
  * We log everywhere, and we never want it to slow down the app, so performance is critical here.
  * This class takes special care to do as little as possible on the main thread, instead letting the background thread do the work.
  *
  * The process looks something like:
  * - Main thread creates a [LogRequest] object and puts it in a queue
- * - The [WriteThread] constantly pulls from that queue, formats the logs, and writes them to the database.
+ * - The [WriteThread] constantly pulls from that queue, formats the logs, and writes them to the store.
  */
 class PersistentLogger(
   application: Application
@@ -38,11 +37,11 @@ class PersistentLogger(
   }
 
   private val logEntries = LogRequests()
-  private val logDatabase = LogDatabase.getInstance(application)
+  private val logStore = LogStore.getInstance(application)
   private val cachedThreadString: ThreadLocal<String> = ThreadLocal()
 
   init {
-    WriteThread(logEntries, logDatabase).apply {
+    WriteThread(logEntries, logStore).apply {
       priority = Thread.MIN_PRIORITY
     }.start()
   }
@@ -103,7 +102,7 @@ class PersistentLogger(
 
   private class WriteThread(
     private val requests: LogRequests,
-    private val db: LogDatabase
+    private val store: LogStore
   ) : Thread("signal-logger") {
 
     private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US)
@@ -112,7 +111,7 @@ class PersistentLogger(
     override fun run() {
       while (true) {
         requests.blockForRequests(buffer)
-        db.insert(buffer.flatMap { requestToEntries(it) }, System.currentTimeMillis())
+        store.insert(buffer.flatMap { requestToEntries(it) }, System.currentTimeMillis())
         buffer.clear()
         requests.notifyFlushed()
       }
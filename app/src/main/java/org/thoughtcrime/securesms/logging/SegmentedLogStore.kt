@@ -0,0 +1,684 @@
+package org.thoughtcrime.securesms.logging
+
+import android.app.Application
+import androidx.annotation.VisibleForTesting
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.LogDatabase
+import org.thoughtcrime.securesms.database.model.LogEntry
+import org.thoughtcrime.securesms.util.ByteUnit
+import java.io.BufferedInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.security.GeneralSecurityException
+import java.security.SecureRandom
+import java.util.concurrent.TimeUnit
+import javax.crypto.Cipher
+import javax.crypto.spec.GCMParameterSpec
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * A [LogStore] that appends logs to encrypted segment files rather than inserting them into a database.
+ *
+ * Each batch of logs is a single append to the newest segment, and once a segment reaches its size it's closed and a new one started. Trimming
+ * just deletes the oldest segments, so neither writing nor trimming needs any queries. The trade-off is that logs expire a segment at a time
+ * rather than a line at a time.
+ *
+ * Lines that should be kept longer go to their own segments, so they can be expired separately. A batch is split into runs of consecutive lines
+ * of the same kind, and each run is stamped with a sequence number, which is what readers use to interleave the two back into the order they
+ * were written.
+ *
+ * A run is written as a record of:
+ *
+ * [int length][long sequence][12 byte IV][length bytes of ciphertext]
+ *
+ * where the ciphertext is the run's lines encrypted with AES-GCM, using the sequence as associated data. A record that was cut short, say
+ * because the process died mid-write, ends that segment for readers, and we never append to a segment from a previous process.
+ */
+class SegmentedLogStore @VisibleForTesting constructor(
+  private val directory: File,
+  secret: ByteArray,
+  private val maxSegmentSize: Long,
+  private val maxTotalSize: Long
+) : LogStore {
+
+  companion object {
+    private val TAG = Log.tag(SegmentedLogStore::class.java)
+
+    private const val DIRECTORY_NAME = "log-segments"
+    private const val SEGMENT_SUFFIX = ".seg"
+
+    private val SEGMENT_SIZE = ByteUnit.MEGABYTES.toBytes(1)
+    private val MAX_TOTAL_SIZE = ByteUnit.MEGABYTES.toBytes(20)
+    private val DEFAULT_LIFESPAN = TimeUnit.DAYS.toMillis(3)
+    private val LONGER_LIFESPAN = TimeUnit.DAYS.toMillis(21)
+
+    private const val IV_SIZE = 12
+    private const val HEADER_SIZE = 4 + 8 + IV_SIZE
+    private const val TAG_SIZE_BITS = 128
+
+    @Volatile
+    private var instance: SegmentedLogStore? = null
+
+    @JvmStatic
+    fun getInstance(application: Application): SegmentedLogStore {
+      if (instance == null) {
+        synchronized(SegmentedLogStore::class.java) {
+          if (instance == null) {
+            instance = SegmentedLogStore(getDirectory(application), LogSecretProvider.getOrCreateAttachmentSecret(application), SEGMENT_SIZE, MAX_TOTAL_SIZE)
+          }
+        }
+      }
+      return instance!!
+    }
+
+    /**
+     * Deletes any segments if the store hasn't been opened in this process, for when logs are being kept in a different [LogStore].
+     */
+    @JvmStatic
+    fun deleteIfUnused(application: Application) {
+      synchronized(SegmentedLogStore::class.java) {
+        val directory = getDirectory(application)
+        if (instance == null && directory.exists()) {
+          Log.i(TAG, "Deleting unused log segments.")
+          directory.deleteRecursively()
+        }
+      }
+    }
+
+    private fun getDirectory(application: Application): File {
+      return File(application.filesDir, DIRECTORY_NAME)
+    }
+
+    private fun sequenceBytes(sequence: Long): ByteArray {
+      return ByteBuffer.allocate(8).putLong(sequence).array()
+    }
+
+    private fun skipFully(input: DataInputStream, count: Long) {
+      var remaining = count
+
+      while (remaining > 0) {
+        val skipped = input.skip(remaining)
+        if (skipped <= 0) {
+          throw EOFException()
+        }
+        remaining -= skipped
+      }
+    }
+  }
+
+  private val lock = Object()
+  private val rangeLock = Object()
+
+  private val key = SecretKeySpec(secret, "AES")
+  private val random = SecureRandom()
+  private val regular = SegmentStream(File(directory, "regular"), DEFAULT_LIFESPAN)
+  private val keepLonger = SegmentStream(File(directory, "keep_longer"), LONGER_LIFESPAN)
+
+  private val plaintext = ReusableOutputStream()
+  private val plaintextWriter = DataOutputStream(plaintext)
+  private var record = ByteArray(0)
+  private var writeCipher: Cipher? = null
+
+  private var initialized = false
+  private var nextSequence = 0L
+  private var nextSegmentNumber = 0L
+  private var loggedWriteFailure = false
+
+  private var rangeReader: SegmentReader? = null
+  private var rangeTime = 0L
+  private var rangePosition = 0
+
+  override fun insert(logs: List<LogEntry>, currentTime: Long) {
+    synchronized(lock) {
+      initializeIfNeeded()
+
+      try {
+        var start = 0
+
+        while (start < logs.size) {
+          val isKeepLonger = logs[start].keepLonger
+          var end = start + 1
+
+          while (end < logs.size && logs[end].keepLonger == isKeepLonger) {
+            end++
+          }
+
+          write(if (isKeepLonger) keepLonger else regular, logs, start, end)
+          start = end
+        }
+
+        loggedWriteFailure = false
+      } catch (e: IOException) {
+        onWriteFailure(e)
+      } catch (e: GeneralSecurityException) {
+        onWriteFailure(e)
+      }
+    }
+  }
+
+  override fun getAllBeforeTime(time: Long): LogDatabase.Reader {
+    return openReader(time)
+  }
+
+  /**
+   * The debug log screen pages through the logs in order, so rather than reading from the start for every page, we keep the reader from the
+   * previous page around and continue from where it left off when we can.
+   */
+  override fun getRangeBeforeTime(start: Int, length: Int, time: Long): List<String> {
+    synchronized(rangeLock) {
+      var reader = rangeReader
+
+      if (reader == null || rangeTime != time || rangePosition > start) {
+        reader?.close()
+        reader = openReader(time)
+
+        rangeReader = reader
+        rangeTime = time
+        rangePosition = 0
+      }
+
+      rangePosition += reader.skip(start - rangePosition)
+
+      val lines = ArrayList<String>(length)
+      while (lines.size < length && reader.hasNext()) {
+        lines += reader.next()
+        rangePosition++
+      }
+
+      return lines
+    }
+  }
+
+  override fun getLogCountBeforeTime(time: Long): Int {
+    return openReader(time).use { it.skip(Int.MAX_VALUE) }
+  }
+
+  override fun trimToSize() {
+    closeRangeReader()
+
+    synchronized(lock) {
+      initializeIfNeeded()
+      expire(System.currentTimeMillis())
+    }
+  }
+
+  override fun clearKeepLonger() {
+    closeRangeReader()
+
+    synchronized(lock) {
+      initializeIfNeeded()
+      keepLonger.dropOldest(Long.MAX_VALUE)
+    }
+  }
+
+  private fun openReader(time: Long): SegmentReader {
+    synchronized(lock) {
+      initializeIfNeeded()
+      return SegmentReader(regular.snapshot(), keepLonger.snapshot(), key, time)
+    }
+  }
+
+  private fun closeRangeReader() {
+    synchronized(rangeLock) {
+      rangeReader?.close()
+      rangeReader = null
+    }
+  }
+
+  private fun initializeIfNeeded() {
+    if (initialized) {
+      return
+    }
+
+    regular.load()
+    keepLonger.load()
+
+    nextSegmentNumber = maxOf(regular.lastSegmentNumber(), keepLonger.lastSegmentNumber()) + 1
+    nextSequence = maxOf(regular.lastSequence(), keepLonger.lastSequence()) + 1
+    initialized = true
+  }
+
+  /**
+   * Writes the lines from [start] (inclusive) to [end] (exclusive) as a single record.
+   */
+  private fun write(stream: SegmentStream, logs: List<LogEntry>, start: Int, end: Int) {
+    plaintext.reset()
+    plaintextWriter.writeInt(end - start)
+
+    for (i in start until end) {
+      val body = logs[i].body.toByteArray(Charsets.UTF_8)
+      plaintextWriter.writeLong(logs[i].createdAt)
+      plaintextWriter.writeInt(body.size)
+      plaintextWriter.write(body)
+    }
+
+    val sequence = nextSequence++
+    val iv = ByteArray(IV_SIZE).also { random.nextBytes(it) }
+    val cipher = writeCipher ?: Cipher.getInstance("AES/GCM/NoPadding").also { writeCipher = it }
+
+    cipher.init(Cipher.ENCRYPT_MODE, key, GCMParameterSpec(TAG_SIZE_BITS, iv))
+    cipher.updateAAD(sequenceBytes(sequence))
+
+    val maxRecordSize = HEADER_SIZE + cipher.getOutputSize(plaintext.size())
+    if (record.size < maxRecordSize) {
+      record = ByteArray(maxRecordSize)
+    }
+
+    val ciphertextLength = cipher.doFinal(plaintext.buffer, 0, plaintext.size(), record, HEADER_SIZE)
+
+    ByteBuffer.wrap(record, 0, HEADER_SIZE)
+      .putInt(ciphertextLength)
+      .putLong(sequence)
+      .put(iv)
+
+    stream.append(record, HEADER_SIZE + ciphertextLength)
+  }
+
+  /**
+   * Logging from here would end up right back here, so we only do it once per run of failures.
+   */
+  private fun onWriteFailure(e: Exception) {
+    regular.closeCurrent()
+    keepLonger.closeCurrent()
+
+    if (!loggedWriteFailure) {
+      loggedWriteFailure = true
+      Log.w(TAG, "Failed to write logs!", e)
+    }
+  }
+
+  private fun expire(currentTime: Long) {
+    regular.dropOlderThan(currentTime - regular.lifespan)
+    keepLonger.dropOlderThan(currentTime - keepLonger.lifespan)
+
+    var excess = regular.size() + keepLonger.size() - maxTotalSize
+    if (excess > 0) {
+      excess -= regular.dropOldest(excess)
+    }
+    if (excess > 0) {
+      keepLonger.dropOldest(excess)
+    }
+  }
+
+  private class Segment(val number: Long, val file: File)
+
+  private class SegmentSnapshot(val file: File, val length: Long)
+
+  /**
+   * The segments for one kind of log, oldest first. Only ever touched while holding [lock].
+   */
+  private inner class SegmentStream(private val directory: File, val lifespan: Long) {
+    private val segments: MutableList<Segment> = mutableListOf()
+
+    private var output: FileOutputStream? = null
+    private var channel: FileChannel? = null
+    private var currentSize = 0L
+
+    fun load() {
+      directory.mkdirs()
+
+      val files = directory.listFiles() ?: emptyArray()
+      for (file in files) {
+        val number = file.name.removeSuffix(SEGMENT_SUFFIX).toLongOrNull()
+
+        if (number != null && file.name.endsWith(SEGMENT_SUFFIX)) {
+          segments += Segment(number, file)
+        } else {
+          file.delete()
+        }
+      }
+
+      segments.sortBy { it.number }
+    }
+
+    fun lastSegmentNumber(): Long {
+      return segments.lastOrNull()?.number ?: -1
+    }
+
+    /**
+     * Only has to read the record headers, which are in the clear, so it's cheap enough to do on startup.
+     */
+    fun lastSequence(): Long {
+      for (segment in segments.asReversed()) {
+        var sequence = -1L
+
+        try {
+          DataInputStream(BufferedInputStream(FileInputStream(segment.file))).use { input ->
+            var remaining = segment.file.length()
+
+            while (remaining >= HEADER_SIZE) {
+              val length = input.readInt()
+              val recordSequence = input.readLong()
+
+              remaining -= HEADER_SIZE
+              if (length < 0 || length > remaining) {
+                break
+              }
+
+              skipFully(input, IV_SIZE + length.toLong())
+              remaining -= length
+
+              sequence = recordSequence
+            }
+          }
+        } catch (e: IOException) {
+          Log.w(TAG, "Failed to read segment ${segment.number}", e)
+        }
+
+        if (sequence >= 0) {
+          return sequence
+        }
+      }
+
+      return -1
+    }
+
+    fun append(bytes: ByteArray, length: Int) {
+      val channel = channel ?: openNext()
+
+      val buffer = ByteBuffer.wrap(bytes, 0, length)
+      while (buffer.hasRemaining()) {
+        channel.write(buffer)
+      }
+
+      currentSize += length
+
+      if (currentSize >= maxSegmentSize) {
+        closeCurrent()
+        expire(System.currentTimeMillis())
+      }
+    }
+
+    fun closeCurrent() {
+      try {
+        output?.close()
+      } catch (e: IOException) {
+        Log.w(TAG, "Failed to close segment", e)
+      }
+
+      output = null
+      channel = null
+      currentSize = 0
+    }
+
+    fun snapshot(): List<SegmentSnapshot> {
+      return segments.map { SegmentSnapshot(it.file, it.file.length()) }
+    }
+
+    fun size(): Long {
+      return segments.sumOf { it.file.length() }
+    }
+
+    fun dropOlderThan(time: Long) {
+      while (segments.isNotEmpty() && segments.first().file.lastModified() < time) {
+        drop()
+      }
+    }
+
+    /**
+     * Drops the oldest segments until at least [bytes] have been freed, or there's nothing left.
+     *
+     * @return The number of bytes freed.
+     */
+    fun dropOldest(bytes: Long): Long {
+      var dropped = 0L
+
+      while (dropped < bytes && segments.isNotEmpty()) {
+        dropped += drop()
+      }
+
+      return dropped
+    }
+
+    private fun drop(): Long {
+      val segment = segments.removeAt(0)
+      val length = segment.file.length()
+
+      if (segments.isEmpty()) {
+        closeCurrent()
+      }
+
+      segment.file.delete()
+      return length
+    }
+
+    private fun openNext(): FileChannel {
+      val number = nextSegmentNumber++
+      val segment = Segment(number, File(directory, "$number$SEGMENT_SUFFIX"))
+      val output = FileOutputStream(segment.file, true)
+
+      segments += segment
+
+      this.output = output
+      this.channel = output.channel
+      this.currentSize = 0
+
+      return output.channel
+    }
+  }
+
+  /**
+   * Reads the records from both kinds of segments, merged back into the order they were written, and yields the lines from before [beforeTime].
+   * Segments are opened as they're reached, so a segment that's trimmed before then is skipped.
+   */
+  private class SegmentReader(
+    regular: List<SegmentSnapshot>,
+    keepLonger: List<SegmentSnapshot>,
+    private val key: SecretKeySpec,
+    private val beforeTime: Long
+  ) : LogDatabase.Reader {
+
+    private val sources = listOf(RecordSource(regular), RecordSource(keepLonger))
+    private val cipher = Cipher.getInstance("AES/GCM/NoPadding")
+    private val pending = ArrayDeque<String>()
+
+    override fun hasNext(): Boolean {
+      while (pending.isEmpty()) {
+        val plaintext = readNextRecord() ?: return false
+
+        forEachLine(plaintext) { offset, length ->
+          pending.addLast(String(plaintext, offset, length, Charsets.UTF_8))
+        }
+      }
+
+      return true
+    }
+
+    override fun next(): String {
+      if (!hasNext()) {
+        throw NoSuchElementException()
+      }
+
+      return pending.removeFirst()
+    }
+
+    /**
+     * Moves past up to [count] lines without building strings for them.
+     *
+     * @return The number of lines skipped.
+     */
+    fun skip(count: Int): Int {
+      var skipped = 0
+
+      while (skipped < count && pending.isNotEmpty()) {
+        pending.removeFirst()
+        skipped++
+      }
+
+      while (skipped < count) {
+        val plaintext = readNextRecord() ?: break
+
+        forEachLine(plaintext) { offset, length ->
+          if (skipped < count) {
+            skipped++
+          } else {
+            pending.addLast(String(plaintext, offset, length, Charsets.UTF_8))
+          }
+        }
+      }
+
+      return skipped
+    }
+
+    override fun close() {
+      sources.forEach { it.close() }
+    }
+
+    private fun readNextRecord(): ByteArray? {
+      while (true) {
+        val source = sources.filter { it.peek() }.minByOrNull { it.sequence } ?: return null
+        val plaintext = source.read(cipher, key)
+
+        if (plaintext != null) {
+          return plaintext
+        }
+      }
+    }
+
+    private inline fun forEachLine(plaintext: ByteArray, onLine: (offset: Int, length: Int) -> Unit) {
+      val buffer = ByteBuffer.wrap(plaintext)
+      val count = buffer.int
+
+      for (i in 0 until count) {
+        val createdAt = buffer.long
+        val length = buffer.int
+        val offset = buffer.position()
+
+        buffer.position(offset + length)
+
+        if (createdAt < beforeTime) {
+          onLine(offset, length)
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the records from a list of segments in order, one header at a time, so that the next record's sequence can be compared against other
+   * sources before deciding which to decrypt.
+   */
+  private class RecordSource(private val segments: List<SegmentSnapshot>) {
+    private var index = -1
+    private var input: DataInputStream? = null
+    private var remaining = 0L
+
+    private var peeked = false
+    private var length = 0
+    private val iv = ByteArray(IV_SIZE)
+
+    var sequence = 0L
+      private set
+
+    fun peek(): Boolean {
+      while (!peeked) {
+        val input = input
+
+        if (input == null || remaining < HEADER_SIZE) {
+          if (!openNext()) {
+            return false
+          }
+          continue
+        }
+
+        try {
+          length = input.readInt()
+          sequence = input.readLong()
+          input.readFully(iv)
+          remaining -= HEADER_SIZE
+
+          if (length < 0 || length > remaining) {
+            closeCurrent()
+          } else {
+            peeked = true
+          }
+        } catch (e: IOException) {
+          Log.w(TAG, "Failed to read record header", e)
+          closeCurrent()
+        }
+      }
+
+      return true
+    }
+
+    /**
+     * Reads and decrypts the record that was peeked at.
+     *
+     * @return The plaintext, or null if the record couldn't be read or decrypted, in which case it's skipped.
+     */
+    fun read(cipher: Cipher, key: SecretKeySpec): ByteArray? {
+      check(peeked)
+      peeked = false
+
+      val ciphertext = ByteArray(length)
+
+      try {
+        input!!.readFully(ciphertext)
+        remaining -= length
+      } catch (e: IOException) {
+        Log.w(TAG, "Failed to read record", e)
+        closeCurrent()
+        return null
+      }
+
+      return try {
+        cipher.init(Cipher.DECRYPT_MODE, key, GCMParameterSpec(TAG_SIZE_BITS, iv))
+        cipher.updateAAD(sequenceBytes(sequence))
+        cipher.doFinal(ciphertext)
+      } catch (e: GeneralSecurityException) {
+        Log.w(TAG, "Failed to decrypt record", e)
+        null
+      }
+    }
+
+    fun close() {
+      closeCurrent()
+      index = segments.size
+    }
+
+    private fun openNext(): Boolean {
+      closeCurrent()
+
+      while (++index < segments.size) {
+        val segment = segments[index]
+
+        try {
+          input = DataInputStream(BufferedInputStream(FileInputStream(segment.file)))
+          remaining = segment.length
+          return true
+        } catch (e: IOException) {
+          Log.w(TAG, "Segment is no longer available, skipping.")
+        }
+      }
+
+      return false
+    }
+
+    private fun closeCurrent() {
+      try {
+        input?.close()
+      } catch (e: IOException) {
+        // Nothing to do
+      }
+
+      input = null
+      remaining = 0
+      peeked = false
+    }
+  }
+
+  /**
+   * A [ByteArrayOutputStream] that lets us read its contents without copying them.
+   */
+  private class ReusableOutputStream : ByteArrayOutputStream() {
+    val buffer: ByteArray
+      get() = buf
+  }
+}
@@ -21,6 +21,7 @@ import org.thoughtcrime.securesms.emoji.EmojiFiles;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.net.StandardUserAgentInterceptor;
 import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.service.webrtc.AndroidTelecomUtil;
 import org.thoughtcrime.securesms.util.AppSignatureUtil;
 import org.thoughtcrime.securesms.util.ByteUnit;
@@ -67,6 +68,7 @@ public class LogSectionSystemInfo implements LogSection {
     builder.append("Memory            : ").append(getMemoryUsage()).append("\n");
     builder.append("Memclass          : ").append(getMemoryClass(context)).append("\n");
     builder.append("MemInfo           : ").append(getMemoryInfo(context)).append("\n");
+    builder.append("RecipientIdCache  : ").append(RecipientId.getCacheStats()).append("\n");
     builder.append("OS Host           : ").append(Build.HOST).append("\n");
     builder.append("RecipientId       : ").append(SignalStore.registrationValues().isRegistrationComplete() ? Recipient.self().getId() : "N/A").append("\n");
     builder.append("ACI               : ").append(getCensoredAci(context)).append("\n");
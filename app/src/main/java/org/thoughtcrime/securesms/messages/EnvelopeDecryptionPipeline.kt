@@ -0,0 +1,125 @@
+package org.thoughtcrime.securesms.messages
+
+import androidx.annotation.VisibleForTesting
+import org.signal.core.util.ThreadUtil
+import org.signal.core.util.concurrent.SignalExecutors
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.crypto.ReentrantSessionLock
+import org.thoughtcrime.securesms.messages.protocol.BufferedProtocolStore
+import org.whispersystems.signalservice.api.SignalSessionLock
+import org.whispersystems.signalservice.api.crypto.SignalServiceCipherResult
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
+import org.whispersystems.signalservice.api.push.ServiceId
+import org.whispersystems.signalservice.internal.push.SignalServiceProtos.Envelope
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import kotlin.math.abs
+import kotlin.math.min
+
+/**
+ * Decrypts the envelopes of a websocket batch ahead of time, in parallel, so that in-order processing only has to handle the results.
+ *
+ * Sessions are per-sender, so envelopes from different senders can be decrypted independently. We can only shard envelopes whose sender
+ * is known before decryption and that can't touch shared state like prekeys, which in practice means unsealed [Envelope.Type.CIPHERTEXT]
+ * envelopes. Each shard gets its own [BufferedProtocolStore] view, and once every shard finishes, those views are merged into the batch's
+ * store. Everything else (sealed sender, prekey messages, and anything that fails to decrypt here) is decrypted in order afterwards by the
+ * caller, against the merged store.
+ *
+ * Only the cryptography happens here. All database side effects of decryption still happen on the calling thread, in order.
+ */
+object EnvelopeDecryptionPipeline {
+
+  private val TAG = Log.tag(EnvelopeDecryptionPipeline::class.java)
+
+  private val MAX_SHARDS = min(4, Runtime.getRuntime().availableProcessors()).coerceAtLeast(1)
+
+  private val executor: ExecutorService = SignalExecutors.newCachedBoundedExecutor("signal-decrypt", ThreadUtil.PRIORITY_IMPORTANT_BACKGROUND_THREAD, 1, MAX_SHARDS, 30)
+
+  /**
+   * The caller holds [ReentrantSessionLock] for the entire duration of the batch, and every shard has its own private store, so the workers
+   * don't need to (and can't, since the lock is held by another thread) take it themselves.
+   */
+  private val SHARD_SESSION_LOCK = SignalSessionLock { SignalSessionLock.Lock { } }
+
+  /**
+   * Decrypts what it can of [batch] ahead of time and merges the resulting protocol state into [bufferedStore].
+   *
+   * Must be called while holding [ReentrantSessionLock], and the results must be processed in a way that commits the whole batch atomically,
+   * since [bufferedStore] will contain state for every envelope decrypted here.
+   *
+   * @return The decrypted results, keyed by the envelope's index in [batch]. Envelopes not present must be decrypted normally.
+   */
+  fun decryptAhead(bufferedStore: BufferedProtocolStore, batch: List<EnvelopeResponse>): Map<Int, SignalServiceCipherResult> {
+    return decryptAhead(bufferedStore, batch, MAX_SHARDS, ::decryptShard)
+  }
+
+  @VisibleForTesting
+  internal fun decryptAhead(
+    bufferedStore: BufferedProtocolStore,
+    batch: List<EnvelopeResponse>,
+    maxShards: Int,
+    shardDecryptor: (List<EnvelopeResponse>, List<Int>) -> ShardResult
+  ): Map<Int, SignalServiceCipherResult> {
+    check(ReentrantSessionLock.INSTANCE.isHeldByCurrentThread) { "Must hold the session lock!" }
+
+    val shards: Map<Int, List<Int>> = batch.indices
+      .filter { batch[it].envelope.canDecryptAhead() }
+      .groupBy { abs(batch[it].envelope.sourceServiceId.hashCode() % maxShards) }
+
+    if (shards.size < 2) {
+      return emptyMap()
+    }
+
+    val startTime = System.currentTimeMillis()
+
+    val futures: List<Future<ShardResult>> = shards.values.map { indices ->
+      executor.submit<ShardResult> { shardDecryptor(batch, indices) }
+    }
+
+    val results: MutableMap<Int, SignalServiceCipherResult> = HashMap()
+
+    for (future in futures) {
+      try {
+        val shardResult = future.get()
+        bufferedStore.absorb(shardResult.store)
+        results += shardResult.results
+      } catch (e: ExecutionException) {
+        Log.w(TAG, "A shard failed! Its envelopes will be decrypted in order.", e)
+      } catch (e: InterruptedException) {
+        throw AssertionError(e)
+      }
+    }
+
+    Log.d(TAG, "Decrypted ${results.size} of ${batch.size} envelopes ahead of time across ${shards.size} shards in ${System.currentTimeMillis() - startTime} ms")
+
+    return results
+  }
+
+  @VisibleForTesting
+  internal fun decryptShard(batch: List<EnvelopeResponse>, indices: List<Int>): ShardResult {
+    val store = BufferedProtocolStore.create()
+    val results: MutableMap<Int, SignalServiceCipherResult> = HashMap()
+
+    for (index in indices) {
+      val response = batch[index]
+      val result = MessageDecryptor.decryptCiphertextOnly(store, response.envelope, response.serverDeliveredTimestamp, SHARD_SESSION_LOCK)
+
+      if (result != null) {
+        results[index] = result
+      }
+    }
+
+    return ShardResult(store, results)
+  }
+
+  private fun Envelope.canDecryptAhead(): Boolean {
+    return type == Envelope.Type.CIPHERTEXT && hasSourceServiceId() && ServiceId.parseOrNull(sourceServiceId) != null
+  }
+
+  @VisibleForTesting
+  internal class ShardResult(
+    val store: BufferedProtocolStore,
+    val results: Map<Int, SignalServiceCipherResult>
+  )
+}
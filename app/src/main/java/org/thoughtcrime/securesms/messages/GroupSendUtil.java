@@ -376,25 +376,34 @@ public final class GroupSendUtil {
       final MessageSendLogTables messageLogDatabase  = SignalDatabase.messageLog();
       final AtomicLong           entryId             = new AtomicLong(-1);
       final boolean              includeInMessageLog = sendOperation.shouldIncludeInMessageLog();
+      final LegacySendTimings    timings             = new LegacySendTimings();
 
-      List<SendMessageResult> results = sendOperation.sendLegacy(messageSender, targets, legacyTargets, access, recipientUpdate, result -> {
-        if (!includeInMessageLog) {
-          return;
-        }
+      List<SendMessageResult> results = sendOperation.sendLegacy(messageSender, targets, legacyTargets, access, recipientUpdate, new PartialSendCompleteListener() {
+        @Override
+        public void onPartialSendComplete(SendMessageResult result) {
+          if (!includeInMessageLog) {
+            return;
+          }
 
-        synchronized (entryId) {
-          if (entryId.get() == -1) {
-            entryId.set(messageLogDatabase.insertIfPossible(recipients.requireRecipientId(result.getAddress()), sendOperation.getSentTimestamp(), result, sendOperation.getContentHint(), sendOperation.getRelatedMessageId(), sendOperation.isUrgent()));
-          } else {
-            entryId.set(messageLogDatabase.addRecipientToExistingEntryIfPossible(entryId.get(), recipients.requireRecipientId(result.getAddress()), sendOperation.getSentTimestamp(), result, sendOperation.getContentHint(), sendOperation.getRelatedMessageId(), sendOperation.isUrgent()));
+          synchronized (entryId) {
+            if (entryId.get() == -1) {
+              entryId.set(messageLogDatabase.insertIfPossible(recipients.requireRecipientId(result.getAddress()), sendOperation.getSentTimestamp(), result, sendOperation.getContentHint(), sendOperation.getRelatedMessageId(), sendOperation.isUrgent()));
+            } else {
+              entryId.set(messageLogDatabase.addRecipientToExistingEntryIfPossible(entryId.get(), recipients.requireRecipientId(result.getAddress()), sendOperation.getSentTimestamp(), result, sendOperation.getContentHint(), sendOperation.getRelatedMessageId(), sendOperation.isUrgent()));
+            }
           }
         }
+
+        @Override
+        public void onPartialSendTimings(SendMessageResult result, long encryptMs, long queueMs, long networkMs) {
+          timings.add(encryptMs, queueMs, networkMs);
+        }
       }, cancelationSignal);
 
       allResults.addAll(results);
 
       int successCount = (int) results.stream().filter(SendMessageResult::isSuccess).count();
-      Log.d(TAG, "Successfully sent using 1:1 to " + successCount + "/" + targets.size() + " legacy targets.");
+      Log.d(TAG, "Successfully sent using 1:1 to " + successCount + "/" + targets.size() + " legacy targets. " + timings);
     } else if (relatedMessageId != null) {
       SignalLocalMetrics.GroupMessageSend.onLegacyMessageSent(relatedMessageId.getId());
       SignalLocalMetrics.GroupMessageSend.onLegacySyncFinished(relatedMessageId.getId());
@@ -873,4 +882,30 @@ public final class GroupSendUtil {
       return map;
     }
   }
+
+  /**
+   * Totals the per-stage timings of the legacy sends that completed on the pipelined path, so a slow fan-out shows which stage it was slow in.
+   */
+  private static final class LegacySendTimings {
+    private int  count;
+    private long encryptMs;
+    private long queueMs;
+    private long networkMs;
+
+    synchronized void add(long encryptMs, long queueMs, long networkMs) {
+      this.count++;
+      this.encryptMs += encryptMs;
+      this.queueMs   += queueMs;
+      this.networkMs += networkMs;
+    }
+
+    @Override
+    public synchronized @NonNull String toString() {
+      if (count == 0) {
+        return "(No pipelined sends)";
+      }
+
+      return "(Pipelined sends: " + count + ", average encrypt: " + (encryptMs / count) + " ms, queue: " + (queueMs / count) + " ms, network: " + (networkMs / count) + " ms)";
+    }
+  }
 }
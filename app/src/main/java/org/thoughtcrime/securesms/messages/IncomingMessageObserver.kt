@@ -34,7 +34,10 @@ import org.thoughtcrime.securesms.messages.protocol.BufferedProtocolStore
 import org.thoughtcrime.securesms.notifications.NotificationChannels
 import org.thoughtcrime.securesms.recipients.RecipientId
 import org.thoughtcrime.securesms.util.AppForegroundObserver
+import org.thoughtcrime.securesms.util.FeatureFlags
 import org.thoughtcrime.securesms.util.SignalLocalMetrics
+import org.whispersystems.signalservice.api.crypto.SignalServiceCipherResult
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
 import org.whispersystems.signalservice.api.push.ServiceId
 import org.whispersystems.signalservice.api.util.UuidUtil
 import org.whispersystems.signalservice.api.websocket.WebSocketConnectionState
@@ -272,8 +275,19 @@ class IncomingMessageObserver(private val context: Application) {
     }
   }
 
+  /**
+   * @param deferredQueues See [PushProcessMessageJobV2.processOrDefer]. Only needed when the follow-up operations of earlier envelopes have not been
+   *                       run yet, such as when processing a batch in a single transaction.
+   * @param predecrypted The result of decrypting this envelope ahead of time, if available. See [EnvelopeDecryptionPipeline].
+   */
   @VisibleForTesting
-  fun processEnvelope(bufferedProtocolStore: BufferedProtocolStore, envelope: SignalServiceProtos.Envelope, serverDeliveredTimestamp: Long): List<FollowUpOperation>? {
+  fun processEnvelope(
+    bufferedProtocolStore: BufferedProtocolStore,
+    envelope: SignalServiceProtos.Envelope,
+    serverDeliveredTimestamp: Long,
+    deferredQueues: MutableSet<String>? = null,
+    predecrypted: SignalServiceCipherResult? = null
+  ): List<FollowUpOperation>? {
     return when (envelope.type.number) {
       SignalServiceProtos.Envelope.Type.RECEIPT_VALUE -> {
         processReceipt(envelope)
@@ -284,7 +298,7 @@ class IncomingMessageObserver(private val context: Application) {
       SignalServiceProtos.Envelope.Type.CIPHERTEXT_VALUE,
       SignalServiceProtos.Envelope.Type.UNIDENTIFIED_SENDER_VALUE,
       SignalServiceProtos.Envelope.Type.PLAINTEXT_CONTENT_VALUE -> {
-        processMessage(bufferedProtocolStore, envelope, serverDeliveredTimestamp)
+        processMessage(bufferedProtocolStore, envelope, serverDeliveredTimestamp, deferredQueues, predecrypted)
       }
 
       else -> {
@@ -294,15 +308,21 @@ class IncomingMessageObserver(private val context: Application) {
     }
   }
 
-  private fun processMessage(bufferedProtocolStore: BufferedProtocolStore, envelope: SignalServiceProtos.Envelope, serverDeliveredTimestamp: Long): List<FollowUpOperation> {
+  private fun processMessage(
+    bufferedProtocolStore: BufferedProtocolStore,
+    envelope: SignalServiceProtos.Envelope,
+    serverDeliveredTimestamp: Long,
+    deferredQueues: MutableSet<String>?,
+    predecrypted: SignalServiceCipherResult?
+  ): List<FollowUpOperation> {
     val localReceiveMetric = SignalLocalMetrics.MessageReceive.start()
-    val result = MessageDecryptor.decrypt(context, bufferedProtocolStore, envelope, serverDeliveredTimestamp)
+    val result = MessageDecryptor.decrypt(context, bufferedProtocolStore, envelope, serverDeliveredTimestamp, predecrypted)
     localReceiveMetric.onEnvelopeDecrypted()
 
     SignalLocalMetrics.MessageLatency.onMessageReceived(envelope.serverTimestamp, serverDeliveredTimestamp)
     when (result) {
       is MessageDecryptor.Result.Success -> {
-        val job = PushProcessMessageJobV2.processOrDefer(messageContentProcessor, result, localReceiveMetric)
+        val job = PushProcessMessageJobV2.processOrDefer(messageContentProcessor, result, localReceiveMetric, deferredQueues)
         if (job != null) {
           return result.followUpOperations + FollowUpOperation { job }
         }
@@ -329,6 +349,67 @@ class IncomingMessageObserver(private val context: Application) {
     return result.followUpOperations
   }
 
+  /**
+   * Processes a batch of envelopes read from the websocket. Envelopes are only handed to [ack] once everything they changed has been committed,
+   * so if processing fails part way through, nothing that was rolled back will have been acked.
+   */
+  @VisibleForTesting
+  fun processBatch(bufferedStore: BufferedProtocolStore, batch: List<EnvelopeResponse>, ack: (List<EnvelopeResponse>) -> Unit) {
+    GroupsV2ProcessingLock.acquireGroupProcessingLock().use {
+      ReentrantSessionLock.INSTANCE.acquire().use {
+        if (FeatureFlags.parallelMessageDecryption()) {
+          val predecrypted = EnvelopeDecryptionPipeline.decryptAhead(bufferedStore, batch)
+          processBatchInSingleTransaction(bufferedStore, batch, predecrypted)
+          ack(batch)
+        } else if (FeatureFlags.batchedMessageProcessing()) {
+          processBatchInSingleTransaction(bufferedStore, batch)
+          ack(batch)
+        } else {
+          batch.forEach {
+            SignalDatabase.runInTransaction {
+              val followUpOperations: List<FollowUpOperation>? = processEnvelope(bufferedStore, it.envelope, it.serverDeliveredTimestamp)
+              bufferedStore.flushToDisk()
+              if (followUpOperations != null) {
+                val jobs = followUpOperations.mapNotNull { it.run() }
+                ApplicationDependencies.getJobManager().addAll(jobs)
+              }
+            }
+            ack(listOf(it))
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Processes an entire batch of envelopes inside of a single transaction, flushing the protocol store and enqueueing the resulting jobs once at the
+   * end. Nothing in the batch should be acked until this returns, since a failure will roll back the whole batch.
+   *
+   * @param predecrypted Results of decrypting envelopes ahead of time, keyed by their index in [batch].
+   */
+  private fun processBatchInSingleTransaction(
+    bufferedStore: BufferedProtocolStore,
+    batch: List<EnvelopeResponse>,
+    predecrypted: Map<Int, SignalServiceCipherResult> = emptyMap()
+  ) {
+    val deferredQueues: MutableSet<String> = HashSet()
+
+    SignalDatabase.runInTransaction {
+      val followUpOperations: MutableList<FollowUpOperation> = mutableListOf()
+
+      batch.forEachIndexed { index, response ->
+        processEnvelope(bufferedStore, response.envelope, response.serverDeliveredTimestamp, deferredQueues, predecrypted[index])?.let { followUpOperations += it }
+      }
+
+      bufferedStore.flushToDisk()
+
+      val jobs = followUpOperations.mapNotNull { it.run() }
+      if (jobs.isNotEmpty()) {
+        ApplicationDependencies.getJobManager().addAll(jobs)
+      }
+    }
+  }
+
   private fun processReceipt(envelope: SignalServiceProtos.Envelope) {
     if (!UuidUtil.isUuid(envelope.sourceServiceId)) {
       Log.w(TAG, "Invalid envelope source UUID!")
@@ -401,21 +482,7 @@ class IncomingMessageObserver(private val context: Application) {
                 val bufferedStore = BufferedProtocolStore.create()
 
                 val startTime = System.currentTimeMillis()
-                GroupsV2ProcessingLock.acquireGroupProcessingLock().use {
-                  ReentrantSessionLock.INSTANCE.acquire().use {
-                    batch.forEach {
-                      SignalDatabase.runInTransaction {
-                        val followUpOperations: List<FollowUpOperation>? = processEnvelope(bufferedStore, it.envelope, it.serverDeliveredTimestamp)
-                        bufferedStore.flushToDisk()
-                        if (followUpOperations != null) {
-                          val jobs = followUpOperations.mapNotNull { it.run() }
-                          ApplicationDependencies.getJobManager().addAll(jobs)
-                        }
-                      }
-                      signalWebSocket.sendAck(it)
-                    }
-                  }
-                }
+                processBatch(bufferedStore, batch) { signalWebSocket.sendAcks(it) }
                 val duration = System.currentTimeMillis() - startTime
                 val timePerMessage: Float = duration / batch.size.toFloat()
                 Log.d(TAG, "Decrypted ${batch.size} envelopes in $duration ms (~${round(timePerMessage * 100) / 100} ms per message)")
@@ -49,6 +49,7 @@ import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.recipients.RecipientId
 import org.thoughtcrime.securesms.util.FeatureFlags
 import org.whispersystems.signalservice.api.InvalidMessageStructureException
+import org.whispersystems.signalservice.api.SignalSessionLock
 import org.whispersystems.signalservice.api.crypto.ContentHint
 import org.whispersystems.signalservice.api.crypto.EnvelopeMetadata
 import org.whispersystems.signalservice.api.crypto.SignalGroupSessionBuilder
@@ -78,12 +79,15 @@ object MessageDecryptor {
    * That means that this operation should be atomic when performed within a transaction.
    * To keep that property, there may be [Result.followUpOperations] you have to perform after your transaction is committed.
    * These can vary from enqueueing jobs to inserting items into the [org.thoughtcrime.securesms.database.PendingRetryReceiptCache].
+   *
+   * @param predecrypted The result of [decryptCiphertextOnly] for this envelope, if it has already been computed.
    */
   fun decrypt(
     context: Context,
     bufferedProtocolStore: BufferedProtocolStore,
     envelope: Envelope,
-    serverDeliveredTimestamp: Long
+    serverDeliveredTimestamp: Long,
+    predecrypted: SignalServiceCipherResult? = null
   ): Result {
     val selfAci: ACI = SignalStore.account().requireAci()
     val selfPni: PNI = SignalStore.account().requirePni()
@@ -121,7 +125,7 @@ object MessageDecryptor {
     val cipher = SignalServiceCipher(localAddress, SignalStore.account().deviceId, bufferedStore, ReentrantSessionLock.INSTANCE, UnidentifiedAccessUtil.getCertificateValidator())
 
     return try {
-      val cipherResult: SignalServiceCipherResult? = cipher.decrypt(envelope, serverDeliveredTimestamp)
+      val cipherResult: SignalServiceCipherResult? = predecrypted ?: cipher.decrypt(envelope, serverDeliveredTimestamp)
 
       if (cipherResult == null) {
         Log.w(TAG, "${logPrefix(envelope)} Decryption resulted in a null result!", true)
@@ -293,6 +297,33 @@ object MessageDecryptor {
     }
   }
 
+  /**
+   * Performs only the cryptographic portion of [decrypt], with none of its other side effects. The result can later be handed to [decrypt] as
+   * `predecrypted` to finish processing the envelope. This lets callers do the expensive part of decryption ahead of time on another thread.
+   *
+   * Any failure results in null. The caller should then fall back to a normal [decrypt], which will reproduce and handle the error.
+   */
+  fun decryptCiphertextOnly(
+    bufferedProtocolStore: BufferedProtocolStore,
+    envelope: Envelope,
+    serverDeliveredTimestamp: Long,
+    sessionLock: SignalSessionLock
+  ): SignalServiceCipherResult? {
+    val selfAci: ACI = SignalStore.account().requireAci()
+    val selfPni: PNI = SignalStore.account().requirePni()
+
+    val destination: ServiceId = envelope.getDestination(selfAci, selfPni)
+    val localAddress = SignalServiceAddress(selfAci, SignalStore.account().e164)
+    val cipher = SignalServiceCipher(localAddress, SignalStore.account().deviceId, bufferedProtocolStore.get(destination), sessionLock, UnidentifiedAccessUtil.getCertificateValidator())
+
+    return try {
+      cipher.decrypt(envelope, serverDeliveredTimestamp)
+    } catch (e: Exception) {
+      Log.w(TAG, "${logPrefix(envelope)} Failed to decrypt ahead of time. Will retry in order.", e)
+      null
+    }
+  }
+
   private fun handleSenderKeyDistributionMessage(envelope: Envelope, serviceId: ServiceId, deviceId: Int, message: SenderKeyDistributionMessage, senderKeyStore: SenderKeyStore) {
     Log.i(TAG, "${logPrefix(envelope, serviceId)} Processing SenderKeyDistributionMessage for distributionId ${message.distributionId}")
 
@@ -70,6 +70,15 @@ class BufferedIdentityKeyStore(
     }
   }
 
+  /**
+   * Takes on all of the identities that [other] has loaded or changed. Anything [other] changed will be written out the next time this
+   * store is flushed.
+   */
+  fun absorb(other: BufferedIdentityKeyStore) {
+    store.putAll(other.store)
+    updatedKeys.putAll(other.updatedKeys)
+  }
+
   fun flushToDisk(persistentStore: SignalServiceAccountDataStore) {
     for ((address, identityKey) in updatedKeys) {
       persistentStore.saveIdentity(address, identityKey)
@@ -28,6 +28,15 @@ class BufferedProtocolStore private constructor(
     return aciStore.second
   }
 
+  /**
+   * Merges the buffered state of a store that was used independently (for instance, on another thread) into this one, so that it is visible
+   * to subsequent operations and included in the next [flushToDisk]. See [BufferedSignalServiceAccountDataStore.absorb] for restrictions.
+   */
+  fun absorb(other: BufferedProtocolStore) {
+    aciStore.second.absorb(other.aciStore.second)
+    pniStore.second.absorb(other.pniStore.second)
+  }
+
   /**
    * Writes any buffered data to disk. You can continue to use the same buffered store afterwards.
    */
@@ -55,6 +55,16 @@ class BufferedSenderKeyStore : SignalServiceSenderKeyStore {
     error("Should not happen during the intended usage pattern of this class")
   }
 
+  /**
+   * Takes on all of the sender keys that [other] has loaded or changed. Anything [other] changed will be written out the next time this
+   * store is flushed.
+   */
+  fun absorb(other: BufferedSenderKeyStore) {
+    store.putAll(other.store)
+    updatedKeys.putAll(other.updatedKeys)
+    clearSharedWith += other.clearSharedWith
+  }
+
   fun flushToDisk(persistentStore: SignalServiceAccountDataStore) {
     for ((key, record) in updatedKeys) {
       persistentStore.storeSenderKey(key.address, key.distributionId, record)
@@ -104,6 +104,21 @@ class BufferedSessionStore(private val selfServiceId: ServiceId) : SignalService
     error("Should not happen during the intended usage pattern of this class")
   }
 
+  /**
+   * Takes on all of the sessions that [other] has loaded or changed, as if the operations performed on [other] had been performed here.
+   * Anything [other] changed will be written out the next time this store is flushed.
+   */
+  fun absorb(other: BufferedSessionStore) {
+    store.putAll(other.store)
+    updatedSessions.putAll(other.updatedSessions)
+
+    for (address in other.deletedSessions) {
+      store.remove(address)
+      updatedSessions.remove(address)
+    }
+    deletedSessions += other.deletedSessions
+  }
+
   fun flushToDisk(persistentStore: SignalServiceAccountDataStore) {
     for ((address, record) in updatedSessions) {
       persistentStore.storeSession(address, record)
@@ -181,6 +181,16 @@ class BufferedSignalServiceAccountDataStore(selfServiceId: ServiceId) : SignalSe
     error("Should not happen during the intended usage pattern of this class")
   }
 
+  /**
+   * Merges in the sessions, identities, and sender keys buffered by [other]. Prekeys are not merged, so [other] must only have been used
+   * for operations that can't consume them (i.e. decrypting normal ciphertext messages).
+   */
+  fun absorb(other: BufferedSignalServiceAccountDataStore) {
+    identityStore.absorb(other.identityStore)
+    sessionStore.absorb(other.sessionStore)
+    senderKeyStore.absorb(other.senderKeyStore)
+  }
+
   fun flushToDisk(persistentStore: SignalServiceAccountDataStore) {
     identityStore.flushToDisk(persistentStore)
     oneTimePreKeyStore.flushToDisk(persistentStore)
@@ -1,10 +1,13 @@
 package org.thoughtcrime.securesms.notifications.v2
 
+import androidx.annotation.VisibleForTesting
+import android.database.Cursor
 import androidx.annotation.WorkerThread
 import org.signal.core.util.CursorUtil
 import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment
+import org.thoughtcrime.securesms.database.AttachmentTable
 import org.thoughtcrime.securesms.database.MessageTable
-import org.thoughtcrime.securesms.database.NoSuchMessageException
 import org.thoughtcrime.securesms.database.RecipientTable
 import org.thoughtcrime.securesms.database.SignalDatabase
 import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord
@@ -14,75 +17,113 @@ import org.thoughtcrime.securesms.database.model.ReactionRecord
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
 import org.thoughtcrime.securesms.notifications.profiles.NotificationProfile
 import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.util.LRUCache
 import org.thoughtcrime.securesms.util.isStoryReaction
 
 /**
  * Queries the message databases to determine messages that should be in notifications.
+ *
+ * The messages from the last build are kept, and [MessageTable] reports the messages its writes touch through [onMessagesChanged], so that
+ * most builds only have to load what changed. Writes too broad to track message by message go through [invalidate] instead, which makes the
+ * next build start over with a full query, as does the first build and any build with sticky threads.
  */
 object NotificationStateProvider {
 
   private val TAG = Log.tag(NotificationStateProvider::class.java)
 
-  @WorkerThread
-  fun constructNotificationState(stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>, notificationProfile: NotificationProfile?): NotificationState {
-    val messages: MutableList<NotificationMessage> = mutableListOf()
-
-    SignalDatabase.messages.getMessagesForNotificationState(stickyThreads.values).use { unreadMessages ->
-      if (unreadMessages.count == 0) {
-        return NotificationState.EMPTY
-      }
-
-      MessageTable.mmsReaderFor(unreadMessages).use { reader ->
-        var record: MessageRecord? = reader.getNext()
-        while (record != null) {
-          val threadRecipient: Recipient? = SignalDatabase.threads.getRecipientForThreadId(record.threadId)
-          if (threadRecipient != null) {
-            val hasUnreadReactions = CursorUtil.requireInt(unreadMessages, MessageTable.REACTIONS_UNREAD) == 1
-            val conversationId = ConversationId.fromMessageRecord(record)
-
-            val parentRecord = conversationId.groupStoryId?.let {
-              try {
-                SignalDatabase.messages.getMessageRecord(it)
-              } catch (e: NoSuchMessageException) {
-                null
-              }
-            }
+  private const val STORY_CACHE_SIZE = 500
 
-            val hasSelfRepliedToGroupStory = conversationId.groupStoryId?.let {
-              SignalDatabase.messages.hasGroupReplyOrReactionInStory(it)
-            }
+  /**
+   * Past this many changed messages, a full query is cheaper than looking each of them up.
+   */
+  private const val MAX_CHANGED_MESSAGES = 500
 
-            if (record is MediaMmsMessageRecord) {
-              val attachments = SignalDatabase.attachments.getAttachmentsForMessage(record.id)
-              if (attachments.isNotEmpty()) {
-                record = record.withAttachments(ApplicationDependencies.getApplication(), attachments)
-              }
-            }
+  /**
+   * Whether a group story was sent by us never changes, so it's remembered across rebuilds rather than looked up again for every reply.
+   * Entries are dropped when the story is deleted, since its ID may be reused.
+   */
+  private val isStorySentBySelfCache: MutableMap<Long, Boolean> = LRUCache(STORY_CACHE_SIZE)
 
-            messages += NotificationMessage(
-              messageRecord = record,
-              reactions = if (hasUnreadReactions) SignalDatabase.reactions.getReactions(MessageId(record.id)) else emptyList(),
-              threadRecipient = threadRecipient,
-              thread = conversationId,
-              stickyThread = stickyThreads.containsKey(conversationId),
-              isUnreadMessage = CursorUtil.requireInt(unreadMessages, MessageTable.READ) == 0,
-              hasUnreadReactions = hasUnreadReactions,
-              lastReactionRead = CursorUtil.requireLong(unreadMessages, MessageTable.REACTIONS_LAST_SEEN),
-              isParentStorySentBySelf = parentRecord?.isOutgoing ?: false,
-              hasSelfRepliedToStory = hasSelfRepliedToGroupStory ?: false
-            )
-          }
-          try {
-            record = reader.getNext()
-          } catch (e: IllegalStateException) {
-            // XXX Weird SQLCipher bug that's being investigated
-            record = null
-            Log.w(TAG, "Failed to read next record!", e)
-          }
-        }
+  private val buildLock = Any()
+
+  /**
+   * The messages from the last build, by ID. Null until there's been a build without sticky threads. Guarded by [buildLock].
+   */
+  private var cachedMessages: MutableMap<Long, NotificationMessage>? = null
+
+  private val changedMessageIds: MutableSet<Long> = HashSet()
+  private var invalidated = false
+
+  /**
+   * Marks messages as changed, so the next build reads them again. This happens once the current transaction commits, so that a build
+   * can't pick the change up before the rows themselves are visible, and never if it's rolled back.
+   */
+  fun onMessagesChanged(messageIds: Collection<Long>) {
+    if (messageIds.isEmpty()) {
+      return
+    }
+
+    SignalDatabase.runPostSuccessfulTransaction {
+      synchronized(changedMessageIds) {
+        changedMessageIds += messageIds
       }
     }
+  }
 
+  fun onMessageChanged(messageId: Long) {
+    if (messageId > 0) {
+      onMessagesChanged(listOf(messageId))
+    }
+  }
+
+  /**
+   * Like [onMessageChanged], but also forgets anything remembered about the message as a story.
+   */
+  fun onMessageDeleted(messageId: Long) {
+    SignalDatabase.runPostSuccessfulTransaction {
+      synchronized(isStorySentBySelfCache) {
+        isStorySentBySelfCache.remove(messageId)
+      }
+
+      synchronized(changedMessageIds) {
+        changedMessageIds += messageId
+      }
+    }
+  }
+
+  /**
+   * Makes the next build start over with a full query, for writes that may have changed messages without saying which.
+   */
+  fun invalidate() {
+    SignalDatabase.runPostSuccessfulTransaction {
+      synchronized(isStorySentBySelfCache) {
+        isStorySentBySelfCache.clear()
+      }
+
+      synchronized(changedMessageIds) {
+        invalidated = true
+        changedMessageIds.clear()
+      }
+    }
+  }
+
+  @WorkerThread
+  fun constructNotificationState(stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>, notificationProfile: NotificationProfile?): NotificationState {
+    val messages: List<NotificationMessage> = getNotificationMessages(stickyThreads)
+    if (messages.isEmpty()) {
+      return NotificationState.EMPTY
+    }
+
+    return constructNotificationState(messages, stickyThreads, notificationProfile)
+  }
+
+  @VisibleForTesting
+  internal fun constructNotificationState(
+    messages: List<NotificationMessage>,
+    stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>,
+    notificationProfile: NotificationProfile?
+  ): NotificationState {
     val conversations: MutableList<NotificationConversation> = mutableListOf()
     val muteFilteredMessages: MutableList<NotificationState.FilteredMessage> = mutableListOf()
     val profileFilteredMessages: MutableList<NotificationState.FilteredMessage> = mutableListOf()
@@ -125,7 +166,213 @@ object NotificationStateProvider {
     return NotificationState(conversations, muteFilteredMessages, profileFilteredMessages)
   }
 
-  private data class NotificationMessage(
+  /**
+   * @return Every message that may need to be in a notification, with the thread recipient, attachments, reactions and parent story details it
+   * needs. Only the messages that changed since the last build are loaded, unless a full query is needed.
+   */
+  @VisibleForTesting
+  internal fun getNotificationMessages(stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>): List<NotificationMessage> {
+    synchronized(buildLock) {
+      val changed: Set<Long>
+      val fullQuery: Boolean
+
+      synchronized(changedMessageIds) {
+        changed = changedMessageIds.toSet()
+        fullQuery = invalidated || changed.size > MAX_CHANGED_MESSAGES
+        changedMessageIds.clear()
+        invalidated = false
+      }
+
+      // Sticky threads bring in read messages too, which aren't tracked, so those builds aren't kept
+      if (stickyThreads.isNotEmpty()) {
+        cachedMessages = null
+        return loadNotificationMessages(stickyThreads)
+      }
+
+      val cached: MutableMap<Long, NotificationMessage>? = cachedMessages
+      val messages: MutableMap<Long, NotificationMessage> = if (cached == null || fullQuery) {
+        loadNotificationMessages(emptyMap()).associateByTo(LinkedHashMap()) { it.messageRecord.id }
+      } else {
+        updateNotificationMessages(cached, changed)
+      }
+
+      cachedMessages = messages
+      return messages.values.sortedBy { it.messageRecord.dateReceived }
+    }
+  }
+
+  /**
+   * Loads every message that may need to be in a notification with a full query.
+   */
+  private fun loadNotificationMessages(stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>): List<NotificationMessage> {
+    val unreadRows: List<UnreadRow> = SignalDatabase.messages.getMessagesForNotificationState(stickyThreads.values).use { readUnreadRows(it) }
+    return toNotificationMessages(unreadRows, stickyThreads)
+  }
+
+  /**
+   * Brings the messages from the last build up to date by reading the [changed] ones again. Everything else about the kept messages that can
+   * change without their rows changing is refreshed in bulk: the thread recipient (for mutes), whether we've replied to a group story since,
+   * and attachments that were still being transferred.
+   */
+  private fun updateNotificationMessages(cached: MutableMap<Long, NotificationMessage>, changed: Set<Long>): MutableMap<Long, NotificationMessage> {
+    cached.keys.removeAll(changed)
+
+    if (cached.isNotEmpty()) {
+      val threadRecipients: Map<RecipientId, Recipient> = cached.values.map { it.threadRecipient.id }.toSet().associateWith { Recipient.resolved(it) }
+      val storiesWithSelfReply: Set<Long> = SignalDatabase.messages.getGroupStoriesWithSelfReplyOrReaction(cached.values.mapNotNull { it.thread.groupStoryId }.toSet())
+
+      val pendingAttachmentIds: List<Long> = cached.values
+        .map { it.messageRecord }
+        .filter { record -> record is MediaMmsMessageRecord && record.slideDeck.asAttachments().any { it.transferState != AttachmentTable.TRANSFER_PROGRESS_DONE } }
+        .map { it.id }
+      val attachments: Map<Long, List<DatabaseAttachment>> = SignalDatabase.attachments.getAttachmentsForMessages(pendingAttachmentIds)
+
+      for (entry in cached.entries) {
+        val message: NotificationMessage = entry.value
+        val recordAttachments: List<DatabaseAttachment>? = attachments[entry.key]
+
+        entry.setValue(
+          message.copy(
+            messageRecord = if (recordAttachments.isNullOrEmpty()) message.messageRecord else (message.messageRecord as MediaMmsMessageRecord).withAttachments(ApplicationDependencies.getApplication(), recordAttachments),
+            threadRecipient = threadRecipients[message.threadRecipient.id] ?: message.threadRecipient,
+            hasSelfRepliedToStory = message.thread.groupStoryId?.let { it in storiesWithSelfReply } ?: false
+          )
+        )
+      }
+    }
+
+    if (changed.isNotEmpty()) {
+      val unreadRows: List<UnreadRow> = SignalDatabase.messages.getMessagesForNotificationStateByIds(changed).use { readUnreadRows(it) }
+      toNotificationMessages(unreadRows, emptyMap()).forEach { cached[it.messageRecord.id] = it }
+    }
+
+    return cached
+  }
+
+  /**
+   * Reads the unread rows in a single pass over the cursor, deferring any per-message lookups to [toNotificationMessages] so that they can be
+   * done in bulk.
+   */
+  private fun readUnreadRows(unreadMessages: Cursor): List<UnreadRow> {
+    if (unreadMessages.count == 0) {
+      return emptyList()
+    }
+
+    val rows: MutableList<UnreadRow> = mutableListOf()
+
+    MessageTable.mmsReaderFor(unreadMessages).use { reader ->
+      var record: MessageRecord? = reader.getNext()
+      while (record != null) {
+        rows += UnreadRow(
+          record = record,
+          isUnreadMessage = CursorUtil.requireInt(unreadMessages, MessageTable.READ) == 0,
+          hasUnreadReactions = CursorUtil.requireInt(unreadMessages, MessageTable.REACTIONS_UNREAD) == 1,
+          lastReactionRead = CursorUtil.requireLong(unreadMessages, MessageTable.REACTIONS_LAST_SEEN)
+        )
+
+        try {
+          record = reader.getNext()
+        } catch (e: IllegalStateException) {
+          // XXX Weird SQLCipher bug that's being investigated
+          record = null
+          Log.w(TAG, "Failed to read next record!", e)
+        }
+      }
+    }
+
+    return rows
+  }
+
+  private fun toNotificationMessages(rows: List<UnreadRow>, stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>): List<NotificationMessage> {
+    val threadRecipientIds: Map<Long, RecipientId> = SignalDatabase.threads.getRecipientIdsByThreadId(rows.map { it.record.threadId }.toSet())
+    val threadRecipients: Map<RecipientId, Recipient> = threadRecipientIds.values.toSet().associateWith { Recipient.resolved(it) }
+
+    val conversationIds: List<ConversationId> = rows.map { ConversationId.fromMessageRecord(it.record) }
+    val storyIds: Set<Long> = conversationIds.mapNotNull { it.groupStoryId }.toSet()
+    val storiesSentBySelf: Map<Long, Boolean> = getStoriesSentBySelf(storyIds)
+    val storiesWithSelfReply: Set<Long> = SignalDatabase.messages.getGroupStoriesWithSelfReplyOrReaction(storyIds)
+
+    val attachments: Map<Long, List<DatabaseAttachment>> = SignalDatabase.attachments.getAttachmentsForMessages(
+      rows.filter { it.record is MediaMmsMessageRecord }.map { it.record.id }
+    )
+
+    val reactions: Map<MessageId, List<ReactionRecord>> = SignalDatabase.reactions.getReactionsForMessages(
+      rows.filter { it.hasUnreadReactions }.map { MessageId(it.record.id) }
+    )
+
+    val messages: MutableList<NotificationMessage> = ArrayList(rows.size)
+
+    rows.forEachIndexed { index, row ->
+      val threadRecipient: Recipient = threadRecipientIds[row.record.threadId]?.let { threadRecipients[it] } ?: return@forEachIndexed
+      val conversationId: ConversationId = conversationIds[index]
+
+      var record: MessageRecord = row.record
+      val recordAttachments: List<DatabaseAttachment>? = attachments[record.id]
+      if (record is MediaMmsMessageRecord && !recordAttachments.isNullOrEmpty()) {
+        record = record.withAttachments(ApplicationDependencies.getApplication(), recordAttachments)
+      }
+
+      messages += NotificationMessage(
+        messageRecord = record,
+        reactions = if (row.hasUnreadReactions) reactions[MessageId(record.id)] ?: emptyList() else emptyList(),
+        threadRecipient = threadRecipient,
+        thread = conversationId,
+        stickyThread = stickyThreads.containsKey(conversationId),
+        isUnreadMessage = row.isUnreadMessage,
+        hasUnreadReactions = row.hasUnreadReactions,
+        lastReactionRead = row.lastReactionRead,
+        isParentStorySentBySelf = conversationId.groupStoryId?.let { storiesSentBySelf[it] } ?: false,
+        hasSelfRepliedToStory = conversationId.groupStoryId?.let { it in storiesWithSelfReply } ?: false
+      )
+    }
+
+    return messages
+  }
+
+  /**
+   * @return A map of story ID to whether it was sent by us, for every story in [storyIds] that still exists.
+   */
+  private fun getStoriesSentBySelf(storyIds: Set<Long>): Map<Long, Boolean> {
+    if (storyIds.isEmpty()) {
+      return emptyMap()
+    }
+
+    val results: MutableMap<Long, Boolean> = HashMap(storyIds.size)
+    val missing: MutableList<Long> = mutableListOf()
+
+    synchronized(isStorySentBySelfCache) {
+      for (storyId in storyIds) {
+        val cached: Boolean? = isStorySentBySelfCache[storyId]
+        if (cached != null) {
+          results[storyId] = cached
+        } else {
+          missing += storyId
+        }
+      }
+    }
+
+    if (missing.isNotEmpty()) {
+      SignalDatabase.messages.getMessages(missing).use { reader ->
+        reader.forEach { results[it.id] = it.isOutgoing }
+      }
+
+      synchronized(isStorySentBySelfCache) {
+        missing.forEach { storyId -> results[storyId]?.let { isStorySentBySelfCache[storyId] = it } }
+      }
+    }
+
+    return results
+  }
+
+  private data class UnreadRow(
+    val record: MessageRecord,
+    val isUnreadMessage: Boolean,
+    val hasUnreadReactions: Boolean,
+    val lastReactionRead: Long
+  )
+
+  @VisibleForTesting
+  internal data class NotificationMessage(
     val messageRecord: MessageRecord,
     val reactions: List<ReactionRecord>,
     val threadRecipient: Recipient,
@@ -176,7 +423,7 @@ object NotificationStateProvider {
       get() = mentionSetting == RecipientTable.MentionSetting.DO_NOT_NOTIFY
   }
 
-  private enum class MessageInclusion {
+  internal enum class MessageInclusion {
     INCLUDE,
     EXCLUDE,
     MUTE_FILTERED,
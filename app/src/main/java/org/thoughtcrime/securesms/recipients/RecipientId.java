@@ -116,6 +116,14 @@ public class RecipientId implements Parcelable, Comparable<RecipientId>, Databas
     RecipientIdCache.INSTANCE.clear();
   }
 
+  /**
+   * @return A human-readable summary of the size and hit rate of the cache used by the lookup methods, for debug logs.
+   */
+  @AnyThread
+  public static @NonNull String getCacheStats() {
+    return RecipientIdCache.INSTANCE.getStats().toString();
+  }
+
   private RecipientId(long id) {
     this.id = id;
   }
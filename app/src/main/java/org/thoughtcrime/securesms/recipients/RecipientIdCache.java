@@ -7,12 +7,21 @@ import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.groups.GroupId;
 import org.whispersystems.signalservice.api.push.ServiceId;
 
-import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Thread safe cache that allows faster looking up of {@link RecipientId}s without hitting the database.
+ *
+ * This is read from nearly everywhere (decryption, sending, contact sync, UI binding), so reads don't take a lock or reorder anything.
+ * Instead, each entry remembers the value of a clock that only ticks on writes, and once the cache is over its limit, the entries with the
+ * oldest values are evicted in a batch. That makes eviction approximately least-recently-used, which is all a cache like this needs.
  */
 final class RecipientIdCache {
 
@@ -22,28 +31,31 @@ final class RecipientIdCache {
 
   private static final String TAG = Log.tag(RecipientIdCache.class);
 
-  private final Map<Object, RecipientId> ids;
+  private final Map<Object, Entry> ids;
+  private final int                limit;
+  private final int                evictionBatchSize;
+  private final AtomicLong         clock        = new AtomicLong();
+  private final Object             evictionLock = new Object();
+  private final StripedCounter     hits         = new StripedCounter();
+  private final StripedCounter     misses       = new StripedCounter();
 
   RecipientIdCache(int limit) {
-    ids = new LinkedHashMap<Object, RecipientId>(128, 0.75f, true) {
-      @Override
-      protected boolean removeEldestEntry(Entry<Object, RecipientId> eldest) {
-        return size() > limit;
-      }
-    };
+    this.ids               = new ConcurrentHashMap<>(128);
+    this.limit             = limit;
+    this.evictionBatchSize = Math.max(1, limit / 10);
   }
 
-  synchronized void put(@NonNull RecipientId recipientId, @Nullable String e164, @Nullable ServiceId serviceId) {
+  void put(@NonNull RecipientId recipientId, @Nullable String e164, @Nullable ServiceId serviceId) {
     if (e164 != null) {
-      ids.put(e164, recipientId);
+      putInternal(e164Key(e164), recipientId);
     }
 
     if (serviceId != null) {
-      ids.put(serviceId, recipientId);
+      putInternal(new ServiceIdKey(serviceId), recipientId);
     }
   }
-  
-  synchronized void put(@NonNull Recipient recipient) {
+
+  void put(@NonNull Recipient recipient) {
     RecipientId         recipientId = recipient.getId();
     Optional<String>    e164        = recipient.getE164();
     Optional<ServiceId> serviceId   = recipient.getServiceId();
@@ -51,40 +63,228 @@ final class RecipientIdCache {
     put(recipientId, e164.orElse(null), serviceId.orElse(null));
   }
 
-  synchronized @Nullable RecipientId get(@NonNull GroupId groupId) {
-    return ids.get(groupId);
+  @Nullable RecipientId get(@NonNull GroupId groupId) {
+    return recordResult(getInternal(groupId));
   }
 
-  synchronized void put(@NonNull GroupId groupId, @NonNull RecipientId recipientId) {
-    ids.put(groupId, recipientId);
+  void put(@NonNull GroupId groupId, @NonNull RecipientId recipientId) {
+    putInternal(groupId, recipientId);
   }
 
-  synchronized @Nullable RecipientId get(@Nullable ServiceId serviceId, @Nullable String e164) {
+  @Nullable RecipientId get(@Nullable ServiceId serviceId, @Nullable String e164) {
     if (serviceId != null && e164 != null) {
-      RecipientId recipientIdByAci = ids.get(serviceId);
-      if (recipientIdByAci == null) return null;
+      Object serviceIdKey = new ServiceIdKey(serviceId);
+      Object e164Key      = e164Key(e164);
+
+      RecipientId recipientIdByAci = getInternal(serviceIdKey);
+      if (recipientIdByAci == null) return recordResult(null);
 
-      RecipientId recipientIdByE164 = ids.get(e164);
-      if (recipientIdByE164 == null) return null;
+      RecipientId recipientIdByE164 = getInternal(e164Key);
+      if (recipientIdByE164 == null) return recordResult(null);
 
       if (recipientIdByAci.equals(recipientIdByE164)) {
-        return recipientIdByAci;
+        return recordResult(recipientIdByAci);
       } else {
-        ids.remove(serviceId);
-        ids.remove(e164);
+        ids.remove(serviceIdKey);
+        ids.remove(e164Key);
         Log.w(TAG, "Seen invalid RecipientIdCacheState");
-        return null;
+        return recordResult(null);
       }
     } else if (serviceId != null) {
-      return ids.get(serviceId);
+      return recordResult(getInternal(new ServiceIdKey(serviceId)));
     } else if (e164 != null) {
-      return ids.get(e164);
+      return recordResult(getInternal(e164Key(e164)));
     }
 
     return null;
   }
 
-  synchronized void clear() {
+  void clear() {
     ids.clear();
   }
+
+  @NonNull Stats getStats() {
+    return new Stats(ids.size(), hits.sum(), misses.sum());
+  }
+
+  private @Nullable RecipientId getInternal(@NonNull Object key) {
+    Entry entry = ids.get(key);
+    if (entry == null) {
+      return null;
+    }
+
+    long now = clock.get();
+    if (entry.lastAccess != now) {
+      entry.lastAccess = now;
+    }
+
+    return entry.recipientId;
+  }
+
+  private void putInternal(@NonNull Object key, @NonNull RecipientId recipientId) {
+    ids.put(key, new Entry(recipientId, clock.incrementAndGet()));
+
+    if (ids.size() > limit) {
+      evictOldest();
+    }
+  }
+
+  /**
+   * Evicts the least recently used entries until we're a batch below the limit, so that a full cache doesn't have to scan on every put.
+   */
+  private void evictOldest() {
+    synchronized (evictionLock) {
+      int overLimit = ids.size() - limit;
+      if (overLimit <= 0) {
+        return;
+      }
+
+      int                                     evictionCount = overLimit + evictionBatchSize - 1;
+      PriorityQueue<Map.Entry<Object, Entry>> oldest        = new PriorityQueue<>(evictionCount + 1, (a, b) -> Long.compare(b.getValue().lastAccess, a.getValue().lastAccess));
+
+      for (Map.Entry<Object, Entry> candidate : ids.entrySet()) {
+        oldest.add(candidate);
+        if (oldest.size() > evictionCount) {
+          oldest.poll();
+        }
+      }
+
+      for (Map.Entry<Object, Entry> evicted : oldest) {
+        ids.remove(evicted.getKey(), evicted.getValue());
+      }
+    }
+  }
+
+  private @Nullable RecipientId recordResult(@Nullable RecipientId recipientId) {
+    if (recipientId != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+    }
+    return recipientId;
+  }
+
+  /**
+   * Valid e164s fit in a long, which is cheaper to hash, compare and hold onto than the string. Anything else is kept as-is.
+   */
+  private static @NonNull Object e164Key(@NonNull String e164) {
+    int length = e164.length();
+    if (length < 2 || length > 19 || e164.charAt(0) != '+' || e164.charAt(1) == '0') {
+      return e164;
+    }
+
+    long value = 0;
+    for (int i = 1; i < length; i++) {
+      char c = e164.charAt(i);
+      if (c < '0' || c > '9') {
+        return e164;
+      }
+      value = value * 10 + (c - '0');
+    }
+
+    return value;
+  }
+
+  private static final class Entry {
+    private final RecipientId recipientId;
+
+    private volatile long lastAccess;
+
+    private Entry(@NonNull RecipientId recipientId, long lastAccess) {
+      this.recipientId = recipientId;
+      this.lastAccess  = lastAccess;
+    }
+  }
+
+  /**
+   * A {@link ServiceId} reduced to its UUID and kind, so that lookups don't hold onto, or call into, the full object.
+   */
+  private static final class ServiceIdKey {
+    private final long    mostSignificantBits;
+    private final long    leastSignificantBits;
+    private final boolean isPni;
+
+    private ServiceIdKey(@NonNull ServiceId serviceId) {
+      UUID uuid = serviceId.getRawUuid();
+
+      this.mostSignificantBits  = uuid.getMostSignificantBits();
+      this.leastSignificantBits = uuid.getLeastSignificantBits();
+      this.isPni                = serviceId instanceof ServiceId.PNI;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof ServiceIdKey)) return false;
+
+      ServiceIdKey other = (ServiceIdKey) o;
+      return mostSignificantBits == other.mostSignificantBits &&
+             leastSignificantBits == other.leastSignificantBits &&
+             isPni == other.isPni;
+    }
+
+    @Override
+    public int hashCode() {
+      long bits = mostSignificantBits ^ leastSignificantBits;
+      return ((int) (bits >> 32) ^ (int) bits) + (isPni ? 1 : 0);
+    }
+  }
+
+  /**
+   * A counter that spreads increments from different threads across separate cache lines, so that counting hits doesn't become the
+   * contention point the cache is meant to avoid.
+   */
+  private static final class StripedCounter {
+    private static final int STRIPES = 16;
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * PADDING);
+
+    void increment() {
+      int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+      counts.incrementAndGet(stripe * PADDING);
+    }
+
+    long sum() {
+      long sum = 0;
+      for (int i = 0; i < STRIPES; i++) {
+        sum += counts.get(i * PADDING);
+      }
+      return sum;
+    }
+  }
+
+  static final class Stats {
+    private final int  size;
+    private final long hits;
+    private final long misses;
+
+    private Stats(int size, long hits, long misses) {
+      this.size   = size;
+      this.hits   = hits;
+      this.misses = misses;
+    }
+
+    int getSize() {
+      return size;
+    }
+
+    long getHits() {
+      return hits;
+    }
+
+    long getMisses() {
+      return misses;
+    }
+
+    float getHitRate() {
+      long total = hits + misses;
+      return total > 0 ? hits / (float) total : 0;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return String.format(Locale.US, "size: %d, hits: %d, misses: %d, hit rate: %.1f%%", size, hits, misses, getHitRate() * 100);
+    }
+  }
 }
@@ -12,6 +12,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.signal.core.util.SetUtil;
 import org.signal.core.util.logging.Log;
+import org.signal.core.util.tracing.Tracer;
 import org.thoughtcrime.securesms.BuildConfig;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.groups.SelectionLimits;
@@ -109,6 +110,9 @@ public final class FeatureFlags {
   private static final String CDS_DISABLE_COMPAT_MODE           = "cds.disableCompatibilityMode";
   private static final String FCM_MAY_HAVE_MESSAGES_KILL_SWITCH = "android.fcmNotificationFallbackKillSwitch";
   private static final String SAFETY_NUMBER_ACI                 = "global.safetyNumberAci";
+  private static final String MESSAGE_PROCESSOR_BATCH_COMMIT    = "android.messageProcessor.batchCommit";
+  private static final String PARALLEL_MESSAGE_DECRYPT          = "android.messageProcessor.parallelDecrypt";
+  private static final String TRACING_KILL_SWITCH               = "android.tracing.killSwitch";
 
   /**
    * We will only store remote values for flags in this set. If you want a flag to be controllable
@@ -169,7 +173,10 @@ public final class FeatureFlags {
       SVR2_KILLSWITCH,
       CDS_DISABLE_COMPAT_MODE,
       SAFETY_NUMBER_ACI,
-      FCM_MAY_HAVE_MESSAGES_KILL_SWITCH
+      FCM_MAY_HAVE_MESSAGES_KILL_SWITCH,
+      MESSAGE_PROCESSOR_BATCH_COMMIT,
+      PARALLEL_MESSAGE_DECRYPT,
+      TRACING_KILL_SWITCH
   );
 
   @VisibleForTesting
@@ -236,7 +243,10 @@ public final class FeatureFlags {
       SVR2_KILLSWITCH,
       CDS_DISABLE_COMPAT_MODE,
       SAFETY_NUMBER_ACI,
-      FCM_MAY_HAVE_MESSAGES_KILL_SWITCH
+      FCM_MAY_HAVE_MESSAGES_KILL_SWITCH,
+      MESSAGE_PROCESSOR_BATCH_COMMIT,
+      PARALLEL_MESSAGE_DECRYPT,
+      TRACING_KILL_SWITCH
   );
 
   /**
@@ -262,6 +272,7 @@ public final class FeatureFlags {
    */
   private static final Map<String, OnFlagChange> FLAG_CHANGE_LISTENERS = new HashMap<String, OnFlagChange>() {{
     put(MESSAGE_PROCESSOR_ALARM_INTERVAL, change -> MessageProcessReceiver.startOrUpdateAlarm(ApplicationDependencies.getApplication()));
+    put(TRACING_KILL_SWITCH, change -> Tracer.getInstance().setEnabled(tracing()));
   }};
 
   private static final Map<String, Object> REMOTE_VALUES = new TreeMap<>();
@@ -753,6 +764,30 @@ public final class FeatureFlags {
     return TimeUnit.MINUTES.toMillis(delayMinutes);
   }
 
+  /**
+   * Whether or not a batch of envelopes read from the websocket should be processed in a single database transaction,
+   * with a single protocol store flush and job insert, and acked together once committed.
+   */
+  public static boolean batchedMessageProcessing() {
+    return getBoolean(MESSAGE_PROCESSOR_BATCH_COMMIT, false);
+  }
+
+  /**
+   * Whether or not envelopes in a websocket batch whose sender is known up front should be decrypted in parallel, sharded by sender, ahead of
+   * in-order processing. Implies {@link #batchedMessageProcessing()}.
+   */
+  public static boolean parallelMessageDecryption() {
+    return getBoolean(PARALLEL_MESSAGE_DECRYPT, false);
+  }
+
+  /**
+   * Whether or not the {@link Tracer} should record anything. Always true for internal users and builds meant for tracing, otherwise it can be
+   * turned off remotely to save the overhead of recording events that are only read when a debug log is submitted.
+   */
+  public static boolean tracing() {
+    return BuildConfig.TRACING_ENABLED || internalUser() || !getBoolean(TRACING_KILL_SWITCH, false);
+  }
+
   /**
    * How long before a "Checking messages" foreground notification is shown to the user.
    */
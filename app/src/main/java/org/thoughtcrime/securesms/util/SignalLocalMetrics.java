@@ -245,6 +245,48 @@ public final class SignalLocalMetrics {
     }
 
   }
+
+  public static final class SlowDatabaseStatement {
+    public static final String NAME = "db-slow-statement";
+
+    /**
+     * @param shape The normalized statement, as produced by {@link org.thoughtcrime.securesms.database.QueryProfiler}. Used as the split name.
+     */
+    public static void onSlowStatement(@NonNull String shape, long durationNanos) {
+      String id = NAME + System.nanoTime();
+      LocalMetrics.getInstance().start(id, NAME);
+      LocalMetrics.getInstance().splitWithDuration(id, shape, durationNanos, TimeUnit.NANOSECONDS);
+      LocalMetrics.getInstance().end(id);
+    }
+  }
+
+  public static final class ConversationPageLoad {
+    private static final String NAME_GROUP            = "conversation-page-load-group";
+    private static final String NAME_INDIVIDUAL       = "conversation-page-load-individual";
+    private static final String NAME_FETCH_GROUP      = "conversation-page-fetch-group";
+    private static final String NAME_FETCH_INDIVIDUAL = "conversation-page-fetch-individual";
+
+    /**
+     * @param splitDurations The duration of each sequential step of the load, in milliseconds.
+     * @param fetchDurations The duration of each of the fetches that ran concurrently within one of those steps, in milliseconds. These are
+     *                       recorded as their own event, whose total is the time spent across all fetches rather than the time the step took.
+     */
+    public static void onPageLoaded(boolean isGroup, @NonNull Map<String, Long> splitDurations, @NonNull Map<String, Long> fetchDurations) {
+      record(isGroup ? NAME_GROUP : NAME_INDIVIDUAL, splitDurations);
+      record(isGroup ? NAME_FETCH_GROUP : NAME_FETCH_INDIVIDUAL, fetchDurations);
+    }
+
+    private static void record(@NonNull String name, @NonNull Map<String, Long> durations) {
+      String id = name + System.nanoTime();
+
+      LocalMetrics.getInstance().start(id, name);
+      for (Map.Entry<String, Long> split : durations.entrySet()) {
+        LocalMetrics.getInstance().splitWithDuration(id, split.getKey(), split.getValue());
+      }
+      LocalMetrics.getInstance().end(id);
+    }
+  }
+
   public static final class PushWebsocketFetch {
     public static final String SUCCESS_EVENT = "push-websocket-fetch";
     public static final String TIMEOUT_EVENT = "timed-out-fetch";
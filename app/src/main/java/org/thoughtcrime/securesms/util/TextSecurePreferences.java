@@ -156,6 +156,7 @@ public class TextSecurePreferences {
 
   private static final String LOG_ENCRYPTED_SECRET   = "pref_log_encrypted_secret";
   private static final String LOG_UNENCRYPTED_SECRET = "pref_log_unencrypted_secret";
+  private static final String SEGMENTED_LOG_STORE    = "pref_segmented_log_store";
 
   private static final String NOTIFICATION_CHANNEL_VERSION          = "pref_notification_channel_version";
   private static final String NOTIFICATION_MESSAGES_CHANNEL_VERSION = "pref_notification_messages_channel_version";
@@ -985,6 +986,17 @@ public class TextSecurePreferences {
     return getStringPreference(context, LOG_UNENCRYPTED_SECRET, null);
   }
 
+  /**
+   * Read when logging is initialized, before {@link org.thoughtcrime.securesms.keyvalue.SignalStore} is available, so it lives here.
+   */
+  public static boolean isSegmentedLogStoreEnabled(Context context) {
+    return getBooleanPreference(context, SEGMENTED_LOG_STORE, false);
+  }
+
+  public static void setSegmentedLogStoreEnabled(Context context, boolean enabled) {
+    setBooleanPreference(context, SEGMENTED_LOG_STORE, enabled);
+  }
+
   public static int getNotificationChannelVersion(Context context) {
     return getIntegerPreference(context, NOTIFICATION_CHANNEL_VERSION, 1);
   }
@@ -0,0 +1,81 @@
+package org.thoughtcrime.securesms
+
+import org.signal.spinner.Plugin
+import org.signal.spinner.PluginResult
+import org.thoughtcrime.securesms.database.DatabaseMonitor
+import org.thoughtcrime.securesms.database.QueryProfiler
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.concurrent.TimeUnit
+
+/**
+ * Shows the statement stats collected by the [QueryProfiler], slowest first, followed by the most recent statements, newest first.
+ */
+class QueryProfilerPlugin : Plugin {
+  override val name: String = "Query Profiler"
+  override val path: String = PATH
+
+  override fun get(): PluginResult {
+    val profiler = DatabaseMonitor.profiler
+
+    return PluginResult.MultiTableResult(
+      tables = mapOf(
+        "Statements" to getStatementStats(profiler?.getStatementStats() ?: emptyList()),
+        "Recent Statements" to getRecentStatements(profiler?.getRecentStatements() ?: emptyList())
+      )
+    )
+  }
+
+  private fun getStatementStats(stats: List<QueryProfiler.StatementStats>): PluginResult.TableResult {
+    val columns = listOf("Statement", "Count", "Total (ms)", "p50 (ms)", "p95 (ms)", "p99 (ms)", "Max (ms)", "Rows", "Write Lock (ms)", "Cursor Fill (ms)")
+
+    val rows = stats.map {
+      listOf(
+        it.shape,
+        it.count.toString(),
+        it.totalNanos.toMillisString(),
+        it.p50Nanos.toMillisString(),
+        it.p95Nanos.toMillisString(),
+        it.p99Nanos.toMillisString(),
+        it.maxNanos.toMillisString(),
+        it.rows.toString(),
+        it.lockNanos.toMillisString(),
+        it.cursorFillNanos.toMillisString()
+      )
+    }
+
+    return PluginResult.TableResult(
+      columns = columns,
+      rows = rows
+    )
+  }
+
+  private fun getRecentStatements(statements: List<QueryProfiler.RecentStatement>): PluginResult.TableResult {
+    val columns = listOf("Time", "Statement", "Duration (ms)", "Rows", "Write Lock (ms)")
+    val dateFormat = SimpleDateFormat("HH:mm:ss.SSS", Locale.US)
+
+    val rows = statements.map {
+      listOf(
+        dateFormat.format(Date(it.timestamp)),
+        it.shape,
+        it.durationNanos.toMillisString(),
+        if (it.rows >= 0) it.rows.toString() else "",
+        it.lockNanos.toMillisString()
+      )
+    }
+
+    return PluginResult.TableResult(
+      columns = columns,
+      rows = rows
+    )
+  }
+
+  private fun Long.toMillisString(): String {
+    return String.format(Locale.US, "%.2f", this / TimeUnit.MILLISECONDS.toNanos(1).toDouble())
+  }
+
+  companion object {
+    const val PATH = "/queries"
+  }
+}
@@ -0,0 +1,180 @@
+package org.thoughtcrime.securesms.backup
+
+import android.app.Application
+import okio.ByteString.Companion.toByteString
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.backup.proto.SqlStatement.SqlParameter
+import android.database.sqlite.SQLiteDatabase as AndroidSQLiteDatabase
+import android.database.sqlite.SQLiteStatement as AndroidSQLiteStatement
+import net.zetetic.database.sqlcipher.SQLiteDatabase as SQLCipherSQLiteDatabase
+import net.zetetic.database.sqlcipher.SQLiteStatement as SQLCipherSQLiteStatement
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class BackupStatementImporterTest {
+
+  private lateinit var database: AndroidSQLiteDatabase
+  private lateinit var db: SQLCipherSQLiteDatabase
+
+  @Before
+  fun setUp() {
+    database = AndroidSQLiteDatabase.create(null)
+    database.execSQL("CREATE TABLE message (_id INTEGER PRIMARY KEY, body TEXT, date INTEGER, score REAL, data BLOB)")
+    db = proxy(database)
+  }
+
+  @After
+  fun tearDown() {
+    database.close()
+  }
+
+  @Test
+  fun `rows are inserted with every parameter type`() {
+    database.beginTransaction()
+    BackupStatementImporter(db).use { importer ->
+      val blob = byteArrayOf(1, 2).toByteString()
+
+      importer.execute(INSERT, row(1, SqlParameter(stringParamter = "hi"), SqlParameter(integerParameter = 10), SqlParameter(doubleParameter = 1.5), SqlParameter(blobParameter = blob)))
+      importer.execute(INSERT, row(2, NULL, NULL, NULL, NULL))
+      importer.finish()
+    }
+    database.setTransactionSuccessful()
+    database.endTransaction()
+
+    database.rawQuery("SELECT body, date, score, data FROM message ORDER BY _id", null).use { cursor ->
+      assertTrue(cursor.moveToNext())
+      assertEquals("hi", cursor.getString(0))
+      assertEquals(10L, cursor.getLong(1))
+      assertEquals(1.5, cursor.getDouble(2), 0.0)
+      assertArrayEquals(byteArrayOf(1, 2), cursor.getBlob(3))
+
+      assertTrue(cursor.moveToNext())
+      for (i in 0 until 4) {
+        assertTrue(cursor.isNull(i))
+      }
+
+      assertFalse(cursor.moveToNext())
+    }
+  }
+
+  @Test
+  fun `a failed import leaves no partial data`() {
+    database.beginTransaction()
+    try {
+      BackupStatementImporter(db).use { importer ->
+        importer.execute("CREATE TABLE thread (_id INTEGER PRIMARY KEY)", emptyList())
+
+        for (i in 1..25_000) {
+          importer.execute(INSERT, row(i.toLong(), SqlParameter(stringParamter = "body $i"), SqlParameter(integerParameter = i.toLong()), NULL, NULL))
+        }
+
+        assertTrue(database.inTransaction())
+        throw BadFrameException()
+      }
+    } catch (e: BadFrameException) {
+      // Expected, like a bad frame partway through a backup
+    } finally {
+      database.endTransaction()
+    }
+
+    assertEquals(0, count("SELECT COUNT(*) FROM message"))
+    assertEquals(0, count("SELECT COUNT(*) FROM sqlite_master WHERE name = 'thread'"))
+  }
+
+  @Test
+  fun `plain indexes are only created on finish`() {
+    database.beginTransaction()
+    BackupStatementImporter(db).use { importer ->
+      importer.execute("CREATE INDEX message_date_index ON message (date)", emptyList())
+      importer.execute("CREATE UNIQUE INDEX message_body_index ON message (body)", emptyList())
+
+      assertEquals(0, count("SELECT COUNT(*) FROM sqlite_master WHERE name = 'message_date_index'"))
+      assertEquals(1, count("SELECT COUNT(*) FROM sqlite_master WHERE name = 'message_body_index'"))
+
+      importer.finish()
+    }
+    database.setTransactionSuccessful()
+    database.endTransaction()
+
+    assertEquals(1, count("SELECT COUNT(*) FROM sqlite_master WHERE name = 'message_date_index'"))
+  }
+
+  @Test
+  fun `isDeferrableIndex - plain index`() {
+    assertTrue(BackupStatementImporter.isDeferrableIndex("CREATE INDEX message_date_sent_index ON message (date_sent)"))
+    assertTrue(BackupStatementImporter.isDeferrableIndex("  create index IF NOT EXISTS thread_recipient_id ON thread (recipient_id)"))
+  }
+
+  @Test
+  fun `isDeferrableIndex - unique index`() {
+    assertFalse(BackupStatementImporter.isDeferrableIndex("CREATE UNIQUE INDEX recipient_group_type_index ON recipient (group_id)"))
+  }
+
+  @Test
+  fun `isDeferrableIndex - other statements`() {
+    assertFalse(BackupStatementImporter.isDeferrableIndex("CREATE TABLE message (_id INTEGER PRIMARY KEY)"))
+    assertFalse(BackupStatementImporter.isDeferrableIndex("CREATE TRIGGER message_ai AFTER INSERT ON message BEGIN SELECT 1; END"))
+  }
+
+  private fun count(query: String): Int {
+    return database.rawQuery(query, null).use { cursor ->
+      assertTrue(cursor.moveToFirst())
+      cursor.getInt(0)
+    }
+  }
+
+  private class BadFrameException : RuntimeException()
+
+  companion object {
+    private const val INSERT = "INSERT INTO message (_id, body, date, score, data) VALUES (?, ?, ?, ?, ?)"
+
+    private val NULL = SqlParameter(nullparameter = true)
+
+    private fun row(id: Long, vararg values: SqlParameter): List<SqlParameter> {
+      return listOf(SqlParameter(integerParameter = id)) + values
+    }
+
+    /**
+     * SQLCipher can't run on the JVM, so forward the calls the importer makes to a plain SQLite database. Transactions are only ever
+     * handled on [database] directly, so any attempt by the importer to end them would fail loudly on the mock.
+     */
+    private fun proxy(database: AndroidSQLiteDatabase): SQLCipherSQLiteDatabase {
+      val db: SQLCipherSQLiteDatabase = mock()
+
+      doAnswer { database.execSQL(it.getArgument(0)) }.whenever(db).execSQL(any<String>())
+      doAnswer { proxy(database.compileStatement(it.getArgument(0))) }.whenever(db).compileStatement(any())
+      doAnswer { throw AssertionError("The importer must not end the caller's transaction") }.whenever(db).endTransaction()
+      doAnswer { throw AssertionError("The importer must not commit the caller's transaction") }.whenever(db).setTransactionSuccessful()
+
+      return db
+    }
+
+    private fun proxy(statement: AndroidSQLiteStatement): SQLCipherSQLiteStatement {
+      val proxy: SQLCipherSQLiteStatement = mock()
+
+      doAnswer { statement.clearBindings() }.whenever(proxy).clearBindings()
+      doAnswer { statement.bindString(it.getArgument(0), it.getArgument(1)) }.whenever(proxy).bindString(any(), any())
+      doAnswer { statement.bindLong(it.getArgument(0), it.getArgument(1)) }.whenever(proxy).bindLong(any(), any())
+      doAnswer { statement.bindDouble(it.getArgument(0), it.getArgument(1)) }.whenever(proxy).bindDouble(any(), any())
+      doAnswer { statement.bindBlob(it.getArgument(0), it.getArgument(1)) }.whenever(proxy).bindBlob(any(), any())
+      doAnswer { statement.bindNull(it.getArgument(0)) }.whenever(proxy).bindNull(any())
+      doAnswer { statement.execute() }.whenever(proxy).execute()
+      doAnswer { statement.close() }.whenever(proxy).close()
+
+      return proxy
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package org.thoughtcrime.securesms.backup
+
+import android.app.Application
+import android.database.MatrixCursor
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.OutputStream
+import kotlin.random.Random
+
+/**
+ * Measures how many message-sized rows per second we can turn into encrypted backup frames. Rows come from an in-memory cursor and frames
+ * are written to a stream that discards them, so this only covers the serialization, encryption and progress reporting parts of an export.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class FullBackupExporterPerformanceTest {
+
+  companion object {
+    private const val WARMUP_ROWS = 20_000
+    private const val MEASURED_ROWS = 500_000
+
+    private val COLUMNS = arrayOf(
+      "_id", "date_sent", "date_received", "date_server", "thread_id", "from_recipient_id", "from_device_id", "to_recipient_id", "type",
+      "body", "read", "m_type", "expires_in", "quote_id", "quote_body", "server_guid", "message_ranges", "reactions_unread"
+    )
+  }
+
+  @Test
+  fun exportRows() {
+    exportRows(WARMUP_ROWS)
+
+    val output = CountingOutputStream()
+    val startTime = System.nanoTime()
+    val frames = exportRows(MEASURED_ROWS, output)
+    val elapsedNanos = System.nanoTime() - startTime
+
+    val rowsPerSecond = MEASURED_ROWS * 1_000_000_000L / elapsedNanos
+    val megabytesPerSecond = output.count * 1_000_000_000L / elapsedNanos / (1024 * 1024)
+
+    println("[$MEASURED_ROWS rows] ${elapsedNanos / 1_000_000} ms, $rowsPerSecond rows/sec, $megabytesPerSecond MB/sec, $frames frames")
+  }
+
+  private fun exportRows(rowCount: Int, output: OutputStream = CountingOutputStream()): Int {
+    val cursor = generateCursor(rowCount)
+    val outputStream = BackupFrameOutputStream(output, "000000000000000000000000000000")
+
+    FullBackupExporter.exportRows(
+      "message",
+      cursor,
+      outputStream,
+      null,
+      null,
+      0,
+      FullBackupExporter.ProgressReporter(rowCount.toLong()),
+      { false }
+    )
+
+    outputStream.writeEnd()
+    outputStream.close()
+
+    return outputStream.frames
+  }
+
+  private fun generateCursor(rowCount: Int): MatrixCursor {
+    val random = Random(rowCount)
+
+    return MatrixCursor(COLUMNS, rowCount).apply {
+      for (i in 1..rowCount) {
+        val date = 1_600_000_000_000L + i * 1000L
+        val quoted = random.nextInt(10) == 0
+
+        addRow(
+          arrayOf<Any?>(
+            i.toLong(),
+            date,
+            date + 100,
+            date + 50,
+            random.nextLong(1, 500),
+            random.nextLong(1, 2000),
+            1L,
+            random.nextLong(1, 2000),
+            10485780L,
+            randomBody(random),
+            1L,
+            0L,
+            0L,
+            if (quoted) random.nextLong(date) else null,
+            if (quoted) randomBody(random) else null,
+            "00000000-0000-0000-0000-000000000000",
+            if (random.nextInt(20) == 0) random.nextBytes(32) else null,
+            0L
+          )
+        )
+      }
+    }
+  }
+
+  private fun randomBody(random: Random): String {
+    val length = random.nextInt(5, 200)
+    return buildString(length) {
+      repeat(length) { append('a' + random.nextInt(26)) }
+    }
+  }
+
+  private class CountingOutputStream : OutputStream() {
+    var count: Long = 0
+
+    override fun write(b: Int) {
+      count++
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+      count += len
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package org.thoughtcrime.securesms.blurhash
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.random.Random
+
+class BlurHashCodecTest {
+
+  @Test
+  fun `composePixels matches per-pixel evaluation`() {
+    val random = Random(1)
+
+    for ((numCompX, numCompY) in listOf(1 to 1, 4 to 3, 9 to 9)) {
+      val colors = Array(numCompX * numCompY) { DoubleArray(3) { random.nextDouble(-0.5, 1.0) } }
+
+      for ((width, height) in listOf(1 to 1, 20 to 15, 32 to 32, 64 to 48)) {
+        assertArrayEquals(
+          "$numCompX x $numCompY components, $width x $height",
+          legacyComposePixels(width, height, numCompX, numCompY, colors),
+          BlurHashDecoder.composePixels(width, height, numCompX, numCompY, colors)
+        )
+      }
+    }
+  }
+
+  @Test
+  fun `encode matches per-pixel evaluation`() {
+    val random = Random(2)
+
+    for ((width, height) in listOf(1 to 1, 20 to 15, 64 to 48)) {
+      val pixels = IntArray(width * height) { random.nextInt() or 0xff000000.toInt() }
+
+      for ((componentX, componentY) in listOf(1 to 1, 4 to 3, 9 to 9)) {
+        assertEquals(
+          legacyEncode(pixels, width, height, componentX, componentY),
+          BlurHashEncoder.encode(pixels, width, height, componentX, componentY)
+        )
+      }
+    }
+  }
+
+  @Test
+  fun `sRGBToLinear matches direct computation`() {
+    for (value in 0L..255L) {
+      val v = value / 255.0
+      val expected = if (v <= 0.04045) v / 12.92 else Math.pow((v + 0.055) / 1.055, 2.4)
+
+      assertEquals(expected, BlurHashUtil.sRGBToLinear(value), 0.0)
+    }
+  }
+
+  companion object {
+    /** The decoder's previous inner loop, minus the [android.graphics.Bitmap]. */
+    fun legacyComposePixels(width: Int, height: Int, numCompX: Int, numCompY: Int, colors: Array<DoubleArray>): IntArray {
+      val pixels = IntArray(width * height)
+
+      for (y in 0 until height) {
+        for (x in 0 until width) {
+          var r = 0.0
+          var g = 0.0
+          var b = 0.0
+
+          for (j in 0 until numCompY) {
+            for (i in 0 until numCompX) {
+              val basis = cos(PI * x * i / width) * cos(PI * y * j / height)
+              val color = colors[j * numCompX + i]
+              r += color[0] * basis
+              g += color[1] * basis
+              b += color[2] * basis
+            }
+          }
+
+          pixels[y * width + x] = (0xff shl 24) or
+            (BlurHashUtil.linearTosRGB(r).toInt() shl 16) or
+            (BlurHashUtil.linearTosRGB(g).toInt() shl 8) or
+            BlurHashUtil.linearTosRGB(b).toInt()
+        }
+      }
+
+      return pixels
+    }
+
+    /** The encoder's previous implementation, recomputing the cosines and linear colors for every component. */
+    fun legacyEncode(pixels: IntArray, width: Int, height: Int, componentX: Int, componentY: Int): String {
+      val factors = Array(componentX * componentY) { DoubleArray(3) }
+
+      for (j in 0 until componentY) {
+        for (i in 0 until componentX) {
+          val normalisation = if (i == 0 && j == 0) 1.0 else 2.0
+          var r = 0.0
+          var g = 0.0
+          var b = 0.0
+
+          for (x in 0 until width) {
+            for (y in 0 until height) {
+              val basis = normalisation * cos((PI * i * x) / width) * cos((PI * j * y) / height)
+              val pixel = pixels[y * width + x]
+              r += basis * legacySRGBToLinear(((pixel shr 16) and 0xff).toLong())
+              g += basis * legacySRGBToLinear(((pixel shr 8) and 0xff).toLong())
+              b += basis * legacySRGBToLinear((pixel and 0xff).toLong())
+            }
+          }
+
+          val scale = 1.0 / (width * height)
+          factors[j * componentX + i] = doubleArrayOf(r * scale, g * scale, b * scale)
+        }
+      }
+
+      val hash = CharArray(1 + 1 + 4 + 2 * (factors.size - 1))
+      Base83.encode((componentX - 1 + (componentY - 1) * 9).toLong(), 1, hash, 0)
+
+      val maximumValue: Double
+      if (factors.size > 1) {
+        val actualMaximumValue = BlurHashUtil.max(factors, 1, factors.size)
+        val quantisedMaximumValue = Math.floor(Math.max(0.0, Math.min(82.0, Math.floor(actualMaximumValue * 166 - 0.5))))
+        maximumValue = (quantisedMaximumValue + 1) / 166
+        Base83.encode(Math.round(quantisedMaximumValue), 1, hash, 1)
+      } else {
+        maximumValue = 1.0
+        Base83.encode(0, 1, hash, 1)
+      }
+
+      val dc = factors[0]
+      Base83.encode((BlurHashUtil.linearTosRGB(dc[0]) shl 16) + (BlurHashUtil.linearTosRGB(dc[1]) shl 8) + BlurHashUtil.linearTosRGB(dc[2]), 4, hash, 2)
+
+      for (i in 1 until factors.size) {
+        val quant = factors[i].map { Math.floor(Math.max(0.0, Math.min(18.0, Math.floor(BlurHashUtil.signPow(it / maximumValue, 0.5) * 9 + 9.5)))) }
+        Base83.encode(Math.round(quant[0] * 19 * 19 + quant[1] * 19 + quant[2]), 2, hash, 6 + 2 * (i - 1))
+      }
+
+      return String(hash)
+    }
+
+    private fun legacySRGBToLinear(value: Long): Double {
+      val v = value / 255.0
+      return if (v <= 0.04045) v / 12.92 else Math.pow((v + 0.055) / 1.055, 2.4)
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package org.thoughtcrime.securesms.blurhash
+
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Compares the time it takes to compose the pixels of a decoded placeholder against the previous per-pixel evaluation, at the sizes
+ * placeholders are commonly drawn at. Bitmap creation is left out, since it isn't available off-device.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+class BlurHashPerformanceTest {
+
+  companion object {
+    private const val NUM_COMP_X = 4
+    private const val NUM_COMP_Y = 3
+    private const val ITERATIONS = 2_000
+
+    private val SIZES = listOf(32, 64)
+  }
+
+  @Test
+  fun decodeTime() {
+    val random = Random(1)
+    val colors = Array(NUM_COMP_X * NUM_COMP_Y) { DoubleArray(3) { random.nextDouble(-0.5, 1.0) } }
+
+    for (size in SIZES) {
+      val legacyNanos = timeIterations { BlurHashCodecTest.legacyComposePixels(size, size, NUM_COMP_X, NUM_COMP_Y, colors) }
+      val nanos = timeIterations { BlurHashDecoder.composePixels(size, size, NUM_COMP_X, NUM_COMP_Y, colors) }
+
+      println("[${size}x$size] legacy: ${legacyNanos / ITERATIONS / 1000} us/decode, current: ${nanos / ITERATIONS / 1000} us/decode")
+    }
+  }
+
+  private inline fun timeIterations(block: () -> Unit): Long {
+    repeat(ITERATIONS) { block() }
+
+    val startTime = System.nanoTime()
+    repeat(ITERATIONS) { block() }
+    return System.nanoTime() - startTime
+  }
+}
@@ -0,0 +1,43 @@
+package org.thoughtcrime.securesms.components.emoji.parsing
+
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Compares the time it takes to find emoji in a corpus of message bodies against the previous tree and parser, with the full set of emoji
+ * we ship. One corpus is emoji-dense and the other has no emoji at all, which is what most bodies look like.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+class EmojiParserPerformanceTest {
+
+  companion object {
+    private const val CORPUS_SIZE = 10_000
+    private const val ITERATIONS = 20
+
+    private val WORDS = listOf("hey", "are", "we", "still", "on", "for", "dinner", "tonight", "at", "7:30", "?", "sounds", "good", "see", "you", "there", "#1", "100%")
+  }
+
+  @Test
+  fun parseTime() {
+    val random = Random(1)
+    val emojiDense = List(CORPUS_SIZE) { EmojiParserTest.randomBody(random, emojiDensity = 0.6f) }
+    val emojiFree = List(CORPUS_SIZE) { List(random.nextInt(1, 30)) { WORDS[random.nextInt(WORDS.size)] }.joinToString(" ") }
+    val parser = EmojiParser(EmojiParserTest.tree)
+
+    for ((name, corpus) in listOf("emoji-dense" to emojiDense, "emoji-free" to emojiFree)) {
+      val legacyNanos = timeIterations { corpus.forEach { EmojiParserTest.legacyFindCandidates(it) } }
+      val nanos = timeIterations { corpus.forEach { parser.findCandidates(it) } }
+
+      println("[$name] legacy: ${legacyNanos / ITERATIONS / CORPUS_SIZE} ns/body, current: ${nanos / ITERATIONS / CORPUS_SIZE} ns/body")
+    }
+  }
+
+  private inline fun timeIterations(block: () -> Unit): Long {
+    repeat(ITERATIONS) { block() }
+
+    val startTime = System.nanoTime()
+    repeat(ITERATIONS) { block() }
+    return System.nanoTime() - startTime
+  }
+}
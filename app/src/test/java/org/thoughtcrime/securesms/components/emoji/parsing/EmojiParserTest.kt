@@ -0,0 +1,242 @@
+package org.thoughtcrime.securesms.components.emoji.parsing
+
+import android.net.Uri
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.kotlin.mock
+import org.thoughtcrime.securesms.emoji.EmojiPage
+import java.io.File
+import kotlin.random.Random
+
+class EmojiParserTest {
+
+  private val parser = EmojiParser(tree)
+
+  @Test
+  fun `text without emoji has no candidates`() {
+    val candidates = parser.findCandidates("Hello there, 1 # 2 * 3")
+
+    assertEquals(0, candidates.size())
+    assertFalse(candidates.allEmojis)
+  }
+
+  @Test
+  fun `null and empty text have no candidates`() {
+    assertEquals(0, parser.findCandidates(null).size())
+    assertEquals(0, parser.findCandidates("").size())
+  }
+
+  @Test
+  fun `finds the longest emoji`() {
+    val family = "\uD83D\uDC68\u200D\uD83D\uDC69\u200D\uD83D\uDC67\u200D\uD83D\uDC66"
+    val candidates = parser.findCandidates("a $family b").list
+
+    assertEquals(1, candidates.size)
+    assertEquals(2, candidates[0].startIndex)
+    assertEquals(2 + family.length, candidates[0].endIndex)
+    assertSame(tree.getEmoji(family, 0, family.length), candidates[0].drawInfo)
+  }
+
+  @Test
+  fun `an emoji missing its variation selector still matches`() {
+    val heart = "❤"
+    val candidates = parser.findCandidates(heart).list
+
+    assertEquals(1, candidates.size)
+    assertSame(tree.getEmoji("❤\uFE0F", 0, 2), candidates[0].drawInfo)
+  }
+
+  @Test
+  fun `a trailing skin tone is part of the candidate`() {
+    val grinning = "\uD83D\uDE00"
+    val candidates = parser.findCandidates("$grinning\uD83C\uDFFD").list
+
+    assertEquals(1, candidates.size)
+    assertEquals(4, candidates[0].endIndex)
+    assertSame(tree.getEmoji(grinning, 0, 2), candidates[0].drawInfo)
+  }
+
+  @Test
+  fun `only emoji and spaces is all emoji`() {
+    assertTrue(parser.findCandidates("\uD83D\uDE00 \uD83D\uDE03").allEmojis)
+    assertFalse(parser.findCandidates("\uD83D\uDE00 hi").allEmojis)
+  }
+
+  @Test
+  fun `getEmoji matches every emoji`() {
+    for (emoji in emojiStrings) {
+      assertSame(legacyTree.getEmoji(emoji, 0, emoji.length), tree.getEmoji(emoji, 0, emoji.length))
+    }
+
+    assertNull(tree.getEmoji("abc", 0, 3))
+  }
+
+  @Test
+  fun `matches the previous parser on random text`() {
+    val random = Random(1)
+
+    repeat(50_000) {
+      val text = randomBody(random, emojiDensity = 0.5f)
+      val expected = legacyFindCandidates(text)
+      val actual = parser.findCandidates(text)
+
+      assertEquals(text, expected.candidates, actual.list.map { Triple(it.startIndex, it.endIndex, it.drawInfo) })
+      assertEquals(text, expected.allEmojis, actual.allEmojis)
+    }
+  }
+
+  companion object {
+    private val page = EmojiPage.Asset(mock<Uri>())
+
+    /** Every emoji we ship, from the bundled emoji data. */
+    val emojiStrings: List<String> by lazy {
+      val json = File("src/main/assets/emoji/emoji_data.json").readText()
+
+      Regex("\"([0-9a-f]+)\"")
+        .findAll(json.substringAfter("\"emoji\"").substringBefore("\"obsolete\""))
+        .map { match -> match.groupValues[1].chunked(4).map { it.toInt(16).toChar() }.joinToString("") }
+        .toList()
+    }
+
+    val tree: EmojiTree by lazy {
+      val builder = EmojiTree.Builder()
+      drawInfos.forEach { (emoji, drawInfo) -> builder.add(emoji, drawInfo) }
+      builder.build()
+    }
+
+    val legacyTree: LegacyEmojiTree by lazy {
+      LegacyEmojiTree().apply { drawInfos.forEach { (emoji, drawInfo) -> add(emoji, drawInfo) } }
+    }
+
+    private val drawInfos: List<Pair<String, EmojiDrawInfo>> by lazy {
+      emojiStrings.mapIndexed { i, emoji -> emoji to EmojiDrawInfo(page, i, emoji, null, null) }
+    }
+
+    private val fillers = listOf("hello", " ", "a", "1", "#", "*", "\uFE0F", "\u20E3", "\u200D", "\uD83C\uDFFB", "\uD83C", "\uD83D", "❤", "©", "ok see you then")
+
+    /**
+     * Builds a message body out of emoji, partial emoji, text, and random chars, where [emojiDensity] is the share of parts that are emoji.
+     */
+    fun randomBody(random: Random, emojiDensity: Float): String {
+      val body = StringBuilder()
+
+      repeat(random.nextInt(12)) {
+        if (random.nextFloat() < emojiDensity) {
+          val emoji = emojiStrings[random.nextInt(emojiStrings.size)]
+          body.append(if (random.nextInt(4) == 0) emoji.substring(0, random.nextInt(emoji.length) + 1) else emoji)
+        } else if (random.nextBoolean()) {
+          body.append(fillers[random.nextInt(fillers.size)])
+        } else {
+          body.append(random.nextInt(0x10000).toChar())
+        }
+      }
+
+      return body.toString()
+    }
+
+    /**
+     * The previous parser, which walked the tree from the root once per candidate end position.
+     */
+    fun legacyFindCandidates(text: CharSequence): LegacyCandidates {
+      val results = mutableListOf<Triple<Int, Int, EmojiDrawInfo?>>()
+      var allEmojis = text.isNotEmpty()
+      var i = 0
+
+      while (i < text.length) {
+        var emojiEnd = legacyEmojiEndPos(text, i)
+
+        if (emojiEnd != -1) {
+          val drawInfo = legacyTree.getEmoji(text, i, emojiEnd)
+
+          if (emojiEnd + 2 <= text.length && Fitzpatrick.fitzpatrickFromUnicode(text, emojiEnd) != null) {
+            emojiEnd += 2
+          }
+
+          results += Triple(i, emojiEnd, drawInfo)
+          i = emojiEnd
+        } else {
+          if (text[i] != ' ') {
+            allEmojis = false
+          }
+          i++
+        }
+      }
+
+      return LegacyCandidates(results, allEmojis && results.isNotEmpty())
+    }
+
+    private fun legacyEmojiEndPos(text: CharSequence, startPos: Int): Int {
+      var best = -1
+
+      for (j in startPos + 1..text.length) {
+        when (legacyTree.isEmoji(text, startPos, j)) {
+          LegacyEmojiTree.Matches.EXACTLY -> best = j
+          LegacyEmojiTree.Matches.IMPOSSIBLE -> return best
+          LegacyEmojiTree.Matches.POSSIBLY -> Unit
+        }
+      }
+
+      return best
+    }
+  }
+
+  data class LegacyCandidates(val candidates: List<Triple<Int, Int, EmojiDrawInfo?>>, val allEmojis: Boolean)
+
+  /**
+   * The previous tree, with a hash map of children per node.
+   */
+  class LegacyEmojiTree {
+    private val root = Node()
+
+    fun add(emoji: String, drawInfo: EmojiDrawInfo) {
+      var node = root
+      for (c in emoji) {
+        node = node.children.getOrPut(c) { Node() }
+      }
+      node.drawInfo = drawInfo
+    }
+
+    fun isEmoji(sequence: CharSequence, start: Int, end: Int): Matches {
+      var node = root
+      for (i in start until end) {
+        node = node.children[sequence[i]] ?: return Matches.IMPOSSIBLE
+      }
+
+      return if (node.drawInfo != null || (sequence[end - 1] != TERMINATOR && node.children[TERMINATOR]?.drawInfo != null)) {
+        Matches.EXACTLY
+      } else {
+        Matches.POSSIBLY
+      }
+    }
+
+    fun getEmoji(sequence: CharSequence, start: Int, end: Int): EmojiDrawInfo? {
+      var node = root
+      for (i in start until end) {
+        node = node.children[sequence[i]] ?: return null
+      }
+
+      return when {
+        node.drawInfo != null -> node.drawInfo
+        sequence[end - 1] != TERMINATOR -> node.children[TERMINATOR]?.drawInfo
+        else -> null
+      }
+    }
+
+    private class Node {
+      val children: MutableMap<Char, Node> = HashMap()
+      var drawInfo: EmojiDrawInfo? = null
+    }
+
+    enum class Matches {
+      EXACTLY, POSSIBLY, IMPOSSIBLE
+    }
+
+    companion object {
+      private const val TERMINATOR = '\uFE0F'
+    }
+  }
+}
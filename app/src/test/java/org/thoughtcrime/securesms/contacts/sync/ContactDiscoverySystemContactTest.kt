@@ -0,0 +1,105 @@
+package org.thoughtcrime.securesms.contacts.sync
+
+import android.app.Application
+import android.net.Uri
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.signal.contacts.SystemContactsRepository.ContactDetails
+import org.signal.contacts.SystemContactsRepository.ContactPhoneDetails
+import org.thoughtcrime.securesms.contacts.sync.ContactDiscovery.SystemContact
+import org.thoughtcrime.securesms.contacts.sync.ContactDiscovery.SystemContactNumber
+import org.thoughtcrime.securesms.profiles.ProfileName
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class ContactDiscoverySystemContactTest {
+
+  @Test
+  fun `identical contacts have the same hash`() {
+    assertEquals(SystemContact(listOf(number())).hash, SystemContact(listOf(number())).hash)
+  }
+
+  @Test
+  fun `changing any field we store changes the hash`() {
+    val original = SystemContact(listOf(number())).hash
+
+    val changed = listOf(
+      number(realNumber = "+15555550199"),
+      number(profileName = ProfileName.fromParts("Alicia", "Smith")),
+      number(profileName = ProfileName.fromParts("Alice", "Jones")),
+      number(displayName = "Alicia Smith"),
+      number(displayName = null),
+      number(photoUri = "content://photo/2"),
+      number(label = "Work"),
+      number(type = 3),
+      number(contactUri = "content://contacts/2")
+    )
+
+    for (number in changed) {
+      assertNotEquals(number.toString(), original, SystemContact(listOf(number)).hash)
+    }
+  }
+
+  @Test
+  fun `adding or removing a number changes the hash`() {
+    val one = SystemContact(listOf(number()))
+    val two = SystemContact(listOf(number(), number(realNumber = "+15555550199")))
+
+    assertNotEquals(one.hash, two.hash)
+  }
+
+  @Test
+  fun `text moving between adjacent fields changes the hash`() {
+    assertNotEquals(
+      SystemContact(listOf(number(photoUri = "ab", label = "c"))).hash,
+      SystemContact(listOf(number(photoUri = "a", label = "bc"))).hash
+    )
+  }
+
+  @Test
+  fun `from - skips the local number and uuids and applies rewrites`() {
+    val details = ContactDetails(
+      givenName = "Alice",
+      familyName = "Smith",
+      numbers = listOf(
+        phoneDetails("+15555550100"),
+        phoneDetails("+15555550101"),
+        phoneDetails("8b7b6d4e-52a5-4d3f-9e0f-1a1b1c1d1e1f"),
+        phoneDetails("5550102")
+      )
+    )
+
+    val contact = SystemContact.from(details, localNumber = "+15555550100", rewrites = mapOf("5550102" to "+15555550102"))
+
+    assertEquals(listOf("+15555550101", "+15555550102"), contact.numbers.map { it.realNumber })
+    assertEquals(ProfileName.fromParts("Alice", "Smith"), contact.numbers[0].profileName)
+    assertEquals(setOf("content://contacts/1"), contact.contactUris)
+  }
+
+  private fun number(
+    realNumber: String = "+15555550100",
+    profileName: ProfileName = ProfileName.fromParts("Alice", "Smith"),
+    displayName: String? = "Alice Smith",
+    photoUri: String? = "content://photo/1",
+    label: String? = "Mobile",
+    type: Int = 2,
+    contactUri: String = "content://contacts/1"
+  ): SystemContactNumber {
+    return SystemContactNumber(realNumber, profileName, displayName, photoUri, label, type, contactUri)
+  }
+
+  private fun phoneDetails(number: String): ContactPhoneDetails {
+    return ContactPhoneDetails(
+      contactUri = Uri.parse("content://contacts/1"),
+      displayName = "Alice Smith",
+      photoUri = null,
+      number = number,
+      type = 2,
+      label = null
+    )
+  }
+}
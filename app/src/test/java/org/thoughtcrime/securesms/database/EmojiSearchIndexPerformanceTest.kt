@@ -0,0 +1,50 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Compares the time it takes to answer a query on every keystroke of a search against the previous scan-and-sort, over a label set the size
+ * of the one we download. The previous timings leave out SQLite evaluating the LIKE, so they understate what each keystroke used to cost.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+class EmojiSearchIndexPerformanceTest {
+
+  companion object {
+    private const val LABEL_COUNT = 20_000
+    private const val LIMIT = 50
+    private const val ITERATIONS = 20
+
+    private val SEARCHES = listOf("smiling face", "heart", "thumbs up", "cat", "party", "tears of joy", "fire")
+  }
+
+  @Test
+  fun queryTime() {
+    val entries = EmojiSearchIndexTest.randomEntries(Random(1), LABEL_COUNT)
+    val keystrokes = SEARCHES.flatMap { search -> (1..search.length).map { search.substring(0, it) } }
+
+    val buildStart = System.nanoTime()
+    val index = EmojiSearchIndex(entries)
+    println("Built index of $LABEL_COUNT labels in ${(System.nanoTime() - buildStart) / 1_000_000} ms")
+
+    val legacyNanos = timeIterations { keystrokes.forEach { EmojiSearchIndexTest.fullScan(entries, it, LIMIT, candidateLimit = 200) } }
+    val nanos = timeIterations { keystrokes.forEach { index.query(it, LIMIT) } }
+
+    println("legacy: ${legacyNanos / ITERATIONS / keystrokes.size / 1000} us/keystroke, current: ${nanos / ITERATIONS / keystrokes.size / 1000} us/keystroke")
+
+    for (length in 1..4) {
+      val queries = keystrokes.filter { it.length == length }
+      val lengthNanos = timeIterations { queries.forEach { index.query(it, LIMIT) } }
+      println("[$length chars] current: ${lengthNanos / ITERATIONS / queries.size / 1000} us/keystroke")
+    }
+  }
+
+  private inline fun timeIterations(block: () -> Unit): Long {
+    repeat(ITERATIONS) { block() }
+
+    val startTime = System.nanoTime()
+    repeat(ITERATIONS) { block() }
+    return System.nanoTime() - startTime
+  }
+}
@@ -0,0 +1,155 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import kotlin.random.Random
+
+class EmojiSearchIndexTest {
+
+  @Test
+  fun `empty query has no results`() {
+    val index = EmojiSearchIndex(listOf(entry("smile", "a", 1)))
+
+    assertEquals(emptyList<String>(), index.query("", 10))
+    assertEquals(emptyList<String>(), index.query("   ", 10))
+  }
+
+  @Test
+  fun `no match has no results`() {
+    val index = EmojiSearchIndex(listOf(entry("smile", "a", 1)))
+
+    assertEquals(emptyList<String>(), index.query("frown", 10))
+    assertEquals(emptyList<String>(), index.query("smiles", 10))
+  }
+
+  @Test
+  fun `exact matches come first, then prefixes, then other substrings`() {
+    val index = EmojiSearchIndex(
+      listOf(
+        entry("big cat", "a", 1),
+        entry("catapult", "b", 2),
+        entry("cat", "c", 3)
+      )
+    )
+
+    assertEquals(listOf("c", "b", "a"), index.query("cat", 10))
+  }
+
+  @Test
+  fun `equally similar matches are ordered by rank`() {
+    val index = EmojiSearchIndex(
+      listOf(
+        entry("heart", "a", 1),
+        entry("heart", "b", 5),
+        entry("heart", "c", Int.MAX_VALUE)
+      )
+    )
+
+    assertEquals(listOf("a", "b", "c"), index.query("heart", 10))
+  }
+
+  @Test
+  fun `each emoji is only returned once, for its best label`() {
+    val index = EmojiSearchIndex(
+      listOf(
+        entry("happy face", "a", 1),
+        entry("happy", "a", 1),
+        entry("happy cat", "b", 2)
+      )
+    )
+
+    assertEquals(listOf("a", "b"), index.query("happy", 10))
+  }
+
+  @Test
+  fun `matching ignores case and surrounding whitespace`() {
+    val index = EmojiSearchIndex(listOf(entry("Thumbs Up", "a", 1)))
+
+    assertEquals(listOf("a"), index.query("  thumbs UP ", 10))
+  }
+
+  @Test
+  fun `short queries match anywhere in the label`() {
+    val index = EmojiSearchIndex(listOf(entry("ox", "a", 1), entry("fox", "b", 2), entry("cat", "c", 3)))
+
+    assertEquals(listOf("a", "b"), index.query("ox", 10))
+    assertEquals(listOf("a", "b"), index.query("x", 10))
+  }
+
+  @Test
+  fun `a label that repeats a trigram is still found`() {
+    val index = EmojiSearchIndex(listOf(entry("aaaaa", "a", 1), entry("baaab", "b", 2)))
+
+    assertEquals(listOf("a", "b"), index.query("aaa", 10))
+  }
+
+  @Test
+  fun `matches a full scan on random labels`() {
+    val random = Random(1)
+    val entries = randomEntries(random, 5_000)
+    val index = EmojiSearchIndex(entries)
+
+    repeat(2_000) {
+      val label = entries[random.nextInt(entries.size)].label
+      val start = random.nextInt(label.length)
+      val query = label.substring(start, (start + random.nextInt(1, 8)).coerceAtMost(label.length))
+      val limit = random.nextInt(1, 60)
+
+      assertEquals(query, fullScan(entries, query, limit), index.query(query, limit))
+    }
+  }
+
+  companion object {
+    private val WORDS = listOf(
+      "face", "smiling", "grinning", "eyes", "heart", "cat", "dog", "hand", "thumbs", "up", "down", "sun", "moon", "star", "fire", "water", "tree",
+      "flower", "food", "drink", "car", "train", "plane", "flag", "book", "money", "sad", "cry", "laugh", "tears", "joy", "party", "music", "ball"
+    )
+
+    fun randomEntries(random: Random, count: Int): List<EmojiSearchIndex.Entry> {
+      return List(count) { i ->
+        val label = List(random.nextInt(1, 4)) { WORDS[random.nextInt(WORDS.size)] }.joinToString(" ")
+        val rank = if (random.nextInt(4) == 0) Int.MAX_VALUE else random.nextInt(1, 3_000)
+        entry(label, "emoji${i / 5}", rank)
+      }.sortedBy { it.rank }
+    }
+
+    /**
+     * Every label that contains the query, sorted by score with the score recomputed on every comparison, as the table used to.
+     */
+    fun fullScan(entries: List<EmojiSearchIndex.Entry>, originalQuery: String, limit: Int, candidateLimit: Int = Int.MAX_VALUE): List<String> {
+      val query = originalQuery.trim().lowercase()
+      if (query.isEmpty()) {
+        return emptyList()
+      }
+
+      val maxRank = entries.filter { it.rank != Int.MAX_VALUE }.maxOfOrNull { it.rank } ?: 0
+
+      return entries
+        .filter { it.label.lowercase().contains(query) }
+        .take(candidateLimit)
+        .sortedWith { lhs, rhs -> similarityScore(query, lhs, maxRank).compareTo(similarityScore(query, rhs, maxRank)) }
+        .distinctBy { it.emoji }
+        .take(limit)
+        .map { it.emoji }
+    }
+
+    private fun similarityScore(searchTerm: String, entry: EmojiSearchIndex.Entry, maxRank: Int): Float {
+      val match = entry.label.lowercase()
+      val scaledRank = if (entry.rank == Int.MAX_VALUE) 2f else entry.rank * (2f / maxRank)
+
+      if (searchTerm == match) {
+        return scaledRank
+      }
+
+      val startIndex = match.indexOf(searchTerm)
+      val prefixCount = startIndex
+      val suffixCount = match.length - (startIndex + searchTerm.length)
+
+      return 2f + (prefixCount * 1.75f) + (suffixCount * 0.75f) + scaledRank
+    }
+
+    private fun entry(label: String, emoji: String, rank: Int): EmojiSearchIndex.Entry {
+      return EmojiSearchIndex.Entry(label, emoji, rank)
+    }
+  }
+}
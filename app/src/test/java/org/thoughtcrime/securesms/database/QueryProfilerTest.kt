@@ -0,0 +1,61 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class QueryProfilerTest {
+
+  @Test
+  fun normalize_replacesLiterals() {
+    val shape = QueryProfiler.normalize("SELECT * FROM message WHERE _id = 123 AND body = 'it''s' AND date > -5")
+
+    assertEquals("SELECT * FROM message WHERE _id = ? AND body = ? AND date > -?", shape)
+  }
+
+  @Test
+  fun normalize_keepsIdentifiersWithDigits() {
+    val shape = QueryProfiler.normalize("SELECT t1.col2 FROM table1 t1")
+
+    assertEquals("SELECT t1.col2 FROM table1 t1", shape)
+  }
+
+  @Test
+  fun normalize_collapsesWhitespaceAndInLists() {
+    val shape = QueryProfiler.normalize("  SELECT *\n   FROM thread\n  WHERE _id IN (1, 2,3) OR recipient_id IN (?, ?)  ")
+
+    assertEquals("SELECT * FROM thread WHERE _id IN (?, ...) OR recipient_id IN (?, ...)", shape)
+  }
+
+  @Test
+  fun onStatementCompleted_groupsByShape() {
+    val profiler = QueryProfiler()
+
+    profiler.onStatementCompleted("rawQuery(2a)", null, "SELECT * FROM message WHERE _id = 1", 10, -1, 0)
+    profiler.onStatementCompleted("rawQuery(2a)", null, "SELECT * FROM message WHERE _id = 2", 30, -1, 0)
+    val shape = profiler.onStatementCompleted("rawQuery(2a)", null, "SELECT * FROM message WHERE _id = 3", 20, -1, 0)
+    profiler.onCursorFilled(shape, 5, 1)
+    profiler.onStatementCompleted("update()", "thread", "_id = ?", 100, 4, 100)
+
+    val stats = profiler.getStatementStats()
+
+    assertEquals(2, stats.size)
+
+    val update = stats[0]
+    assertEquals("UPDATE thread WHERE _id = ?", update.shape)
+    assertEquals(4, update.rows)
+    assertEquals(100, update.lockNanos)
+
+    val query = stats[1]
+    assertEquals("SELECT * FROM message WHERE _id = ?", query.shape)
+    assertEquals(3, query.count)
+    assertEquals(60, query.totalNanos)
+    assertEquals(20, query.p50Nanos)
+    assertEquals(30, query.maxNanos)
+    assertEquals(1, query.rows)
+    assertEquals(1, query.cursorFills)
+    assertEquals(5, query.cursorFillNanos)
+
+    assertEquals(4, profiler.getRecentStatements().size)
+    assertEquals(update.shape, profiler.getRecentStatements().first().shape)
+  }
+}
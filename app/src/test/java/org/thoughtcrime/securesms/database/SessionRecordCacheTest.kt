@@ -0,0 +1,128 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import org.signal.libsignal.protocol.SignalProtocolAddress
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.util.UUID
+
+class SessionRecordCacheTest {
+
+  private val self = ACI.from(UUID.randomUUID())
+  private val other = ACI.from(UUID.randomUUID())
+
+  @Test
+  fun `put and get`() {
+    val cache = SessionRecordCache(1024)
+
+    cache.put(key(1), bytes(1, 10))
+
+    assertArrayEquals(bytes(1, 10), cache.get(key(1)))
+    assertNull(cache.get(key(2)))
+  }
+
+  @Test
+  fun `the same address under another account is a different session`() {
+    val cache = SessionRecordCache(1024)
+
+    cache.put(SessionRecordCache.Key(self, SignalProtocolAddress("a", 1)), bytes(1, 10))
+
+    assertNull(cache.get(SessionRecordCache.Key(other, SignalProtocolAddress("a", 1))))
+  }
+
+  @Test
+  fun `least recently used records are evicted once over size`() {
+    val cache = SessionRecordCache(30)
+
+    cache.put(key(1), bytes(1, 10))
+    cache.put(key(2), bytes(2, 10))
+    cache.put(key(3), bytes(3, 10))
+    cache.get(key(1))
+    cache.put(key(4), bytes(4, 10))
+
+    assertNull(cache.get(key(2)))
+    assertArrayEquals(bytes(1, 10), cache.get(key(1)))
+    assertArrayEquals(bytes(3, 10), cache.get(key(3)))
+    assertArrayEquals(bytes(4, 10), cache.get(key(4)))
+  }
+
+  @Test
+  fun `replacing a record accounts for the size of the old one`() {
+    val cache = SessionRecordCache(30)
+
+    repeat(10) { cache.put(key(1), bytes(it, 10)) }
+    cache.put(key(2), bytes(2, 10))
+    cache.put(key(3), bytes(3, 10))
+
+    assertEquals(3, cache.size)
+  }
+
+  @Test
+  fun `a record bigger than the cache is not kept`() {
+    val cache = SessionRecordCache(30)
+
+    cache.put(key(1), bytes(1, 10))
+    cache.put(key(1), bytes(1, 40))
+
+    assertNull(cache.get(key(1)))
+    assertEquals(0, cache.size)
+  }
+
+  @Test
+  fun `a fill from before a change is ignored`() {
+    val cache = SessionRecordCache(1024)
+
+    val version = cache.version
+    cache.put(key(1), bytes(2, 10))
+    cache.fill(key(1), bytes(1, 10), version)
+
+    assertArrayEquals(bytes(2, 10), cache.get(key(1)))
+  }
+
+  @Test
+  fun `a fill from before a removal is ignored`() {
+    val cache = SessionRecordCache(1024)
+
+    val version = cache.version
+    cache.remove(key(1))
+    cache.fill(key(1), bytes(1, 10), version)
+
+    assertNull(cache.get(key(1)))
+  }
+
+  @Test
+  fun `a fill with no changes since is kept`() {
+    val cache = SessionRecordCache(1024)
+
+    cache.fill(key(1), bytes(1, 10), cache.version)
+
+    assertArrayEquals(bytes(1, 10), cache.get(key(1)))
+  }
+
+  @Test
+  fun `removing all for an address only removes that address for that account`() {
+    val cache = SessionRecordCache(1024)
+
+    cache.put(SessionRecordCache.Key(self, SignalProtocolAddress("a", 1)), bytes(1, 10))
+    cache.put(SessionRecordCache.Key(self, SignalProtocolAddress("a", 2)), bytes(2, 10))
+    cache.put(SessionRecordCache.Key(self, SignalProtocolAddress("b", 1)), bytes(3, 10))
+    cache.put(SessionRecordCache.Key(other, SignalProtocolAddress("a", 1)), bytes(4, 10))
+
+    cache.removeAll(self, "a")
+
+    assertNull(cache.get(SessionRecordCache.Key(self, SignalProtocolAddress("a", 1))))
+    assertNull(cache.get(SessionRecordCache.Key(self, SignalProtocolAddress("a", 2))))
+    assertArrayEquals(bytes(3, 10), cache.get(SessionRecordCache.Key(self, SignalProtocolAddress("b", 1))))
+    assertArrayEquals(bytes(4, 10), cache.get(SessionRecordCache.Key(other, SignalProtocolAddress("a", 1))))
+  }
+
+  private fun key(deviceId: Int): SessionRecordCache.Key {
+    return SessionRecordCache.Key(self, SignalProtocolAddress("address", deviceId))
+  }
+
+  private fun bytes(value: Int, size: Int): ByteArray {
+    return ByteArray(size) { value.toByte() }
+  }
+}
@@ -0,0 +1,277 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.jobmanager.persistence.ConstraintSpec;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobStorage;
+import org.thoughtcrime.securesms.util.Debouncer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for how {@link JobController} hands work to runners: a runner is only ever signaled while it's
+ * parked waiting for work, only for a job it would accept and that can run right now, and it wakes up
+ * with exactly that job.
+ */
+public class JobControllerTest {
+
+  private static final String FACTORY_KEY    = "TestJob";
+  private static final String CONSTRAINT_KEY = "TestConstraint";
+  private static final long   TIMEOUT_MS     = 5_000;
+
+  private final List<JobSpec>  pendingJobs    = new CopyOnWriteArrayList<>();
+  private final List<String>   constrainedIds = new CopyOnWriteArrayList<>();
+  private final AtomicBoolean  constraintMet  = new AtomicBoolean(false);
+
+  private ExecutorService runners;
+  private JobController   subject;
+
+  @BeforeClass
+  public static void init() {
+    Log.initialize(mock(Log.Logger.class));
+  }
+
+  @Before
+  public void setUp() {
+    JobStorage jobStorage = mock(JobStorage.class);
+
+    when(jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(anyLong())).thenAnswer(invocation -> new ArrayList<>(pendingJobs));
+    when(jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(anyCollection(), anyLong())).thenAnswer(invocation -> {
+      Collection<String> ids = invocation.getArgument(0);
+      return pendingJobs.stream().filter(spec -> ids.contains(spec.getId())).collect(Collectors.toList());
+    });
+    when(jobStorage.getConstraintSpecs(anyString())).thenAnswer(invocation -> {
+      String id = invocation.getArgument(0);
+      return constrainedIds.contains(id) ? Collections.singletonList(new ConstraintSpec(id, CONSTRAINT_KEY, false))
+                                         : Collections.emptyList();
+    });
+    doAnswer(invocation -> {
+      String id = invocation.getArgument(0);
+      pendingJobs.removeIf(spec -> spec.getId().equals(id));
+      return null;
+    }).when(jobStorage).updateJobRunningState(anyString(), anyBoolean());
+
+    JobInstantiator jobInstantiator = new JobInstantiator(Collections.singletonMap(FACTORY_KEY, (parameters, data) -> {
+      Job job = mock(Job.class);
+      when(job.getId()).thenReturn(parameters.getId());
+      return job;
+    }));
+
+    Constraint constraint = mock(Constraint.class);
+    when(constraint.isMet()).thenAnswer(invocation -> constraintMet.get());
+
+    ConstraintInstantiator constraintInstantiator = new ConstraintInstantiator(Collections.singletonMap(CONSTRAINT_KEY, () -> constraint));
+
+    subject = new JobController(mock(Application.class),
+                                jobStorage,
+                                jobInstantiator,
+                                constraintInstantiator,
+                                mock(JobTracker.class),
+                                mock(Scheduler.class),
+                                mock(Debouncer.class),
+                                mock(JobController.Callback.class));
+
+    runners = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    runners.shutdownNow();
+  }
+
+  @Test
+  public void wakeUp_signalsIdleRunner_whenJobBecomesEligible() throws Exception {
+    Future<Job> runner = startRunner(JobPredicate.NONE);
+    awaitIdleRunners(1);
+
+    addJob("1", null);
+    subject.wakeUp();
+
+    assertEquals("1", runner.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).getId());
+    assertDispatch(1, 1, 0);
+  }
+
+  @Test
+  public void wakeUp_doesNotSignalIdleRunner_whenConstraintsAreNotMet() throws Exception {
+    Future<Job> runner = startRunner(JobPredicate.NONE);
+    awaitIdleRunners(1);
+
+    addJob("1", null);
+    constrainedIds.add("1");
+    subject.wakeUp();
+
+    assertStillIdle(runner, 1);
+    assertDispatch(0, 0, 0);
+
+    constraintMet.set(true);
+    subject.wakeUp();
+
+    assertEquals("1", runner.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).getId());
+    assertDispatch(1, 1, 0);
+  }
+
+  @Test
+  public void wakeUp_doesNotSignalIdleRunner_whenItsPredicateRejectsTheJob() throws Exception {
+    Future<Job> runner = startRunner(spec -> "reserved".equals(spec.getQueueKey()));
+    awaitIdleRunners(1);
+
+    addJob("1", "other");
+    subject.wakeUp();
+
+    assertStillIdle(runner, 1);
+    assertDispatch(0, 0, 0);
+
+    addJob("2", "reserved");
+    subject.wakeUp();
+
+    assertEquals("2", runner.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).getId());
+    assertDispatch(1, 1, 0);
+  }
+
+  @Test
+  public void wakeUp_doesNotSignalBusyRunner_andRunnerPicksUpWorkOnNextPull() throws Exception {
+    addJob("1", null);
+    subject.wakeUp();
+
+    Job first = startRunner(JobPredicate.NONE).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertEquals("1", first.getId());
+
+    addJob("2", null);
+    subject.wakeUp();
+
+    assertDispatch(0, 0, 0);
+
+    Job second = startRunner(JobPredicate.NONE).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertEquals("2", second.getId());
+    assertDispatch(0, 0, 0);
+  }
+
+  @Test
+  public void wakeUp_signalsOneRunnerPerJob() throws Exception {
+    Future<Job> runner1 = startRunner(JobPredicate.NONE);
+    Future<Job> runner2 = startRunner(JobPredicate.NONE);
+    awaitIdleRunners(2);
+
+    addJob("1", null);
+    subject.wakeUp();
+
+    awaitIdleRunners(1);
+
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (!runner1.isDone() && !runner2.isDone()) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Timed out waiting for a runner to pick up the job.");
+      }
+      Thread.sleep(10);
+    }
+
+    assertTrue(runner1.isDone() ^ runner2.isDone());
+    assertDispatch(1, 1, 0);
+  }
+
+  @Test
+  public void wakeUp_prefersReservedRunnerOverGeneralRunner() throws Exception {
+    Future<Job> general  = startRunner(JobPredicate.NONE);
+    awaitIdleRunners(1);
+    Future<Job> reserved = startRunner(spec -> "reserved".equals(spec.getQueueKey()));
+    awaitIdleRunners(2);
+
+    addJob("1", "reserved");
+    subject.wakeUp();
+
+    assertEquals("1", reserved.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).getId());
+    assertStillIdle(general, 1);
+  }
+
+  @Test
+  public void wakeUp_eachRunnerWakesUpWithTheJobItWasSignaledFor() throws Exception {
+    Future<Job> reserved = startRunner(spec -> "reserved".equals(spec.getQueueKey()));
+    awaitIdleRunners(1);
+    Future<Job> general1 = startRunner(JobPredicate.NONE);
+    Future<Job> general2 = startRunner(JobPredicate.NONE);
+    awaitIdleRunners(3);
+
+    addJob("1", "reserved");
+    addJob("2", null);
+    subject.wakeUp();
+
+    assertEquals("1", reserved.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).getId());
+
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (!general1.isDone() && !general2.isDone()) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Timed out waiting for a general runner to pick up the job.");
+      }
+      Thread.sleep(10);
+    }
+
+    Future<Job> woken  = general1.isDone() ? general1 : general2;
+    Future<Job> parked = general1.isDone() ? general2 : general1;
+
+    assertEquals("2", woken.get().getId());
+    assertStillIdle(parked, 1);
+    assertDispatch(2, 2, 0);
+  }
+
+  private Future<Job> startRunner(@NonNull JobPredicate predicate) {
+    return runners.submit(() -> subject.pullNextEligibleJobForExecution(predicate));
+  }
+
+  private void addJob(@NonNull String id, String queue) {
+    pendingJobs.add(new JobSpec(id, FACTORY_KEY, queue, System.currentTimeMillis(), 0, 0, 1, Job.Parameters.IMMORTAL, null, null, false, false));
+  }
+
+  private void awaitIdleRunners(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+    while (subject.getIdleRunnerCount() != count) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Timed out waiting for " + count + " idle runners. Currently: " + subject.getIdleRunnerCount());
+      }
+      Thread.sleep(10);
+    }
+  }
+
+  private void assertStillIdle(@NonNull Future<Job> runner, int idleRunners) throws InterruptedException {
+    awaitIdleRunners(idleRunners);
+    assertFalse(runner.isDone());
+  }
+
+  private void assertDispatch(long signals, long wakeUps, long emptyWakeUps) {
+    JobController.DispatchMetrics metrics = subject.getDispatchMetrics();
+
+    assertEquals("Signals", signals, metrics.getSignals());
+    assertEquals("Wake-ups", wakeUps, metrics.getWakeUps());
+    assertEquals("Empty wake-ups", emptyWakeUps, metrics.getEmptyWakeUps());
+  }
+}
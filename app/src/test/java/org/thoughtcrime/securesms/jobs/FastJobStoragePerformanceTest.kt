@@ -0,0 +1,105 @@
+package org.thoughtcrime.securesms.jobs
+
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.Ignore
+import org.junit.Test
+import org.thoughtcrime.securesms.database.JobDatabase
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec
+import kotlin.random.Random
+
+/**
+ * Compares the scheduling query of [FastJobStorage] against the linear scan it used to perform, at different job counts.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+class FastJobStoragePerformanceTest {
+
+  companion object {
+    private const val QUEUE_COUNT = 500
+    private const val ITERATIONS = 200
+  }
+
+  @Test
+  fun pendingJobs_10k() {
+    measure(10_000)
+  }
+
+  @Test
+  fun pendingJobs_50k() {
+    measure(50_000)
+  }
+
+  private fun measure(jobCount: Int) {
+    val jobs: List<JobSpec> = generateJobs(jobCount)
+
+    val database: JobDatabase = mockk {
+      every { allJobSpecs } returns jobs
+      every { allConstraintSpecs } returns emptyList()
+      every { allDependencySpecs } returns emptyList()
+      every { updateJobRunningState(any(), any()) } returns Unit
+    }
+
+    val subject = FastJobStorage(database)
+    subject.init()
+
+    val indexedNanos: Long = timeIterations { iteration ->
+      val pending = subject.getPendingJobsWithNoDependenciesInCreatedOrder(iteration.toLong())
+      pending.firstOrNull()?.let { subject.updateJobRunningState(it.id, true) }
+    }
+
+    val legacyJobs: MutableList<JobSpec> = jobs.toMutableList()
+    val legacyNanos: Long = timeIterations { iteration ->
+      val pending = legacyPendingJobs(legacyJobs, iteration.toLong())
+      pending.firstOrNull()?.let { job ->
+        val index = legacyJobs.indexOfFirst { it.id == job.id }
+        legacyJobs[index] = job.copy(isRunning = true)
+      }
+    }
+
+    println("[$jobCount jobs] indexed: ${indexedNanos / ITERATIONS / 1000} us/call, linear: ${legacyNanos / ITERATIONS / 1000} us/call")
+  }
+
+  private fun timeIterations(block: (Int) -> Unit): Long {
+    val start = System.nanoTime()
+    for (i in 0 until ITERATIONS) {
+      block(i)
+    }
+    return System.nanoTime() - start
+  }
+
+  private fun generateJobs(count: Int): List<JobSpec> {
+    val random = Random(count)
+
+    return (0 until count).map { i ->
+      JobSpec(
+        id = "job-$i",
+        factoryKey = "factory-${i % 20}",
+        queueKey = if (i % 10 == 0) null else "queue-${random.nextInt(QUEUE_COUNT)}",
+        createTime = i.toLong(),
+        nextRunAttemptTime = random.nextLong(ITERATIONS.toLong() * 2),
+        runAttempt = 0,
+        maxAttempts = 1,
+        lifespan = -1,
+        serializedData = null,
+        serializedInputData = null,
+        isRunning = false,
+        isMemoryOnly = false
+      )
+    }
+  }
+
+  /**
+   * The scan [FastJobStorage.getPendingJobsWithNoDependenciesInCreatedOrder] performed before it was indexed.
+   */
+  private fun legacyPendingJobs(jobs: List<JobSpec>, currentTime: Long): List<JobSpec> {
+    return jobs
+      .groupBy { it.queueKey ?: it.id }
+      .map { byQueueKey: Map.Entry<String, List<JobSpec>> ->
+        byQueueKey.value.minByOrNull { it.createTime }
+      }
+      .filterNotNull()
+      .filterNot { it.isRunning }
+      .filter { job -> job.nextRunAttemptTime <= currentTime }
+      .sortedBy { it.createTime }
+  }
+}
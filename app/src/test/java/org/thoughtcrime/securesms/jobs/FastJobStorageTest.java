@@ -593,6 +593,102 @@ public class FastJobStorageTest {
     assertTrue(subject.areQueuesEmpty(setOf("q4", "q5")));
   }
 
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_nextInQueueAfterFirstDeleted() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, null, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 0, 0, 0, 0, -1, null, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+    subject.init();
+    subject.deleteJob("1");
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_eligibleOnceDependencyDeleted() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q1", 0, 0, 0, 0, -1, null, null, true, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q2", 0, 0, 0, 0, -1, null, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.singletonList(new DependencySpec("2", "1", false)));
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+    subject.init();
+
+    assertEquals(0, subject.getPendingJobsWithNoDependenciesInCreatedOrder(10).size());
+
+    subject.deleteJob("1");
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_eligibleAfterRetryTimePasses() {
+    FullSpec fullSpec = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, null, null, true, false),
+                                     Collections.emptyList(),
+                                     Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Collections.singletonList(fullSpec)));
+    subject.init();
+    subject.updateJobAfterRetry("1", false, 1, 20, null);
+
+    assertEquals(0, subject.getPendingJobsWithNoDependenciesInCreatedOrder(10).size());
+    assertEquals(1, subject.getPendingJobsWithNoDependenciesInCreatedOrder(20).size());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_givenIds_onlyEligibleJobsWithThoseIds() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, null, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 1, 0, 0, 0, -1, null, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec3 = new FullSpec(new JobSpec("3", "f3", null, 2, 0, 0, 0, -1, null, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec4 = new FullSpec(new JobSpec("4", "f4", null, 3, 0, 0, 0, -1, null, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2, fullSpec3, fullSpec4)));
+    subject.init();
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(Arrays.asList("4", "2", "1", "5"), 10);
+
+    assertEquals(2, jobs.size());
+    assertEquals("1", jobs.get(0).getId());
+    assertEquals("4", jobs.get(1).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_givenIds_migrationJobTakesPrecedence() {
+    FullSpec plainSpec     = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, null, null, false, false),
+                                          Collections.emptyList(),
+                                          Collections.emptyList());
+    FullSpec migrationSpec = new FullSpec(new JobSpec("2", "f2", Job.Parameters.MIGRATION_QUEUE_KEY, 5, 0, 0, 0, -1, null, null, false, false),
+                                          Collections.emptyList(),
+                                          Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(plainSpec, migrationSpec)));
+    subject.init();
+
+    assertEquals(0, subject.getPendingJobsWithNoDependenciesInCreatedOrder(Collections.singletonList("1"), 10).size());
+    assertEquals(1, subject.getPendingJobsWithNoDependenciesInCreatedOrder(Arrays.asList("1", "2"), 10).size());
+  }
+
   private JobDatabase noopDatabase() {
     JobDatabase database = mock(JobDatabase.class);
 
@@ -0,0 +1,141 @@
+package org.thoughtcrime.securesms.logging
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.thoughtcrime.securesms.database.model.LogEntry
+import java.io.File
+import java.io.RandomAccessFile
+import kotlin.random.Random
+
+class SegmentedLogStoreTest {
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private lateinit var directory: File
+  private val secret = Random(1).nextBytes(32)
+
+  @Before
+  fun setUp() {
+    directory = temporaryFolder.newFolder("logs")
+  }
+
+  @Test
+  fun `lines are read back in the order they were written`() {
+    val store = createStore()
+
+    store.insert(listOf(entry("one"), entry("two")), 0)
+    store.insert(listOf(entry("three", keepLonger = true)), 0)
+    store.insert(listOf(entry("four")), 0)
+    store.insert(listOf(entry("five"), entry("six", keepLonger = true), entry("seven"), entry("eight"), entry("nine", keepLonger = true)), 0)
+
+    assertEquals(listOf("one", "two", "three", "four", "five", "six", "seven", "eight", "nine"), store.readAll())
+    assertEquals(9, store.getLogCountBeforeTime(Long.MAX_VALUE))
+  }
+
+  @Test
+  fun `mixed batches keep their order across a reopen`() {
+    val lines = (1..20).map { "line $it" }
+
+    createStore().insert(lines.mapIndexed { i, line -> entry(line, keepLonger = i % 3 == 1) }, 0)
+    createStore().insert(listOf(entry("after", keepLonger = true), entry("reopen")), 0)
+
+    assertEquals(lines + listOf("after", "reopen"), createStore().readAll())
+  }
+
+  @Test
+  fun `only lines from before the given time are read`() {
+    val store = createStore()
+
+    store.insert(listOf(entry("one", createdAt = 1), entry("two", createdAt = 2), entry("three", createdAt = 3)), 0)
+
+    assertEquals(listOf("one", "two"), store.readAll(before = 3))
+    assertEquals(2, store.getLogCountBeforeTime(3))
+  }
+
+  @Test
+  fun `ranges match a full read, in any order`() {
+    val store = createStore(maxSegmentSize = 512)
+    val lines = (1..1000).map { "line $it" }
+
+    lines.chunked(7).forEachIndexed { i, batch -> store.insert(batch.map { entry(it, keepLonger = i % 3 == 0) }, 0) }
+
+    assertEquals(lines, store.readAll())
+
+    val forward = (0 until lines.size step 37).flatMap { store.getRangeBeforeTime(it, 37, Long.MAX_VALUE) }
+    assertEquals(lines, forward)
+
+    assertEquals(lines.subList(500, 510), store.getRangeBeforeTime(500, 10, Long.MAX_VALUE))
+    assertEquals(lines.subList(100, 110), store.getRangeBeforeTime(100, 10, Long.MAX_VALUE))
+    assertEquals(lines.subList(995, 1000), store.getRangeBeforeTime(995, 10, Long.MAX_VALUE))
+  }
+
+  @Test
+  fun `a new instance picks up where the last one left off`() {
+    createStore().insert(listOf(entry("one"), entry("two", keepLonger = true)), 0)
+
+    val store = createStore()
+    store.insert(listOf(entry("three")), 0)
+
+    assertEquals(listOf("one", "two", "three"), store.readAll())
+  }
+
+  @Test
+  fun `a record that was cut short is skipped`() {
+    createStore().apply {
+      insert(listOf(entry("one")), 0)
+      insert(listOf(entry("two")), 0)
+    }
+
+    val segment = File(directory, "regular").listFiles()!!.single()
+    RandomAccessFile(segment, "rw").use { it.setLength(it.length() - 5) }
+
+    val store = createStore()
+    store.insert(listOf(entry("three")), 0)
+
+    assertEquals(listOf("one", "three"), store.readAll())
+  }
+
+  @Test
+  fun `trimming drops the oldest lines once over size`() {
+    val store = createStore(maxSegmentSize = 256, maxTotalSize = 2048)
+    val lines = (1..500).map { "line $it" }
+
+    lines.forEach { store.insert(listOf(entry(it)), System.currentTimeMillis()) }
+    store.trimToSize()
+
+    val remaining = store.readAll()
+    val totalSize = File(directory, "regular").listFiles()!!.sumOf { it.length() }
+
+    assertTrue(totalSize <= 2048)
+    assertTrue(remaining.isNotEmpty())
+    assertEquals(lines.takeLast(remaining.size), remaining)
+  }
+
+  @Test
+  fun `clearing keep longer lines leaves the rest`() {
+    val store = createStore()
+
+    store.insert(listOf(entry("one"), entry("two", keepLonger = true)), 0)
+    store.insert(listOf(entry("three")), 0)
+    store.clearKeepLonger()
+
+    assertEquals(listOf("one", "three"), store.readAll())
+  }
+
+  private fun createStore(maxSegmentSize: Long = 64 * 1024, maxTotalSize: Long = 1024 * 1024): SegmentedLogStore {
+    return SegmentedLogStore(directory, secret, maxSegmentSize, maxTotalSize)
+  }
+
+  private fun SegmentedLogStore.readAll(before: Long = Long.MAX_VALUE): List<String> {
+    return getAllBeforeTime(before).use { reader -> reader.asSequence().toList() }
+  }
+
+  private fun entry(body: String, createdAt: Long = 0, keepLonger: Boolean = false): LogEntry {
+    return LogEntry(createdAt = createdAt, keepLonger = keepLonger, body = body)
+  }
+}
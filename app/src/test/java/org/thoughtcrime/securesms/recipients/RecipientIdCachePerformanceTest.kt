@@ -0,0 +1,129 @@
+package org.thoughtcrime.securesms.recipients
+
+import org.junit.Ignore
+import org.junit.Test
+import org.whispersystems.signalservice.api.push.ServiceId
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Compares lookup throughput of [RecipientIdCache] against the synchronized, access-ordered map it replaced, with many threads resolving a
+ * working set of recipients that mostly, but not entirely, fits in the cache.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+class RecipientIdCachePerformanceTest {
+
+  companion object {
+    private const val THREADS = 16
+    private const val CACHE_LIMIT = 1000
+    private const val RECIPIENT_COUNT = 1200
+    private const val LOOKUPS_PER_THREAD = 2_000_000
+  }
+
+  private val serviceIds: List<ServiceId> = (1..RECIPIENT_COUNT).map { ACI.from(UUID.randomUUID()) }
+  private val e164s: List<String> = (1..RECIPIENT_COUNT).map { "+1555${1_000_000 + it}" }
+
+  @Test
+  fun lookupThroughput() {
+    val cache = RecipientIdCache(CACHE_LIMIT)
+    val legacyCache = LegacyRecipientIdCache(CACHE_LIMIT)
+
+    // Warm up both, so the JIT has settled before measuring
+    run(LOOKUPS_PER_THREAD / 10, { serviceId, e164 -> cache.get(serviceId, e164) }, { id, serviceId, e164 -> cache.put(id, e164, serviceId) })
+    run(LOOKUPS_PER_THREAD / 10, { serviceId, e164 -> legacyCache.get(serviceId, e164) }, { id, serviceId, e164 -> legacyCache.put(id, e164, serviceId) })
+
+    val legacyNanos = run(LOOKUPS_PER_THREAD, { serviceId, e164 -> legacyCache.get(serviceId, e164) }, { id, serviceId, e164 -> legacyCache.put(id, e164, serviceId) })
+    val nanos = run(LOOKUPS_PER_THREAD, { serviceId, e164 -> cache.get(serviceId, e164) }, { id, serviceId, e164 -> cache.put(id, e164, serviceId) })
+
+    val totalLookups = THREADS.toLong() * LOOKUPS_PER_THREAD
+
+    println("[$THREADS threads] legacy: ${totalLookups * 1_000_000_000L / legacyNanos} lookups/sec")
+    println("[$THREADS threads] current: ${totalLookups * 1_000_000_000L / nanos} lookups/sec (${cache.stats})")
+  }
+
+  private fun run(
+    lookupsPerThread: Int,
+    get: (ServiceId, String?) -> RecipientId?,
+    put: (RecipientId, ServiceId, String?) -> Unit
+  ): Long {
+    val executor = Executors.newFixedThreadPool(THREADS)
+    val start = CountDownLatch(1)
+    val done = CountDownLatch(THREADS)
+
+    repeat(THREADS) { thread ->
+      executor.execute {
+        val random = Random(thread)
+        start.await()
+
+        repeat(lookupsPerThread) {
+          val index = random.nextInt(RECIPIENT_COUNT)
+          val e164 = if (index % 4 == 0) e164s[index] else null
+
+          if (get(serviceIds[index], e164) == null) {
+            put(RecipientId.from(index + 1L), serviceIds[index], e164)
+          }
+        }
+
+        done.countDown()
+      }
+    }
+
+    val startTime = System.nanoTime()
+    start.countDown()
+    done.await()
+    val elapsed = System.nanoTime() - startTime
+
+    executor.shutdown()
+    executor.awaitTermination(1, TimeUnit.MINUTES)
+
+    return elapsed
+  }
+
+  /**
+   * The previous implementation, kept here as a baseline.
+   */
+  private class LegacyRecipientIdCache(limit: Int) {
+    private val ids = object : LinkedHashMap<Any, RecipientId>(128, 0.75f, true) {
+      override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Any, RecipientId>?): Boolean {
+        return size > limit
+      }
+    }
+
+    @Synchronized
+    fun put(recipientId: RecipientId, e164: String?, serviceId: ServiceId?) {
+      if (e164 != null) {
+        ids[e164] = recipientId
+      }
+
+      if (serviceId != null) {
+        ids[serviceId] = recipientId
+      }
+    }
+
+    @Synchronized
+    fun get(serviceId: ServiceId?, e164: String?): RecipientId? {
+      return if (serviceId != null && e164 != null) {
+        val byServiceId = ids[serviceId] ?: return null
+        val byE164 = ids[e164] ?: return null
+
+        if (byServiceId == byE164) {
+          byServiceId
+        } else {
+          ids.remove(serviceId)
+          ids.remove(e164)
+          null
+        }
+      } else if (serviceId != null) {
+        ids[serviceId]
+      } else if (e164 != null) {
+        ids[e164]
+      } else {
+        null
+      }
+    }
+  }
+}
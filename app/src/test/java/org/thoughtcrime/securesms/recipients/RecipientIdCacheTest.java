@@ -8,6 +8,7 @@ import org.junit.Test;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.testutil.LogRecorder;
 import org.whispersystems.signalservice.api.push.ServiceId.ACI;
+import org.whispersystems.signalservice.api.push.ServiceId.PNI;
 import org.whispersystems.signalservice.api.push.ServiceId;
 
 import java.util.Optional;
@@ -259,6 +260,45 @@ public final class RecipientIdCacheTest {
     assertEquals(recipientId1, recipientIdCache.get(sid1, null));
   }
 
+  @Test
+  public void aci_and_pni_with_same_uuid_are_distinct() {
+    RecipientId recipientId1 = recipientId();
+    UUID        uuid         = UUID.randomUUID();
+
+    recipientIdCache.put(recipient(recipientId1, ACI.from(uuid), null));
+
+    assertEquals(recipientId1, recipientIdCache.get(ACI.from(uuid), null));
+    assertNull(recipientIdCache.get(PNI.from(uuid), null));
+  }
+
+  @Test
+  public void non_numeric_e164_still_cached() {
+    RecipientId recipientId1 = recipientId();
+    String      e164         = "+1 555 123 456";
+
+    recipientIdCache.put(recipient(recipientId1, null, e164));
+
+    assertEquals(recipientId1, recipientIdCache.get(null, e164));
+    assertNull(recipientIdCache.get(null, "+1555123456"));
+  }
+
+  @Test
+  public void stats_count_hits_and_misses() {
+    RecipientId recipientId1 = recipientId();
+    ServiceId   sid1         = ACI.from(UUID.randomUUID());
+
+    recipientIdCache.get(sid1, null);
+    recipientIdCache.put(recipient(recipientId1, sid1, null));
+    recipientIdCache.get(sid1, null);
+    recipientIdCache.get(sid1, null);
+
+    RecipientIdCache.Stats stats = recipientIdCache.getStats();
+
+    assertEquals(1, stats.getSize());
+    assertEquals(2, stats.getHits());
+    assertEquals(1, stats.getMisses());
+  }
+
   private static @NonNull RecipientId recipientId() {
     return mock(RecipientId.class);
   }
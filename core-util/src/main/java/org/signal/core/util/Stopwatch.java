@@ -4,8 +4,10 @@ import androidx.annotation.NonNull;
 
 import org.signal.core.util.logging.Log;
 
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 public class Stopwatch {
 
@@ -46,6 +48,21 @@ public class Stopwatch {
     Log.d(tag, out.toString());
   }
 
+  /**
+   * @return The duration of each split in milliseconds, keyed by label, in the order they were made.
+   */
+  public @NonNull Map<String, Long> getSplitDurations() {
+    Map<String, Long> durations = new LinkedHashMap<>();
+    long              lastTime  = startTime;
+
+    for (Split split : splits) {
+      durations.put(split.label, split.time - lastTime);
+      lastTime = split.time;
+    }
+
+    return durations;
+  }
+
   private static class Split {
     final long   time;
     final String label;
@@ -95,124 +95,272 @@ public final class Scrubber {
   private static final Pattern      CALL_LINK_PATTERN       = Pattern.compile("([bBcCdDfFgGhHkKmMnNpPqQrRsStTxXzZ]{4})(-[bBcCdDfFgGhHkKmMnNpPqQrRsStTxXzZ]{4}){7}");
   private static final String       CALL_LINK_CENSOR_SUFFIX = "-XXXX-XXXX-XXXX-XXXX-XXXX-XXXX-XXXX";
 
+  /**
+   * Characters that at least one of the patterns can't match without. A line is checked for them once, which lets us skip every pattern that
+   * can't possibly match, and most lines skip all of them.
+   */
+  private static final int PLUS       = 1;
+  private static final int PERCENT    = 1 << 1;
+  private static final int AT         = 1 << 2;
+  private static final int BANG       = 1 << 3;
+  private static final int DASH       = 1 << 4;
+  private static final int DIGIT      = 1 << 5;
+  /** A dot followed by a run of letters, digits and dashes with at least one letter or dash in it, which every domain's TLD is. */
+  private static final int DOT_WORD   = 1 << 6;
+  private static final int THREE_DOTS = 1 << 7;
+  private static final int ALL        = PLUS | PERCENT | AT | BANG | DASH | DIGIT | DOT_WORD | THREE_DOTS;
+
+  /**
+   * Applied in order, each to the output of the one before it.
+   */
+  private static final Pass[] PASSES = new Pass[] {
+      new Pass(E164_PATTERN, PLUS | PERCENT, DIGIT, Scrubber::scrubE164),
+      new Pass(CRUDE_EMAIL_PATTERN, AT, 0, Scrubber::scrubEmail),
+      new Pass(GROUP_ID_V1_PATTERN, BANG, 0, Scrubber::scrubGroupV1),
+      new Pass(GROUP_ID_V2_PATTERN, BANG, 0, Scrubber::scrubGroupV2),
+      new Pass(UUID_PATTERN, DASH, 0, Scrubber::scrubUuid),
+      new Pass(DOMAIN_PATTERN, DOT_WORD, 0, Scrubber::scrubDomain),
+      new Pass(IPV4_PATTERN, THREE_DOTS, DIGIT, Scrubber::scrubIpv4),
+      new Pass(CALL_LINK_PATTERN, DASH, 0, Scrubber::scrubCallLinkKey)
+  };
+
+  /**
+   * Past this, a buffer isn't kept around for the next line, so that scrubbing a large debug log section once doesn't pin that much memory.
+   */
+  private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+  private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+    @Override
+    protected Scratch initialValue() {
+      return new Scratch();
+    }
+  };
+
   public static CharSequence scrub(@NonNull CharSequence in) {
+    int triggers = findTriggers(in);
+    if (triggers == 0) {
+      return in;
+    }
+
+    Scratch      scratch = SCRATCH.get();
+    CharSequence current = in;
+
+    for (int i = 0; i < PASSES.length; i++) {
+      Pass pass = PASSES[i];
+      if ((triggers & pass.anyOf) == 0 || (triggers & pass.allOf) != pass.allOf) {
+        continue;
+      }
 
-    in = scrubE164(in);
-    in = scrubEmail(in);
-    in = scrubGroupsV1(in);
-    in = scrubGroupsV2(in);
-    in = scrubUuids(in);
-    in = scrubDomains(in);
-    in = scrubIpv4(in);
-    in = scrubCallLinkKeys(in);
-
-    return in;
-  }
-
-  private static CharSequence scrubE164(@NonNull CharSequence in) {
-    return scrub(in,
-                 E164_PATTERN,
-                 (matcher, output) -> output.append(matcher.group(1))
-                                            .append(E164_CENSOR, 0, matcher.group(2).length())
-                                            .append(matcher.group(3)));
-  }
-
-  private static CharSequence scrubEmail(@NonNull CharSequence in) {
-    return scrub(in,
-                 CRUDE_EMAIL_PATTERN,
-                 (matcher, output) -> output.append(matcher.group(1))
-                                            .append(EMAIL_CENSOR));
-  }
-
-  private static CharSequence scrubGroupsV1(@NonNull CharSequence in) {
-    return scrub(in,
-                 GROUP_ID_V1_PATTERN,
-                 (matcher, output) -> output.append(matcher.group(1))
-                                            .append(GROUP_ID_V1_CENSOR)
-                                            .append(matcher.group(3)));
-  }
-
-  private static CharSequence scrubGroupsV2(@NonNull CharSequence in) {
-    return scrub(in,
-                 GROUP_ID_V2_PATTERN,
-                 (matcher, output) -> output.append(matcher.group(1))
-                                            .append(GROUP_ID_V2_CENSOR)
-                                            .append(matcher.group(3)));
-  }
-
-  private static CharSequence scrubUuids(@NonNull CharSequence in) {
-    return scrub(in,
-                 UUID_PATTERN,
-                 (matcher, output) -> {
-                   if (matcher.group(1) != null && !matcher.group(1).isEmpty()) {
-                     output.append(matcher.group(1))
-                           .append(matcher.group(2))
-                           .append(matcher.group(3));
-                   } else {
-                     output.append(UUID_CENSOR)
-                           .append(matcher.group(3));
-                   }
-                 });
-  }
-
-  private static CharSequence scrubDomains(@NonNull CharSequence in) {
-    return scrub(in,
-                 DOMAIN_PATTERN,
-                 (matcher, output) -> {
-                   String match = matcher.group(0);
-                   if (matcher.groupCount() == 2 &&
-                       TOP_100_TLDS.contains(matcher.group(2).toLowerCase(Locale.US)) &&
-                       !match.endsWith("signal.org")) {
-                     output.append(DOMAIN_CENSOR)
-                           .append(matcher.group(2));
-                   } else {
-                     output.append(match);
-                   }
-                 });
-  }
-
-  private static CharSequence scrubIpv4(@NonNull CharSequence in) {
-    return scrub(in,
-                 IPV4_PATTERN,
-                 (matcher, output) -> output.append(IPV4_CENSOR));
-  }
-
-  private static CharSequence scrubCallLinkKeys(@NonNull CharSequence in) {
-    return scrub(in,
-                 CALL_LINK_PATTERN,
-                 ((matcher, output) -> {
-                   String match = matcher.group(1);
-                   output.append(match);
-                   output.append(CALL_LINK_CENSOR_SUFFIX);
-                 }));
-  }
-
-
-  private static CharSequence scrub(@NonNull CharSequence in, @NonNull Pattern pattern, @NonNull ProcessMatch processMatch) {
-    final StringBuilder output  = new StringBuilder(in.length());
-    final Matcher matcher = pattern.matcher(in);
+      StringBuilder output = scratch.bufferOtherThan(current);
+
+      if (scrub(current, scratch.matchers[i], pass.processMatch, output)) {
+        current  = output;
+        triggers = findTriggers(current);
+      }
+    }
+
+    if (current == in) {
+      return in;
+    }
+
+    String result = current.toString();
+    scratch.reset();
+
+    return result;
+  }
+
+  private static int findTriggers(@NonNull CharSequence in) {
+    int     triggers = 0;
+    int     dots     = 0;
+    boolean afterDot = false;
+
+    for (int i = 0, length = in.length(); i < length && triggers != ALL; i++) {
+      char c = in.charAt(i);
+
+      if (c >= '0' && c <= '9') {
+        triggers |= DIGIT;
+      } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-') {
+        if (afterDot) {
+          triggers |= DOT_WORD;
+        }
+        if (c == '-') {
+          triggers |= DASH;
+        }
+      } else {
+        afterDot = false;
+
+        switch (c) {
+          case '+': triggers |= PLUS;    break;
+          case '%': triggers |= PERCENT; break;
+          case '@': triggers |= AT;      break;
+          case '!': triggers |= BANG;    break;
+          case '.':
+            afterDot = true;
+            if (++dots >= 3) {
+              triggers |= THREE_DOTS;
+            }
+            break;
+        }
+      }
+    }
+
+    return triggers;
+  }
+
+  private static void scrubE164(@NonNull Matcher matcher, @NonNull CharSequence in, @NonNull StringBuilder output) {
+    output.append(in, matcher.start(1), matcher.end(1))
+          .append(E164_CENSOR, 0, matcher.end(2) - matcher.start(2))
+          .append(in, matcher.start(3), matcher.end(3));
+  }
+
+  private static void scrubEmail(@NonNull Matcher matcher, @NonNull CharSequence in, @NonNull StringBuilder output) {
+    output.append(in, matcher.start(1), matcher.end(1))
+          .append(EMAIL_CENSOR);
+  }
+
+  private static void scrubGroupV1(@NonNull Matcher matcher, @NonNull CharSequence in, @NonNull StringBuilder output) {
+    output.append(in, matcher.start(1), matcher.end(1))
+          .append(GROUP_ID_V1_CENSOR)
+          .append(in, matcher.start(3), matcher.end(3));
+  }
+
+  private static void scrubGroupV2(@NonNull Matcher matcher, @NonNull CharSequence in, @NonNull StringBuilder output) {
+    output.append(in, matcher.start(1), matcher.end(1))
+          .append(GROUP_ID_V2_CENSOR)
+          .append(in, matcher.start(3), matcher.end(3));
+  }
+
+  private static void scrubUuid(@NonNull Matcher matcher, @NonNull CharSequence in, @NonNull StringBuilder output) {
+    if (matcher.start(1) != -1 && matcher.end(1) > matcher.start(1)) {
+      output.append(in, matcher.start(), matcher.end());
+    } else {
+      output.append(UUID_CENSOR)
+            .append(in, matcher.start(3), matcher.end(3));
+    }
+  }
+
+  private static void scrubDomain(@NonNull Matcher matcher, @NonNull CharSequence in, @NonNull StringBuilder output) {
+    if (matcher.groupCount() == 2 &&
+        TOP_100_TLDS.contains(matcher.group(2).toLowerCase(Locale.US)) &&
+        !endsWith(in, matcher.start(), matcher.end(), "signal.org"))
+    {
+      output.append(DOMAIN_CENSOR)
+            .append(in, matcher.start(2), matcher.end(2));
+    } else {
+      output.append(in, matcher.start(), matcher.end());
+    }
+  }
+
+  private static void scrubIpv4(@NonNull Matcher matcher, @NonNull CharSequence in, @NonNull StringBuilder output) {
+    output.append(IPV4_CENSOR);
+  }
+
+  private static void scrubCallLinkKey(@NonNull Matcher matcher, @NonNull CharSequence in, @NonNull StringBuilder output) {
+    output.append(in, matcher.start(1), matcher.end(1))
+          .append(CALL_LINK_CENSOR_SUFFIX);
+  }
+
+  private static boolean endsWith(@NonNull CharSequence in, int start, int end, @NonNull String suffix) {
+    int offset = end - suffix.length();
+    if (offset < start) {
+      return false;
+    }
+
+    for (int i = 0; i < suffix.length(); i++) {
+      if (in.charAt(offset + i) != suffix.charAt(i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Writes the scrubbed version of the input to the output.
+   *
+   * @return True if anything matched, in which case the output holds the result. Otherwise the output is left empty and the input stands.
+   */
+  private static boolean scrub(@NonNull CharSequence in, @NonNull Matcher matcher, @NonNull ProcessMatch processMatch, @NonNull StringBuilder output) {
+    matcher.reset(in);
 
     int lastEndingPos = 0;
+    boolean found     = false;
 
     while (matcher.find()) {
       output.append(in, lastEndingPos, matcher.start());
 
-      processMatch.scrubMatch(matcher, output);
+      processMatch.scrubMatch(matcher, in, output);
 
       lastEndingPos = matcher.end();
+      found         = true;
     }
 
-    if (lastEndingPos == 0) {
-      // there were no matches, save copying all the data
-      return in;
-    } else {
+    if (found) {
       output.append(in, lastEndingPos, in.length());
-
-      return output;
     }
+
+    // Don't hold onto the line any longer than we need to
+    matcher.reset("");
+
+    return found;
   }
 
   private interface ProcessMatch {
-    void scrubMatch(@NonNull Matcher matcher, @NonNull StringBuilder output);
+    void scrubMatch(@NonNull Matcher matcher, @NonNull CharSequence in, @NonNull StringBuilder output);
+  }
+
+  private static final class Pass {
+    private final Pattern      pattern;
+    private final int          anyOf;
+    private final int          allOf;
+    private final ProcessMatch processMatch;
+
+    /**
+     * @param anyOf The pattern can only match if at least one of these triggers is present.
+     * @param allOf The pattern can only match if all of these triggers are present.
+     */
+    private Pass(@NonNull Pattern pattern, int anyOf, int allOf, @NonNull ProcessMatch processMatch) {
+      this.pattern      = pattern;
+      this.anyOf        = anyOf;
+      this.allOf        = allOf;
+      this.processMatch = processMatch;
+    }
+  }
+
+  /**
+   * Per-thread matchers and output buffers, so that scrubbing a line doesn't allocate them anew for every pattern. The two buffers take turns
+   * being the input and the output of a pass.
+   */
+  private static final class Scratch {
+    private final Matcher[] matchers = new Matcher[PASSES.length];
+
+    private StringBuilder first  = new StringBuilder();
+    private StringBuilder second = new StringBuilder();
+
+    private Scratch() {
+      for (int i = 0; i < PASSES.length; i++) {
+        matchers[i] = PASSES[i].pattern.matcher("");
+      }
+    }
+
+    @NonNull StringBuilder bufferOtherThan(@NonNull CharSequence current) {
+      StringBuilder buffer = current == first ? second : first;
+      buffer.setLength(0);
+      return buffer;
+    }
+
+    void reset() {
+      first  = reset(first);
+      second = reset(second);
+    }
+
+    private static @NonNull StringBuilder reset(@NonNull StringBuilder buffer) {
+      if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+        return new StringBuilder();
+      } else {
+        buffer.setLength(0);
+        return buffer;
+      }
+    }
   }
 }
@@ -13,14 +13,11 @@ import org.signal.core.util.tracing.TraceProtos.TrackDescriptor;
 import org.signal.core.util.tracing.TraceProtos.TrackEvent;
 
 import java.nio.ByteBuffer;
-import java.util.Collections;
 import java.util.Map;
-import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class to create Perfetto-compatible traces. Currently keeps the entire trace in memory to
@@ -35,10 +32,10 @@ import java.util.concurrent.atomic.AtomicInteger;
  *   - End of a method
  *   - (And a bunch of other stuff that's not relevant to use at this point)
  *
- * We keep a circular buffer of TracePackets for method calls, and we keep a separate list of
- * TracePackets for threads so we don't lose any of those.
- *
- * Serializing is just a matter of throwing all the TracePackets we have into a proto.
+ * We keep a circular buffer of method call events, and we keep a separate list of TracePackets for
+ * threads so we don't lose any of those. Events are stored as primitives in preallocated arrays
+ * rather than as TracePackets, so recording an event doesn't allocate anything. They're only
+ * turned into TracePackets when serializing.
  *
  * Note: This class aims to be largely-thread-safe, but prioritizes speed and memory efficiency
  * above all else. These methods are going to be called very quickly from every thread imaginable,
@@ -61,20 +58,26 @@ public final class Tracer {
   private static final byte[] SYNCHRONIZATION_MARKER   = toByteArray(UUID.fromString("82477a76-b28d-42ba-81dc-33326d57a079"));
   private static final long   SYNCHRONIZATION_INTERVAL = TimeUnit.SECONDS.toNanos(3);
 
+  private static final byte EVENT_START = 1;
+  private static final byte EVENT_END   = 2;
+  private static final byte EVENT_SYNC  = 3;
+
   private final Clock                  clock;
   private final Map<Long, TracePacket> threadPackets;
-  private final Queue<TracePacket>     eventPackets;
-  private final AtomicInteger          eventCount;
+  private final ThreadLocal<Boolean>   threadTrackRegistered;
+
+  private volatile EventBuffer events;
+  private volatile boolean     enabled;
+  private volatile boolean     lockTrackRegistered;
 
   private long lastSyncTime;
-  private long maxBufferSize;
 
   private Tracer() {
-    this.clock         = SystemClock::elapsedRealtimeNanos;
-    this.threadPackets = new ConcurrentHashMap<>();
-    this.eventPackets  = new ConcurrentLinkedQueue<>();
-    this.eventCount    = new AtomicInteger(0);
-    this.maxBufferSize = 3_500;
+    this.clock                 = SystemClock::elapsedRealtimeNanos;
+    this.threadPackets         = new ConcurrentHashMap<>();
+    this.threadTrackRegistered = new ThreadLocal<>();
+    this.events                = new EventBuffer(3_500);
+    this.enabled               = true;
   }
 
   public static @NonNull Tracer getInstance() {
@@ -82,50 +85,87 @@ public final class Tracer {
   }
 
   public void setMaxBufferSize(long maxBufferSize) {
-    this.maxBufferSize = maxBufferSize;
+    events = events.resize((int) maxBufferSize);
+  }
+
+  /**
+   * When disabled, nothing is recorded. Callers that need to do work to build the arguments for a
+   * trace should check {@link #isEnabled()} first so they can skip that work entirely.
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
   }
 
   public void start(@NonNull String methodName) {
-    start(methodName, Thread.currentThread().getId(), null);
+    start(methodName, Thread.currentThread().getId(), null, null, null, null, null);
   }
 
   public void start(@NonNull String methodName, long trackId) {
-    start(methodName, trackId, null);
+    start(methodName, trackId, null, null, null, null, null);
   }
 
   public void start(@NonNull String methodName, @NonNull String key, @Nullable String value) {
-    start(methodName, Thread.currentThread().getId(), key, value);
+    start(methodName, Thread.currentThread().getId(), key, value, null, null, null);
   }
 
   public void start(@NonNull String methodName, long trackId, @NonNull String key, @Nullable String value) {
-    start(methodName, trackId, Collections.singletonMap(key, value));
+    start(methodName, trackId, key, value, null, null, null);
+  }
+
+  /**
+   * Allocation-free variant for up to two arguments. A null key means that argument slot is unused.
+   */
+  public void start(@NonNull String methodName, @Nullable String key1, @Nullable String value1, @Nullable String key2, @Nullable String value2) {
+    start(methodName, Thread.currentThread().getId(), key1, value1, key2, value2, null);
   }
 
   public void start(@NonNull String methodName, @Nullable Map<String, String> values) {
-    start(methodName, Thread.currentThread().getId(), values);
+    start(methodName, Thread.currentThread().getId(), null, null, null, null, values);
   }
 
   public void start(@NonNull String methodName, long trackId, @Nullable Map<String, String> values) {
-    long time = clock.getTimeNanos();
+    start(methodName, trackId, null, null, null, null, values);
+  }
+
+  private void start(@NonNull String methodName,
+                     long trackId,
+                     @Nullable String key1,
+                     @Nullable String value1,
+                     @Nullable String key2,
+                     @Nullable String value2,
+                     @Nullable Map<String, String> values)
+  {
+    if (!enabled) {
+      return;
+    }
+
+    long        time   = clock.getTimeNanos();
+    EventBuffer buffer = events;
 
     if (time - lastSyncTime > SYNCHRONIZATION_INTERVAL) {
-      addPacket(forSynchronization(time));
+      buffer.add(EVENT_SYNC, null, time, 0, null, null, null, null, null);
       lastSyncTime = time;
     }
 
-    if (!threadPackets.containsKey(trackId)) {
-      threadPackets.put(trackId, forTrackId(trackId));
-    }
+    registerTrack(trackId);
 
-    addPacket(forMethodStart(methodName, time, trackId, values));
+    buffer.add(EVENT_START, methodName, time, trackId, key1, value1, key2, value2, values);
   }
 
   public void end(@NonNull String methodName) {
-    addPacket(forMethodEnd(methodName, clock.getTimeNanos(), Thread.currentThread().getId()));
+    end(methodName, Thread.currentThread().getId());
   }
 
   public void end(@NonNull String methodName, long trackId) {
-    addPacket(forMethodEnd(methodName, clock.getTimeNanos(), trackId));
+    if (!enabled) {
+      return;
+    }
+
+    events.add(EVENT_END, methodName, clock.getTimeNanos(), trackId, null, null, null, null, null);
   }
 
   public @NonNull byte[] serialize() {
@@ -135,9 +175,7 @@ public final class Tracer {
       trace.addPacket(thread);
     }
 
-    for (TracePacket event : eventPackets) {
-      trace.addPacket(event);
-    }
+    events.serializeInto(trace);
 
     trace.addPacket(forSynchronization(clock.getTimeNanos()));
 
@@ -145,22 +183,18 @@ public final class Tracer {
   }
 
   /**
-   * Attempts to add a packet to our list while keeping the size of our circular buffer in-check.
-   * The tracking of the event count is not perfectly thread-safe, but doing it in a thread-safe
-   * way would likely involve adding a lock, which we really don't want to do, since it'll add
-   * unnecessary overhead.
-   *
-   * Note that we keep track of the event count separately because
-   * {@link ConcurrentLinkedQueue#size()} is NOT a constant-time operation.
+   * Makes sure we have a descriptor for the track. Only the lock track and the current thread's
+   * track are ever used, so we can check this without boxing the track ID for a map lookup.
    */
-  private void addPacket(@NonNull TracePacket packet) {
-    eventPackets.add(packet);
-
-    int size = eventCount.incrementAndGet();
-
-    for (int i = size; i > maxBufferSize; i--) {
-      eventPackets.poll();
-      eventCount.decrementAndGet();
+  private void registerTrack(long trackId) {
+    if (trackId == TrackId.DB_LOCK) {
+      if (!lockTrackRegistered) {
+        threadPackets.put(trackId, forTrackId(trackId));
+        lockTrackRegistered = true;
+      }
+    } else if (threadTrackRegistered.get() == null) {
+      threadPackets.put(trackId, forTrackId(trackId));
+      threadTrackRegistered.set(Boolean.TRUE);
     }
   }
 
@@ -183,12 +217,28 @@ public final class Tracer {
 
   }
 
-  private static TracePacket forMethodStart(@NonNull String name, long time, long threadId, @Nullable Map<String, String> values) {
+  private static TracePacket forMethodStart(@NonNull String name,
+                                            long time,
+                                            long threadId,
+                                            @Nullable String key1,
+                                            @Nullable String value1,
+                                            @Nullable String key2,
+                                            @Nullable String value2,
+                                            @Nullable Map<String, String> values)
+  {
     TrackEvent.Builder event = TrackEvent.newBuilder()
                                          .setTrackUuid(threadId)
                                          .setName(name)
                                          .setType(TrackEvent.Type.TYPE_SLICE_BEGIN);
 
+    if (key1 != null) {
+      event.addDebugAnnotations(debugAnnotation(key1, value1));
+    }
+
+    if (key2 != null) {
+      event.addDebugAnnotations(debugAnnotation(key2, value2));
+    }
+
     if (values != null) {
       for (Map.Entry<String, String> entry : values.entrySet()) {
         event.addDebugAnnotations(debugAnnotation(entry.getKey(), entry.getValue()));
@@ -239,4 +289,99 @@ public final class Tracer {
   private interface Clock {
     long getTimeNanos();
   }
+
+  /**
+   * A circular buffer of events, stored as parallel arrays of primitives and references to the
+   * (generally constant) strings passed in by callers.
+   *
+   * Writes aren't synchronized. A slot is claimed with a single atomic increment, but two threads
+   * that lap each other could interleave their writes to the same slot, and a serialization that
+   * happens concurrently with writes could read a partially-written event. Both are rare and only
+   * result in a garbled event in the trace, which is an acceptable price for not locking.
+   */
+  private static final class EventBuffer {
+    private final int                   capacity;
+    private final AtomicLong            count;
+    private final byte[]                types;
+    private final long[]                times;
+    private final long[]                trackIds;
+    private final String[]              names;
+    private final String[]              keys1;
+    private final String[]              values1;
+    private final String[]              keys2;
+    private final String[]              values2;
+    private final Map<String, String>[] extras;
+
+    @SuppressWarnings("unchecked")
+    EventBuffer(int capacity) {
+      this.capacity = Math.max(1, capacity);
+      this.count    = new AtomicLong(0);
+      this.types    = new byte[this.capacity];
+      this.times    = new long[this.capacity];
+      this.trackIds = new long[this.capacity];
+      this.names    = new String[this.capacity];
+      this.keys1    = new String[this.capacity];
+      this.values1  = new String[this.capacity];
+      this.keys2    = new String[this.capacity];
+      this.values2  = new String[this.capacity];
+      this.extras   = new Map[this.capacity];
+    }
+
+    void add(byte type,
+             @Nullable String name,
+             long time,
+             long trackId,
+             @Nullable String key1,
+             @Nullable String value1,
+             @Nullable String key2,
+             @Nullable String value2,
+             @Nullable Map<String, String> values)
+    {
+      int slot = (int) (count.getAndIncrement() % capacity);
+
+      types[slot]    = type;
+      names[slot]    = name;
+      times[slot]    = time;
+      trackIds[slot] = trackId;
+      keys1[slot]    = key1;
+      values1[slot]  = value1;
+      keys2[slot]    = key2;
+      values2[slot]  = value2;
+      extras[slot]   = values;
+    }
+
+    /**
+     * Creates a new buffer with the provided capacity that contains the most recent events of this one.
+     */
+    @NonNull EventBuffer resize(int newCapacity) {
+      EventBuffer resized = new EventBuffer(newCapacity);
+      long        end     = count.get();
+      long        start   = Math.max(0, end - Math.min(capacity, resized.capacity));
+
+      for (long i = start; i < end; i++) {
+        int slot = (int) (i % capacity);
+        resized.add(types[slot], names[slot], times[slot], trackIds[slot], keys1[slot], values1[slot], keys2[slot], values2[slot], extras[slot]);
+      }
+
+      return resized;
+    }
+
+    void serializeInto(@NonNull Trace.Builder trace) {
+      long end   = count.get();
+      long start = Math.max(0, end - capacity);
+
+      for (long i = start; i < end; i++) {
+        int  slot = (int) (i % capacity);
+        byte type = types[slot];
+
+        if (type == EVENT_START && names[slot] != null) {
+          trace.addPacket(forMethodStart(names[slot], times[slot], trackIds[slot], keys1[slot], values1[slot], keys2[slot], values2[slot], extras[slot]));
+        } else if (type == EVENT_END && names[slot] != null) {
+          trace.addPacket(forMethodEnd(names[slot], times[slot], trackIds[slot]));
+        } else if (type == EVENT_SYNC) {
+          trace.addPacket(forSynchronization(times[slot]));
+        }
+      }
+    }
+  }
 }
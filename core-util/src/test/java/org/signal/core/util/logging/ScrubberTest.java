@@ -125,6 +125,22 @@ public final class ScrubberTest {
 
     { "Not a Call Link Root Key (Missing Quartet) BCAF-FGHK-MNPQ-RSTX-ZRQH-BCDF-STXZ",
       "Not a Call Link Root Key (Missing Quartet) BCAF-FGHK-MNPQ-RSTX-ZRQH-BCDF-STXZ"
+    },
+
+    { "Nothing to scrub here",
+      "Nothing to scrub here"
+    },
+
+    { "Version 6.40.0 at 12:00:00.000",
+      "Version 6.40.0 at 12:00:00.000"
+    },
+
+    { "A version 1.2.3 and a domain example.co",
+      "A version 1.2.3 and a domain ***.co"
+    },
+
+    { "An uppercase UUID A37CB654-C9E0-4C1E-93DF-3D11CA3C97F4",
+      "An uppercase UUID ********-****-****-****-*********7F4"
     }
 
     });
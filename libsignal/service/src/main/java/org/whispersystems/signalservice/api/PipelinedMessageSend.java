@@ -0,0 +1,198 @@
+package org.whispersystems.signalservice.api;
+
+import org.signal.libsignal.protocol.logging.Log;
+import org.whispersystems.signalservice.api.messages.SendMessageResult;
+import org.whispersystems.signalservice.api.push.exceptions.AuthorizationFailedException;
+import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
+import org.whispersystems.signalservice.api.push.exceptions.UnregisteredUserException;
+import org.whispersystems.signalservice.internal.ServiceResponse;
+import org.whispersystems.signalservice.internal.push.OutgoingPushMessageList;
+import org.whispersystems.signalservice.internal.push.SendMessageResponse;
+import org.whispersystems.signalservice.internal.push.exceptions.InvalidUnidentifiedAccessHeaderException;
+import org.whispersystems.signalservice.internal.push.exceptions.MismatchedDevicesException;
+import org.whispersystems.signalservice.internal.push.exceptions.StaleDevicesException;
+import org.whispersystems.signalservice.internal.push.http.CancelationSignal;
+import org.whispersystems.signalservice.internal.push.http.PartialSendCompleteListener;
+import org.whispersystems.signalservice.internal.util.concurrent.SettableFuture;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import io.reactivex.rxjava3.core.Single;
+
+/**
+ * Sends a message to each recipient of a larger multi-recipient send, splitting the work into stages so that recipients don't each hold an
+ * executor thread for the entire round trip:
+ *
+ * 1. Encryption happens on the executor.
+ * 2. The encrypted message is sent over the websocket without blocking, with at most as many sends awaiting a response as there are permits
+ *    in {@link #inFlightSends}.
+ * 3. The response is handled on the websocket's thread.
+ *
+ * Responses the server rejected are mapped to the same typed exceptions the blocking send throws. Mismatched/stale devices and a rejected
+ * unidentified access header are handed to the resend so it can resolve them before sending again, and an unregistered user or failed
+ * authorization is the result. Anything else, like an unavailable websocket or a timeout, falls back to the resend as is.
+ */
+final class PipelinedMessageSend {
+
+  private static final String TAG = PipelinedMessageSend.class.getSimpleName();
+
+  private final Executor  executor;
+  private final Semaphore inFlightSends;
+
+  PipelinedMessageSend(Executor executor, Semaphore inFlightSends) {
+    this.executor      = executor;
+    this.inFlightSends = inFlightSends;
+  }
+
+  /**
+   * @param sealedSender Whether the message is sent with unidentified access.
+   * @param encrypt      Encrypts the message for all of the recipient's devices.
+   * @param send         Sends the encrypted message without blocking.
+   * @param toResult     Creates the result of a successful send.
+   * @param resend       Sends the message from scratch, blocking until it's done.
+   */
+  Future<SendMessageResult> send(long                                                                            timestamp,
+                                 boolean                                                                         sealedSender,
+                                 CancelationSignal                                                               cancelationSignal,
+                                 PartialSendCompleteListener                                                     partialListener,
+                                 Callable<OutgoingPushMessageList>                                               encrypt,
+                                 Function<OutgoingPushMessageList, Single<ServiceResponse<SendMessageResponse>>> send,
+                                 BiFunction<OutgoingPushMessageList, SendMessageResponse, SendMessageResult>     toResult,
+                                 Resend                                                                          resend)
+  {
+    SettableFuture<SendMessageResult> future = new SettableFuture<>();
+
+    Function<Optional<NonSuccessfulResponseCodeException>, Runnable> runResend = rejection -> () -> {
+      try {
+        SendMessageResult result = resend.send(rejection);
+        if (partialListener != null) {
+          partialListener.onPartialSendComplete(result);
+        }
+        future.set(result);
+      } catch (Throwable t) {
+        future.setException(t);
+      }
+    };
+
+    executor.execute(() -> {
+      long startTime = System.currentTimeMillis();
+
+      if (cancelationSignal != null && cancelationSignal.isCanceled()) {
+        future.setException(new CancelationException());
+        return;
+      }
+
+      OutgoingPushMessageList messages;
+      try {
+        messages = encrypt.call();
+      } catch (Exception e) {
+        Log.w(TAG, "[sendMessage][" + timestamp + "] Failed to encrypt on the pipelined path, falling back. (" + e.getClass().getSimpleName() + ")");
+        runResend.apply(Optional.empty()).run();
+        return;
+      }
+
+      long encryptTime = System.currentTimeMillis();
+
+      try {
+        inFlightSends.acquire();
+      } catch (InterruptedException e) {
+        future.setException(e);
+        return;
+      }
+
+      if (cancelationSignal != null && cancelationSignal.isCanceled()) {
+        inFlightSends.release();
+        future.setException(new CancelationException());
+        return;
+      }
+
+      long networkStartTime = System.currentTimeMillis();
+
+      Single<ServiceResponse<SendMessageResponse>> request;
+      try {
+        request = send.apply(messages);
+      } catch (Throwable t) {
+        inFlightSends.release();
+        Log.w(TAG, "[sendMessage][" + timestamp + "] Failed to send on the pipelined path, falling back. (" + t.getClass().getSimpleName() + ")");
+        executor.execute(runResend.apply(Optional.empty()));
+        return;
+      }
+
+      //noinspection ResultOfMethodCallIgnored
+      request.subscribe(response -> {
+        inFlightSends.release();
+
+        if (response.getResult().isPresent()) {
+          try {
+            long              endTime = System.currentTimeMillis();
+            SendMessageResult result  = toResult.apply(messages, response.getResult().get());
+
+            if (partialListener != null) {
+              partialListener.onPartialSendComplete(result);
+              partialListener.onPartialSendTimings(result, encryptTime - startTime, networkStartTime - encryptTime, endTime - networkStartTime);
+            }
+
+            future.set(result);
+          } catch (Throwable t) {
+            future.setException(t);
+          }
+        } else if (response.getApplicationError().isPresent()) {
+          Throwable error = toApplicationError(response, sealedSender);
+
+          if (isResolvable(error)) {
+            Log.i(TAG, "[sendMessage][" + timestamp + "] Rejected on the pipelined path, resolving and resending. (" + error.getClass().getSimpleName() + ")");
+            executor.execute(runResend.apply(Optional.of((NonSuccessfulResponseCodeException) error)));
+          } else if (error instanceof UnregisteredUserException || error instanceof AuthorizationFailedException) {
+            future.setException(error);
+          } else {
+            Log.w(TAG, "[sendMessage][" + timestamp + "] Pipelined send failed, falling back. (" + response.getStatus() + ")");
+            executor.execute(runResend.apply(Optional.empty()));
+          }
+        } else {
+          Log.w(TAG, "[sendMessage][" + timestamp + "] Pipelined send failed, falling back. (" + response.getExecutionError().map(e -> e.getClass().getSimpleName()).orElse("Unknown") + ")");
+          executor.execute(runResend.apply(Optional.empty()));
+        }
+      }, error -> {
+        inFlightSends.release();
+        Log.w(TAG, "[sendMessage][" + timestamp + "] Pipelined send failed, falling back. (" + error.getClass().getSimpleName() + ")");
+        executor.execute(runResend.apply(Optional.empty()));
+      });
+    });
+
+    return future;
+  }
+
+  /**
+   * The websocket reports a 401/403 as an {@link AuthorizationFailedException}, but for a sealed sender send it means the unidentified
+   * access header was rejected, which is what REST reports it as.
+   */
+  static Throwable toApplicationError(ServiceResponse<?> response, boolean sealedSender) {
+    Throwable error = response.getApplicationError().get();
+
+    if (sealedSender && error instanceof AuthorizationFailedException) {
+      return new InvalidUnidentifiedAccessHeaderException();
+    }
+
+    return error;
+  }
+
+  static boolean isResolvable(Throwable error) {
+    return error instanceof MismatchedDevicesException ||
+           error instanceof StaleDevicesException ||
+           error instanceof InvalidUnidentifiedAccessHeaderException;
+  }
+
+  interface Resend {
+    /**
+     * @param rejection Why the server rejected the pipelined send, if it did, to be resolved (e.g. by updating sessions for stale devices)
+     *                  before sending again.
+     */
+    SendMessageResult send(Optional<NonSuccessfulResponseCodeException> rejection) throws Exception;
+  }
+}
@@ -148,6 +148,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
@@ -163,6 +164,9 @@ public class SignalServiceMessageSender {
 
   private static final int RETRY_COUNT = 4;
 
+  /** The maximum number of 1:1 sends from a single multi-recipient send that can be waiting on the server at once. */
+  private static final int MAX_IN_FLIGHT_SENDS = 32;
+
   private final PushServiceSocket             socket;
   private final SignalServiceAccountDataStore aciStore;
   private final SignalSessionLock             sessionLock;
@@ -1899,20 +1903,15 @@ public class SignalServiceMessageSender {
     enforceMaxContentSize(content);
 
     long                                   startTime                  = System.currentTimeMillis();
-    List<Future<SendMessageResult>>        futureResults              = new LinkedList<>();
+    List<Future<SendMessageResult>>        futureResults              = new ArrayList<>(recipients.size());
     Iterator<SignalServiceAddress>         recipientIterator          = recipients.iterator();
     Iterator<Optional<UnidentifiedAccess>> unidentifiedAccessIterator = unidentifiedAccess.iterator();
+    PipelinedMessageSend                   pipeline                   = new PipelinedMessageSend(executor, new Semaphore(MAX_IN_FLIGHT_SENDS));
 
     while (recipientIterator.hasNext()) {
       SignalServiceAddress         recipient = recipientIterator.next();
       Optional<UnidentifiedAccess> access    = unidentifiedAccessIterator.next();
-      futureResults.add(executor.submit(() -> {
-        SendMessageResult result = sendMessage(recipient, access, timestamp, content, online, cancelationSignal, urgent, story);
-        if (partialListener != null) {
-          partialListener.onPartialSendComplete(result);
-        }
-        return result;
-      }));
+      futureResults.add(sendMessagePipelined(pipeline, recipient, access, timestamp, content, online, partialListener, cancelationSignal, urgent, story));
     }
 
     List<SendMessageResult> results = new ArrayList<>(futureResults.size());
@@ -1973,6 +1972,55 @@ public class SignalServiceMessageSender {
     return results;
   }
 
+  /**
+   * Sends a message to a single recipient as part of a larger multi-recipient send. See {@link PipelinedMessageSend} for the stages and
+   * when it falls back to the blocking
+   * {@link #sendMessage(SignalServiceAddress, Optional, long, EnvelopeContent, boolean, CancelationSignal, boolean, boolean)}. When the
+   * server rejected the send, the rejection is resolved the same way the blocking send resolves it before that resend.
+   */
+  private Future<SendMessageResult> sendMessagePipelined(PipelinedMessageSend         pipeline,
+                                                         SignalServiceAddress         recipient,
+                                                         Optional<UnidentifiedAccess> unidentifiedAccess,
+                                                         long                         timestamp,
+                                                         EnvelopeContent              content,
+                                                         boolean                      online,
+                                                         PartialSendCompleteListener  partialListener,
+                                                         CancelationSignal            cancelationSignal,
+                                                         boolean                      urgent,
+                                                         boolean                      story)
+  {
+    long startTime = System.currentTimeMillis();
+
+    return pipeline.send(timestamp,
+                         unidentifiedAccess.isPresent(),
+                         cancelationSignal,
+                         partialListener,
+                         () -> getEncryptedMessages(recipient, unidentifiedAccess, timestamp, content, online, urgent, story),
+                         messages -> messagingService.send(messages, unidentifiedAccess, story),
+                         (messages, response) -> SendMessageResult.success(recipient,
+                                                                           messages.getDevices(),
+                                                                           response.sentUnidentified(),
+                                                                           response.getNeedsSync() || aciStore.isMultiDevice(),
+                                                                           System.currentTimeMillis() - startTime,
+                                                                           content.getContent()),
+                         rejection -> {
+                           Optional<UnidentifiedAccess> access = unidentifiedAccess;
+
+                           if (rejection.isPresent() && rejection.get() instanceof MismatchedDevicesException) {
+                             Log.w(TAG, "[sendMessage][" + timestamp + "] Handling mismatched devices. (" + rejection.get().getMessage() + ")");
+                             handleMismatchedDevices(socket, recipient, ((MismatchedDevicesException) rejection.get()).getMismatchedDevices());
+                           } else if (rejection.isPresent() && rejection.get() instanceof StaleDevicesException) {
+                             Log.w(TAG, "[sendMessage][" + timestamp + "] Handling stale devices. (" + rejection.get().getMessage() + ")");
+                             handleStaleDevices(recipient, ((StaleDevicesException) rejection.get()).getStaleDevices());
+                           } else if (rejection.isPresent() && rejection.get() instanceof InvalidUnidentifiedAccessHeaderException) {
+                             Log.w(TAG, "[sendMessage][" + timestamp + "] Unidentified access was rejected. Falling back.");
+                             access = Optional.empty();
+                           }
+
+                           return sendMessage(recipient, access, timestamp, content, online, cancelationSignal, urgent, story);
+                         });
+  }
+
   private SendMessageResult sendMessage(SignalServiceAddress         recipient,
                                         Optional<UnidentifiedAccess> unidentifiedAccess,
                                         long                         timestamp,
@@ -283,6 +283,19 @@ public final class SignalWebSocket {
     getWebSocket().sendResponse(createWebSocketResponse(response.getWebsocketRequest()));
   }
 
+  /**
+   * Acks all of the provided envelopes in a single write to the websocket.
+   */
+  public void sendAcks(List<EnvelopeResponse> responses) throws IOException {
+    List<WebSocketResponseMessage> acks = new ArrayList<>(responses.size());
+
+    for (EnvelopeResponse response : responses) {
+      acks.add(createWebSocketResponse(response.getWebsocketRequest()));
+    }
+
+    getWebSocket().sendResponses(acks);
+  }
+
   @SuppressWarnings("DuplicateThrows")
   private Optional<EnvelopeResponse> waitForSingleMessage(long timeout)
       throws TimeoutException, WebSocketUnavailableException, IOException
@@ -441,7 +441,7 @@ public class PushServiceSocket {
   }
 
   public WhoAmIResponse getWhoAmI() throws IOException {
-    return JsonUtil.fromJson(makeServiceRequest(WHO_AM_I, "GET", null), WhoAmIResponse.class);
+    return makeServiceRequest(WHO_AM_I, "GET", null, WhoAmIResponse.class);
   }
 
   public boolean isIdentifierRegistered(ServiceId identifier) throws IOException {
@@ -497,8 +497,7 @@ public class PushServiceSocket {
   }
 
   public List<DeviceInfo> getDevices() throws IOException {
-    String responseText = makeServiceRequest(String.format(DEVICE_PATH, ""), "GET", null);
-    return JsonUtil.fromJson(responseText, DeviceInfoList.class).getDevices();
+    return makeServiceRequest(String.format(DEVICE_PATH, ""), "GET", null, DeviceInfoList.class).getDevices();
   }
 
   public void removeDevice(long deviceId) throws IOException {
@@ -607,8 +606,7 @@ public class PushServiceSocket {
       throws IOException
   {
     try {
-      String              responseText = makeServiceRequest(String.format("/v1/messages/%s?story=%s", bundle.getDestination(), story ? "true" : "false"), "PUT", JsonUtil.toJson(bundle), NO_HEADERS, NO_HANDLER, unidentifiedAccess);
-      SendMessageResponse response     = JsonUtil.fromJson(responseText, SendMessageResponse.class);
+      SendMessageResponse response = makeServiceRequest(String.format("/v1/messages/%s?story=%s", bundle.getDestination(), story ? "true" : "false"), "PUT", JsonUtil.toJson(bundle), NO_HEADERS, NO_HANDLER, unidentifiedAccess, SendMessageResponse.class);
 
       response.setSentUnidentfied(unidentifiedAccess.isPresent());
 
@@ -742,9 +740,8 @@ public class PushServiceSocket {
 
       Log.d(TAG, "Fetching prekeys for " + destination.getIdentifier() + "." + deviceSpecifier + ", i.e. GET " + path);
 
-      String             responseText = makeServiceRequest(path, "GET", null, NO_HEADERS, NO_HANDLER, unidentifiedAccess);
-      PreKeyResponse     response     = JsonUtil.fromJson(responseText, PreKeyResponse.class);
-      List<PreKeyBundle> bundles      = new LinkedList<>();
+      PreKeyResponse     response = makeServiceRequest(path, "GET", null, NO_HEADERS, NO_HANDLER, unidentifiedAccess, PreKeyResponse.class);
+      List<PreKeyBundle> bundles  = new LinkedList<>();
 
       for (PreKeyResponseItem device : response.getDevices()) {
         ECPublicKey  preKey                = null;
@@ -841,16 +838,7 @@ public class PushServiceSocket {
   }
 
   public ListenableFuture<SignalServiceProfile> retrieveProfile(SignalServiceAddress target, Optional<UnidentifiedAccess> unidentifiedAccess, Locale locale) {
-    ListenableFuture<String> response = submitServiceRequest(String.format(PROFILE_PATH, target.getIdentifier()), "GET", null, AcceptLanguagesUtil.getHeadersWithAcceptLanguage(locale), unidentifiedAccess);
-
-    return FutureTransformers.map(response, body -> {
-      try {
-        return JsonUtil.fromJson(body, SignalServiceProfile.class);
-      } catch (IOException e) {
-        Log.w(TAG, e);
-        throw new MalformedResponseException("Unable to parse entity", e);
-      }
-    });
+    return submitServiceRequest(String.format(PROFILE_PATH, target.getIdentifier()), "GET", null, AcceptLanguagesUtil.getHeadersWithAcceptLanguage(locale), unidentifiedAccess, SignalServiceProfile.class);
   }
 
   public ListenableFuture<ProfileAndCredential> retrieveVersionedProfileAndCredential(ACI target, ProfileKey profileKey, Optional<UnidentifiedAccess> unidentifiedAccess, Locale locale) {
@@ -863,47 +851,30 @@ public class PushServiceSocket {
     String subPath           = String.format("%s/%s/%s?credentialType=expiringProfileKey", target, version, credentialRequest);
 
 
-    ListenableFuture<String> response = submitServiceRequest(String.format(PROFILE_PATH, subPath), "GET", null, AcceptLanguagesUtil.getHeadersWithAcceptLanguage(locale), unidentifiedAccess);
+    ListenableFuture<SignalServiceProfile> response = submitServiceRequest(String.format(PROFILE_PATH, subPath), "GET", null, AcceptLanguagesUtil.getHeadersWithAcceptLanguage(locale), unidentifiedAccess, SignalServiceProfile.class);
 
-    return FutureTransformers.map(response, body -> formatProfileAndCredentialBody(requestContext, body));
+    return FutureTransformers.map(response, profile -> formatProfileAndCredential(requestContext, profile));
   }
 
-  private ProfileAndCredential formatProfileAndCredentialBody(ProfileKeyCredentialRequestContext requestContext, String body)
-      throws MalformedResponseException
-  {
+  private ProfileAndCredential formatProfileAndCredential(ProfileKeyCredentialRequestContext requestContext, SignalServiceProfile signalServiceProfile) {
     try {
-      SignalServiceProfile signalServiceProfile = JsonUtil.fromJson(body, SignalServiceProfile.class);
-
-      try {
-        ExpiringProfileKeyCredential expiringProfileKeyCredential = signalServiceProfile.getExpiringProfileKeyCredentialResponse() != null
-                                                                    ? clientZkProfileOperations.receiveExpiringProfileKeyCredential(requestContext, signalServiceProfile.getExpiringProfileKeyCredentialResponse())
-                                                                    : null;
-        return new ProfileAndCredential(signalServiceProfile, SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL, Optional.ofNullable(expiringProfileKeyCredential));
-      } catch (VerificationFailedException e) {
-        Log.w(TAG, "Failed to verify credential.", e);
-        return new ProfileAndCredential(signalServiceProfile, SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL, Optional.empty());
-      }
-    } catch (IOException e) {
-      Log.w(TAG, e);
-      throw new MalformedResponseException("Unable to parse entity", e);
+      ExpiringProfileKeyCredential expiringProfileKeyCredential = signalServiceProfile.getExpiringProfileKeyCredentialResponse() != null
+                                                                  ? clientZkProfileOperations.receiveExpiringProfileKeyCredential(requestContext, signalServiceProfile.getExpiringProfileKeyCredentialResponse())
+                                                                  : null;
+      return new ProfileAndCredential(signalServiceProfile, SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL, Optional.ofNullable(expiringProfileKeyCredential));
+    } catch (VerificationFailedException e) {
+      Log.w(TAG, "Failed to verify credential.", e);
+      return new ProfileAndCredential(signalServiceProfile, SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL, Optional.empty());
     }
   }
 
   public ListenableFuture<SignalServiceProfile> retrieveVersionedProfile(ACI target, ProfileKey profileKey, Optional<UnidentifiedAccess> unidentifiedAccess, Locale locale) {
     ProfileKeyVersion profileKeyIdentifier = profileKey.getProfileKeyVersion(target.getLibSignalAci());
 
-    String                   version  = profileKeyIdentifier.serialize();
-    String                   subPath  = String.format("%s/%s", target, version);
-    ListenableFuture<String> response = submitServiceRequest(String.format(PROFILE_PATH, subPath), "GET", null, AcceptLanguagesUtil.getHeadersWithAcceptLanguage(locale), unidentifiedAccess);
+    String version = profileKeyIdentifier.serialize();
+    String subPath = String.format("%s/%s", target, version);
 
-    return FutureTransformers.map(response, body -> {
-      try {
-        return JsonUtil.fromJson(body, SignalServiceProfile.class);
-      } catch (IOException e) {
-        Log.w(TAG, e);
-        throw new MalformedResponseException("Unable to parse entity", e);
-      }
-    });
+    return submitServiceRequest(String.format(PROFILE_PATH, subPath), "GET", null, AcceptLanguagesUtil.getHeadersWithAcceptLanguage(locale), unidentifiedAccess, SignalServiceProfile.class);
   }
 
   public void retrieveProfileAvatar(String path, File destination, long maxSizeBytes)
@@ -1313,8 +1284,7 @@ public class PushServiceSocket {
   }
 
   public RemoteConfigResponse getRemoteConfig() throws IOException {
-    String response = makeServiceRequest("/v1/config", "GET", null);
-    return JsonUtil.fromJson(response, RemoteConfigResponse.class);
+    return makeServiceRequest("/v1/config", "GET", null, RemoteConfigResponse.class);
   }
 
   public void setSoTimeoutMillis(long soTimeoutMillis) {
@@ -1738,6 +1708,24 @@ public class PushServiceSocket {
     }
   }
 
+  /**
+   * Like {@link #makeServiceRequest(String, String, String)}, but binds the response directly from the body's stream rather than reading
+   * it into a String first.
+   */
+  private <T> T makeServiceRequest(String urlFragment, String method, String jsonBody, Class<T> responseType)
+      throws NonSuccessfulResponseCodeException, PushNetworkException, MalformedResponseException
+  {
+    return makeServiceRequest(urlFragment, method, jsonBody, NO_HEADERS, NO_HANDLER, Optional.empty(), responseType);
+  }
+
+  private <T> T makeServiceRequest(String urlFragment, String method, String jsonBody, Map<String, String> headers, ResponseCodeHandler responseCodeHandler, Optional<UnidentifiedAccess> unidentifiedAccessKey, Class<T> responseType)
+      throws NonSuccessfulResponseCodeException, PushNetworkException, MalformedResponseException
+  {
+    try (Response response = makeServiceRequest(urlFragment, method, jsonRequestBody(jsonBody), headers, responseCodeHandler, unidentifiedAccessKey, false)) {
+      return readBodyJson(response.body(), responseType);
+    }
+  }
+
   private static RequestBody jsonRequestBody(String jsonBody) {
     return jsonBody != null ? RequestBody.create(MediaType.parse("application/json"), jsonBody)
                             : null;
@@ -1749,11 +1737,12 @@ public class PushServiceSocket {
   }
 
 
-  private ListenableFuture<String> submitServiceRequest(String urlFragment,
-                                                        String method,
-                                                        String jsonBody,
-                                                        Map<String, String> headers,
-                                                        Optional<UnidentifiedAccess> unidentifiedAccessKey)
+  private <T> ListenableFuture<T> submitServiceRequest(String urlFragment,
+                                                       String method,
+                                                       String jsonBody,
+                                                       Map<String, String> headers,
+                                                       Optional<UnidentifiedAccess> unidentifiedAccessKey,
+                                                       Class<T> responseType)
   {
     OkHttpClient okHttpClient = buildOkHttpClient(unidentifiedAccessKey.isPresent());
     Call         call         = okHttpClient.newCall(buildServiceRequest(urlFragment, method, jsonRequestBody(jsonBody), headers, unidentifiedAccessKey, false));
@@ -1762,14 +1751,14 @@ public class PushServiceSocket {
       connections.add(call);
     }
 
-    SettableFuture<String> bodyFuture = new SettableFuture<>();
+    SettableFuture<T> bodyFuture = new SettableFuture<>();
 
     call.enqueue(new Callback() {
       @Override
       public void onResponse(Call call, Response response) {
         try (ResponseBody body = response.body()) {
           validateServiceResponse(response);
-          bodyFuture.set(readBodyString(body));
+          bodyFuture.set(readBodyJson(body, responseType));
         } catch (IOException e) {
           bodyFuture.setException(e);
         }
@@ -2284,10 +2273,12 @@ public class PushServiceSocket {
    * {@link IOException} during json parsing is converted to a {@link MalformedResponseException}
    */
   private static <T> T readBodyJson(ResponseBody body, Class<T> clazz) throws PushNetworkException, MalformedResponseException {
-    String json = readBodyString(body);
+    if (body == null) {
+      throw new MalformedResponseException("No body!");
+    }
 
     try {
-      return JsonUtil.fromJson(json, clazz);
+      return JsonUtil.fromJson(body.byteStream(), clazz);
     } catch (JsonProcessingException e) {
       Log.w(TAG, e);
       throw new MalformedResponseException("Unable to parse entity", e);
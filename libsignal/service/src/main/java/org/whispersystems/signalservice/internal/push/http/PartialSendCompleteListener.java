@@ -7,4 +7,13 @@ import org.whispersystems.signalservice.api.messages.SendMessageResult;
  */
 public interface PartialSendCompleteListener {
   void onPartialSendComplete(SendMessageResult result);
+
+  /**
+   * Called after {@link #onPartialSendComplete(SendMessageResult)} for sends that completed on the pipelined path, with how long each stage took.
+   *
+   * @param encryptMs How long it took to encrypt the message for all of the recipient's devices.
+   * @param queueMs   How long the encrypted message waited for a free network slot.
+   * @param networkMs How long it took for the server to respond to the send.
+   */
+  default void onPartialSendTimings(SendMessageResult result, long encryptMs, long queueMs, long networkMs) {}
 }
@@ -16,6 +16,7 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.module.kotlin.KotlinModule;
 import com.google.protobuf.ByteString;
@@ -31,7 +32,10 @@ import org.whispersystems.signalservice.api.util.UuidUtil;
 import org.whispersystems.util.Base64;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
 
@@ -40,7 +44,8 @@ public class JsonUtil {
 
   private static final String TAG = JsonUtil.class.getSimpleName();
 
-  private static final ObjectMapper objectMapper = new ObjectMapper();
+  private static final ObjectMapper                objectMapper = new ObjectMapper();
+  private static final Map<Class<?>, ObjectReader> readers      = new ConcurrentHashMap<>();
 
   static {
     objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
@@ -63,7 +68,16 @@ public class JsonUtil {
   public static <T> T fromJson(String json, Class<T> clazz)
       throws IOException
   {
-    return objectMapper.readValue(json, clazz);
+    return readerFor(clazz).readValue(json);
+  }
+
+  /**
+   * Binds directly from the stream, without materializing the whole body as a String first.
+   */
+  public static <T> T fromJson(InputStream json, Class<T> clazz)
+      throws IOException
+  {
+    return readerFor(clazz).readValue(json);
   }
 
   public static <T> T fromJson(String json, TypeReference<T> typeRef)
@@ -92,6 +106,20 @@ public class JsonUtil {
     }
   }
   
+  /**
+   * {@link ObjectReader}s are immutable and cache the deserializer for their type, so we keep one around for each type we parse.
+   */
+  private static ObjectReader readerFor(Class<?> clazz) {
+    ObjectReader reader = readers.get(clazz);
+
+    if (reader == null) {
+      reader = objectMapper.readerFor(clazz);
+      readers.put(clazz, reader);
+    }
+
+    return reader;
+  }
+
   public static class IdentityKeySerializer extends JsonSerializer<IdentityKey> {
     @Override
     public void serialize(IdentityKey value, JsonGenerator gen, SerializerProvider serializers)
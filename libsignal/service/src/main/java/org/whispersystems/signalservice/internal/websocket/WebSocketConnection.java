@@ -261,6 +261,27 @@ public class WebSocketConnection extends WebSocketListener {
     }
   }
 
+  /**
+   * Enqueues all of the provided responses back-to-back while holding the connection lock, allowing the
+   * underlying socket writer to flush them together rather than interleaving them with other traffic.
+   */
+  public synchronized void sendResponses(List<WebSocketResponseMessage> responses) throws IOException {
+    if (client == null) {
+      throw new IOException("Connection closed!");
+    }
+
+    for (WebSocketResponseMessage response : responses) {
+      WebSocketMessage message = WebSocketMessage.newBuilder()
+                                                 .setType(WebSocketMessage.Type.RESPONSE)
+                                                 .setResponse(response)
+                                                 .build();
+
+      if (!client.send(ByteString.of(message.toByteArray()))) {
+        throw new IOException("Write failed!");
+      }
+    }
+  }
+
   public synchronized void sendKeepAlive() throws IOException {
     if (client != null) {
       log( "Sending keep alive...");
@@ -0,0 +1,297 @@
+package org.whispersystems.signalservice.api;
+
+import org.junit.Test;
+import org.whispersystems.signalservice.api.messages.SendMessageResult;
+import org.whispersystems.signalservice.api.push.ServiceId.ACI;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.api.push.exceptions.AuthorizationFailedException;
+import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+import org.whispersystems.signalservice.api.push.exceptions.UnregisteredUserException;
+import org.whispersystems.signalservice.api.websocket.WebSocketUnavailableException;
+import org.whispersystems.signalservice.internal.ServiceResponse;
+import org.whispersystems.signalservice.internal.push.MismatchedDevices;
+import org.whispersystems.signalservice.internal.push.OutgoingPushMessageList;
+import org.whispersystems.signalservice.internal.push.SendMessageResponse;
+import org.whispersystems.signalservice.internal.push.StaleDevices;
+import org.whispersystems.signalservice.internal.push.exceptions.InvalidUnidentifiedAccessHeaderException;
+import org.whispersystems.signalservice.internal.push.exceptions.MismatchedDevicesException;
+import org.whispersystems.signalservice.internal.push.exceptions.StaleDevicesException;
+import org.whispersystems.signalservice.internal.push.http.CancelationSignal;
+import org.whispersystems.signalservice.internal.push.http.PartialSendCompleteListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.subjects.SingleSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class PipelinedMessageSendTest {
+
+  private static final long                    TIMESTAMP = 1000;
+  private static final SignalServiceAddress    ADDRESS   = new SignalServiceAddress(ACI.from(UUID.randomUUID()));
+  private static final OutgoingPushMessageList MESSAGES  = new OutgoingPushMessageList(ADDRESS.getIdentifier(), TIMESTAMP, Collections.emptyList(), false, true);
+  private static final SendMessageResult       SENT      = SendMessageResult.success(ADDRESS, Collections.singletonList(1), false, false, 1, Optional.empty());
+  private static final SendMessageResult       RESENT    = SendMessageResult.success(ADDRESS, Collections.singletonList(1), false, false, 2, Optional.empty());
+
+  private static final int MAX_IN_FLIGHT = 4;
+
+  private final Semaphore               inFlightSends  = new Semaphore(MAX_IN_FLIGHT);
+  private final PipelinedMessageSend    pipeline       = new PipelinedMessageSend(Runnable::run, inFlightSends);
+  private final AtomicInteger           sends          = new AtomicInteger();
+  private final AtomicInteger           fallbacks      = new AtomicInteger();
+  private final List<SendMessageResult> partialResults = new ArrayList<>();
+  private final List<long[]>            partialTimings = new ArrayList<>();
+
+  private final PartialSendCompleteListener partialListener = new PartialSendCompleteListener() {
+    @Override
+    public void onPartialSendComplete(SendMessageResult result) {
+      partialResults.add(result);
+    }
+
+    @Override
+    public void onPartialSendTimings(SendMessageResult result, long encryptMs, long queueMs, long networkMs) {
+      partialTimings.add(new long[] { encryptMs, queueMs, networkMs });
+    }
+  };
+
+  private NonSuccessfulResponseCodeException resolvedRejection;
+
+  @Test
+  public void givenASuccessfulResponse_whenISend_thenIExpectTheResultAndTimingsWithoutFallingBack() throws Exception {
+    Future<SendMessageResult> future = send(Single.just(ServiceResponse.forResult(new SendMessageResponse(false, false), 200, null)));
+
+    assertSame(SENT, future.get());
+    assertEquals(1, sends.get());
+    assertEquals(0, fallbacks.get());
+    assertEquals(Collections.singletonList(SENT), partialResults);
+    assertEquals(1, partialTimings.size());
+    assertAllSlotsReleased();
+  }
+
+  @Test
+  public void givenMismatchedDevices_whenISend_thenIExpectToResolveThemAndResend() throws Exception {
+    MismatchedDevicesException rejection = new MismatchedDevicesException(new MismatchedDevices());
+    Future<SendMessageResult>  future    = send(Single.just(ServiceResponse.forApplicationError(rejection, 409, null)));
+
+    assertSame(RESENT, future.get());
+    assertEquals(1, fallbacks.get());
+    assertSame(rejection, resolvedRejection);
+    assertEquals(Collections.singletonList(RESENT), partialResults);
+    assertTrue(partialTimings.isEmpty());
+    assertAllSlotsReleased();
+  }
+
+  @Test
+  public void givenStaleDevices_whenISend_thenIExpectToResolveThemAndResend() throws Exception {
+    StaleDevicesException     rejection = new StaleDevicesException(new StaleDevices());
+    Future<SendMessageResult> future    = send(Single.just(ServiceResponse.forApplicationError(rejection, 410, null)));
+
+    assertSame(RESENT, future.get());
+    assertSame(rejection, resolvedRejection);
+    assertAllSlotsReleased();
+  }
+
+  @Test
+  public void givenARejectedSealedSenderSend_whenISend_thenIExpectToResendWithoutUnidentifiedAccess() throws Exception {
+    ServiceResponse<SendMessageResponse> response = ServiceResponse.forApplicationError(new AuthorizationFailedException(401, "Authorization failed!"), 401, null);
+    Future<SendMessageResult>            future   = pipeline.send(TIMESTAMP, true, null, partialListener, () -> MESSAGES, m -> Single.just(response), (m, r) -> SENT, this::fallback);
+
+    assertSame(RESENT, future.get());
+    assertTrue(resolvedRejection instanceof InvalidUnidentifiedAccessHeaderException);
+    assertAllSlotsReleased();
+  }
+
+  @Test
+  public void givenAFailedAuthorization_whenISend_thenIExpectTheErrorWithoutFallingBack() throws Exception {
+    Future<SendMessageResult> future = send(Single.just(ServiceResponse.forApplicationError(new AuthorizationFailedException(401, "Authorization failed!"), 401, null)));
+
+    assertFailsWith(AuthorizationFailedException.class, future);
+    assertEquals(0, fallbacks.get());
+    assertAllSlotsReleased();
+  }
+
+  @Test
+  public void givenAnUnregisteredUser_whenISend_thenIExpectTheErrorWithoutFallingBack() throws Exception {
+    Future<SendMessageResult> future = send(Single.just(ServiceResponse.forApplicationError(new UnregisteredUserException(ADDRESS.getIdentifier(), new IOException()), 404, null)));
+
+    assertFailsWith(UnregisteredUserException.class, future);
+    assertEquals(0, fallbacks.get());
+    assertTrue(partialResults.isEmpty());
+    assertAllSlotsReleased();
+  }
+
+  @Test
+  public void givenAnUnavailableWebSocket_whenISend_thenIExpectToFallBack() throws Exception {
+    Future<SendMessageResult> future = send(Single.just(ServiceResponse.forExecutionError(new WebSocketUnavailableException())));
+
+    assertSame(RESENT, future.get());
+    assertEquals(1, fallbacks.get());
+    assertNull(resolvedRejection);
+    assertAllSlotsReleased();
+  }
+
+  @Test
+  public void givenATimeout_whenISend_thenIExpectToFallBack() throws Exception {
+    Future<SendMessageResult> future = send(Single.just(ServiceResponse.forExecutionError(new TimeoutException())));
+
+    assertSame(RESENT, future.get());
+    assertEquals(1, fallbacks.get());
+    assertNull(resolvedRejection);
+    assertAllSlotsReleased();
+  }
+
+  @Test
+  public void givenANetworkFailure_whenISend_thenIExpectToFallBack() throws Exception {
+    Future<SendMessageResult> future = send(Single.just(ServiceResponse.forExecutionError(new PushNetworkException("Closed"))));
+
+    assertSame(RESENT, future.get());
+    assertEquals(1, fallbacks.get());
+    assertAllSlotsReleased();
+  }
+
+  @Test
+  public void givenAServerError_whenISend_thenIExpectToFallBack() throws Exception {
+    Future<SendMessageResult> future = send(Single.just(ServiceResponse.forApplicationError(new NonSuccessfulResponseCodeException(500), 500, null)));
+
+    assertSame(RESENT, future.get());
+    assertEquals(1, fallbacks.get());
+    assertNull(resolvedRejection);
+    assertAllSlotsReleased();
+  }
+
+  @Test
+  public void givenAFailedRequest_whenISend_thenIExpectToFallBack() throws Exception {
+    Future<SendMessageResult> future = send(Single.error(new IllegalStateException()));
+
+    assertSame(RESENT, future.get());
+    assertEquals(1, fallbacks.get());
+    assertAllSlotsReleased();
+  }
+
+  @Test
+  public void givenAFailedEncryption_whenISend_thenIExpectToFallBackWithoutSending() throws Exception {
+    Future<SendMessageResult> future = pipeline.send(TIMESTAMP, false, null, partialListener, () -> { throw new IllegalStateException(); }, this::request, (m, r) -> SENT, this::fallback);
+
+    assertSame(RESENT, future.get());
+    assertEquals(0, sends.get());
+    assertEquals(1, fallbacks.get());
+    assertAllSlotsReleased();
+  }
+
+  @Test
+  public void givenACanceledSend_whenISend_thenIExpectNothingToBeSent() throws Exception {
+    CancelationSignal         canceled = () -> true;
+    Future<SendMessageResult> future   = pipeline.send(TIMESTAMP, false, canceled, partialListener, () -> MESSAGES, this::request, (m, r) -> SENT, this::fallback);
+
+    assertFailsWith(CancelationException.class, future);
+    assertEquals(0, sends.get());
+    assertEquals(0, fallbacks.get());
+    assertAllSlotsReleased();
+  }
+
+  @Test
+  public void givenMoreSendsThanSlots_whenISend_thenIExpectTheRestToWaitForAResponse() throws Exception {
+    ExecutorService                                           executor  = Executors.newSingleThreadExecutor();
+    PipelinedMessageSend                                      pipeline  = new PipelinedMessageSend(executor, inFlightSends);
+    List<SingleSubject<ServiceResponse<SendMessageResponse>>> responses = new ArrayList<>();
+    List<Future<SendMessageResult>>                           futures   = new ArrayList<>();
+
+    for (int i = 0; i < MAX_IN_FLIGHT + 1; i++) {
+      SingleSubject<ServiceResponse<SendMessageResponse>> response = SingleSubject.create();
+      responses.add(response);
+      futures.add(pipeline.send(TIMESTAMP, false, null, null, () -> MESSAGES, m -> { sends.incrementAndGet(); return response; }, (m, r) -> SENT, this::fallback));
+    }
+
+    waitFor(() -> sends.get() == MAX_IN_FLIGHT);
+    Thread.sleep(100);
+    assertEquals(MAX_IN_FLIGHT, sends.get());
+
+    responses.get(0).onSuccess(ServiceResponse.forResult(new SendMessageResponse(false, false), 200, null));
+    waitFor(() -> sends.get() == MAX_IN_FLIGHT + 1);
+
+    for (SingleSubject<ServiceResponse<SendMessageResponse>> response : responses) {
+      if (!response.hasValue()) {
+        response.onSuccess(ServiceResponse.forResult(new SendMessageResponse(false, false), 200, null));
+      }
+    }
+
+    for (Future<SendMessageResult> future : futures) {
+      assertSame(SENT, future.get(5, TimeUnit.SECONDS));
+    }
+
+    assertAllSlotsReleased();
+    executor.shutdown();
+  }
+
+  @Test
+  public void toApplicationError() {
+    AuthorizationFailedException         authorizationFailed = new AuthorizationFailedException(401, "Authorization failed!");
+    ServiceResponse<SendMessageResponse> unauthorized        = ServiceResponse.forApplicationError(authorizationFailed, 401, null);
+
+    assertTrue(PipelinedMessageSend.toApplicationError(unauthorized, true) instanceof InvalidUnidentifiedAccessHeaderException);
+    assertSame(authorizationFailed, PipelinedMessageSend.toApplicationError(unauthorized, false));
+  }
+
+  private Future<SendMessageResult> send(Single<ServiceResponse<SendMessageResponse>> response) {
+    return pipeline.send(TIMESTAMP, false, null, partialListener, () -> MESSAGES, m -> { sends.incrementAndGet(); return response; }, (m, r) -> SENT, this::fallback);
+  }
+
+  private Single<ServiceResponse<SendMessageResponse>> request(OutgoingPushMessageList messages) {
+    sends.incrementAndGet();
+    return Single.just(ServiceResponse.forResult(new SendMessageResponse(false, false), 200, null));
+  }
+
+  private SendMessageResult fallback(Optional<NonSuccessfulResponseCodeException> rejection) {
+    fallbacks.incrementAndGet();
+    resolvedRejection = rejection.orElse(null);
+    return RESENT;
+  }
+
+  private void assertAllSlotsReleased() {
+    assertEquals(MAX_IN_FLIGHT, inFlightSends.availablePermits());
+  }
+
+  private static void assertFailsWith(Class<? extends Throwable> expected, Future<SendMessageResult> future) throws InterruptedException {
+    try {
+      future.get();
+      fail("Expected " + expected.getSimpleName());
+    } catch (ExecutionException e) {
+      assertTrue(String.valueOf(e.getCause()), expected.isInstance(e.getCause()));
+    }
+  }
+
+  private static void waitFor(Condition condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+
+    while (!condition.isMet()) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Timed out");
+      }
+      Thread.sleep(10);
+    }
+  }
+
+  private interface Condition {
+    boolean isMet();
+  }
+}
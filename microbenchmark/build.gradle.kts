@@ -58,6 +58,7 @@ dependencies {
 
   // Dependencies of modules being tested
   androidTestImplementation(project(":libsignal-service"))
+  androidTestImplementation(project(":core-util"))
   androidTestImplementation(libs.libsignal.android)
   androidTestImplementation(libs.google.protobuf.javalite)
 }
@@ -0,0 +1,100 @@
+package org.signal.microbenchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.libsignal.protocol.IdentityKeyPair
+import org.signal.libsignal.protocol.ecc.Curve
+import org.whispersystems.signalservice.api.push.SignedPreKeyEntity
+import org.whispersystems.signalservice.internal.push.PreKeyEntity
+import org.whispersystems.signalservice.internal.push.PreKeyResponse
+import org.whispersystems.signalservice.internal.push.PreKeyResponseItem
+import org.whispersystems.signalservice.internal.push.SendGroupMessageResponse
+import org.whispersystems.signalservice.internal.util.JsonUtil
+import java.io.ByteArrayInputStream
+import java.util.UUID
+
+/**
+ * Benchmarks for parsing large service responses, comparing reading the whole body into a String first against binding directly from the
+ * body's stream. Starts from raw bytes to mimic what we get off the network.
+ *
+ * Look at the allocation counts in the results for the heap churn of each approach.
+ */
+@RunWith(AndroidJUnit4::class)
+class JsonParsingBenchmarks {
+
+  companion object {
+    private const val DEVICE_COUNT = 20
+    private const val GROUP_SIZE = 1000
+  }
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  private val preKeyResponse: ByteArray by lazy { buildPreKeyResponse() }
+  private val groupResponse: ByteArray by lazy { buildGroupResponse() }
+
+  @Test
+  fun preKeyResponse_string() {
+    val bytes = preKeyResponse
+
+    benchmarkRule.measureRepeated {
+      JsonUtil.fromJson(String(bytes), PreKeyResponse::class.java)
+    }
+  }
+
+  @Test
+  fun preKeyResponse_stream() {
+    val bytes = preKeyResponse
+
+    benchmarkRule.measureRepeated {
+      JsonUtil.fromJson(ByteArrayInputStream(bytes), PreKeyResponse::class.java)
+    }
+  }
+
+  @Test
+  fun groupResponse_string() {
+    val bytes = groupResponse
+
+    benchmarkRule.measureRepeated {
+      JsonUtil.fromJson(String(bytes), SendGroupMessageResponse::class.java)
+    }
+  }
+
+  @Test
+  fun groupResponse_stream() {
+    val bytes = groupResponse
+
+    benchmarkRule.measureRepeated {
+      JsonUtil.fromJson(ByteArrayInputStream(bytes), SendGroupMessageResponse::class.java)
+    }
+  }
+
+  private fun buildPreKeyResponse(): ByteArray {
+    val identityKeyPair = IdentityKeyPair.generate()
+
+    val response = PreKeyResponse().apply {
+      identityKey = identityKeyPair.publicKey
+      devices = (1..DEVICE_COUNT).map { deviceId ->
+        val signedPreKey = Curve.generateKeyPair()
+
+        PreKeyResponseItem().apply {
+          this.deviceId = deviceId
+          this.registrationId = deviceId * 100
+          this.signedPreKey = SignedPreKeyEntity(deviceId, signedPreKey.publicKey, Curve.calculateSignature(identityKeyPair.privateKey, signedPreKey.publicKey.serialize()))
+          this.preKey = PreKeyEntity(deviceId, Curve.generateKeyPair().publicKey)
+        }
+      }
+    }
+
+    return JsonUtil.toJson(response).toByteArray()
+  }
+
+  private fun buildGroupResponse(): ByteArray {
+    val uuids = (1..GROUP_SIZE).joinToString(separator = ",") { "\"${UUID.randomUUID()}\"" }
+    return "{\"uuids404\":[$uuids]}".toByteArray()
+  }
+}
@@ -0,0 +1,58 @@
+package org.signal.microbenchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Scrubber
+import java.util.UUID
+import kotlin.random.Random
+
+/**
+ * Benchmarks for scrubbing log lines, which happens for every line we persist and again for every line of a submitted debug log.
+ *
+ * Each repetition scrubs the next line of a 100k line corpus, so the reported time is per line. Most lines in a real log have nothing to
+ * scrub, so the corpus is mostly those, with the rest spread across each kind of sensitive data.
+ */
+@RunWith(AndroidJUnit4::class)
+class LogScrubberBenchmarks {
+
+  companion object {
+    private const val LINE_COUNT = 100_000
+  }
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  private val corpus: Array<String> by lazy { buildCorpus() }
+
+  @Test
+  fun scrub() {
+    val lines = corpus
+    var i = 0
+
+    benchmarkRule.measureRepeated {
+      Scrubber.scrub(lines[i]).toString()
+      i = (i + 1) % LINE_COUNT
+    }
+  }
+
+  private fun buildCorpus(): Array<String> {
+    val random = Random(1)
+
+    return Array(LINE_COUNT) { i ->
+      when (random.nextInt(20)) {
+        0 -> "Sending message to +1555${random.nextInt(1_000_000, 9_999_999)} with timestamp ${System.currentTimeMillis() + i}"
+        1 -> "[RetrieveProfileJob] Fetching profile for ${UUID.randomUUID()}"
+        2 -> "Running JOB::${UUID.randomUUID()} after ${random.nextInt(1000)} ms"
+        3 -> "Group update for __signal_group__v2__!${UUID.randomUUID().toString().replace("-", "")}${UUID.randomUUID().toString().replace("-", "")}"
+        4 -> "java.net.SocketTimeoutException: failed to connect to chat.signal.org/${random.nextInt(256)}.${random.nextInt(256)}.${random.nextInt(256)}.${random.nextInt(256)} (port 443)"
+        5 -> "Failed to resolve cdn.example.com, falling back to cached results."
+        6 -> "Email on file is a${i}@example.org"
+        else -> "Processed batch of ${random.nextInt(100)} messages in ${random.nextInt(1000)} ms. Queue has ${random.nextInt(100)} remaining."
+      }
+    }
+  }
+}
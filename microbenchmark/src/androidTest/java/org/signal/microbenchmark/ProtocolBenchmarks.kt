@@ -11,16 +11,25 @@ import org.junit.runner.RunWith
 import org.signal.libsignal.protocol.logging.SignalProtocolLogger
 import org.signal.libsignal.protocol.logging.SignalProtocolLoggerProvider
 import org.signal.util.SignalClient
+import org.whispersystems.signalservice.internal.push.SignalServiceProtos
+import java.util.concurrent.Executors
 
 /**
- * Benchmarks for decrypting messages.
+ * Benchmarks for encrypting and decrypting messages.
  *
- * Note that in order to isolate all costs to just the process of decryption itself,
+ * Note that in order to isolate all costs to just the process of encryption and decryption itself,
  * all operations are performed in in-memory stores.
  */
 @RunWith(AndroidJUnit4::class)
 class ProtocolBenchmarks {
 
+  companion object {
+    private const val BATCH_SIZE = 1000
+    private const val BATCH_SENDER_COUNT = 50
+    private const val SHARD_COUNT = 5
+    private const val FAN_OUT_RECIPIENT_COUNT = 100
+  }
+
   @get:Rule
   val benchmarkRule = BenchmarkRule()
 
@@ -74,6 +83,93 @@ class ProtocolBenchmarks {
     }
   }
 
+  @Test
+  fun decrypt_batch_sequential() {
+    val receiver = SignalClient()
+    val senders = buildAndInitializeSenders(receiver)
+
+    benchmarkRule.measureRepeated {
+      val envelopes = runWithTimingDisabled {
+        buildBatch(senders, receiver)
+      }
+
+      envelopes.forEach { receiver.decryptMessage(it) }
+    }
+  }
+
+  /**
+   * Splits the senders across a few receivers, each with their own store, to model decrypting a batch sharded by sender on separate threads.
+   */
+  @Test
+  fun decrypt_batch_parallel() {
+    val receivers = List(SHARD_COUNT) { SignalClient() }
+    val sendersByReceiver = receivers.associateWith { receiver -> buildAndInitializeSenders(receiver, BATCH_SENDER_COUNT / SHARD_COUNT) }
+    val executor = Executors.newFixedThreadPool(SHARD_COUNT)
+
+    benchmarkRule.measureRepeated {
+      val envelopesByReceiver = runWithTimingDisabled {
+        sendersByReceiver.mapValues { (receiver, senders) -> buildBatch(senders, receiver, BATCH_SIZE / SHARD_COUNT) }
+      }
+
+      envelopesByReceiver
+        .map { (receiver, envelopes) -> executor.submit { envelopes.forEach { receiver.decryptMessage(it) } } }
+        .forEach { it.get() }
+    }
+
+    executor.shutdown()
+  }
+
+  /**
+   * Sends a message to each of many recipients, over and over, with the session objects themselves kept in memory between sends. This is
+   * the floor for [encrypt_fanOut_cachedSessions].
+   */
+  @Test
+  fun encrypt_fanOut() {
+    encryptFanOut(serializeSessions = false)
+  }
+
+  /**
+   * The same as [encrypt_fanOut], except that sessions are kept serialized and deserialized on every load, like they are when the app reads
+   * them from its session cache.
+   */
+  @Test
+  fun encrypt_fanOut_cachedSessions() {
+    encryptFanOut(serializeSessions = true)
+  }
+
+  private fun encryptFanOut(serializeSessions: Boolean) {
+    val sender = SignalClient(serializeSessions)
+    val recipients = List(FAN_OUT_RECIPIENT_COUNT) {
+      val recipient = SignalClient()
+
+      sender.initializeSession(recipient)
+      recipient.decryptMessage(sender.encryptUnsealedSender(recipient))
+      sender.decryptMessage(recipient.encryptUnsealedSender(sender))
+
+      recipient
+    }
+
+    benchmarkRule.measureRepeated {
+      recipients.forEach { sender.encryptUnsealedSender(it) }
+    }
+  }
+
+  private fun buildAndInitializeSenders(receiver: SignalClient, count: Int = BATCH_SENDER_COUNT): List<SignalClient> {
+    return List(count) {
+      val sender = SignalClient()
+
+      // Only the receiver uses a prekey bundle, so that it can have sessions with many senders
+      receiver.initializeSession(sender)
+      sender.decryptMessage(receiver.encryptUnsealedSender(sender))
+
+      sender
+    }
+  }
+
+  private fun buildBatch(senders: List<SignalClient>, receiver: SignalClient, size: Int = BATCH_SIZE): List<SignalServiceProtos.Envelope> {
+    return List(size) { i -> senders[i % senders.size].encryptUnsealedSender(receiver) }
+  }
+
   private fun buildAndInitializeClients(): Pair<SignalClient, SignalClient> {
     val alice = SignalClient()
     val bob = SignalClient()
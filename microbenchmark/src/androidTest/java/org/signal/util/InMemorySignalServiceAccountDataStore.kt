@@ -15,14 +15,17 @@ import java.util.UUID
 
 /**
  * An in-memory datastore specifically designed for tests.
+ *
+ * @param serializeSessions If true, sessions are kept serialized and deserialized every time they're loaded, like they are by the app's
+ *                          session cache.
  */
-class InMemorySignalServiceAccountDataStore : SignalServiceAccountDataStore {
+class InMemorySignalServiceAccountDataStore(private val serializeSessions: Boolean = false) : SignalServiceAccountDataStore {
 
   private val identityKey: IdentityKeyPair = IdentityKeyPair.generate()
   private val identities: MutableMap<SignalProtocolAddress, IdentityKey> = mutableMapOf()
   private val oneTimeEcPreKeys: MutableMap<Int, PreKeyRecord> = mutableMapOf()
   private val signedPreKeys: MutableMap<Int, SignedPreKeyRecord> = mutableMapOf()
-  private var sessions: MutableMap<SignalProtocolAddress, SessionRecord> = mutableMapOf()
+  private var sessions: MutableMap<SignalProtocolAddress, StoredSession> = mutableMapOf()
   private val senderKeys: MutableMap<SenderKeyLocator, SenderKeyRecord> = mutableMapOf()
   private val kyberPreKeys: MutableMap<Int, KyberPreKeyRecord> = mutableMapOf()
 
@@ -65,25 +68,25 @@ class InMemorySignalServiceAccountDataStore : SignalServiceAccountDataStore {
   }
 
   override fun loadSession(address: SignalProtocolAddress): SessionRecord {
-    return sessions.getOrPut(address) { SessionRecord() }
+    return sessions.getOrPut(address) { SessionRecord().toStoredSession() }.load()
   }
 
   override fun loadExistingSessions(addresses: List<SignalProtocolAddress>): List<SessionRecord> {
-    return addresses.map { sessions[it]!! }
+    return addresses.map { sessions[it]!!.load() }
   }
 
   override fun getSubDeviceSessions(name: String): List<Int> {
     return sessions
-      .filter { it.key.name == name && it.key.deviceId != 1 && it.value.isValid() }
+      .filter { it.key.name == name && it.key.deviceId != 1 && it.value.load().isValid() }
       .map { it.key.deviceId }
   }
 
   override fun storeSession(address: SignalProtocolAddress, record: SessionRecord) {
-    sessions[address] = record
+    sessions[address] = record.toStoredSession()
   }
 
   override fun containsSession(address: SignalProtocolAddress): Boolean {
-    return sessions[address]?.isValid() ?: false
+    return sessions[address]?.load()?.isValid() ?: false
   }
 
   override fun deleteSession(address: SignalProtocolAddress) {
@@ -182,9 +185,22 @@ class InMemorySignalServiceAccountDataStore : SignalServiceAccountDataStore {
     return false
   }
 
+  private fun SessionRecord.toStoredSession(): StoredSession {
+    return if (serializeSessions) StoredSession(null, serialize()) else StoredSession(this, null)
+  }
+
   private fun SessionRecord.isValid(): Boolean {
     return this.hasSenderChain()
   }
 
   private data class SenderKeyLocator(val address: SignalProtocolAddress, val distributionId: UUID)
+
+  /**
+   * Either a session record itself, or its serialized form, in which case every load deserializes a new record.
+   */
+  private class StoredSession(private val record: SessionRecord?, private val serialized: ByteArray?) {
+    fun load(): SessionRecord {
+      return record ?: SessionRecord(serialized!!)
+    }
+  }
 }
@@ -35,15 +35,17 @@ import kotlin.random.Random
  * An in-memory signal client that can encrypt and decrypt messages.
  *
  * Has a single prekey bundle that can be used to initialize a session with another client.
+ *
+ * @param serializeSessions See [InMemorySignalServiceAccountDataStore].
  */
-class SignalClient {
+class SignalClient(serializeSessions: Boolean = false) {
   companion object {
     private val trustRoot: ECKeyPair = Curve.generateKeyPair()
   }
 
   private val aci: ACI = ACI.from(UUID.randomUUID())
 
-  private val store: SignalServiceAccountDataStore = InMemorySignalServiceAccountDataStore()
+  private val store: SignalServiceAccountDataStore = InMemorySignalServiceAccountDataStore(serializeSessions)
 
   private val preKeyBundle: PreKeyBundle = let {
     val preKeyRecord = PreKeyRecord(1, Curve.generateKeyPair())
@@ -0,0 +1,91 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Lets a {@link PagedDataSource} backed by a sorted query use keyset (a.k.a. "seek") pagination instead of OFFSET.
+ *
+ * With OFFSET, the database has to walk past every row before the page on every load, so loads get slower the further into the list you go.
+ * Instead, a data source can record the sort key of the last item of each page it loads here, and later page relative to the nearest known
+ * key in either direction, only skipping the (usually zero) items in between.
+ *
+ * Positions are stored relative to the end of the list, so that they remain valid when items are inserted at the start of it (see
+ * {@link PagingController#onDataItemInserted(Object, int)}). Anything else that shifts positions must be followed by {@link #clear()},
+ * which is most easily done in {@link PagedDataSource#size()}, since that's called for every invalidation.
+ */
+public final class KeysetAnchors<SortKey> {
+
+  private final TreeMap<Integer, SortKey> keysByDistanceFromEnd = new TreeMap<>();
+
+  private int generation;
+
+  /**
+   * @return A token to pass to {@link #put(int, int, int, Object)}, so that anchors from loads that started before the most recent
+   *         {@link #clear()} are ignored.
+   */
+  public synchronized int getGeneration() {
+    return generation;
+  }
+
+  public synchronized void clear() {
+    keysByDistanceFromEnd.clear();
+    generation++;
+  }
+
+  /**
+   * Records that the item at {@code position} in a list of {@code totalSize} items has the provided sort key.
+   */
+  public synchronized void put(int generation, int position, int totalSize, @NonNull SortKey key) {
+    if (generation != this.generation || position < 0 || position >= totalSize) {
+      return;
+    }
+
+    keysByDistanceFromEnd.put(totalSize - 1 - position, key);
+  }
+
+  /**
+   * @return The nearest anchor positioned before {@code position}, or null if there isn't one.
+   */
+  public synchronized @Nullable Anchor<SortKey> findBefore(int position, int totalSize) {
+    return toAnchor(keysByDistanceFromEnd.higherEntry(totalSize - 1 - position), totalSize);
+  }
+
+  /**
+   * @return The nearest anchor positioned after {@code position}, or null if there isn't one.
+   */
+  public synchronized @Nullable Anchor<SortKey> findAfter(int position, int totalSize) {
+    return toAnchor(keysByDistanceFromEnd.lowerEntry(totalSize - 1 - position), totalSize);
+  }
+
+  private @Nullable Anchor<SortKey> toAnchor(@Nullable Map.Entry<Integer, SortKey> entry, int totalSize) {
+    if (entry == null) {
+      return null;
+    }
+
+    int position = totalSize - 1 - entry.getKey();
+
+    return position >= 0 ? new Anchor<>(position, entry.getValue()) : null;
+  }
+
+  public static final class Anchor<SortKey> {
+    private final int     position;
+    private final SortKey key;
+
+    private Anchor(int position, @NonNull SortKey key) {
+      this.position = position;
+      this.key      = key;
+    }
+
+    public int getPosition() {
+      return position;
+    }
+
+    public @NonNull SortKey getKey() {
+      return key;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package org.signal.paging;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class KeysetAnchorsTest {
+
+  @Test
+  public void findBefore_empty() {
+    KeysetAnchors<String> subject = new KeysetAnchors<>();
+
+    assertNull(subject.findBefore(10, 100));
+    assertNull(subject.findAfter(10, 100));
+  }
+
+  @Test
+  public void findBefore_returnsNearestEarlierAnchor() {
+    KeysetAnchors<String> subject = new KeysetAnchors<>();
+    subject.put(subject.getGeneration(), 19, 100, "a");
+    subject.put(subject.getGeneration(), 39, 100, "b");
+    subject.put(subject.getGeneration(), 59, 100, "c");
+
+    KeysetAnchors.Anchor<String> anchor = subject.findBefore(40, 100);
+
+    assertEquals(39, anchor.getPosition());
+    assertEquals("b", anchor.getKey());
+  }
+
+  @Test
+  public void findBefore_excludesAnchorAtPosition() {
+    KeysetAnchors<String> subject = new KeysetAnchors<>();
+    subject.put(subject.getGeneration(), 19, 100, "a");
+    subject.put(subject.getGeneration(), 39, 100, "b");
+
+    assertEquals("a", subject.findBefore(39, 100).getKey());
+  }
+
+  @Test
+  public void findAfter_returnsNearestLaterAnchor() {
+    KeysetAnchors<String> subject = new KeysetAnchors<>();
+    subject.put(subject.getGeneration(), 19, 100, "a");
+    subject.put(subject.getGeneration(), 59, 100, "c");
+
+    KeysetAnchors.Anchor<String> anchor = subject.findAfter(20, 100);
+
+    assertEquals(59, anchor.getPosition());
+    assertEquals("c", anchor.getKey());
+    assertNull(subject.findAfter(59, 100));
+  }
+
+  @Test
+  public void insertAtStart_shiftsAnchors() {
+    KeysetAnchors<String> subject = new KeysetAnchors<>();
+    subject.put(subject.getGeneration(), 19, 100, "a");
+
+    KeysetAnchors.Anchor<String> anchor = subject.findBefore(50, 101);
+
+    assertEquals(20, anchor.getPosition());
+  }
+
+  @Test
+  public void put_ignoresStaleGeneration() {
+    KeysetAnchors<String> subject = new KeysetAnchors<>();
+    int generation = subject.getGeneration();
+
+    subject.clear();
+    subject.put(generation, 19, 100, "a");
+
+    assertNull(subject.findBefore(50, 100));
+  }
+}
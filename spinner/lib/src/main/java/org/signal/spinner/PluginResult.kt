@@ -6,4 +6,11 @@ sealed class PluginResult(val type: String) {
     val rows: List<List<String>>,
     val rowCount: Int = rows.size
   ) : PluginResult("table")
+
+  /**
+   * Several tables, shown one after the other under their keys.
+   */
+  data class MultiTableResult(
+    val tables: Map<String, TableResult>
+  ) : PluginResult("multi_table")
 }